@@ -17,11 +17,23 @@
  */
 package ortus.boxlang.ftp;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.locks.ReentrantLock;
 
+import ortus.boxlang.runtime.dynamic.casters.BooleanCaster;
 import ortus.boxlang.runtime.logging.BoxLangLogger;
 import ortus.boxlang.runtime.scopes.Key;
+import ortus.boxlang.runtime.types.Array;
+import ortus.boxlang.runtime.types.IStruct;
 import ortus.boxlang.runtime.types.exceptions.BoxRuntimeException;
 
 /**
@@ -48,6 +60,14 @@ public abstract class BaseFTPConnection implements IFTPConnection {
 	public static final int			DEFAULT_PROXY_SERVER_PORT	= 1080;
 	// In Seconds
 	public static final Duration	DEFAULT_TIMEOUT				= Duration.ofSeconds( 30 );
+	// In Seconds
+	public static final Duration	DEFAULT_PROBE_TIMEOUT		= Duration.ofSeconds( 5 );
+	// In Bytes
+	public static final int			COPY_BUFFER_SIZE			= 64 * 1024;
+	// In Bytes, the default cap of a download into memory
+	public static final long		DEFAULT_MAX_BYTES			= 100L * 1024 * 1024;
+	// In Bytes, the largest array the JVM reliably allocates
+	public static final int			MAX_ARRAY_SIZE				= Integer.MAX_VALUE - 8;
 
 	/**
 	 * --------------------------------------------------------------------------
@@ -61,6 +81,11 @@ public abstract class BaseFTPConnection implements IFTPConnection {
 	 */
 	protected boolean				stopOnError					= DEFAULT_STOP_ON_ERROR;
 
+	/**
+	 * If true, transfers run in binary mode instead of the default mode of the protocol
+	 */
+	protected volatile boolean		binary						= false;
+
 	/**
 	 * The name of the connection.
 	 */
@@ -86,6 +111,46 @@ public abstract class BaseFTPConnection implements IFTPConnection {
 	 */
 	protected String				statusText					= "";
 
+	/**
+	 * Serializes operations and keepalives on the connection
+	 */
+	protected final ReentrantLock	usageLock					= new ReentrantLock();
+
+	/**
+	 * The last time an operation finished on the connection, in millis
+	 */
+	protected volatile long			lastUsed					= System.currentTimeMillis();
+
+	/**
+	 * The last time a keepalive was answered, in millis
+	 */
+	protected volatile long			lastKeepAlive				= 0;
+
+	/**
+	 * The last time the server was known to answer, in millis
+	 */
+	protected volatile long			lastValidated				= 0;
+
+	/**
+	 * The config the connection was opened with, used to reconnect it
+	 */
+	protected FTPConnectionConfig	config;
+
+	/**
+	 * The last working directory the connection was moved into, restored on reconnect
+	 */
+	protected volatile String		lastWorkingDirectory;
+
+	/**
+	 * The progress of the running transfer, set by background actions only
+	 */
+	protected TransferProgress		progress;
+
+	/**
+	 * Runs once when the connection closes, gives back its host slot
+	 */
+	private Runnable				closeHook;
+
 	/**
 	 * --------------------------------------------------------------------------
 	 * Constructor
@@ -118,6 +183,23 @@ public abstract class BaseFTPConnection implements IFTPConnection {
 		return this;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public IFTPConnection setBinary( boolean binary ) {
+		this.binary = binary;
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isBinary() {
+		return this.binary;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -142,6 +224,313 @@ public abstract class BaseFTPConnection implements IFTPConnection {
 		return this.name;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void beginOperation() {
+		this.usageLock.lock();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void endOperation() {
+		this.lastUsed = System.currentTimeMillis();
+		this.usageLock.unlock();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean keepAlive( Duration interval ) {
+		if ( !this.usageLock.tryLock() ) {
+			// Busy connections are alive by definition
+			return true;
+		}
+		try {
+			if ( !isConnected() ) {
+				return false;
+			}
+			long now = System.currentTimeMillis();
+			if ( now - Math.max( this.lastUsed, this.lastKeepAlive ) < interval.toMillis() ) {
+				return true;
+			}
+			if ( !sendKeepAlive() ) {
+				return false;
+			}
+			this.lastKeepAlive = now;
+			return true;
+		} finally {
+			this.usageLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean closeIfIdle( Duration idleTimeout ) {
+		if ( !this.usageLock.tryLock() ) {
+			return false;
+		}
+		try {
+			if ( getIdleTime().compareTo( idleTimeout ) < 0 ) {
+				return false;
+			}
+			this.logger.info( "Closing connection [{}] idle for [{}]s", this.name, getIdleTime().toSeconds() );
+			close();
+			return true;
+		} finally {
+			this.usageLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isAlive( Duration maxAge ) {
+		if ( !isConnected() ) {
+			return false;
+		}
+		if ( System.currentTimeMillis() - this.lastValidated < maxAge.toMillis() ) {
+			return true;
+		}
+		if ( !sendProbe() ) {
+			this.logger.warn( "Connection [{}] failed its liveness probe", this.name );
+			return false;
+		}
+		markValidated();
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public IFTPConnection reconnect() throws IOException {
+		if ( this.config == null ) {
+			throw new BoxRuntimeException( "Connection [" + this.name + "] was never opened, it cannot be reconnected" );
+		}
+		String workingDirectory = this.lastWorkingDirectory;
+		abort();
+		this.config.open( this );
+		if ( workingDirectory != null ) {
+			changeDir( workingDirectory );
+		}
+		this.logger.info( "Connection [{}] reconnected", this.name );
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public FTPConnectionConfig getConfig() {
+		return this.config;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public IFTPConnection setConfig( FTPConnectionConfig config ) {
+		this.config = config;
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Duration getIdleTime() {
+		return Duration.ofMillis( System.currentTimeMillis() - this.lastUsed );
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isInUse() {
+		return this.usageLock.isLocked();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public IFTPConnection setProgress( TransferProgress progress ) {
+		this.progress = progress;
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public TransferProgress getProgress() {
+		return this.progress;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Array listTree( String directory, PathFilter filter ) throws IOException {
+		String			root	= directory == null || directory.isBlank() ? "." : directory;
+		Array			tree	= new Array();
+		Deque<String>	pending	= new ArrayDeque<>();
+		pending.add( "" );
+
+		// One listing per directory, each subdirectory is queued as it is found
+		while ( !pending.isEmpty() ) {
+			String relative = pending.poll();
+			for ( Object listed : listFiles( relative.isEmpty() ? root : root + "/" + relative ) ) {
+				IStruct	entry		= ( IStruct ) listed;
+				String	path		= relative.isEmpty() ? entry.getAsString( Key._name ) : relative + "/" + entry.getAsString( Key._name );
+				boolean	isDirectory	= BooleanCaster.cast( entry.get( FTPKeys.isDirectory ) );
+				if ( isDirectory ? !filter.acceptsDirectory( path ) : !filter.acceptsFile( path ) ) {
+					continue;
+				}
+				entry.put( Key.path, path );
+				tree.add( entry );
+				if ( isDirectory ) {
+					pending.add( path );
+				}
+			}
+		}
+		return tree;
+	}
+
+	/**
+	 * Stream a whole remote file into a stream, as a range from the start of the file. Every chunk
+	 * is flushed as soon as it is written, so a web response or socket gets its first bytes after
+	 * one round trip whatever the size of the file. The size is only asked when there is a limit to
+	 * check or a progress to report.
+	 *
+	 * @param remoteFile The name of the file to copy
+	 * @param out        The stream the file is written to, flushed but not closed
+	 * @param maxBytes   The largest file accepted, 0 for no limit
+	 *
+	 * @return The bytes written
+	 *
+	 * @throws BoxRuntimeException If the file is larger than {@code maxBytes}
+	 * @throws IOException         If an error occurs while copying the file
+	 */
+	@Override
+	public long getFile( String remoteFile, OutputStream out, long maxBytes ) throws IOException {
+		long size = maxBytes > 0 || this.progress != null ? checkSize( remoteFile, maxBytes ) : -1;
+		return retrieve( remoteFile, new FlushingOutputStream( out ), maxBytes, size );
+	}
+
+	/**
+	 * Retrieve a whole remote file into memory. The buffer is allocated once at the remote size,
+	 * and handed over as is when the file fills it exactly.
+	 *
+	 * @param remoteFile The name of the file to copy
+	 * @param maxBytes   The largest file accepted, 0 for no limit other than the max array size
+	 *
+	 * @return The bytes of the file
+	 *
+	 * @throws BoxRuntimeException If the file is larger than {@code maxBytes} or than an array
+	 * @throws IOException         If an error occurs while copying the file
+	 */
+	@Override
+	public byte[] getBytes( String remoteFile, long maxBytes ) throws IOException {
+		long			limit	= maxBytes > 0 ? Math.min( maxBytes, MAX_ARRAY_SIZE ) : MAX_ARRAY_SIZE;
+		long			size	= checkSize( remoteFile, limit );
+		PresizedBuffer	buffer	= new PresizedBuffer( size < 0 ? COPY_BUFFER_SIZE : ( int ) size );
+		retrieve( remoteFile, buffer, limit, size );
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * Read a byte range of a remote file into memory, through {@link #getRange}. The buffer starts
+	 * small, a range asked past the end of the file allocates no more than the file has.
+	 *
+	 * @param remoteFile The name of the remote file
+	 * @param offset     The position of the first byte to read
+	 * @param length     The bytes to read, at least 1
+	 *
+	 * @return The bytes read, fewer than asked only when the file ends first
+	 *
+	 * @throws BoxRuntimeException If the range is invalid or larger than an array
+	 * @throws IOException         If the range cannot be read
+	 */
+	@Override
+	public byte[] readRange( String remoteFile, long offset, long length ) throws IOException {
+		if ( offset < 0 || length < 1 || length > MAX_ARRAY_SIZE ) {
+			throw new BoxRuntimeException( "Invalid range of [" + remoteFile + "]: [offset=" + offset + "] and [length=" + length + "]" );
+		}
+		PresizedBuffer buffer = new PresizedBuffer( ( int ) Math.min( length, COPY_BUFFER_SIZE ) );
+		getRange( remoteFile, offset, length, buffer );
+		updateStatus( 226, "Range retrieved successfully" );
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * Open a remote file as a read only seekable channel. The size is asked once, with
+	 * {@code SIZE} on FTP and a stat on SFTP, holding the connection like an action does.
+	 *
+	 * @param remoteFile The name of the remote file
+	 *
+	 * @return The channel, with the default block, cache and read ahead sizes
+	 *
+	 * @throws BoxRuntimeException If the server does not report the size of the file
+	 * @throws IOException         If the file cannot be read
+	 */
+	@Override
+	public RemoteFileChannel openChannel( String remoteFile ) throws IOException {
+		long size;
+		beginOperation();
+		try {
+			size = getFileSize( remoteFile );
+		} finally {
+			endOperation();
+		}
+		if ( size < 0 ) {
+			throw new BoxRuntimeException( "The server does not report the size of [" + remoteFile + "], it cannot be read as a channel" );
+		}
+		return new RemoteFileChannel( this, remoteFile, size );
+	}
+
+	/**
+	 * Check that the bytes right before a resume offset are the same in the local and the remote
+	 * file. The remote bytes are read as a range, the local ones with a positioned read.
+	 *
+	 * @param remoteFile The name of the remote file
+	 * @param localFile  The path of the local file
+	 * @param offset     Where the transfer would resume
+	 * @param length     How many bytes before the offset to compare
+	 *
+	 * @return True if the bytes match
+	 *
+	 * @throws IOException If either file cannot be read
+	 */
+	@Override
+	public boolean verifyTail( String remoteFile, String localFile, long offset, int length ) throws IOException {
+		int start = ( int ) Math.min( length, offset );
+		if ( start <= 0 ) {
+			return true;
+		}
+
+		byte[] local = new byte[ start ];
+		try ( RandomAccessFile file = new RandomAccessFile( localFile, "r" ) ) {
+			if ( file.length() < offset ) {
+				return false;
+			}
+			file.seek( offset - start );
+			file.readFully( local );
+		}
+
+		ByteArrayOutputStream remote = new ByteArrayOutputStream( start );
+		getRange( remoteFile, offset - start, start, remote );
+		return Arrays.equals( local, remote.toByteArray() );
+	}
+
 	/**
 	 * A string representation of the connection.
 	 */
@@ -179,6 +568,150 @@ public abstract class BaseFTPConnection implements IFTPConnection {
 		return localFile;
 	}
 
+	/**
+	 * Send the protocol specific keepalive, the connection is known to be connected and idle
+	 *
+	 * @return False if the server did not answer
+	 */
+	protected abstract boolean sendKeepAlive();
+
+	/**
+	 * Send a request the server must answer, bounded by {@link #DEFAULT_PROBE_TIMEOUT} where the protocol allows it
+	 *
+	 * @return False if the server did not answer
+	 */
+	protected abstract boolean sendProbe();
+
+	/**
+	 * Report the bytes read from a local stream to the progress of the running transfer, if any
+	 *
+	 * @param in    The local stream an upload reads from
+	 * @param total The size of the upload in bytes, -1 if unknown
+	 *
+	 * @return The tracked stream, or the stream itself when nobody follows the transfer
+	 */
+	protected InputStream track( InputStream in, long total ) {
+		TransferProgress current = this.progress;
+		return current == null ? in : current.setTotal( total ).track( in );
+	}
+
+	/**
+	 * Report the bytes written to a local stream to the progress of the running transfer, if any
+	 *
+	 * @param out   The local stream a download writes to
+	 * @param total The size of the download in bytes, -1 if unknown
+	 *
+	 * @return The tracked stream, or the stream itself when nobody follows the transfer
+	 */
+	protected OutputStream track( OutputStream out, long total ) {
+		TransferProgress current = this.progress;
+		return current == null ? out : current.setTotal( total ).track( out );
+	}
+
+	/**
+	 * Copy up to a number of bytes from a remote stream
+	 *
+	 * @param in     The stream of the remote file
+	 * @param out    The stream to write to
+	 * @param length The bytes to copy, or -1 to copy up to the end of the stream
+	 *
+	 * @return The bytes copied
+	 *
+	 * @throws IOException If either stream fails
+	 */
+	protected static long copy( InputStream in, OutputStream out, long length ) throws IOException {
+		byte[]	buffer	= new byte[ COPY_BUFFER_SIZE ];
+		long	copied	= 0;
+		while ( length < 0 || copied < length ) {
+			int read = in.read( buffer, 0, length < 0 ? buffer.length : ( int ) Math.min( buffer.length, length - copied ) );
+			if ( read < 0 ) {
+				break;
+			}
+			out.write( buffer, 0, read );
+			copied += read;
+		}
+		return copied;
+	}
+
+	/**
+	 * Ask the size of a remote file and check it against a limit
+	 *
+	 * @param remoteFile The name of the remote file
+	 * @param maxBytes   The largest file accepted, 0 for no limit
+	 *
+	 * @return The size in bytes, or -1 if the server does not tell
+	 *
+	 * @throws BoxRuntimeException If the file is larger than the limit
+	 * @throws IOException         If the file cannot be read
+	 */
+	protected long checkSize( String remoteFile, long maxBytes ) throws IOException {
+		long size = getFileSize( remoteFile );
+		if ( maxBytes > 0 && size > maxBytes ) {
+			throw new BoxRuntimeException( "Remote file [" + remoteFile + "] has " + size + " bytes, over the limit of [maxBytes=" + maxBytes + "]" );
+		}
+		return size;
+	}
+
+	/**
+	 * Copy a whole remote file into a stream, reading at most one byte past the limit to find out
+	 * whether the file is over it. That byte is never written.
+	 */
+	private long retrieve( String remoteFile, OutputStream out, long maxBytes, long size ) throws IOException {
+		OutputStream	target	= track( maxBytes > 0 ? new CappedOutputStream( out, maxBytes ) : out, size );
+		long			copied	= getRange( remoteFile, 0, maxBytes > 0 ? maxBytes + 1 : -1, target );
+		if ( maxBytes > 0 && copied > maxBytes ) {
+			throw new BoxRuntimeException( "Remote file [" + remoteFile + "] is over the limit of [maxBytes=" + maxBytes + "]" );
+		}
+		updateStatus( 226, "File retrieved successfully" );
+		return copied;
+	}
+
+	/**
+	 * Drop the connection without any goodbye round trip, used on connections believed to be dead
+	 */
+	protected void abort() {
+		try {
+			close();
+		} catch ( RuntimeException e ) {
+			this.logger.debug( "Error while aborting connection [{}]: {}", this.name, e.getMessage() );
+		}
+	}
+
+	/**
+	 * Register the action to run once the connection closes. A previous hook runs right away,
+	 * since the session it was registered for is being replaced.
+	 *
+	 * @param hook The action to run
+	 */
+	void setCloseHook( Runnable hook ) {
+		runCloseHook();
+		synchronized ( this ) {
+			this.closeHook = hook;
+		}
+	}
+
+	/**
+	 * Run the close hook if one is registered, it only ever runs once. Implementations MUST
+	 * call this whenever the connection is closed or dropped.
+	 */
+	protected void runCloseHook() {
+		Runnable hook;
+		synchronized ( this ) {
+			hook			= this.closeHook;
+			this.closeHook	= null;
+		}
+		if ( hook != null ) {
+			hook.run();
+		}
+	}
+
+	/**
+	 * Record that the server just answered
+	 */
+	protected void markValidated() {
+		this.lastValidated = System.currentTimeMillis();
+	}
+
 	/**
 	 * Update the status code and text from the connection
 	 *
@@ -189,4 +722,102 @@ public abstract class BaseFTPConnection implements IFTPConnection {
 		this.statusCode	= code;
 		this.statusText	= text;
 	}
+
+	/**
+	 * A byte array stream allocated once at the expected size, which only grows if the file does
+	 */
+	private static final class PresizedBuffer extends OutputStream {
+
+		private byte[]	bytes;
+		private int		count;
+
+		private PresizedBuffer( int expected ) {
+			this.bytes = new byte[ expected ];
+		}
+
+		@Override
+		public void write( int b ) {
+			write( new byte[] { ( byte ) b }, 0, 1 );
+		}
+
+		@Override
+		public void write( byte[] buffer, int offset, int length ) {
+			if ( this.count + length > this.bytes.length ) {
+				long grown = Math.max( ( long ) this.count + length, Math.min( ( long ) this.bytes.length * 2, MAX_ARRAY_SIZE ) );
+				if ( grown > MAX_ARRAY_SIZE ) {
+					throw new BoxRuntimeException( "The remote file does not fit in memory, download it to a file instead" );
+				}
+				this.bytes = Arrays.copyOf( this.bytes, ( int ) grown );
+			}
+			System.arraycopy( buffer, offset, this.bytes, this.count, length );
+			this.count += length;
+		}
+
+		private byte[] toByteArray() {
+			return this.count == this.bytes.length ? this.bytes : Arrays.copyOf( this.bytes, this.count );
+		}
+	}
+
+	/**
+	 * Flushes every chunk to the caller stream, instead of leaving it in whatever buffer the caller
+	 * stream has until the download is over
+	 */
+	private static final class FlushingOutputStream extends OutputStream {
+
+		private final OutputStream out;
+
+		private FlushingOutputStream( OutputStream out ) {
+			this.out = out;
+		}
+
+		@Override
+		public void write( int b ) throws IOException {
+			write( new byte[] { ( byte ) b }, 0, 1 );
+		}
+
+		@Override
+		public void write( byte[] buffer, int offset, int length ) throws IOException {
+			this.out.write( buffer, offset, length );
+			this.out.flush();
+		}
+
+		@Override
+		public void flush() throws IOException {
+			this.out.flush();
+		}
+	}
+
+	/**
+	 * Passes the first bytes of a download through and drops the rest, so a limit check never
+	 * hands a caller more than the limit
+	 */
+	private static final class CappedOutputStream extends OutputStream {
+
+		private final OutputStream	out;
+		private long				remaining;
+
+		private CappedOutputStream( OutputStream out, long limit ) {
+			this.out		= out;
+			this.remaining	= limit;
+		}
+
+		@Override
+		public void write( int b ) throws IOException {
+			write( new byte[] { ( byte ) b }, 0, 1 );
+		}
+
+		@Override
+		public void write( byte[] buffer, int offset, int length ) throws IOException {
+			int passed = ( int ) Math.min( length, this.remaining );
+			if ( passed > 0 ) {
+				this.out.write( buffer, offset, passed );
+				this.remaining -= passed;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			this.out.flush();
+		}
+	}
 }
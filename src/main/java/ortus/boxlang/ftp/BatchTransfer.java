@@ -0,0 +1,558 @@
+/**
+ * [BoxLang]
+ *
+ * Copyright [2023] [Ortus Solutions, Corp]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ortus.boxlang.ftp;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ortus.boxlang.ftp.pool.FTPConnectionPool;
+import ortus.boxlang.runtime.logging.BoxLangLogger;
+import ortus.boxlang.runtime.scopes.Key;
+import ortus.boxlang.runtime.types.IStruct;
+import ortus.boxlang.runtime.types.Query;
+import ortus.boxlang.runtime.types.QueryColumnType;
+import ortus.boxlang.runtime.types.Struct;
+import ortus.boxlang.runtime.types.exceptions.BoxRuntimeException;
+
+/**
+ * Moves a list of files, spreading them over several sessions of a pool.
+ * <p>
+ * The session the action already holds is the first worker, and up to {@code concurrency - 1}
+ * more sessions are borrowed from the pool, as long as it has room for them. Every worker takes
+ * the next pending file until none are left, so a few large files do not hold up the small ones.
+ * A file that fails is recorded in the results and the batch goes on; a worker whose session
+ * dies reconnects it once, or stops and leaves its files to the others.
+ * </p>
+ */
+public class BatchTransfer {
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Defaults
+	 * --------------------------------------------------------------------------
+	 */
+
+	public static final int			DEFAULT_CONCURRENCY	= 4;
+
+	/**
+	 * Statuses of a file
+	 */
+	public static final String		STATUS_OK			= "ok";
+	public static final String		STATUS_FAILED		= "failed";
+	public static final String		STATUS_CANCELLED	= "cancelled";
+	public static final String		STATUS_PLANNED		= "planned";
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Properties
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * The files to move, results are recorded on them
+	 */
+	private final List<Item>		items;
+
+	/**
+	 * The files any session can move, in any order
+	 */
+	private final List<Item>		parallel;
+
+	/**
+	 * Moves one file on a session
+	 */
+	private final Operation			operation;
+
+	/**
+	 * Counts the bytes of the whole batch, and lets it be cancelled
+	 */
+	private final TransferProgress	progress;
+
+	/**
+	 * The index of the next pending file
+	 */
+	private final AtomicInteger		next				= new AtomicInteger();
+
+	/**
+	 * Max sessions moving files at once
+	 */
+	private int						concurrency			= DEFAULT_CONCURRENCY;
+
+	/**
+	 * How long the whole batch took, in milliseconds
+	 */
+	private long					elapsed				= 0;
+
+	/**
+	 * The sessions that moved files, the one of the action included
+	 */
+	private int						workers				= 0;
+
+	/**
+	 * The directories created or walked to list the files, reported in the totals
+	 */
+	private int						directories			= 0;
+
+	/**
+	 * Totals the action adds to the ones of the batch
+	 */
+	private final IStruct			extraTotals			= Struct.of();
+
+	/**
+	 * The FTP logger
+	 */
+	private final BoxLangLogger		logger;
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Constructors
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Build a batch
+	 *
+	 * @param items     The files to move
+	 * @param operation Moves one file on a session
+	 * @param progress  The progress to report to, or null to track the batch on its own
+	 * @param logger    The FTP logger
+	 */
+	public BatchTransfer( List<Item> items, Operation operation, TransferProgress progress, BoxLangLogger logger ) {
+		this.items		= items;
+		this.parallel	= items.stream().filter( item -> !item.sequential ).toList();
+		this.operation	= operation;
+		this.progress	= progress != null ? progress : new TransferProgress();
+		this.logger		= logger;
+
+		long total = 0;
+		for ( Item item : items ) {
+			if ( item.size < 0 ) {
+				total = -1;
+				break;
+			}
+			total += item.size;
+		}
+		this.progress.setTotal( total );
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Batch Methods
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Move every file, then wait for all workers to finish. The sequential files are moved last,
+	 * in order, on the action's session.
+	 *
+	 * @param connection The session the action holds, it is the first worker
+	 * @param pool       The pool to borrow more sessions from, or null to use the action's session only
+	 * @param executor   Runs the workers on the borrowed sessions
+	 *
+	 * @return This batch, with the result of every file
+	 */
+	public BatchTransfer run( IFTPConnection connection, FTPConnectionPool pool, ExecutorService executor ) {
+		long			started	= System.nanoTime();
+		int				extra	= 0;
+		List<Future<?>>	futures	= new ArrayList<>();
+
+		// Never borrow more sessions than there are files, or than the pool can open without waiting
+		if ( pool != null ) {
+			int room = pool.getConfig().getPoolMaxSize() - pool.getActiveCount();
+			extra = Math.max( 0, Math.min( Math.min( this.concurrency, this.parallel.size() ) - 1, room ) );
+		}
+
+		try {
+			for ( int i = 0; i < extra; i++ ) {
+				futures.add( executor.submit( () -> borrowAndWork( pool ) ) );
+			}
+		} catch ( RejectedExecutionException e ) {
+			this.logger.warn( "Batch transfer could not start all its workers: {}", e.getMessage() );
+		}
+
+		// The action's own session works too, its progress is reported by the batch instead
+		TransferProgress previous = connection.getProgress();
+		connection.setProgress( null );
+		try {
+			work( connection );
+
+			for ( Future<?> future : futures ) {
+				try {
+					future.get();
+				} catch ( InterruptedException e ) {
+					// Stop the workers after their current file and give up waiting for them
+					this.progress.cancel();
+					Thread.currentThread().interrupt();
+					throw new BoxRuntimeException( "Interrupted while waiting for a batch transfer to complete", e );
+				} catch ( ExecutionException e ) {
+					this.logger.error( "Batch transfer worker failed: {}", e.getCause().getMessage() );
+				}
+			}
+
+			for ( Item item : this.items ) {
+				if ( item.sequential && !process( connection, item ) ) {
+					break;
+				}
+			}
+		} finally {
+			connection.setProgress( previous );
+		}
+
+		// Files no worker could take: every session died, or the batch was cancelled
+		for ( Item item : this.items ) {
+			if ( item.status == null ) {
+				item.status	= this.progress.isCancelled() ? STATUS_CANCELLED : STATUS_FAILED;
+				item.error	= this.progress.isCancelled() ? "The transfer was cancelled" : "No session was left to transfer the file";
+			}
+		}
+
+		this.elapsed = Duration.ofNanos( System.nanoTime() - started ).toMillis();
+		return this;
+	}
+
+	/**
+	 * Plan the batch without moving anything: every file is marked as planned, with the bytes it
+	 * would move
+	 *
+	 * @return This batch, with the planned files
+	 */
+	public BatchTransfer plan() {
+		for ( Item item : this.items ) {
+			item.status	= STATUS_PLANNED;
+			item.bytes	= Math.max( 0, item.size );
+		}
+		return this;
+	}
+
+	/**
+	 * Set the max sessions moving files at once
+	 *
+	 * @param concurrency The max sessions, at least 1
+	 *
+	 * @return This batch for chaining
+	 */
+	public BatchTransfer setConcurrency( int concurrency ) {
+		this.concurrency = Math.max( 1, concurrency );
+		return this;
+	}
+
+	/**
+	 * Set the directories created or walked to list the files, for the totals
+	 *
+	 * @param directories The number of directories
+	 *
+	 * @return This batch for chaining
+	 */
+	public BatchTransfer setDirectories( int directories ) {
+		this.directories = directories;
+		return this;
+	}
+
+	/**
+	 * Add a total of the action to the totals of the batch
+	 *
+	 * @param name  The name of the total
+	 * @param value The value
+	 *
+	 * @return This batch for chaining
+	 */
+	public BatchTransfer putTotal( String name, Object value ) {
+		this.extraTotals.put( name, value );
+		return this;
+	}
+
+	/**
+	 * @return The files of the batch, with their results
+	 */
+	public List<Item> getItems() {
+		return this.items;
+	}
+
+	/**
+	 * @return The error of the first file that failed, or null if none did
+	 */
+	public String getFirstError() {
+		return this.items.stream()
+		    .filter( item -> STATUS_FAILED.equals( item.status ) )
+		    .map( item -> item.error )
+		    .findFirst()
+		    .orElse( null );
+	}
+
+	/**
+	 * Get the result of every file, in the order they were given: {@code name}, {@code action},
+	 * {@code remoteFile}, {@code localFile}, {@code status} (ok, failed, cancelled or planned),
+	 * {@code bytes}, {@code duration} in milliseconds and {@code error}.
+	 *
+	 * @return The results as a query
+	 */
+	public Query toQuery() {
+		Query result = new Query();
+		result.addColumn( Key._name, QueryColumnType.VARCHAR );
+		result.addColumn( Key.action, QueryColumnType.VARCHAR );
+		result.addColumn( FTPKeys.remoteFile, QueryColumnType.VARCHAR );
+		result.addColumn( FTPKeys.localFile, QueryColumnType.VARCHAR );
+		result.addColumn( Key.status, QueryColumnType.VARCHAR );
+		result.addColumn( FTPKeys.bytes, QueryColumnType.BIGINT );
+		result.addColumn( FTPKeys.duration, QueryColumnType.BIGINT );
+		result.addColumn( FTPKeys.error, QueryColumnType.VARCHAR );
+
+		for ( Item item : this.items ) {
+			result.add( Struct.of(
+			    Key._name, item.name,
+			    Key.action, item.action,
+			    FTPKeys.remoteFile, item.remote,
+			    FTPKeys.localFile, item.local,
+			    Key.status, item.status,
+			    FTPKeys.bytes, item.bytes,
+			    FTPKeys.duration, item.duration,
+			    FTPKeys.error, item.error == null ? "" : item.error
+			) );
+		}
+		return result;
+	}
+
+	/**
+	 * Get the totals of the batch
+	 *
+	 * @return The files, how many succeeded, failed, were cancelled, are planned and are still
+	 *         pending (not run yet), the directories, the bytes moved, the elapsed milliseconds, the
+	 *         throughput, the sessions used, and the totals the action added
+	 */
+	public IStruct getTotals() {
+		int		succeeded	= 0;
+		int		failed		= 0;
+		int		cancelled	= 0;
+		int		planned		= 0;
+		int		pending		= 0;
+		long	bytes		= 0;
+		for ( Item item : this.items ) {
+			switch ( item.status ) {
+				case STATUS_OK -> succeeded++;
+				case STATUS_CANCELLED -> cancelled++;
+				case STATUS_PLANNED -> planned++;
+				case null -> pending++;
+				default -> failed++;
+			}
+			bytes += item.bytes;
+		}
+		IStruct totals = Struct.of(
+		    "files", this.items.size(),
+		    "succeeded", succeeded,
+		    "failed", failed,
+		    "cancelled", cancelled,
+		    "planned", planned,
+		    "pending", pending,
+		    "directories", this.directories,
+		    "bytes", bytes,
+		    "elapsed", this.elapsed,
+		    "bytesPerSecond", this.elapsed > 0 ? bytes * 1000 / this.elapsed : 0,
+		    "sessions", this.workers
+		);
+		this.extraTotals.forEach( totals::put );
+		return totals;
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Helpers
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * A worker on a session of its own, given back to the pool once no file is left
+	 */
+	private void borrowAndWork( FTPConnectionPool pool ) {
+		IFTPConnection connection;
+		try {
+			connection = pool.borrow();
+		} catch ( IOException | RuntimeException e ) {
+			// Fewer workers, the others take its share
+			this.logger.debug( "Batch transfer could not borrow a session from pool [{}]: {}", pool.getName(), e.getMessage() );
+			return;
+		}
+		try {
+			work( connection );
+		} finally {
+			pool.release( connection );
+		}
+	}
+
+	/**
+	 * Move pending files on a session until none are left
+	 *
+	 * @param connection The session of the worker
+	 */
+	private void work( IFTPConnection connection ) {
+		synchronized ( this ) {
+			this.workers++;
+		}
+
+		for ( int index = this.next.getAndIncrement(); index < this.parallel.size(); index = this.next.getAndIncrement() ) {
+			if ( !process( connection, this.parallel.get( index ) ) ) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Move one file on a session and record its result
+	 *
+	 * @param connection The session to use
+	 * @param item       The file to move
+	 *
+	 * @return False if the session died and could not be reconnected
+	 */
+	private boolean process( IFTPConnection connection, Item item ) {
+		if ( this.progress.isCancelled() || Thread.currentThread().isInterrupted() ) {
+			item.status	= STATUS_CANCELLED;
+			item.error	= "The transfer was cancelled";
+			return true;
+		}
+
+		long started = System.nanoTime();
+		try {
+			item.bytes	= this.operation.run( connection, item );
+			item.status	= STATUS_OK;
+			this.progress.add( item.bytes );
+		} catch ( IOException | RuntimeException e ) {
+			item.status	= STATUS_FAILED;
+			item.error	= e.getMessage();
+			this.logger.debug( "Batch transfer of [{}] on [{}] failed: {}", item.name, connection.getName(), e.getMessage() );
+		} finally {
+			item.duration = Duration.ofNanos( System.nanoTime() - started ).toMillis();
+		}
+
+		// A dead session is reconnected once, else the worker leaves the rest to the others
+		return connection.isConnected() || reconnect( connection );
+	}
+
+	/**
+	 * Reconnect the session of a worker
+	 *
+	 * @return False if the session cannot be reconnected
+	 */
+	private boolean reconnect( IFTPConnection connection ) {
+		try {
+			connection.reconnect();
+			return true;
+		} catch ( IOException | RuntimeException e ) {
+			this.logger.warn( "Batch transfer session [{}] could not reconnect: {}", connection.getName(), e.getMessage() );
+			return false;
+		}
+	}
+
+	/**
+	 * Moves one file
+	 */
+	@FunctionalInterface
+	public interface Operation {
+
+		/**
+		 * Move a file on a session
+		 *
+		 * @param connection The session to use
+		 * @param item       The file to move
+		 *
+		 * @return The bytes moved
+		 *
+		 * @throws IOException If the file could not be moved
+		 */
+		long run( IFTPConnection connection, Item item ) throws IOException;
+	}
+
+	/**
+	 * A file of the batch, and its result once moved
+	 */
+	public static final class Item {
+
+		private final String	action;
+		private final String	name;
+		private final String	remote;
+		private final String	local;
+		private final long		size;
+		private String			status;
+		private String			error;
+		private long			bytes		= 0;
+		private long			duration	= 0;
+		private boolean			sequential	= false;
+
+		/**
+		 * @param action What is done with the file: download, upload, delete...
+		 * @param name   The name to report the file under
+		 * @param remote The path of the remote file
+		 * @param local  The path of the local file
+		 * @param size   The size of the file in bytes, -1 if unknown
+		 */
+		public Item( String action, String name, String remote, String local, long size ) {
+			this.action	= action;
+			this.name	= name;
+			this.remote	= remote;
+			this.local	= local;
+			this.size	= size;
+		}
+
+		/**
+		 * Move the file after all the others, in order, on the action's session. For the steps that
+		 * depend on each other, like removing a directory once its files are gone.
+		 *
+		 * @param sequential True to move it last
+		 *
+		 * @return This item for chaining
+		 */
+		public Item setSequential( boolean sequential ) {
+			this.sequential = sequential;
+			return this;
+		}
+
+		public String getAction() {
+			return this.action;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		public String getRemote() {
+			return this.remote;
+		}
+
+		public String getLocal() {
+			return this.local;
+		}
+
+		public long getSize() {
+			return this.size;
+		}
+
+		public String getStatus() {
+			return this.status;
+		}
+
+		public String getError() {
+			return this.error;
+		}
+	}
+}
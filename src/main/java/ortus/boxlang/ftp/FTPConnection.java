@@ -18,18 +18,30 @@
 package ortus.boxlang.ftp;
 
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
+import java.net.Socket;
 import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
 
+import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPFile;
 import org.apache.commons.net.ftp.FTPReply;
 
+import ortus.boxlang.ftp.services.FTPService;
+import ortus.boxlang.runtime.BoxRuntime;
 import ortus.boxlang.runtime.dynamic.casters.DateTimeCaster;
 import ortus.boxlang.runtime.logging.BoxLangLogger;
 import ortus.boxlang.runtime.scopes.Key;
@@ -57,7 +69,7 @@ public class FTPConnection extends BaseFTPConnection {
 	/**
 	 * The FTPClient object used to communicate with the server.
 	 */
-	private FTPClient client = new FTPClient();
+	private ResolvedFTPClient client = new ResolvedFTPClient();
 
 	/**
 	 * --------------------------------------------------------------------------
@@ -116,8 +128,14 @@ public class FTPConnection extends BaseFTPConnection {
 		// Store for future reference
 		this.username = username;
 
-		// Connect to the server
-		this.client.connect( server, port );
+		// Connect to the server through its cached addresses, racing them when it has several.
+		// A proxy resolves the name on its side, so the client connects through it as usual.
+		if ( ( proxyServer == null || proxyServer.isEmpty() )
+		    && BoxRuntime.getInstance().getGlobalService( FTPKeys.FTPService ) instanceof FTPService ftpService ) {
+			this.client.connect( server, ftpService.getHostResolver().connect( server, port, Objects.requireNonNullElse( timeout, DEFAULT_TIMEOUT ) ) );
+		} else {
+			this.client.connect( server, port );
+		}
 		this.client.setDataTimeout( timeout );
 
 		// Check if the proxy server is set
@@ -158,7 +176,13 @@ public class FTPConnection extends BaseFTPConnection {
 			}
 		}
 
+		// A new session starts in ASCII mode
+		if ( this.binary ) {
+			restoreFileType();
+		}
+
 		this.logger.info( "FTP connection [{}] opened in [{}] mode.", this.name, passive ? "passive" : "active" );
+		markValidated();
 
 		return this;
 	}
@@ -176,23 +200,158 @@ public class FTPConnection extends BaseFTPConnection {
 	 */
 	@Override
 	public boolean getFile( String remoteFile, String localFile, boolean failIfExists ) throws IOException {
+		return getFile( remoteFile, localFile, failIfExists, false );
+	}
+
+	/**
+	 * Retrieve a file from the FTP server, optionally resuming a partial download with {@code REST}.
+	 * Offsets are bytes, so only a binary connection can resume.
+	 *
+	 * @param remoteFile   The name of the file to copy
+	 * @param localFile    The path of the file to save
+	 * @param failIfExists If true, the file will not be copied if it already exists. Ignored when resuming
+	 * @param resume       If true, append the remaining bytes to the local file instead of starting over
+	 *
+	 * @return True if the file was copied, false otherwise
+	 *
+	 * @throws BoxRuntimeException If resuming on a connection in ASCII mode
+	 * @throws IOException         If an error occurs while copying the file
+	 */
+	@Override
+	public boolean getFile( String remoteFile, String localFile, boolean failIfExists, boolean resume ) throws IOException {
 		java.io.File	targetFile	= new java.io.File( localFile );
 		boolean			result		= false;
+		long			offset		= resume && targetFile.isFile() ? targetFile.length() : 0;
+
+		if ( resume ) {
+			ensureBinary( remoteFile );
+		}
 
 		// Check if the file exists and if it should be copied over
-		if ( targetFile.exists() && failIfExists ) {
+		if ( !resume && targetFile.exists() && failIfExists ) {
 			throw new BoxRuntimeException( "Error: Local file already exists and [failIfExists=true]" + targetFile );
 		}
 
-		try ( OutputStream outputStream = new FileOutputStream( targetFile ) ) {
-			result = client.retrieveFile( remoteFile, outputStream );
-		}
+		try {
+			// The server skips the bytes we already have, the offset is reset after the transfer
+			if ( offset > 0 ) {
+				client.setRestartOffset( offset );
+			}
 
-		this.handleError();
+			try ( OutputStream outputStream = track( new FileOutputStream( targetFile, offset > 0 ), remainingSize( remoteFile, offset ) ) ) {
+				result = client.retrieveFile( remoteFile, outputStream );
+			}
 
+			this.handleError();
+		} finally {
+			// Failed or not, the next transfer must not inherit the offset
+			if ( offset > 0 ) {
+				client.setRestartOffset( 0 );
+			}
+		}
 		return result;
 	}
 
+	/**
+	 * Get the size of a remote file with {@code SIZE}, asked in binary mode so the server reports
+	 * the bytes a ranged download sees
+	 *
+	 * @param remoteFile The name of the remote file
+	 *
+	 * @return The size in bytes, or -1 if the server does not tell
+	 *
+	 * @throws IOException If an error occurs while asking
+	 */
+	@Override
+	public long getFileSize( String remoteFile ) throws IOException {
+		client.setFileType( FTP.BINARY_FILE_TYPE );
+		try {
+			String size = client.getSize( remoteFile );
+			return size == null ? -1 : Long.parseLong( size.trim() );
+		} catch ( NumberFormatException e ) {
+			return -1;
+		} finally {
+			restoreFileType();
+		}
+	}
+
+	/**
+	 * Get the modification time of a remote file with {@code MDTM}, which the server answers in UTC
+	 * as {@code yyyyMMddHHmmss}, optionally followed by a fraction of a second
+	 *
+	 * @param remoteFile The name of the remote file
+	 *
+	 * @return The time in epoch millis, or -1 if the server does not tell
+	 *
+	 * @throws IOException If an error occurs while asking
+	 */
+	@Override
+	public long getFileModified( String remoteFile ) throws IOException {
+		String modified = client.getModificationTime( remoteFile );
+		if ( modified == null || modified.trim().length() < 14 ) {
+			return -1;
+		}
+		try {
+			// The fraction only refines the time, the seconds tell two versions of a file apart
+			return LocalDateTime.parse( modified.trim().substring( 0, 14 ), DateTimeFormatter.ofPattern( "yyyyMMddHHmmss" ) )
+			    .toInstant( ZoneOffset.UTC )
+			    .toEpochMilli();
+		} catch ( DateTimeParseException e ) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Retrieve a byte range of a remote file: the transfer restarts at the offset with {@code REST}
+	 * and the data connection is closed once the range is read, which the server answers with
+	 * {@code 426} instead of {@code 226}. The range is read in binary mode, offsets are bytes.
+	 *
+	 * @param remoteFile The name of the remote file
+	 * @param offset     The position of the first byte to read
+	 * @param length     The bytes to read, or -1 to read up to the end of the file
+	 * @param out        The stream the bytes are written to, it is not closed
+	 *
+	 * @return The bytes read
+	 *
+	 * @throws IOException If the range cannot be read
+	 */
+	@Override
+	public long getRange( String remoteFile, long offset, long length, OutputStream out ) throws IOException {
+		try ( InputStream in = openStream( remoteFile, offset ) ) {
+			return copy( in, out, length );
+		}
+	}
+
+	/**
+	 * Open a remote file as a stream: the transfer restarts at the offset with {@code REST}, in
+	 * binary mode. Closing the stream reads the reply to the transfer, a {@code 426} when it is
+	 * closed before the end, and goes back to the file type of the connection.
+	 *
+	 * @param remoteFile The name of the remote file
+	 * @param offset     The position of the first byte to read
+	 *
+	 * @return The stream of the file
+	 *
+	 * @throws IOException If the file cannot be read
+	 */
+	@Override
+	public InputStream openStream( String remoteFile, long offset ) throws IOException {
+		InputStream in;
+		client.setFileType( FTP.BINARY_FILE_TYPE );
+		try {
+			client.setRestartOffset( offset );
+			in = client.retrieveFileStream( remoteFile );
+		} catch ( IOException | RuntimeException e ) {
+			restoreFileType();
+			throw e;
+		}
+		if ( in == null ) {
+			restoreFileType();
+			throw new IOException( "Cannot read [" + remoteFile + "] from offset " + offset + ": " + client.getReplyString().trim() );
+		}
+		return new TransferInputStream( in, remoteFile );
+	}
+
 	/**
 	 * Put a file on the remote server
 	 *
@@ -206,18 +365,76 @@ public class FTPConnection extends BaseFTPConnection {
 	 */
 	@Override
 	public boolean putFile( String localFile, String remoteFile ) throws IOException {
+		return putFile( localFile, remoteFile, false );
+	}
+
+	/**
+	 * Put a file on the remote server, optionally resuming a partial upload with {@code APPE}: the
+	 * size of the remote file is asked with {@code SIZE} and only the bytes after it are sent. A
+	 * remote file longer than the local one is no partial upload of it, it is replaced instead.
+	 * Offsets are bytes, so only a binary connection can resume.
+	 *
+	 * @param localFile  The file path of the local file you want to copy
+	 * @param remoteFile The name of the remote file you want to create/update
+	 * @param resume     If true, append the remaining bytes to the remote file instead of starting over
+	 *
+	 * @return True if the file was copied, false otherwise
+	 *
+	 * @throws BoxRuntimeException If the local file does not exist, not a file, or cannot be read, or if resuming on a connection in ASCII mode
+	 * @throws IOException         If an error occurs while copying the file
+	 */
+	@Override
+	public boolean putFile( String localFile, String remoteFile, boolean resume ) throws IOException {
+		if ( resume ) {
+			ensureBinary( remoteFile );
+		}
+
 		java.io.File	targetFile	= ensureLocalFile( new java.io.File( localFile ) );
 		boolean			result		= false;
+		long			offset		= resume ? Math.max( 0, getFileSize( remoteFile ) ) : 0;
 
-		try ( java.io.FileInputStream inputStream = new java.io.FileInputStream( targetFile ) ) {
-			result = client.storeFile( remoteFile, inputStream );
+		if ( offset > targetFile.length() ) {
+			this.logger.warn( "Cannot resume [{}]: the remote file has {} bytes but the local one only {}, starting over", remoteFile, offset,
+			    targetFile.length() );
+			offset = 0;
 		}
 
-		this.handleError();
+		try ( InputStream fileStream = new java.io.FileInputStream( targetFile ) ) {
+			fileStream.skipNBytes( offset );
+			try ( InputStream inputStream = track( fileStream, targetFile.length() - offset ) ) {
+				result = offset > 0 ? client.appendFile( remoteFile, inputStream ) : client.storeFile( remoteFile, inputStream );
+			}
+		}
 
+		this.handleError();
 		return result;
 	}
 
+	/**
+	 * Put the content of a stream on the remote server with {@code STOR}, in binary mode so the
+	 * bytes land as they are
+	 *
+	 * @param content    The stream to upload, read up to its end and left open
+	 * @param size       The bytes of the stream, or -1 if unknown, only used to report progress
+	 * @param remoteFile The name of the remote file you want to create/update
+	 *
+	 * @return True if the content was uploaded, false otherwise
+	 *
+	 * @throws IOException If an error occurs while uploading the content
+	 */
+	@Override
+	public boolean putFile( InputStream content, long size, String remoteFile ) throws IOException {
+		client.setFileType( FTP.BINARY_FILE_TYPE );
+		try {
+			boolean result = client.storeFile( remoteFile, track( content, size ) );
+			this.handleError();
+			return result;
+		} finally {
+			// Failed or not, the next transfer must not inherit the binary mode
+			restoreFileTypeAfterTransfer();
+		}
+	}
+
 	/**
 	 * Remove a file on the FTP server
 	 *
@@ -280,7 +497,9 @@ public class FTPConnection extends BaseFTPConnection {
 		if ( dirName == null || dirName.isBlank() ) {
 			throw new BoxIOException( new IOException( "Directory name is required" ) );
 		}
-		client.changeWorkingDirectory( dirName );
+		if ( client.changeWorkingDirectory( dirName ) ) {
+			this.lastWorkingDirectory = dirName.startsWith( "/" ) ? dirName : client.printWorkingDirectory();
+		}
 		return this;
 	}
 
@@ -299,6 +518,67 @@ public class FTPConnection extends BaseFTPConnection {
 		} catch ( IOException e ) {
 			this.logger.error( "Error while closing FTP connection: " + e.getMessage() );
 			throw new BoxIOException( e );
+		} finally {
+			runCloseHook();
+		}
+	}
+
+	/**
+	 * Send a {@code NOOP} on the control channel, waiting at most {@link #DEFAULT_PROBE_TIMEOUT} for
+	 * the reply. The control socket has no read timeout, and a control channel a firewall dropped
+	 * silently would otherwise hold the maintenance thread until TCP gives up.
+	 *
+	 * @return False if the server did not answer
+	 */
+	@Override
+	protected boolean sendKeepAlive() {
+		try {
+			return sendNoOp( DEFAULT_PROBE_TIMEOUT );
+		} catch ( IOException e ) {
+			this.logger.warn( "FTP keepalive failed for connection [{}]: {}", this.name, e.getMessage() );
+			return false;
+		}
+	}
+
+	/**
+	 * Send a {@code NOOP} on the control channel, waiting at most {@link #DEFAULT_PROBE_TIMEOUT} for the reply
+	 *
+	 * @return False if the server did not answer
+	 */
+	@Override
+	protected boolean sendProbe() {
+		try {
+			return sendNoOp( DEFAULT_PROBE_TIMEOUT );
+		} catch ( IOException e ) {
+			this.logger.debug( "FTP probe failed for connection [{}]: {}", this.name, e.getMessage() );
+			return false;
+		}
+	}
+
+	/**
+	 * Send a {@code NOOP} with a read timeout on the control socket, restored afterwards
+	 */
+	private boolean sendNoOp( Duration timeout ) throws IOException {
+		int soTimeout = this.client.getSoTimeout();
+		this.client.setSoTimeout( ( int ) timeout.toMillis() );
+		try {
+			return this.client.sendNoOp();
+		} finally {
+			this.client.setSoTimeout( soTimeout );
+		}
+	}
+
+	/**
+	 * Drop the control connection without sending {@code QUIT}, which would stall on a dead server
+	 */
+	@Override
+	protected void abort() {
+		try {
+			this.client.disconnect();
+		} catch ( IOException e ) {
+			this.logger.debug( "Error while aborting FTP connection [{}]: {}", this.name, e.getMessage() );
+		} finally {
+			runCloseHook();
 		}
 	}
 
@@ -325,6 +605,22 @@ public class FTPConnection extends BaseFTPConnection {
 		return this;
 	}
 
+	/**
+	 * Run the transfers in binary mode instead of ASCII, switching the open session right away
+	 *
+	 * @param binary True for binary transfers, false for ASCII ones
+	 *
+	 * @return This connection for chaining
+	 */
+	@Override
+	public IFTPConnection setBinary( boolean binary ) {
+		this.binary = binary;
+		if ( isConnected() ) {
+			restoreFileType();
+		}
+		return this;
+	}
+
 	/**
 	 * Create a directory on the FTP server
 	 *
@@ -431,6 +727,65 @@ public class FTPConnection extends BaseFTPConnection {
 		}
 	}
 
+	/**
+	 * The bytes left to download, asked with {@code SIZE} only when a background action follows the transfer
+	 *
+	 * @param remoteFile The remote file
+	 * @param offset     The bytes already downloaded
+	 *
+	 * @return The bytes left, or -1 if nobody follows the transfer or the server does not tell
+	 */
+	private long remainingSize( String remoteFile, long offset ) throws IOException {
+		if ( this.progress == null ) {
+			return -1;
+		}
+		String size = client.getSize( remoteFile );
+		try {
+			return size == null ? -1 : Long.parseLong( size.trim() ) - offset;
+		} catch ( NumberFormatException e ) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Make sure a transfer of the file can resume at a byte offset: in ASCII mode the server
+	 * translates line endings, so the size of a partial file is no offset into the remote one.
+	 *
+	 * @param remoteFile The name of the remote file
+	 *
+	 * @throws BoxRuntimeException If the connection is in ASCII mode
+	 */
+	private void ensureBinary( String remoteFile ) {
+		if ( !this.binary ) {
+			throw new BoxRuntimeException(
+			    "Cannot resume [" + remoteFile + "] on FTP connection [" + this.name + "] in ASCII mode, open it with [transferMode=binary]" );
+		}
+	}
+
+	/**
+	 * Go back to the file type of the connection, ASCII unless it was set to binary, after a binary
+	 * exchange. It also leaves a positive reply as the status of the connection after an aborted range.
+	 */
+	private void restoreFileType() {
+		try {
+			client.setFileType( this.binary ? FTP.BINARY_FILE_TYPE : FTP.ASCII_FILE_TYPE );
+		} catch ( IOException e ) {
+			this.logger.debug( "Could not restore the file type of [{}]: {}", this.name, e.getMessage() );
+		}
+	}
+
+	/**
+	 * Go back to the file type of the connection after a transfer, keeping the reply to the transfer
+	 * as the status of the connection so a failed one is still reported
+	 */
+	private void restoreFileTypeAfterTransfer() {
+		try {
+			client.setFileTypeKeepingReply( this.binary ? FTP.BINARY_FILE_TYPE : FTP.ASCII_FILE_TYPE );
+		} catch ( IOException e ) {
+			this.logger.debug( "Could not restore the file type of [{}]: {}", this.name, e.getMessage() );
+		}
+	}
+
 	/**
 	 * Handle an error by throwing an exception if stopOnError is true and
 	 * looking for a positive completion code.
@@ -471,6 +826,26 @@ public class FTPConnection extends BaseFTPConnection {
 		return filesToQuery( files, systemType );
 	}
 
+	/**
+	 * List the contents of a directory without changing into it.
+	 *
+	 * @param directory The directory to list
+	 *
+	 * @return The contents of the directory as an Array of Structs
+	 *
+	 * @throws IOException If an error occurs while listing the directory
+	 */
+	@Override
+	public Array listFiles( String directory ) throws IOException {
+		FTPFile[]	files		= this.client.listFiles( directory );
+		String		systemType	= this.client.getSystemType().toUpperCase();
+
+		if ( !FTPReply.isPositiveCompletion( this.client.getReplyCode() ) ) {
+			throw new BoxRuntimeException( "FTP error listing directory [" + directory + "]: " + this.client.getReplyCode() );
+		}
+		return filesToArray( files, systemType );
+	}
+
 	/**
 	 * Convert an array of FTPFile objects to an Array of Structs
 	 *
@@ -653,4 +1028,97 @@ public class FTPConnection extends BaseFTPConnection {
 			default -> "unknown";
 		};
 	}
+
+	/**
+	 * An FTPClient that can run its handshake on a socket the {@link HostResolver} already connected
+	 */
+	private static final class ResolvedFTPClient extends FTPClient {
+
+		/**
+		 * Take over a connected socket and read the server greeting
+		 *
+		 * @param host   The host name the socket is connected to
+		 * @param socket The connected socket
+		 *
+		 * @throws IOException If the greeting cannot be read
+		 */
+		void connect( String host, Socket socket ) throws IOException {
+			this._hostname_	= host;
+			this._socket_	= socket;
+			try {
+				_connectAction_();
+			} catch ( IOException e ) {
+				socket.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Set the file type without replacing the last reply, so the status of a transfer survives
+		 * the switch back to the file type of the connection
+		 *
+		 * @param fileType The file type
+		 *
+		 * @throws IOException If the file type cannot be set
+		 */
+		void setFileTypeKeepingReply( int fileType ) throws IOException {
+			int				replyCode	= this._replyCode;
+			List<String>	replyLines	= new ArrayList<>( this._replyLines );
+			try {
+				setFileType( fileType );
+			} finally {
+				this._replyCode = replyCode;
+				this._replyLines.clear();
+				this._replyLines.addAll( replyLines );
+				this._newReplyString = true;
+			}
+		}
+	}
+
+	/**
+	 * The data stream of a download. Closing it ends the transfer: the reply is read whether or not
+	 * the stream was read to the end, so it is never taken for the answer to the next command.
+	 */
+	private final class TransferInputStream extends FilterInputStream {
+
+		private final String	remoteFile;
+		private boolean			ended;
+		private boolean			closed;
+
+		private TransferInputStream( InputStream in, String remoteFile ) {
+			super( in );
+			this.remoteFile = remoteFile;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			this.ended |= b < 0;
+			return b;
+		}
+
+		@Override
+		public int read( byte[] buffer, int offset, int length ) throws IOException {
+			int read = super.read( buffer, offset, length );
+			this.ended |= read < 0;
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if ( this.closed ) {
+				return;
+			}
+			this.closed = true;
+			try {
+				super.close();
+				// A transfer stopped early is answered with 426, only a failure of a whole read is one
+				if ( !client.completePendingCommand() && this.ended ) {
+					throw new IOException( "Transfer of [" + this.remoteFile + "] failed: " + client.getReplyString().trim() );
+				}
+			} finally {
+				restoreFileType();
+			}
+		}
+	}
 }
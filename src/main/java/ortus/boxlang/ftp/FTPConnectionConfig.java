@@ -0,0 +1,641 @@
+/**
+ * [BoxLang]
+ *
+ * Copyright [2023] [Ortus Solutions, Corp]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ortus.boxlang.ftp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+
+import ortus.boxlang.ftp.pool.HostGovernor;
+import ortus.boxlang.ftp.services.FTPService;
+import ortus.boxlang.runtime.BoxRuntime;
+import ortus.boxlang.runtime.dynamic.casters.BooleanCaster;
+import ortus.boxlang.runtime.dynamic.casters.IntegerCaster;
+import ortus.boxlang.runtime.logging.BoxLangLogger;
+import ortus.boxlang.runtime.scopes.Key;
+import ortus.boxlang.runtime.types.IStruct;
+import ortus.boxlang.runtime.types.Struct;
+import ortus.boxlang.runtime.types.exceptions.BoxRuntimeException;
+
+/**
+ * Holds everything needed to open (or re-open) a connection to an FTP/SFTP server.
+ * <p>
+ * A config is captured from the component attributes on {@code action="open"} and is
+ * then used by the {@link ortus.boxlang.ftp.pool.FTPConnectionPool} to build new sessions
+ * on demand.
+ * </p>
+ */
+public class FTPConnectionConfig {
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Defaults
+	 * --------------------------------------------------------------------------
+	 */
+
+	public static final int			DEFAULT_POOL_MIN_IDLE			= 0;
+	public static final int			DEFAULT_POOL_MAX_IDLE			= 8;
+	public static final int			DEFAULT_POOL_MAX_SIZE			= 8;
+	// In Seconds
+	public static final Duration	DEFAULT_POOL_MAX_WAIT			= Duration.ofSeconds( 30 );
+	// In Seconds
+	public static final Duration	DEFAULT_VALIDATION_INTERVAL		= Duration.ofSeconds( 5 );
+	public static final int			DEFAULT_HOST_MAX_CONNECTIONS	= 0;
+	// In Seconds
+	public static final Duration	DEFAULT_HOST_MAX_WAIT			= Duration.ofSeconds( 30 );
+	public static final String		TRANSFER_MODE_ASCII				= "ascii";
+	public static final String		TRANSFER_MODE_BINARY			= "binary";
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Properties
+	 * --------------------------------------------------------------------------
+	 */
+
+	private String					server;
+	private Integer					port;
+	private String					username;
+	private String					password;
+	private boolean					passive							= BaseFTPConnection.DEFAULT_PASSIVE;
+	private Duration				timeout							= BaseFTPConnection.DEFAULT_TIMEOUT;
+	private String					proxyServer;
+	private Duration				validationInterval				= DEFAULT_VALIDATION_INTERVAL;
+	private boolean					binary							= false;
+
+	// SFTP
+	private boolean					secure							= false;
+	private String					key;
+	private String					passphrase;
+	private String					fingerprint;
+	private boolean					multiplex						= false;
+	private int						maxChannels						= SharedSSHSession.DEFAULT_MAX_CHANNELS;
+	private boolean					shareSession					= false;
+	private SFTPTransferSettings	transferSettings				= SFTPTransferSettings.DEFAULT;
+
+	// Pooling
+	private boolean					pooled							= false;
+	private int						poolMinIdle						= DEFAULT_POOL_MIN_IDLE;
+	private int						poolMaxIdle						= DEFAULT_POOL_MAX_IDLE;
+	private int						poolMaxSize						= DEFAULT_POOL_MAX_SIZE;
+	private Duration				poolMaxWait						= DEFAULT_POOL_MAX_WAIT;
+
+	// Per host limits
+	private int						hostMaxConnections				= DEFAULT_HOST_MAX_CONNECTIONS;
+	private Duration				hostMaxWait						= DEFAULT_HOST_MAX_WAIT;
+
+	// Retries
+	private int						retryCount						= RetryPolicy.DEFAULT_RETRY_COUNT;
+	private Duration				retryDelay						= RetryPolicy.DEFAULT_RETRY_DELAY;
+	private Duration				retryMaxDelay					= RetryPolicy.DEFAULT_RETRY_MAX_DELAY;
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Constructors
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Build an empty config
+	 */
+	public FTPConnectionConfig() {
+		super();
+	}
+
+	/**
+	 * Build a config from the attributes of the FTP component, or from a connection definition
+	 * of the {@code connections} module setting which uses the same names.
+	 *
+	 * @param attributes The component attributes
+	 *
+	 * @return The config
+	 */
+	public static FTPConnectionConfig fromAttributes( IStruct attributes ) {
+		FTPConnectionConfig	config	= new FTPConnectionConfig();
+		boolean				secure	= BooleanCaster.cast( attributes.getOrDefault( FTPKeys.secure, false ) );
+
+		// Determine the port to use based on whether this is secure (SFTP) or not
+		Integer				port	= attributes.get( Key.port ) != null
+		    ? IntegerCaster.cast( attributes.get( Key.port ) )
+		    : ( secure ? BaseFTPConnection.DEFAULT_SFTP_PORT : BaseFTPConnection.DEFAULT_PORT );
+
+		config.server				= attributes.getAsString( Key.server );
+		config.port					= port;
+		config.username				= attributes.getAsString( Key.username );
+		config.password				= attributes.getAsString( Key.password );
+		config.passive				= BooleanCaster.cast( attributes.getOrDefault( FTPKeys.passive, BaseFTPConnection.DEFAULT_PASSIVE ) );
+		config.timeout				= Duration.ofSeconds(
+		    IntegerCaster.cast( attributes.getOrDefault( FTPKeys.timeout, BaseFTPConnection.DEFAULT_TIMEOUT.toSeconds() ) )
+		);
+		config.proxyServer			= attributes.getAsString( Key.proxyServer );
+		config.validationInterval	= Duration.ofSeconds(
+		    IntegerCaster.cast( attributes.getOrDefault( FTPKeys.validationInterval, DEFAULT_VALIDATION_INTERVAL.toSeconds() ) )
+		);
+		config.binary				= TRANSFER_MODE_BINARY.equalsIgnoreCase( attributes.getAsString( FTPKeys.transferMode ) );
+		config.secure				= secure;
+		config.key					= attributes.getAsString( FTPKeys.key );
+		config.passphrase			= attributes.getAsString( FTPKeys.passphrase );
+		config.fingerprint			= attributes.getAsString( FTPKeys.fingerprint );
+		config.multiplex			= BooleanCaster.cast( attributes.getOrDefault( FTPKeys.multiplex, false ) );
+		config.maxChannels			= IntegerCaster.cast( attributes.getOrDefault( FTPKeys.maxChannels, SharedSSHSession.DEFAULT_MAX_CHANNELS ) );
+		config.shareSession			= BooleanCaster.cast( attributes.getOrDefault( FTPKeys.shareSession, false ) );
+		config.transferSettings		= SFTPTransferSettings.fromAttributes( attributes );
+
+		config.pooled		= BooleanCaster.cast( attributes.getOrDefault( FTPKeys.pool, false ) );
+		config.poolMinIdle	= IntegerCaster.cast( attributes.getOrDefault( FTPKeys.poolMinIdle, DEFAULT_POOL_MIN_IDLE ) );
+		config.poolMaxIdle	= IntegerCaster.cast( attributes.getOrDefault( FTPKeys.poolMaxIdle, DEFAULT_POOL_MAX_IDLE ) );
+		config.poolMaxSize	= IntegerCaster.cast( attributes.getOrDefault( FTPKeys.poolMaxSize, DEFAULT_POOL_MAX_SIZE ) );
+		config.poolMaxWait	= Duration.ofSeconds(
+		    IntegerCaster.cast( attributes.getOrDefault( FTPKeys.poolMaxWait, DEFAULT_POOL_MAX_WAIT.toSeconds() ) )
+		);
+
+		config.hostMaxConnections	= IntegerCaster.cast( attributes.getOrDefault( FTPKeys.hostMaxConnections, DEFAULT_HOST_MAX_CONNECTIONS ) );
+		config.hostMaxWait			= Duration.ofSeconds(
+		    IntegerCaster.cast( attributes.getOrDefault( FTPKeys.hostMaxWait, DEFAULT_HOST_MAX_WAIT.toSeconds() ) )
+		);
+
+		// The retry attributes have no component defaults, the policy fills the blanks
+		RetryPolicy retryPolicy = RetryPolicy.of( null, attributes );
+
+		config.retryCount		= retryPolicy.getRetryCount();
+		config.retryDelay		= retryPolicy.getRetryDelay();
+		config.retryMaxDelay	= retryPolicy.getRetryMaxDelay();
+
+		return config;
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Connection Methods
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Build a brand new connection according to the {@code secure} flag and open it.
+	 *
+	 * @param name   The name of the connection
+	 * @param logger The BoxLang logger to use
+	 *
+	 * @return The opened connection
+	 *
+	 * @throws IOException If an error occurs while connecting
+	 */
+	public IFTPConnection newConnection( Key name, BoxLangLogger logger ) throws IOException {
+		IFTPConnection connection = this.secure
+		    ? new SFTPConnection( name, logger )
+		    : new FTPConnection( name, logger );
+		return open( connection );
+	}
+
+	/**
+	 * Open the passed connection using this config.
+	 * SFTP connections with a {@code key} will use key based authentication.
+	 * The connection keeps a reference to this config so it can be reconnected, and runs its
+	 * transfers in the {@code transferMode} of the config.
+	 * <p>
+	 * The login first waits for a slot on the {@link HostGovernor} of the host, which the
+	 * connection gives back when it closes.
+	 * </p>
+	 * <p>
+	 * Standalone SFTP connections with {@code shareSession} do not log in at all
+	 * when the FTP service already holds an authenticated session for the same account: they
+	 * only open a channel on it, see {@link FTPService#acquireSSHSession(FTPConnectionConfig)}.
+	 * </p>
+	 *
+	 * @param connection The connection to open
+	 *
+	 * @return The opened connection
+	 *
+	 * @throws IOException If an error occurs while connecting
+	 */
+	public IFTPConnection open( IFTPConnection connection ) throws IOException {
+		connection.setConfig( this );
+		connection.setBinary( this.binary );
+		if ( this.secure && this.shareSession && !this.pooled && connection instanceof SFTPConnection sftpConnection
+		    && BoxRuntime.getInstance().getGlobalService( FTPKeys.FTPService ) instanceof FTPService ftpService
+		    && openShared( sftpConnection, ftpService ) ) {
+			return connection;
+		}
+
+		HostGovernor governor = getHostGovernor();
+		if ( governor == null || ! ( connection instanceof BaseFTPConnection baseConnection ) ) {
+			return login( connection );
+		}
+
+		governor.acquire( this.hostMaxWait );
+		try {
+			login( connection );
+		} catch ( IOException | RuntimeException e ) {
+			if ( HostGovernor.isTooManyConnections( e, connection ) ) {
+				governor.onTooManyConnections();
+			}
+			governor.release();
+			throw e;
+		}
+		governor.onSuccess();
+		baseConnection.setCloseHook( governor::release );
+		return connection;
+	}
+
+	/**
+	 * Open an SFTP connection as a channel on the shared session of its account. The connection
+	 * holds a reference on the session until it closes.
+	 *
+	 * @param connection The connection to open
+	 * @param ftpService The service holding the shared sessions
+	 *
+	 * @return True if the connection was opened, false if every channel of the shared session is
+	 *         taken and the connection needs a dedicated login
+	 *
+	 * @throws IOException If an error occurs while connecting
+	 */
+	private boolean openShared( SFTPConnection connection, FTPService ftpService ) throws IOException {
+		SharedSSHSession sharedSession = ftpService.acquireSSHSession( this );
+		if ( sharedSession.getOpenChannels() >= sharedSession.getMaxChannels() ) {
+			ftpService.releaseSSHSession( this, sharedSession );
+			return false;
+		}
+		try {
+			connection.openOnSession( sharedSession, this.timeout );
+		} catch ( IOException | RuntimeException e ) {
+			ftpService.releaseSSHSession( this, sharedSession );
+			throw e;
+		}
+		connection.setCloseHook( () -> ftpService.releaseSSHSession( this, sharedSession ) );
+		return true;
+	}
+
+	/**
+	 * The key of the shared SSH session of this config: the host key plus a hash of the
+	 * credentials, so two configs only share a session if they would log in the same way.
+	 *
+	 * @return The session key
+	 */
+	public String getSessionKey() {
+		String credentials = String.join( "\0",
+		    String.valueOf( this.password ),
+		    String.valueOf( this.key ),
+		    String.valueOf( this.passphrase ),
+		    String.valueOf( this.fingerprint )
+		);
+		try {
+			byte[] digest = MessageDigest.getInstance( "SHA-256" ).digest( credentials.getBytes( StandardCharsets.UTF_8 ) );
+			return HostGovernor.hostKey( this.server, this.port, this.username ) + "#" + HexFormat.of().formatHex( digest );
+		} catch ( NoSuchAlgorithmException e ) {
+			throw new BoxRuntimeException( "SHA-256 is not available", e );
+		}
+	}
+
+	/**
+	 * Get the governor of the host this config points to
+	 *
+	 * @return The governor, or null if the FTP service is not registered
+	 */
+	public HostGovernor getHostGovernor() {
+		if ( BoxRuntime.getInstance().getGlobalService( FTPKeys.FTPService ) instanceof FTPService ftpService ) {
+			return ftpService.getHostGovernor( this );
+		}
+		return null;
+	}
+
+	/**
+	 * Log the connection in with the right authentication method
+	 *
+	 * @param connection The connection to open
+	 *
+	 * @return The opened connection
+	 *
+	 * @throws IOException If an error occurs while connecting
+	 */
+	private IFTPConnection login( IFTPConnection connection ) throws IOException {
+		if ( this.secure && this.key != null && connection instanceof SFTPConnection sftpConn ) {
+			return sftpConn.openWithKey(
+			    this.server,
+			    this.port,
+			    this.username,
+			    this.key,
+			    this.passphrase,
+			    this.timeout,
+			    this.fingerprint
+			);
+		}
+		return connection.open(
+		    this.server,
+		    this.port,
+		    this.username,
+		    this.password,
+		    this.passive,
+		    this.timeout,
+		    this.proxyServer
+		);
+	}
+
+	/**
+	 * Get a struct representation of the config. Secrets are never included.
+	 *
+	 * @return The config as a struct
+	 */
+	public IStruct toStruct() {
+		return Struct.of(
+		    "server", this.server,
+		    "port", this.port,
+		    "username", this.username,
+		    "passive", this.passive,
+		    "timeout", this.timeout.toSeconds(),
+		    "validationInterval", this.validationInterval.toSeconds(),
+		    "transferMode", this.binary ? TRANSFER_MODE_BINARY : TRANSFER_MODE_ASCII,
+		    "secure", this.secure,
+		    "multiplex", this.multiplex,
+		    "maxChannels", this.maxChannels,
+		    "shareSession", this.shareSession,
+		    "transferProfile", this.transferSettings.getProfile(),
+		    "bulkRequests", this.transferSettings.getBulkRequests(),
+		    "requestSize", this.transferSettings.getRequestSize(),
+		    "windowSize", this.transferSettings.getWindowSize(),
+		    "pooled", this.pooled,
+		    "poolMinIdle", this.poolMinIdle,
+		    "poolMaxIdle", this.poolMaxIdle,
+		    "poolMaxSize", this.poolMaxSize,
+		    "poolMaxWait", this.poolMaxWait.toSeconds(),
+		    "hostMaxConnections", this.hostMaxConnections,
+		    "hostMaxWait", this.hostMaxWait.toSeconds(),
+		    "retryCount", this.retryCount,
+		    "retryDelay", this.retryDelay.toMillis(),
+		    "retryMaxDelay", this.retryMaxDelay.toMillis()
+		);
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Getters & Setters
+	 * --------------------------------------------------------------------------
+	 */
+
+	public String getServer() {
+		return this.server;
+	}
+
+	public FTPConnectionConfig setServer( String server ) {
+		this.server = server;
+		return this;
+	}
+
+	public Integer getPort() {
+		return this.port;
+	}
+
+	public FTPConnectionConfig setPort( Integer port ) {
+		this.port = port;
+		return this;
+	}
+
+	public String getUsername() {
+		return this.username;
+	}
+
+	public FTPConnectionConfig setUsername( String username ) {
+		this.username = username;
+		return this;
+	}
+
+	public String getPassword() {
+		return this.password;
+	}
+
+	public FTPConnectionConfig setPassword( String password ) {
+		this.password = password;
+		return this;
+	}
+
+	public boolean isPassive() {
+		return this.passive;
+	}
+
+	public FTPConnectionConfig setPassive( boolean passive ) {
+		this.passive = passive;
+		return this;
+	}
+
+	public Duration getTimeout() {
+		return this.timeout;
+	}
+
+	public FTPConnectionConfig setTimeout( Duration timeout ) {
+		this.timeout = timeout;
+		return this;
+	}
+
+	public String getProxyServer() {
+		return this.proxyServer;
+	}
+
+	public FTPConnectionConfig setProxyServer( String proxyServer ) {
+		this.proxyServer = proxyServer;
+		return this;
+	}
+
+	public Duration getValidationInterval() {
+		return this.validationInterval;
+	}
+
+	public FTPConnectionConfig setValidationInterval( Duration validationInterval ) {
+		this.validationInterval = validationInterval;
+		return this;
+	}
+
+	public boolean isBinary() {
+		return this.binary;
+	}
+
+	public FTPConnectionConfig setBinary( boolean binary ) {
+		this.binary = binary;
+		return this;
+	}
+
+	public boolean isSecure() {
+		return this.secure;
+	}
+
+	public FTPConnectionConfig setSecure( boolean secure ) {
+		this.secure = secure;
+		return this;
+	}
+
+	public String getKey() {
+		return this.key;
+	}
+
+	public FTPConnectionConfig setKey( String key ) {
+		this.key = key;
+		return this;
+	}
+
+	public String getPassphrase() {
+		return this.passphrase;
+	}
+
+	public FTPConnectionConfig setPassphrase( String passphrase ) {
+		this.passphrase = passphrase;
+		return this;
+	}
+
+	public String getFingerprint() {
+		return this.fingerprint;
+	}
+
+	public FTPConnectionConfig setFingerprint( String fingerprint ) {
+		this.fingerprint = fingerprint;
+		return this;
+	}
+
+	public boolean isMultiplex() {
+		return this.multiplex;
+	}
+
+	public FTPConnectionConfig setMultiplex( boolean multiplex ) {
+		this.multiplex = multiplex;
+		return this;
+	}
+
+	public int getMaxChannels() {
+		return this.maxChannels;
+	}
+
+	public FTPConnectionConfig setMaxChannels( int maxChannels ) {
+		this.maxChannels = maxChannels;
+		return this;
+	}
+
+	public boolean isShareSession() {
+		return this.shareSession;
+	}
+
+	public FTPConnectionConfig setShareSession( boolean shareSession ) {
+		this.shareSession = shareSession;
+		return this;
+	}
+
+	public SFTPTransferSettings getTransferSettings() {
+		return this.transferSettings;
+	}
+
+	public FTPConnectionConfig setTransferSettings( SFTPTransferSettings transferSettings ) {
+		this.transferSettings = transferSettings;
+		return this;
+	}
+
+	public boolean isPooled() {
+		return this.pooled;
+	}
+
+	public FTPConnectionConfig setPooled( boolean pooled ) {
+		this.pooled = pooled;
+		return this;
+	}
+
+	public int getPoolMinIdle() {
+		return this.poolMinIdle;
+	}
+
+	public FTPConnectionConfig setPoolMinIdle( int poolMinIdle ) {
+		this.poolMinIdle = poolMinIdle;
+		return this;
+	}
+
+	public int getPoolMaxIdle() {
+		return this.poolMaxIdle;
+	}
+
+	public FTPConnectionConfig setPoolMaxIdle( int poolMaxIdle ) {
+		this.poolMaxIdle = poolMaxIdle;
+		return this;
+	}
+
+	public int getPoolMaxSize() {
+		return this.poolMaxSize;
+	}
+
+	public FTPConnectionConfig setPoolMaxSize( int poolMaxSize ) {
+		this.poolMaxSize = poolMaxSize;
+		return this;
+	}
+
+	public Duration getPoolMaxWait() {
+		return this.poolMaxWait;
+	}
+
+	public FTPConnectionConfig setPoolMaxWait( Duration poolMaxWait ) {
+		this.poolMaxWait = poolMaxWait;
+		return this;
+	}
+
+	public int getHostMaxConnections() {
+		return this.hostMaxConnections;
+	}
+
+	public FTPConnectionConfig setHostMaxConnections( int hostMaxConnections ) {
+		this.hostMaxConnections = hostMaxConnections;
+		return this;
+	}
+
+	public Duration getHostMaxWait() {
+		return this.hostMaxWait;
+	}
+
+	public FTPConnectionConfig setHostMaxWait( Duration hostMaxWait ) {
+		this.hostMaxWait = hostMaxWait;
+		return this;
+	}
+
+	public int getRetryCount() {
+		return this.retryCount;
+	}
+
+	public FTPConnectionConfig setRetryCount( int retryCount ) {
+		this.retryCount = retryCount;
+		return this;
+	}
+
+	public Duration getRetryDelay() {
+		return this.retryDelay;
+	}
+
+	public FTPConnectionConfig setRetryDelay( Duration retryDelay ) {
+		this.retryDelay = retryDelay;
+		return this;
+	}
+
+	public Duration getRetryMaxDelay() {
+		return this.retryMaxDelay;
+	}
+
+	public FTPConnectionConfig setRetryMaxDelay( Duration retryMaxDelay ) {
+		this.retryMaxDelay = retryMaxDelay;
+		return this;
+	}
+
+	/**
+	 * @return The retry policy of the connections opened with this config
+	 */
+	public RetryPolicy getRetryPolicy() {
+		return new RetryPolicy( this.retryCount, this.retryDelay, this.retryMaxDelay );
+	}
+
+}
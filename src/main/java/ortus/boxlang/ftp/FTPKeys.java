@@ -42,6 +42,8 @@ public class FTPKeys {
 	public static final Key	remoteFile				= Key.of( "remoteFile" );
 	public static final Key	stopOnError				= Key.of( "stopOnError" );
 	public static final Key	timeout					= Key.of( "timeout" );
+	public static final Key	validationInterval		= Key.of( "validationInterval" );
+	public static final Key	transferMode			= Key.of( "transferMode" );
 	public static final Key	url						= Key.of( "url" );
 
 	// SFTP-specific keys
@@ -49,6 +51,77 @@ public class FTPKeys {
 	public static final Key	fingerprint				= Key.of( "fingerprint" );
 	public static final Key	key						= Key.of( "key" );
 	public static final Key	passphrase				= Key.of( "passphrase" );
+	public static final Key	multiplex				= Key.of( "multiplex" );
+	public static final Key	shareSession			= Key.of( "shareSession" );
+	public static final Key	maxChannels				= Key.of( "maxChannels" );
+	public static final Key	transferProfile			= Key.of( "transferProfile" );
+	public static final Key	bulkRequests			= Key.of( "bulkRequests" );
+	public static final Key	requestSize				= Key.of( "requestSize" );
+	public static final Key	windowSize				= Key.of( "windowSize" );
+
+	// Pooling keys
+	public static final Key	pool					= Key.of( "pool" );
+	public static final Key	poolMinIdle				= Key.of( "poolMinIdle" );
+	public static final Key	poolMaxIdle				= Key.of( "poolMaxIdle" );
+	public static final Key	poolMaxSize				= Key.of( "poolMaxSize" );
+	public static final Key	poolMaxWait				= Key.of( "poolMaxWait" );
+
+	// Per host limit keys
+	public static final Key	hostMaxConnections		= Key.of( "hostMaxConnections" );
+	public static final Key	hostMaxWait				= Key.of( "hostMaxWait" );
+
+	// Retry keys
+	public static final Key	retryCount				= Key.of( "retryCount" );
+	public static final Key	retryDelay				= Key.of( "retryDelay" );
+	public static final Key	retryMaxDelay			= Key.of( "retryMaxDelay" );
+
+	// Background action keys
+	public static final Key	async					= Key.of( "async" );
+	public static final Key	transfers				= Key.of( "transfers" );
+
+	// Batch action keys
+	public static final Key	files					= Key.of( "files" );
+	public static final Key	localDir				= Key.of( "localDir" );
+	public static final Key	remoteDir				= Key.of( "remoteDir" );
+	public static final Key	concurrency				= Key.of( "concurrency" );
+	public static final Key	include					= Key.of( "include" );
+	public static final Key	exclude					= Key.of( "exclude" );
+	public static final Key	bytes					= Key.of( "bytes" );
+	public static final Key	duration				= Key.of( "duration" );
+	public static final Key	error					= Key.of( "error" );
+
+	// Resume keys
+	public static final Key	resume					= Key.of( "resume" );
+	public static final Key	verifyTail				= Key.of( "verifyTail" );
+
+	// In memory and stream transfer keys
+	public static final Key	returnAs				= Key.of( "returnAs" );
+	public static final Key	outputStream			= Key.of( "outputStream" );
+	public static final Key	maxBytes				= Key.of( "maxBytes" );
+	public static final Key	content					= Key.of( "content" );
+	public static final Key	batchSize				= Key.of( "batchSize" );
+
+	// Segmented transfer keys
+	public static final Key	segmented				= Key.of( "segmented" );
+	public static final Key	segmentSize				= Key.of( "segmentSize" );
+	public static final Key	useTempFile				= Key.of( "useTempFile" );
+
+	// Sync action keys
+	public static final Key	direction				= Key.of( "direction" );
+	public static final Key	delete					= Key.of( "delete" );
+	public static final Key	dryRun					= Key.of( "dryRun" );
+	public static final Key	timeTolerance			= Key.of( "timeTolerance" );
+
+	// Module settings
+	public static final Key	connections				= Key.of( "connections" );
+	public static final Key	keepAliveInterval		= Key.of( "keepAliveInterval" );
+	public static final Key	idleTimeout				= Key.of( "idleTimeout" );
+	public static final Key	maintenanceInterval		= Key.of( "maintenanceInterval" );
+	public static final Key	identityCacheMaxSize	= Key.of( "identityCacheMaxSize" );
+	public static final Key	identityCacheTTL		= Key.of( "identityCacheTTL" );
+	public static final Key	dnsCacheTTL				= Key.of( "dnsCacheTTL" );
+	public static final Key	connectAttemptDelay		= Key.of( "connectAttemptDelay" );
+	public static final Key	sshIdleTimeout			= Key.of( "sshIdleTimeout" );
 
 	// Events
 	public static final Key	onFTPConnectionOpen		= Key.of( "onFTPConnectionOpen" );
@@ -37,6 +37,27 @@ public class FTPResult {
 	 */
 	private Object			returnValue;
 
+	/**
+	 * How many times the operation ran, retries included.
+	 */
+	private int				attempts	= 1;
+
+	/**
+	 * How long the operation took, retries and backoff included, in milliseconds.
+	 */
+	private long			elapsed		= 0;
+
+	/**
+	 * The totals of an action that moves many files, null for single file actions.
+	 */
+	private IStruct			totals;
+
+	/**
+	 * The status of an operation that ran without a connection, such as opening or closing a pool.
+	 */
+	private int				statusCode;
+	private String			statusText;
+
 	/**
 	 * Default constructor.
 	 */
@@ -54,6 +75,18 @@ public class FTPResult {
 		this.conn = conn;
 	}
 
+	/**
+	 * Constructor for an operation that ran without a connection.
+	 *
+	 * @param statusCode The status code of the operation.
+	 * @param statusText The status text of the operation.
+	 */
+	public FTPResult( int statusCode, String statusText ) {
+		super();
+		this.statusCode	= statusCode;
+		this.statusText	= statusText;
+	}
+
 	/**
 	 * The return value of the operation.
 	 */
@@ -73,13 +106,77 @@ public class FTPResult {
 		return this;
 	}
 
+	/**
+	 * How many times the operation ran, retries included.
+	 */
+	public int getAttempts() {
+		return this.attempts;
+	}
+
+	/**
+	 * Sets how many times the operation ran.
+	 *
+	 * @param attempts The attempts, retries included.
+	 *
+	 * @return This object.
+	 */
+	public FTPResult setAttempts( int attempts ) {
+		this.attempts = attempts;
+		return this;
+	}
+
+	/**
+	 * How many times the operation was retried.
+	 */
+	public int getRetries() {
+		return this.attempts - 1;
+	}
+
+	/**
+	 * How long the operation took, retries and backoff included, in milliseconds.
+	 */
+	public long getElapsed() {
+		return this.elapsed;
+	}
+
+	/**
+	 * Sets how long the operation took.
+	 *
+	 * @param elapsed The elapsed time in milliseconds.
+	 *
+	 * @return This object.
+	 */
+	public FTPResult setElapsed( long elapsed ) {
+		this.elapsed = elapsed;
+		return this;
+	}
+
+	/**
+	 * The totals of an action that moves many files, null for single file actions.
+	 */
+	public IStruct getTotals() {
+		return this.totals;
+	}
+
+	/**
+	 * Sets the totals of an action that moves many files.
+	 *
+	 * @param totals The totals struct.
+	 *
+	 * @return This object.
+	 */
+	public FTPResult setTotals( IStruct totals ) {
+		this.totals = totals;
+		return this;
+	}
+
 	/**
 	 * Reeturns the FTP Status code.
 	 *
 	 * @return The status code
 	 */
 	public int getStatusCode() {
-		return this.conn.getStatusCode();
+		return this.conn != null ? this.conn.getStatusCode() : this.statusCode;
 	}
 
 	/**
@@ -88,7 +185,7 @@ public class FTPResult {
 	 * @return The status code of the operation.
 	 */
 	public String getStatusText() {
-		return this.conn.getStatusText();
+		return this.conn != null ? this.conn.getStatusText() : this.statusText;
 	}
 
 	/**
@@ -105,7 +202,7 @@ public class FTPResult {
 	 * Converts the result to a struct.
 	 */
 	public IStruct toStruct() {
-		return Struct.of(
+		IStruct result = Struct.of(
 		    // Left for dumb ACF compat
 		    "errorCode", getStatusCode(),
 		    "errorText", getStatusText(),
@@ -113,8 +210,15 @@ public class FTPResult {
 		    "statusCode", getStatusCode(),
 		    "statusText", getStatusText(),
 		    "returnValue", getReturnValue(),
-		    "Succeeded", isSuccessful()
+		    "Succeeded", isSuccessful(),
+		    "attempts", getAttempts(),
+		    "retries", getRetries(),
+		    "elapsed", getElapsed()
 		);
+		if ( this.totals != null ) {
+			result.put( "totals", this.totals );
+		}
+		return result;
 	}
 
 	/**
@@ -0,0 +1,252 @@
+/**
+ * [BoxLang]
+ *
+ * Copyright [2023] [Ortus Solutions, Corp]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ortus.boxlang.ftp;
+
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import ortus.boxlang.runtime.types.IStruct;
+import ortus.boxlang.runtime.types.Struct;
+import ortus.boxlang.runtime.types.exceptions.BoxRuntimeException;
+
+/**
+ * The handle of an action running in the background, returned by {@code async="true"}.
+ * <p>
+ * {@link #get()} waits for the action and returns its result struct, the same one a blocking
+ * action stores in its {@code result} variable, or throws the error the action failed with.
+ * </p>
+ */
+public class FTPTransfer implements Runnable {
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Properties
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * The unique id of the transfer
+	 */
+	private final String				id			= UUID.randomUUID().toString();
+
+	/**
+	 * The action being run
+	 */
+	private final String				action;
+
+	/**
+	 * The name of the connection it runs on
+	 */
+	private final String				connection;
+
+	/**
+	 * The bytes moved so far
+	 */
+	private final TransferProgress		progress;
+
+	/**
+	 * The action itself, producing the result struct
+	 */
+	private final FutureTask<IStruct>	task;
+
+	/**
+	 * When the transfer was submitted, in millis
+	 */
+	private final long					submitted	= System.currentTimeMillis();
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Constructors
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Build a transfer
+	 *
+	 * @param action     The action to run
+	 * @param connection The name of the connection it runs on
+	 * @param progress   The progress the action reports to
+	 * @param task       The action, producing the result struct
+	 */
+	public FTPTransfer( String action, String connection, TransferProgress progress, Callable<IStruct> task ) {
+		this.action		= action;
+		this.connection	= connection;
+		this.progress	= progress;
+		this.task		= new FutureTask<>( task );
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Transfer Methods
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Run the action, called by the executor it was submitted to
+	 */
+	@Override
+	public void run() {
+		this.task.run();
+	}
+
+	/**
+	 * Wait for the action to complete
+	 *
+	 * @return The result struct of the action
+	 *
+	 * @throws BoxRuntimeException If the action failed, was cancelled or the wait was interrupted
+	 */
+	public IStruct get() {
+		try {
+			return this.task.get();
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new BoxRuntimeException( "Interrupted while waiting for transfer [" + this.id + "]", e );
+		} catch ( ExecutionException e ) {
+			throw unwrap( e );
+		} catch ( CancellationException e ) {
+			throw new BoxRuntimeException( "Transfer [" + this.id + "] of action [" + this.action + "] was cancelled", e );
+		}
+	}
+
+	/**
+	 * Wait for the action to complete, for up to the given time
+	 *
+	 * @param timeout The max milliseconds to wait
+	 *
+	 * @return The result struct of the action
+	 *
+	 * @throws BoxRuntimeException If the action failed, was cancelled, or did not complete in time
+	 */
+	public IStruct get( long timeout ) {
+		try {
+			return this.task.get( timeout, TimeUnit.MILLISECONDS );
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new BoxRuntimeException( "Interrupted while waiting for transfer [" + this.id + "]", e );
+		} catch ( ExecutionException e ) {
+			throw unwrap( e );
+		} catch ( CancellationException e ) {
+			throw new BoxRuntimeException( "Transfer [" + this.id + "] of action [" + this.action + "] was cancelled", e );
+		} catch ( TimeoutException e ) {
+			throw new BoxRuntimeException( "Transfer [" + this.id + "] of action [" + this.action + "] did not complete within [" + timeout + "]ms", e );
+		}
+	}
+
+	/**
+	 * Cancel the action: it is interrupted, and a transfer in flight fails on its next read or write
+	 *
+	 * @return False if the action had already completed
+	 */
+	public boolean cancel() {
+		if ( this.task.isDone() ) {
+			return false;
+		}
+		this.progress.cancel();
+		return this.task.cancel( true );
+	}
+
+	/**
+	 * @return True if the action completed, failed or was cancelled
+	 */
+	public boolean isDone() {
+		return this.task.isDone();
+	}
+
+	/**
+	 * @return True if the action was cancelled
+	 */
+	public boolean isCancelled() {
+		return this.task.isCancelled();
+	}
+
+	/**
+	 * Get the progress of the action
+	 *
+	 * @return The bytes transferred so far, the total when known, the percent and the rate
+	 */
+	public IStruct getProgress() {
+		IStruct stats = this.progress.toStruct();
+		stats.put( "done", isDone() );
+		return stats;
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Getters
+	 * --------------------------------------------------------------------------
+	 */
+
+	public String getId() {
+		return this.id;
+	}
+
+	public String getAction() {
+		return this.action;
+	}
+
+	public String getConnection() {
+		return this.connection;
+	}
+
+	/**
+	 * Get the transfer as a struct
+	 *
+	 * @return The transfer struct
+	 */
+	public IStruct toStruct() {
+		return Struct.of(
+		    "id", this.id,
+		    "action", this.action,
+		    "connection", this.connection,
+		    "submitted", this.submitted,
+		    "done", isDone(),
+		    "cancelled", isCancelled(),
+		    "progress", this.progress.toStruct()
+		);
+	}
+
+	/**
+	 * A string representation of the transfer.
+	 */
+	@Override
+	public String toString() {
+		return toStruct().toString();
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Helpers
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Get back the error the action failed with
+	 */
+	private RuntimeException unwrap( ExecutionException e ) {
+		if ( e.getCause() instanceof RuntimeException runtimeException ) {
+			return runtimeException;
+		}
+		return new BoxRuntimeException( "Transfer [" + this.id + "] of action [" + this.action + "] failed: " + e.getCause().getMessage(), e.getCause() );
+	}
+}
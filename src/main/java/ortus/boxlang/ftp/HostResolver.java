@@ -0,0 +1,439 @@
+/**
+ * [BoxLang]
+ *
+ * Copyright [2023] [Ortus Solutions, Corp]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ortus.boxlang.ftp;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ortus.boxlang.runtime.types.IStruct;
+import ortus.boxlang.runtime.types.Struct;
+import ortus.boxlang.runtime.types.exceptions.BoxRuntimeException;
+
+/**
+ * Resolves server names and opens the TCP connections of the FTP and SFTP sessions.
+ * <p>
+ * Resolved addresses are cached for {@code ttl}, so opening many sessions to the same server
+ * does not hit DNS every time. An entry is dropped as soon as none of its addresses can be
+ * reached, so a server that moved is looked up again on the next attempt.
+ * </p>
+ * <p>
+ * When a name resolves to more than one address they are raced Happy Eyeballs style (RFC 8305):
+ * the first attempt starts right away, and the next address is tried whenever the previous one
+ * failed or did not answer within {@code attemptDelay}, alternating IPv6 and IPv4. The first
+ * socket that connects wins and the others are closed, so one dead record costs
+ * {@code attemptDelay} instead of a full connect timeout.
+ * </p>
+ */
+public class HostResolver {
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Defaults
+	 * --------------------------------------------------------------------------
+	 */
+
+	// In Seconds
+	public static final Duration		DEFAULT_TTL				= Duration.ofSeconds( 30 );
+	// In Milliseconds, the delay RFC 8305 recommends
+	public static final Duration		DEFAULT_ATTEMPT_DELAY	= Duration.ofMillis( 250 );
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Properties
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * The resolved addresses by lower cased host name
+	 */
+	private final Map<String, Entry>	entries					= new HashMap<>();
+
+	/**
+	 * How long resolved addresses are trusted, zero disables the cache
+	 */
+	private Duration					ttl						= DEFAULT_TTL;
+
+	/**
+	 * How long an attempt gets before the next address is tried too
+	 */
+	private Duration					attemptDelay			= DEFAULT_ATTEMPT_DELAY;
+
+	/**
+	 * Stats
+	 */
+	private long						hits					= 0;
+	private long						misses					= 0;
+	private long						races					= 0;
+	private long						fallbacks				= 0;
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Resolver Methods
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Resolve a host name, from the cache when it is still fresh. The addresses come back in the
+	 * order they are tried: the first address, then alternating between the IPv6 and IPv4 ones.
+	 *
+	 * @param host The host name or address literal
+	 *
+	 * @return The addresses of the host, never empty
+	 *
+	 * @throws UnknownHostException If the name does not resolve
+	 */
+	public List<InetAddress> resolve( String host ) throws UnknownHostException {
+		String	key	= host.toLowerCase();
+		long	now	= System.currentTimeMillis();
+		synchronized ( this ) {
+			Entry entry = this.entries.get( key );
+			if ( entry != null && !isExpired( entry, now ) ) {
+				this.hits++;
+				return entry.addresses;
+			}
+			this.misses++;
+		}
+
+		// Resolve outside of the lock, a slow DNS server must not hold up the other hosts
+		List<InetAddress> addresses = interleave( InetAddress.getAllByName( host ) );
+		if ( !this.ttl.isZero() ) {
+			synchronized ( this ) {
+				this.entries.put( key, new Entry( addresses, now ) );
+			}
+		}
+		return addresses;
+	}
+
+	/**
+	 * Open a TCP connection to a host, racing its addresses when it has more than one.
+	 *
+	 * @param host    The host name or address literal
+	 * @param port    The port to connect to
+	 * @param timeout The max time an address gets to connect
+	 *
+	 * @return The connected socket
+	 *
+	 * @throws IOException If no address could be connected to
+	 */
+	public Socket connect( String host, int port, Duration timeout ) throws IOException {
+		try {
+			return connect( resolve( host ), port, timeout );
+		} catch ( IOException e ) {
+			// The cached addresses may be stale, look them up again next time
+			invalidate( host );
+			throw e;
+		}
+	}
+
+	/**
+	 * Open a TCP connection to the first of some addresses that answers, racing them in the
+	 * order given when there is more than one.
+	 *
+	 * @param addresses The addresses, in the order to try them
+	 * @param port      The port to connect to
+	 * @param timeout   The max time an address gets to connect
+	 *
+	 * @return The connected socket
+	 *
+	 * @throws IOException If no address could be connected to
+	 */
+	public Socket connect( List<InetAddress> addresses, int port, Duration timeout ) throws IOException {
+		if ( addresses.isEmpty() ) {
+			throw new IOException( "No address to connect to on port " + port );
+		}
+		if ( addresses.size() == 1 ) {
+			return connect( addresses.get( 0 ), port, timeout );
+		}
+		return race( addresses, port, timeout );
+	}
+
+	/**
+	 * Forget the addresses of a host
+	 *
+	 * @param host The host name
+	 */
+	public synchronized void invalidate( String host ) {
+		this.entries.remove( host.toLowerCase() );
+	}
+
+	/**
+	 * Drop the addresses older than the ttl
+	 *
+	 * @return The number of hosts evicted
+	 */
+	public synchronized int evictExpired() {
+		long	now		= System.currentTimeMillis();
+		int		count	= 0;
+		for ( Iterator<Entry> it = this.entries.values().iterator(); it.hasNext(); ) {
+			if ( isExpired( it.next(), now ) ) {
+				it.remove();
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Drop every cached address
+	 */
+	public synchronized void clear() {
+		this.entries.clear();
+	}
+
+	/**
+	 * Set how long resolved addresses are trusted
+	 *
+	 * @param ttl The time to live, zero disables the cache
+	 *
+	 * @return This resolver for chaining
+	 */
+	public synchronized HostResolver setTtl( Duration ttl ) {
+		this.ttl = ttl;
+		if ( ttl.isZero() ) {
+			this.entries.clear();
+		}
+		return this;
+	}
+
+	/**
+	 * Set how long an attempt gets before the next address is tried too
+	 *
+	 * @param attemptDelay The delay, zero tries every address at once
+	 *
+	 * @return This resolver for chaining
+	 */
+	public synchronized HostResolver setAttemptDelay( Duration attemptDelay ) {
+		this.attemptDelay = attemptDelay;
+		return this;
+	}
+
+	/**
+	 * Get the resolver stats: {@code races} counts the connects that had more than one address
+	 * to try, {@code fallbacks} the ones won by another address than the first.
+	 *
+	 * @return The stats as a struct
+	 */
+	public synchronized IStruct getStats() {
+		return Struct.of(
+		    "size", this.entries.size(),
+		    "ttl", this.ttl.toSeconds(),
+		    "attemptDelay", this.attemptDelay.toMillis(),
+		    "hits", this.hits,
+		    "misses", this.misses,
+		    "races", this.races,
+		    "fallbacks", this.fallbacks
+		);
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Helpers
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Connect a socket to a single address
+	 */
+	private static Socket connect( InetAddress address, int port, Duration timeout ) throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.connect( new InetSocketAddress( address, port ), ( int ) timeout.toMillis() );
+			return socket;
+		} catch ( IOException e ) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Race the addresses: start one attempt, then start the next one whenever an attempt fails or
+	 * the running ones did not connect within the attempt delay. The first connected socket wins,
+	 * every other socket is closed, which also aborts the attempts still connecting.
+	 *
+	 * @param addresses The addresses, in the order to try them
+	 * @param port      The port to connect to
+	 * @param timeout   The max time an address gets to connect
+	 *
+	 * @return The winning socket
+	 *
+	 * @throws IOException The last failure when no address could be connected to
+	 */
+	private Socket race( List<InetAddress> addresses, int port, Duration timeout ) throws IOException {
+		long						delay		= this.attemptDelay.toMillis();
+		AtomicReference<Socket>		winner		= new AtomicReference<>();
+		List<Socket>				sockets		= new ArrayList<>();
+		ExecutorService				executor	= Executors.newVirtualThreadPerTaskExecutor();
+		CompletionService<Socket>	attempts	= new ExecutorCompletionService<>( executor );
+		IOException					lastError	= null;
+		int							started		= 0;
+		int							failed		= 0;
+
+		synchronized ( this ) {
+			this.races++;
+		}
+
+		try {
+			while ( failed < addresses.size() ) {
+				if ( started < addresses.size() ) {
+					Socket socket = new Socket();
+					synchronized ( sockets ) {
+						sockets.add( socket );
+					}
+					attempts.submit( attempt( socket, new InetSocketAddress( addresses.get( started ), port ), timeout, winner ) );
+					started++;
+				}
+
+				// Wait for an outcome, but no longer than the delay while other addresses are left
+				Future<Socket> done = started < addresses.size() ? attempts.poll( delay, TimeUnit.MILLISECONDS ) : attempts.take();
+				while ( done != null ) {
+					try {
+						Socket socket = done.get();
+						if ( socket.getInetAddress() != null && !socket.getInetAddress().equals( addresses.get( 0 ) ) ) {
+							synchronized ( this ) {
+								this.fallbacks++;
+							}
+						}
+						return socket;
+					} catch ( ExecutionException e ) {
+						failed++;
+						lastError = e.getCause() instanceof IOException ioError ? ioError : new IOException( e.getCause() );
+					}
+					// A failure starts the next address right away
+					done = started < addresses.size() ? null : attempts.poll();
+				}
+			}
+			throw lastError;
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new BoxRuntimeException( "Interrupted while connecting to [" + addresses + "]", e );
+		} finally {
+			synchronized ( sockets ) {
+				for ( Socket socket : sockets ) {
+					if ( socket != winner.get() ) {
+						closeQuietly( socket );
+					}
+				}
+			}
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * An attempt of the race: connect the socket, and keep it only if no other attempt won already
+	 */
+	private static Callable<Socket> attempt( Socket socket, InetSocketAddress address, Duration timeout,
+	    AtomicReference<Socket> winner ) {
+		return () -> {
+			try {
+				socket.connect( address, ( int ) timeout.toMillis() );
+			} catch ( IOException e ) {
+				closeQuietly( socket );
+				throw e;
+			}
+			if ( !winner.compareAndSet( null, socket ) ) {
+				closeQuietly( socket );
+				throw new SocketTimeoutException( "Another address of the host connected first" );
+			}
+			return socket;
+		};
+	}
+
+	/**
+	 * Order the addresses the way RFC 8305 tries them: keep the first address, which reflects the
+	 * system preference, then alternate between the two address families.
+	 *
+	 * @param addresses The resolved addresses
+	 *
+	 * @return The addresses in the order to try them
+	 */
+	public static List<InetAddress> interleave( InetAddress[] addresses ) {
+		if ( addresses.length < 2 ) {
+			return List.of( addresses );
+		}
+		boolean					preferV6	= addresses[ 0 ] instanceof Inet6Address;
+		LinkedList<InetAddress>	preferred	= new LinkedList<>();
+		LinkedList<InetAddress>	other		= new LinkedList<>();
+		for ( InetAddress address : addresses ) {
+			( ( address instanceof Inet6Address ) == preferV6 ? preferred : other ).add( address );
+		}
+
+		List<InetAddress> ordered = new ArrayList<>( addresses.length );
+		while ( !preferred.isEmpty() || !other.isEmpty() ) {
+			if ( !preferred.isEmpty() ) {
+				ordered.add( preferred.removeFirst() );
+			}
+			if ( !other.isEmpty() ) {
+				ordered.add( other.removeFirst() );
+			}
+		}
+		return List.copyOf( ordered );
+	}
+
+	/**
+	 * @return True if the entry is older than the ttl
+	 */
+	private boolean isExpired( Entry entry, long now ) {
+		return now - entry.resolved > this.ttl.toMillis();
+	}
+
+	/**
+	 * Close a socket, ignoring failures
+	 */
+	private static void closeQuietly( Socket socket ) {
+		try {
+			socket.close();
+		} catch ( IOException e ) {
+			// Nothing left to do with it
+		}
+	}
+
+	/**
+	 * The cached addresses of a host
+	 */
+	private static final class Entry {
+
+		private final List<InetAddress>	addresses;
+		private final long				resolved;
+
+		private Entry( List<InetAddress> addresses, long resolved ) {
+			this.addresses	= addresses;
+			this.resolved	= resolved;
+		}
+	}
+}
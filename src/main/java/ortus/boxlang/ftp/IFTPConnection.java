@@ -18,9 +18,12 @@
 package ortus.boxlang.ftp;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.time.Duration;
 
 import ortus.boxlang.runtime.scopes.Key;
+import ortus.boxlang.runtime.types.Array;
 import ortus.boxlang.runtime.types.IStruct;
 
 /**
@@ -71,6 +74,128 @@ public interface IFTPConnection {
 	 */
 	boolean getFile( String remoteFile, String localFile, boolean failIfExists ) throws IOException;
 
+	/**
+	 * Retrieve a file from the server and write it out to a local file, optionally resuming a
+	 * partial download: the bytes already in the local file are kept and only the rest is fetched.
+	 *
+	 * @param remoteFile   The name of the file to copy
+	 * @param localFile    The path of the file to save
+	 * @param failIfExists If true, the file will not be copied if it already exists. Ignored when resuming
+	 * @param resume       If true, append the remaining bytes to the local file instead of starting over
+	 *
+	 * @return True if the file was copied, false otherwise
+	 *
+	 * @throws IOException If an error occurs while copying the file
+	 */
+	boolean getFile( String remoteFile, String localFile, boolean failIfExists, boolean resume ) throws IOException;
+
+	/**
+	 * Get the size of a remote file
+	 *
+	 * @param remoteFile The name of the remote file
+	 *
+	 * @return The size in bytes, or -1 if the server does not tell
+	 *
+	 * @throws IOException If the file cannot be read
+	 */
+	long getFileSize( String remoteFile ) throws IOException;
+
+	/**
+	 * Get the modification time of a remote file
+	 *
+	 * @param remoteFile The name of the remote file
+	 *
+	 * @return The time in epoch millis, or -1 if the server does not tell
+	 *
+	 * @throws IOException If the file cannot be read
+	 */
+	long getFileModified( String remoteFile ) throws IOException;
+
+	/**
+	 * Stream a whole remote file into a stream instead of a local file, flushing every chunk as it
+	 * arrives. A file larger than {@code maxBytes} fails, and no byte past the limit is written. A
+	 * failure of either side leaves the stream with part of the file, and the connection usable.
+	 * The file is read in binary mode whatever the file type of the connection.
+	 *
+	 * @param remoteFile The name of the file to copy
+	 * @param out        The stream the file is written to, flushed but not closed
+	 * @param maxBytes   The largest file accepted, 0 for no limit
+	 *
+	 * @return The bytes written
+	 *
+	 * @throws IOException If an error occurs while copying the file
+	 */
+	long getFile( String remoteFile, OutputStream out, long maxBytes ) throws IOException;
+
+	/**
+	 * Retrieve a whole remote file into memory, in a buffer sized from the remote size. A file
+	 * larger than {@code maxBytes} fails before any byte is read when the server tells its size.
+	 * The file is read in binary mode whatever the file type of the connection.
+	 *
+	 * @param remoteFile The name of the file to copy
+	 * @param maxBytes   The largest file accepted, 0 for no limit other than the max array size
+	 *
+	 * @return The bytes of the file
+	 *
+	 * @throws IOException If an error occurs while copying the file
+	 */
+	byte[] getBytes( String remoteFile, long maxBytes ) throws IOException;
+
+	/**
+	 * Retrieve a byte range of a remote file: FTP restarts the transfer at the offset with
+	 * {@code REST} and stops it once the range is read, SFTP reads from the offset.
+	 *
+	 * @param remoteFile The name of the remote file
+	 * @param offset     The position of the first byte to read
+	 * @param length     The bytes to read, or -1 to read up to the end of the file
+	 * @param out        The stream the bytes are written to, it is not closed
+	 *
+	 * @return The bytes read, fewer than asked only when the file ends first
+	 *
+	 * @throws IOException If the range cannot be read
+	 */
+	long getRange( String remoteFile, long offset, long length, OutputStream out ) throws IOException;
+
+	/**
+	 * Read a byte range of a remote file into memory, such as its header. Only the range crosses
+	 * the network, whatever the size of the file.
+	 *
+	 * @param remoteFile The name of the remote file
+	 * @param offset     The position of the first byte to read
+	 * @param length     The bytes to read, at least 1
+	 *
+	 * @return The bytes read, fewer than asked only when the file ends first
+	 *
+	 * @throws IOException If the range cannot be read
+	 */
+	byte[] readRange( String remoteFile, long offset, long length ) throws IOException;
+
+	/**
+	 * Open a remote file as a read only seekable channel, for readers that need random access such
+	 * as ZIP or Parquet ones. Blocks are fetched with byte range reads as they are read, cached,
+	 * and read ahead on sequential reads. Each read holds the connection like an action does.
+	 *
+	 * @param remoteFile The name of the remote file
+	 *
+	 * @return The channel, with the default block, cache and read ahead sizes
+	 *
+	 * @throws IOException If the size of the file is unknown
+	 */
+	RemoteFileChannel openChannel( String remoteFile ) throws IOException;
+
+	/**
+	 * Open a remote file as a stream, from an offset. The transfer holds the connection until the
+	 * stream is closed, which ends it whether or not the whole file was read.
+	 *
+	 * @param remoteFile The name of the remote file
+	 * @param offset     The position of the first byte to read
+	 *
+	 * @return The stream of the file, to close before any other action on the connection
+	 *
+	 * @throws IOException If the file cannot be read
+	 */
+	InputStream openStream( String remoteFile, long offset ) throws IOException;
+
 	/**
 	 * Put a file on the remote server.
 	 *
@@ -83,6 +208,49 @@ public interface IFTPConnection {
 	 */
 	boolean putFile( String localFile, String remoteFile ) throws IOException;
 
+	/**
+	 * Put a file on the remote server, optionally resuming a partial upload: the bytes already in
+	 * the remote file are kept and only the rest of the local file is sent.
+	 *
+	 * @param localFile  The file path of the local file you want to copy
+	 * @param remoteFile The name of the remote file you want to create/update
+	 * @param resume     If true, append the remaining bytes to the remote file instead of starting over
+	 *
+	 * @return True if the file was copied, false otherwise
+	 *
+	 * @throws IOException If an error occurs while copying the file
+	 */
+	boolean putFile( String localFile, String remoteFile, boolean resume ) throws IOException;
+
+	/**
+	 * Put the content of a stream on the remote server, without a local file. The bytes are sent
+	 * as they are, FTP uploads them in binary mode.
+	 *
+	 * @param content    The stream to upload, read up to its end and left open
+	 * @param size       The bytes of the stream, or -1 if unknown, only used to report progress
+	 * @param remoteFile The name of the remote file you want to create/update
+	 *
+	 * @return True if the content was uploaded, false otherwise
+	 *
+	 * @throws IOException If an error occurs while uploading the content
+	 */
+	boolean putFile( InputStream content, long size, String remoteFile ) throws IOException;
+
+	/**
+	 * Check that the bytes right before a resume offset are the same in the local and the remote
+	 * file, so a transfer is only resumed onto a true prefix of its source
+	 *
+	 * @param remoteFile The name of the remote file
+	 * @param localFile  The path of the local file
+	 * @param offset     Where the transfer would resume
+	 * @param length     How many bytes before the offset to compare
+	 *
+	 * @return True if the bytes match
+	 *
+	 * @throws IOException If either file cannot be read
+	 */
+	boolean verifyTail( String remoteFile, String localFile, long offset, int length ) throws IOException;
+
 	/**
 	 * Remove a file on the server.
 	 *
@@ -147,6 +315,24 @@ public interface IFTPConnection {
 	 */
 	IFTPConnection setStopOnError( boolean stopOnError );
 
+	/**
+	 * Run the transfers in binary mode instead of the default mode of the protocol. Byte offsets
+	 * only line up in binary mode, so transfers that may resume where they stopped need it. SFTP
+	 * transfers are always binary.
+	 *
+	 * @param binary True for binary transfers, false for the default mode
+	 *
+	 * @return This connection for chaining
+	 */
+	IFTPConnection setBinary( boolean binary );
+
+	/**
+	 * Do the transfers run in binary mode, always true for SFTP
+	 *
+	 * @return True if the transfers run in binary mode
+	 */
+	boolean isBinary();
+
 	/**
 	 * Create a directory on the server.
 	 *
@@ -206,6 +392,30 @@ public interface IFTPConnection {
 	 */
 	Object listdir( ReturnType returntype ) throws IOException;
 
+	/**
+	 * List the contents of a directory without changing into it.
+	 *
+	 * @param directory The directory to list, relative to the working directory or absolute
+	 *
+	 * @return The contents of the directory as an Array of Structs, without the . and .. entries
+	 *
+	 * @throws IOException If the directory cannot be listed
+	 */
+	Array listFiles( String directory ) throws IOException;
+
+	/**
+	 * List a directory and all of its subdirectories, breadth first. The {@code path} of every
+	 * entry is its path relative to the listed directory, with forward slashes.
+	 *
+	 * @param directory The directory to walk, relative to the working directory or absolute
+	 * @param filter    The files to keep and the directories to skip
+	 *
+	 * @return The directories and files of the tree as an Array of Structs
+	 *
+	 * @throws IOException If a directory cannot be listed
+	 */
+	Array listTree( String directory, PathFilter filter ) throws IOException;
+
 	/**
 	 * Get the connection metadata.
 	 *
@@ -219,4 +429,104 @@ public interface IFTPConnection {
 	 * @return The name of the connection
 	 */
 	Key getName();
+
+	/**
+	 * Mark the connection as in use by the current thread, waiting for any other operation or
+	 * keepalive on it to finish first. Every call MUST be paired with {@link #endOperation()}.
+	 */
+	void beginOperation();
+
+	/**
+	 * Mark the end of an operation started with {@link #beginOperation()}. This counts as activity
+	 * for the idle time of the connection.
+	 */
+	void endOperation();
+
+	/**
+	 * Send a cheap keepalive to the server (FTP {@code NOOP}, SFTP {@code realpath(".")}) so idle
+	 * control channels are not dropped by firewalls. Does nothing if the connection is in use,
+	 * and does not count as activity for the idle time of the connection.
+	 *
+	 * @param interval Only send it if there was no operation nor keepalive for at least this long, {@link Duration#ZERO} always sends it
+	 *
+	 * @return False if the server did not answer and the connection should be discarded
+	 */
+	boolean keepAlive( Duration interval );
+
+	/**
+	 * Check that the server still answers. Unlike {@link #isConnected()}, which only looks at the
+	 * local socket, this sends a cheap request (FTP {@code NOOP}, SFTP {@code realpath(".")}) unless
+	 * the server already answered one within {@code maxAge}.
+	 *
+	 * @param maxAge How long a successful probe is trusted, {@link Duration#ZERO} always probes
+	 *
+	 * @return True if the connection is alive
+	 */
+	boolean isAlive( Duration maxAge );
+
+	/**
+	 * Drop the connection and open it again with the config it was opened with, moving back
+	 * into the last working directory.
+	 *
+	 * @return This connection for chaining
+	 *
+	 * @throws IOException If an error occurs while connecting
+	 */
+	IFTPConnection reconnect() throws IOException;
+
+	/**
+	 * Get the config the connection was opened with.
+	 *
+	 * @return The config or null if the connection was not opened from a config
+	 */
+	FTPConnectionConfig getConfig();
+
+	/**
+	 * Set the config the connection was opened with, so it can be reconnected. Null disables reconnects.
+	 *
+	 * @param config The config
+	 *
+	 * @return This connection for chaining
+	 */
+	IFTPConnection setConfig( FTPConnectionConfig config );
+
+	/**
+	 * Close the connection if it is not in use and has been idle for at least the passed time.
+	 *
+	 * @param idleTimeout The max idle time
+	 *
+	 * @return True if the connection was closed
+	 */
+	boolean closeIfIdle( Duration idleTimeout );
+
+	/**
+	 * Get the time since the connection was last used.
+	 *
+	 * @return The idle time
+	 */
+	Duration getIdleTime();
+
+	/**
+	 * Is an operation currently running on the connection.
+	 *
+	 * @return True if the connection is in use
+	 */
+	boolean isInUse();
+
+	/**
+	 * Follow the transfers of the connection: the bytes they move are counted, and cancelling the
+	 * progress aborts the transfer in flight. Null stops following.
+	 *
+	 * @param progress The progress to report to, or null
+	 *
+	 * @return This connection for chaining
+	 */
+	IFTPConnection setProgress( TransferProgress progress );
+
+	/**
+	 * Get the progress the transfers of the connection report to.
+	 *
+	 * @return The progress or null if nobody follows them
+	 */
+	TransferProgress getProgress();
 }
@@ -0,0 +1,340 @@
+/**
+ * [BoxLang]
+ *
+ * Copyright [2023] [Ortus Solutions, Corp]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ortus.boxlang.ftp;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.jcraft.jsch.Identity;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.KeyPair;
+
+import ortus.boxlang.runtime.types.IStruct;
+import ortus.boxlang.runtime.types.Struct;
+import ortus.boxlang.runtime.types.exceptions.BoxRuntimeException;
+
+/**
+ * A process wide cache of parsed and decrypted SSH private keys.
+ * <p>
+ * Reading a key file and decrypting it, which runs a deliberately slow key derivation for
+ * passphrase protected keys, is done once per key instead of on every SSH login. Keys are
+ * cached by path and passphrase hash, and reloaded when the file changes (modification time or
+ * size). The passphrase itself is never kept. Least recently used keys are evicted above
+ * {@code maxSize}, and keys unused for {@code ttl} are evicted too.
+ * </p>
+ */
+public class IdentityCache {
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Defaults
+	 * --------------------------------------------------------------------------
+	 */
+
+	public static final int				DEFAULT_MAX_SIZE	= 32;
+	// In Seconds
+	public static final Duration		DEFAULT_TTL			= Duration.ofMinutes( 30 );
+
+	/**
+	 * Only used to load key files, no session is ever opened with it
+	 */
+	private static final JSch			JSCH				= new JSch();
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Properties
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * The cached keys by path + passphrase hash, in access order
+	 */
+	private final Map<String, Entry>	entries				= new LinkedHashMap<>( 16, 0.75f, true );
+
+	/**
+	 * Max keys kept
+	 */
+	private int							maxSize				= DEFAULT_MAX_SIZE;
+
+	/**
+	 * Keys unused this long are evicted, zero keeps them until they are pushed out
+	 */
+	private Duration					ttl					= DEFAULT_TTL;
+
+	/**
+	 * Stats
+	 */
+	private long						hits				= 0;
+	private long						misses				= 0;
+	private long						evictions			= 0;
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Cache Methods
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Get the identity of a private key file, parsing and decrypting it only if it is not cached
+	 * or the file changed since it was.
+	 *
+	 * @param privateKey The path to the private key file
+	 * @param passphrase The passphrase of the key, or null
+	 *
+	 * @return The decrypted identity, ready to be added to a {@link JSch}
+	 *
+	 * @throws BoxRuntimeException If the file does not exist or the passphrase does not decrypt the key
+	 * @throws JSchException       If the key file cannot be parsed
+	 */
+	public synchronized Identity get( String privateKey, String passphrase ) throws JSchException {
+		File keyFile = new File( privateKey ).getAbsoluteFile();
+		if ( !keyFile.isFile() ) {
+			throw new BoxRuntimeException( "Private key file [" + keyFile + "] does not exist" );
+		}
+
+		long	now			= System.currentTimeMillis();
+		String	cacheKey	= keyFile.getPath() + "|" + hash( passphrase );
+		Entry	entry		= this.entries.get( cacheKey );
+
+		if ( entry != null && entry.lastModified == keyFile.lastModified() && entry.size == keyFile.length() && !isExpired( entry, now ) ) {
+			this.hits++;
+			entry.lastUsed = now;
+			return entry.identity;
+		}
+
+		// Not cached, expired or the file changed on disk
+		this.misses++;
+		KeyPair keyPair = KeyPair.load( JSCH, keyFile.getPath() );
+		if ( keyPair.isEncrypted() ) {
+			if ( passphrase == null || passphrase.isEmpty() ) {
+				throw new BoxRuntimeException( "Private key [" + keyFile + "] is encrypted and no passphrase was given" );
+			}
+			if ( !keyPair.decrypt( passphrase.getBytes( StandardCharsets.UTF_8 ) ) ) {
+				throw new BoxRuntimeException( "The passphrase does not decrypt private key [" + keyFile + "]" );
+			}
+		}
+
+		entry = new Entry( new CachedIdentity( keyFile.getPath(), keyPair ), keyFile.lastModified(), keyFile.length(), now );
+		this.entries.put( cacheKey, entry );
+		evictOverflow();
+		return entry.identity;
+	}
+
+	/**
+	 * Drop the keys unused for longer than the ttl
+	 *
+	 * @return The number of keys evicted
+	 */
+	public synchronized int evictExpired() {
+		long	now		= System.currentTimeMillis();
+		int		count	= 0;
+		for ( Iterator<Entry> it = this.entries.values().iterator(); it.hasNext(); ) {
+			if ( isExpired( it.next(), now ) ) {
+				it.remove();
+				count++;
+			}
+		}
+		this.evictions += count;
+		return count;
+	}
+
+	/**
+	 * Drop every key
+	 */
+	public synchronized void clear() {
+		this.entries.clear();
+	}
+
+	/**
+	 * Set the max keys kept, least recently used ones are evicted first
+	 *
+	 * @param maxSize The max keys kept, at least 1
+	 *
+	 * @return This cache for chaining
+	 */
+	public synchronized IdentityCache setMaxSize( int maxSize ) {
+		this.maxSize = Math.max( 1, maxSize );
+		evictOverflow();
+		return this;
+	}
+
+	/**
+	 * Set how long an unused key is kept
+	 *
+	 * @param ttl The time to live, zero keeps keys until they are pushed out
+	 *
+	 * @return This cache for chaining
+	 */
+	public synchronized IdentityCache setTtl( Duration ttl ) {
+		this.ttl = ttl;
+		return this;
+	}
+
+	/**
+	 * Get the cache stats
+	 *
+	 * @return The stats as a struct
+	 */
+	public synchronized IStruct getStats() {
+		return Struct.of(
+		    "size", this.entries.size(),
+		    "maxSize", this.maxSize,
+		    "ttl", this.ttl.toSeconds(),
+		    "hits", this.hits,
+		    "misses", this.misses,
+		    "evictions", this.evictions
+		);
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Helpers
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Drop the least recently used keys above the max size
+	 */
+	private void evictOverflow() {
+		Iterator<Entry> it = this.entries.values().iterator();
+		while ( this.entries.size() > this.maxSize && it.hasNext() ) {
+			it.next();
+			it.remove();
+			this.evictions++;
+		}
+	}
+
+	/**
+	 * @return True if the entry went unused for longer than the ttl
+	 */
+	private boolean isExpired( Entry entry, long now ) {
+		return !this.ttl.isZero() && now - entry.lastUsed > this.ttl.toMillis();
+	}
+
+	/**
+	 * Hash a passphrase so it can be part of a cache key without being kept around
+	 *
+	 * @param passphrase The passphrase or null
+	 *
+	 * @return The hex SHA-256 of the passphrase, or an empty string
+	 */
+	private static String hash( String passphrase ) {
+		if ( passphrase == null || passphrase.isEmpty() ) {
+			return "";
+		}
+		try {
+			return HexFormat.of().formatHex( MessageDigest.getInstance( "SHA-256" ).digest( passphrase.getBytes( StandardCharsets.UTF_8 ) ) );
+		} catch ( NoSuchAlgorithmException e ) {
+			throw new BoxRuntimeException( "SHA-256 is not available", e );
+		}
+	}
+
+	/**
+	 * A cached key
+	 */
+	private static final class Entry {
+
+		private final Identity	identity;
+		private final long		lastModified;
+		private final long		size;
+		private long			lastUsed;
+
+		private Entry( Identity identity, long lastModified, long size, long lastUsed ) {
+			this.identity		= identity;
+			this.lastModified	= lastModified;
+			this.size			= size;
+			this.lastUsed		= lastUsed;
+		}
+	}
+
+	/**
+	 * An already decrypted key shared by every session that uses it. It is owned by the cache, so
+	 * sessions can never clear it.
+	 */
+	private static final class CachedIdentity implements Identity {
+
+		private final String	name;
+		private final KeyPair	keyPair;
+		private final String	algName;
+
+		private CachedIdentity( String name, KeyPair keyPair ) {
+			this.name		= name;
+			this.keyPair	= keyPair;
+			this.algName	= readAlgName( keyPair.getPublicKeyBlob() );
+		}
+
+		@Override
+		public boolean setPassphrase( byte[] passphrase ) {
+			return true;
+		}
+
+		@Override
+		public byte[] getPublicKeyBlob() {
+			return this.keyPair.getPublicKeyBlob();
+		}
+
+		@Override
+		public byte[] getSignature( byte[] data ) {
+			return this.keyPair.getSignature( data );
+		}
+
+		@Override
+		public boolean decrypt() {
+			return true;
+		}
+
+		@Override
+		public String getAlgName() {
+			return this.algName;
+		}
+
+		@Override
+		public String getName() {
+			return this.name;
+		}
+
+		@Override
+		public boolean isEncrypted() {
+			return false;
+		}
+
+		@Override
+		public void clear() {
+			// Owned by the cache
+		}
+
+		/**
+		 * The algorithm name is the first string of the public key blob: a 4 byte length, then the name
+		 */
+		private static String readAlgName( byte[] blob ) {
+			if ( blob == null || blob.length < 4 ) {
+				throw new BoxRuntimeException( "The private key has no public key, it cannot be used to authenticate" );
+			}
+			int length = ( ( blob[ 0 ] & 0xff ) << 24 ) | ( ( blob[ 1 ] & 0xff ) << 16 ) | ( ( blob[ 2 ] & 0xff ) << 8 ) | ( blob[ 3 ] & 0xff );
+			return new String( blob, 4, length, StandardCharsets.UTF_8 );
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * [BoxLang]
+ *
+ * Copyright [2023] [Ortus Solutions, Corp]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ortus.boxlang.ftp;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Include and exclude globs for the files of a directory tree.
+ * <p>
+ * Patterns are comma separated globs. A pattern without a slash matches the name of a file at any
+ * depth ({@code *.csv}), a pattern with a slash matches its path relative to the root of the tree
+ * ({@code reports/**}). Files must match an include pattern, if any are given, and no exclude
+ * pattern. Excluded directories are not walked at all.
+ * </p>
+ */
+public class PathFilter {
+
+	/**
+	 * A filter that keeps everything
+	 */
+	public static final PathFilter	ALL	= new PathFilter( null, null );
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Properties
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Files must match one of these, if any
+	 */
+	private final List<PathMatcher>	includes;
+
+	/**
+	 * Files and directories must match none of these
+	 */
+	private final List<PathMatcher>	excludes;
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Constructors
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Build a filter
+	 *
+	 * @param include Comma separated globs files must match, null or empty to include every file
+	 * @param exclude Comma separated globs of the files and directories to skip, or null
+	 */
+	public PathFilter( String include, String exclude ) {
+		this.includes	= compile( include );
+		this.excludes	= compile( exclude );
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Filter Methods
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Should a file be kept
+	 *
+	 * @param relativePath The path of the file relative to the root of the tree, with forward slashes
+	 *
+	 * @return True if the file is included and not excluded
+	 */
+	public boolean acceptsFile( String relativePath ) {
+		return ( this.includes.isEmpty() || matches( this.includes, relativePath ) ) && !matches( this.excludes, relativePath );
+	}
+
+	/**
+	 * Should a directory be walked
+	 *
+	 * @param relativePath The path of the directory relative to the root of the tree, with forward slashes
+	 *
+	 * @return True if the directory is not excluded
+	 */
+	public boolean acceptsDirectory( String relativePath ) {
+		return !matches( this.excludes, relativePath );
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Helpers
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Does a path match one of the patterns
+	 */
+	private static boolean matches( List<PathMatcher> matchers, String relativePath ) {
+		if ( matchers.isEmpty() ) {
+			return false;
+		}
+		Path	path	= Path.of( relativePath );
+		Path	name	= path.getFileName();
+		for ( PathMatcher matcher : matchers ) {
+			if ( matcher.matches( path ) || ( name != null && matcher.matches( name ) ) ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Compile a comma separated list of globs
+	 */
+	private static List<PathMatcher> compile( String patterns ) {
+		List<PathMatcher> matchers = new ArrayList<>();
+		if ( patterns == null ) {
+			return matchers;
+		}
+		for ( String pattern : patterns.split( "," ) ) {
+			if ( !pattern.isBlank() ) {
+				matchers.add( FileSystems.getDefault().getPathMatcher( "glob:" + pattern.trim() ) );
+			}
+		}
+		return matchers;
+	}
+}
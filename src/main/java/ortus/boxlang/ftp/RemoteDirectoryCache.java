@@ -0,0 +1,243 @@
+/**
+ * [BoxLang]
+ *
+ * Copyright [2023] [Ortus Solutions, Corp]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ortus.boxlang.ftp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import ortus.boxlang.runtime.dynamic.casters.BooleanCaster;
+import ortus.boxlang.runtime.scopes.Key;
+import ortus.boxlang.runtime.types.IStruct;
+
+/**
+ * The remote directories known to exist, so a tree can be created with as few round trips as
+ * possible: every directory gets at most one {@code MKD}/{@code mkdir}, a directory that already
+ * existed costs one listing of its parent, shared with all its siblings, and the children of a
+ * directory created by the cache are created right away since they cannot exist yet.
+ * <p>
+ * A cache is meant for one action on one session, it is not thread safe.
+ * </p>
+ */
+public class RemoteDirectoryCache {
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Properties
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Directories known to exist
+	 */
+	private final Set<String>	known		= new HashSet<>( List.of( "", "/" ) );
+
+	/**
+	 * Directories created by this cache, their children cannot exist yet
+	 */
+	private final Set<String>	created		= new HashSet<>();
+
+	/**
+	 * Directories whose children were listed
+	 */
+	private final Set<String>	listed		= new HashSet<>();
+
+	/**
+	 * Directories that could not be created
+	 */
+	private final Set<String>	failed		= new HashSet<>();
+
+	/**
+	 * Round trips done
+	 */
+	private int					listings	= 0;
+	private int					mkdirs		= 0;
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Cache Methods
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Create every missing directory of a tree in one pass, parents first
+	 *
+	 * @param connection  The session to create them with
+	 * @param directories The remote directories, in any order
+	 *
+	 * @return The directories that could not be created
+	 */
+	public List<String> ensureAll( IFTPConnection connection, Collection<String> directories ) {
+		List<String> missing = new ArrayList<>();
+		// Sorted, a parent always comes before its children
+		for ( String directory : new TreeSet<>( directories ) ) {
+			if ( !ensure( connection, directory ) ) {
+				missing.add( directory );
+			}
+		}
+		return missing;
+	}
+
+	/**
+	 * Make sure a remote directory and its parents exist, creating the missing ones
+	 *
+	 * @param connection The session to create them with
+	 * @param directory  The remote directory, relative to the working directory or absolute
+	 *
+	 * @return False if the directory could not be created
+	 */
+	public boolean ensure( IFTPConnection connection, String directory ) {
+		for ( String current : ancestorsOf( directory ) ) {
+			if ( this.known.contains( current ) ) {
+				continue;
+			}
+			if ( this.failed.contains( current ) ) {
+				return false;
+			}
+
+			// What the parent already holds is learnt once, unless the cache just created it
+			String parent = parentOf( current );
+			if ( !this.created.contains( parent ) && this.listed.add( parent ) ) {
+				learn( connection, parent );
+				if ( this.known.contains( current ) ) {
+					continue;
+				}
+			}
+
+			if ( !create( connection, current ) ) {
+				this.failed.add( current );
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Record directories already known to exist, from a listing of the tree
+	 *
+	 * @param directories The remote directories
+	 *
+	 * @return This cache
+	 */
+	public RemoteDirectoryCache addKnown( Collection<String> directories ) {
+		this.known.addAll( directories );
+		return this;
+	}
+
+	/**
+	 * @return The number of directories created
+	 */
+	public int getCreated() {
+		return this.created.size();
+	}
+
+	/**
+	 * @return The number of {@code MKD}/{@code mkdir} sent
+	 */
+	public int getMkdirs() {
+		return this.mkdirs;
+	}
+
+	/**
+	 * @return The number of parents listed
+	 */
+	public int getListings() {
+		return this.listings;
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Helpers
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Record the subdirectories of a directory as known. A directory that cannot be listed is
+	 * simply not learnt from, its children are created and checked one by one.
+	 */
+	private void learn( IFTPConnection connection, String parent ) {
+		this.listings++;
+		try {
+			for ( Object listed : connection.listFiles( parent.isEmpty() ? "." : parent ) ) {
+				IStruct entry = ( IStruct ) listed;
+				if ( BooleanCaster.cast( entry.get( FTPKeys.isDirectory ) ) ) {
+					this.known.add( join( parent, entry.getAsString( Key._name ) ) );
+				}
+			}
+		} catch ( IOException | RuntimeException e ) {
+			// Unreadable or missing, it will show when creating the children
+		}
+	}
+
+	/**
+	 * Create a directory, a failure is double checked since it may exist without being listable
+	 */
+	private boolean create( IFTPConnection connection, String directory ) {
+		this.mkdirs++;
+		try {
+			if ( connection.createDir( directory ) ) {
+				this.known.add( directory );
+				this.created.add( directory );
+				return true;
+			}
+		} catch ( RuntimeException e ) {
+			// Checked below
+		}
+		try {
+			if ( Boolean.TRUE.equals( connection.existsDir( directory ) ) ) {
+				this.known.add( directory );
+				return true;
+			}
+		} catch ( IOException | RuntimeException e ) {
+			// Not there
+		}
+		return false;
+	}
+
+	/**
+	 * The directory and its parents, outermost first: {@code a/b} gives {@code a, a/b}
+	 */
+	private static List<String> ancestorsOf( String directory ) {
+		List<String>	ancestors	= new ArrayList<>();
+		String			trimmed		= directory.length() > 1 && directory.endsWith( "/" ) ? directory.substring( 0, directory.length() - 1 ) : directory;
+		for ( int slash = trimmed.indexOf( '/', 1 ); slash > 0; slash = trimmed.indexOf( '/', slash + 1 ) ) {
+			ancestors.add( trimmed.substring( 0, slash ) );
+		}
+		ancestors.add( trimmed );
+		return ancestors;
+	}
+
+	/**
+	 * @return The parent of a directory, {@code /} for top level absolute ones and empty for top level relative ones
+	 */
+	private static String parentOf( String directory ) {
+		int slash = directory.lastIndexOf( '/' );
+		return slash < 0 ? "" : slash == 0 ? "/" : directory.substring( 0, slash );
+	}
+
+	/**
+	 * @return The path of a child of a directory
+	 */
+	private static String join( String parent, String name ) {
+		return parent.isEmpty() ? name : parent.endsWith( "/" ) ? parent + name : parent + "/" + name;
+	}
+}
@@ -0,0 +1,362 @@
+/**
+ * [BoxLang]
+ *
+ * Copyright [2023] [Ortus Solutions, Corp]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ortus.boxlang.ftp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ortus.boxlang.runtime.types.IStruct;
+import ortus.boxlang.runtime.types.Struct;
+
+/**
+ * A read only {@link SeekableByteChannel} over a remote file, for readers that need random access
+ * such as ZIP, Parquet or PDF ones. The file is fetched in fixed size blocks with byte range reads:
+ * FTP restarts the transfer at the block with {@code REST}, SFTP reads at its offset. Only the
+ * blocks the reader touches cross the network.
+ * <p>
+ * Blocks are kept in a bounded LRU cache. A read of the first block, or of the block right after
+ * the previous one, is taken as a sequential scan and fetches the next blocks with it in one
+ * transfer.
+ * </p>
+ * <p>
+ * Every read holds the connection the way an action does, so keepalives and idle eviction wait
+ * for it instead of running in the middle of a transfer, and counts as activity on it. Closing the
+ * channel leaves the connection open.
+ * </p>
+ */
+public class RemoteFileChannel implements SeekableByteChannel {
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Defaults
+	 * --------------------------------------------------------------------------
+	 */
+
+	// In Bytes
+	public static final int			DEFAULT_BLOCK_SIZE	= 64 * 1024;
+	// In Bytes
+	public static final int			MIN_BLOCK_SIZE		= 4 * 1024;
+	// In Blocks, 4MB with the default block size
+	public static final int			DEFAULT_CACHE_SIZE	= 64;
+	// In Blocks, fetched with a block read right after the previous one
+	public static final int			DEFAULT_READ_AHEAD	= 4;
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Properties
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * The connection the blocks are read with
+	 */
+	private final IFTPConnection	connection;
+
+	/**
+	 * The remote file
+	 */
+	private final String			remoteFile;
+
+	/**
+	 * The size of the remote file when the channel was opened
+	 */
+	private final long				size;
+
+	/**
+	 * The bytes of a block
+	 */
+	private int						blockSize			= DEFAULT_BLOCK_SIZE;
+
+	/**
+	 * Max blocks in the cache
+	 */
+	private int						cacheSize			= DEFAULT_CACHE_SIZE;
+
+	/**
+	 * Blocks fetched after the one asked on a sequential read
+	 */
+	private int						readAhead			= DEFAULT_READ_AHEAD;
+
+	/**
+	 * The cached blocks by index, least recently used first
+	 */
+	private Map<Long, byte[]>		blocks				= newCache();
+
+	/**
+	 * The position of the next read
+	 */
+	private long					position			= 0;
+
+	/**
+	 * The block of the previous read, to spot sequential scans
+	 */
+	private long					lastBlock			= -1;
+
+	private boolean					open				= true;
+
+	/**
+	 * Stats
+	 */
+	private long					fetches				= 0;
+	private long					bytesFetched		= 0;
+	private long					cacheHits			= 0;
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Constructors
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Build a channel over a remote file
+	 *
+	 * @param connection The connection to read the blocks with
+	 * @param remoteFile The remote file
+	 * @param size       The size of the remote file
+	 */
+	public RemoteFileChannel( IFTPConnection connection, String remoteFile, long size ) {
+		this.connection	= connection;
+		this.remoteFile	= remoteFile;
+		this.size		= size;
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Channel Methods
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Read from the position, out of the cached blocks or the ones fetched for it
+	 *
+	 * @param dst The buffer to fill
+	 *
+	 * @return The bytes read, or -1 at the end of the file
+	 *
+	 * @throws IOException If a block cannot be fetched
+	 */
+	@Override
+	public synchronized int read( ByteBuffer dst ) throws IOException {
+		ensureOpen();
+		if ( this.position >= this.size ) {
+			return -1;
+		}
+		if ( !dst.hasRemaining() ) {
+			return 0;
+		}
+		int read = 0;
+		this.connection.beginOperation();
+		try {
+			while ( dst.hasRemaining() && this.position < this.size ) {
+				long	index	= this.position / this.blockSize;
+				byte[]	block	= block( index );
+				int		offset	= ( int ) ( this.position - index * this.blockSize );
+				int		length	= Math.min( dst.remaining(), block.length - offset );
+				if ( length <= 0 ) {
+					// The file is shorter than when the channel was opened
+					break;
+				}
+				dst.put( block, offset, length );
+				this.position	+= length;
+				read			+= length;
+			}
+		} finally {
+			this.connection.endOperation();
+		}
+		return read == 0 ? -1 : read;
+	}
+
+	@Override
+	public int write( ByteBuffer src ) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		ensureOpen();
+		return this.position;
+	}
+
+	@Override
+	public synchronized SeekableByteChannel position( long newPosition ) throws IOException {
+		ensureOpen();
+		if ( newPosition < 0 ) {
+			throw new IllegalArgumentException( "Negative position [" + newPosition + "]" );
+		}
+		this.position = newPosition;
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		ensureOpen();
+		return this.size;
+	}
+
+	@Override
+	public SeekableByteChannel truncate( long newSize ) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized boolean isOpen() {
+		return this.open;
+	}
+
+	/**
+	 * Drop the cached blocks. The connection stays open.
+	 */
+	@Override
+	public synchronized void close() {
+		this.open = false;
+		this.blocks.clear();
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Settings
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Set the bytes of a block, which drops the cached blocks
+	 *
+	 * @param blockSize The bytes, at least {@link #MIN_BLOCK_SIZE}
+	 *
+	 * @return This channel for chaining
+	 */
+	public synchronized RemoteFileChannel setBlockSize( int blockSize ) {
+		this.blockSize	= Math.max( MIN_BLOCK_SIZE, blockSize );
+		this.blocks		= newCache();
+		this.lastBlock	= -1;
+		return this;
+	}
+
+	/**
+	 * Set the max blocks kept in the cache
+	 *
+	 * @param cacheSize The blocks, at least 1. A read ahead never brings in more than the cache holds
+	 *
+	 * @return This channel for chaining
+	 */
+	public synchronized RemoteFileChannel setCacheSize( int cacheSize ) {
+		this.cacheSize = Math.max( 1, cacheSize );
+		return this;
+	}
+
+	/**
+	 * Set the blocks fetched after the one asked when the reads are sequential
+	 *
+	 * @param readAhead The blocks, 0 to fetch only the block asked
+	 *
+	 * @return This channel for chaining
+	 */
+	public synchronized RemoteFileChannel setReadAhead( int readAhead ) {
+		this.readAhead = Math.max( 0, readAhead );
+		return this;
+	}
+
+	/**
+	 * Get the transfers made, the bytes they fetched and the blocks served from the cache
+	 *
+	 * @return The stats as a struct
+	 */
+	public synchronized IStruct getStats() {
+		return Struct.of(
+		    "remoteFile", this.remoteFile,
+		    "size", this.size,
+		    "fetches", this.fetches,
+		    "bytesFetched", this.bytesFetched,
+		    "cacheHits", this.cacheHits,
+		    "cachedBlocks", this.blocks.size()
+		);
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Helpers
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Get a block from the cache, or fetch it, with the next ones on a sequential read
+	 */
+	private byte[] block( long index ) throws IOException {
+		// Reading the first block usually starts a scan of the file
+		boolean	sequential	= index == this.lastBlock + 1 || index == 0;
+		byte[]	block		= this.blocks.get( index );
+		this.lastBlock = index;
+		if ( block != null ) {
+			this.cacheHits++;
+			return block;
+		}
+
+		long	blockCount	= ( this.size + this.blockSize - 1 ) / this.blockSize;
+		int		count		= ( int ) Math.min( sequential ? 1 + Math.min( this.readAhead, this.cacheSize - 1 ) : 1, blockCount - index );
+		// Blocks already cached end the read ahead, they are not fetched twice
+		for ( int ahead = 1; ahead < count; ahead++ ) {
+			if ( this.blocks.containsKey( index + ahead ) ) {
+				count = ahead;
+				break;
+			}
+		}
+
+		long					offset	= index * this.blockSize;
+		long					length	= Math.min( ( long ) count * this.blockSize, this.size - offset );
+		ByteArrayOutputStream	out		= new ByteArrayOutputStream( ( int ) length );
+		this.connection.getRange( this.remoteFile, offset, length, out );
+		byte[] bytes = out.toByteArray();
+		this.fetches++;
+		this.bytesFetched += bytes.length;
+
+		for ( int ahead = count - 1; ahead >= 0; ahead-- ) {
+			int from = ahead * this.blockSize;
+			if ( from < bytes.length ) {
+				this.blocks.put( index + ahead, Arrays.copyOfRange( bytes, from, Math.min( bytes.length, from + this.blockSize ) ) );
+			}
+		}
+		block = this.blocks.get( index );
+		return block != null ? block : new byte[ 0 ];
+	}
+
+	/**
+	 * A cache dropping its least recently used block once over {@link #cacheSize}
+	 */
+	private Map<Long, byte[]> newCache() {
+		return new LinkedHashMap<>( 16, 0.75f, true ) {
+
+			@Override
+			protected boolean removeEldestEntry( Map.Entry<Long, byte[]> eldest ) {
+				return size() > RemoteFileChannel.this.cacheSize;
+			}
+		};
+	}
+
+	private void ensureOpen() throws ClosedChannelException {
+		if ( !this.open ) {
+			throw new ClosedChannelException();
+		}
+	}
+}
@@ -0,0 +1,249 @@
+/**
+ * [BoxLang]
+ *
+ * Copyright [2023] [Ortus Solutions, Corp]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ortus.boxlang.ftp;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.jcraft.jsch.JSchException;
+
+import ortus.boxlang.runtime.dynamic.casters.IntegerCaster;
+import ortus.boxlang.runtime.types.IStruct;
+import ortus.boxlang.runtime.types.exceptions.BoxRuntimeException;
+
+/**
+ * Decides if a failed action can be run again, and how long to wait before doing so.
+ * <p>
+ * Only idempotent actions are retried: running them twice has the same outcome as running them
+ * once, so a retry after a lost reply is always safe. Renames, removals and directory creation
+ * are never retried, the first attempt may have gone through on the server.
+ * </p>
+ * <p>
+ * Only transient failures are retried: network errors, dropped sessions and the FTP replies that
+ * mean "try again later" (421, 425, 426, 450, 451). The wait between attempts grows exponentially
+ * from {@code retryDelay} up to {@code retryMaxDelay}, with a random jitter so clients that failed
+ * together do not all come back at the same time.
+ * </p>
+ */
+public class RetryPolicy {
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Defaults
+	 * --------------------------------------------------------------------------
+	 */
+
+	public static final int				DEFAULT_RETRY_COUNT		= 0;
+	// In Milliseconds
+	public static final Duration		DEFAULT_RETRY_DELAY		= Duration.ofMillis( 500 );
+	// In Milliseconds
+	public static final Duration		DEFAULT_RETRY_MAX_DELAY	= Duration.ofSeconds( 30 );
+
+	/**
+	 * Actions that can safely run more than once
+	 */
+	public static final Set<String>		IDEMPOTENT_ACTIONS		= Set.of(
+	    "changedir",
+	    "existsdir",
+	    "existsfile",
+	    "getcurrentdir",
+	    "getfile",
+	    "listdir",
+	    "putfile"
+	);
+
+	/**
+	 * FTP replies that mean the server may accept the command later, plus the SFTP
+	 * {@code SSH_FX_NO_CONNECTION} (6) and {@code SSH_FX_CONNECTION_LOST} (7) statuses
+	 */
+	public static final Set<Integer>	TRANSIENT_STATUS_CODES	= Set.of( 421, 425, 426, 450, 451, 6, 7 );
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Properties
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * How many times a failed action is run again, 0 disables retries
+	 */
+	private final int					retryCount;
+
+	/**
+	 * The wait before the first retry
+	 */
+	private final Duration				retryDelay;
+
+	/**
+	 * The longest wait between two attempts
+	 */
+	private final Duration				retryMaxDelay;
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Constructors
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Build a retry policy
+	 *
+	 * @param retryCount    How many times a failed action is run again, 0 disables retries
+	 * @param retryDelay    The wait before the first retry
+	 * @param retryMaxDelay The longest wait between two attempts
+	 */
+	public RetryPolicy( int retryCount, Duration retryDelay, Duration retryMaxDelay ) {
+		this.retryCount		= Math.max( 0, retryCount );
+		this.retryDelay		= retryDelay;
+		this.retryMaxDelay	= retryMaxDelay.compareTo( retryDelay ) < 0 ? retryDelay : retryMaxDelay;
+	}
+
+	/**
+	 * Build the policy of an action: the {@code retryCount}, {@code retryDelay} and {@code retryMaxDelay}
+	 * attributes of the action win over the ones the connection was opened with.
+	 *
+	 * @param config     The config the connection was opened with, can be null
+	 * @param attributes The attributes of the action
+	 *
+	 * @return The retry policy
+	 */
+	public static RetryPolicy of( FTPConnectionConfig config, IStruct attributes ) {
+		RetryPolicy	base		= config != null ? config.getRetryPolicy() : new RetryPolicy( DEFAULT_RETRY_COUNT, DEFAULT_RETRY_DELAY, DEFAULT_RETRY_MAX_DELAY );
+		int			count		= base.retryCount;
+		Duration	delay		= base.retryDelay;
+		Duration	maxDelay	= base.retryMaxDelay;
+
+		if ( attributes.get( FTPKeys.retryCount ) != null ) {
+			count = IntegerCaster.cast( attributes.get( FTPKeys.retryCount ) );
+		}
+		if ( attributes.get( FTPKeys.retryDelay ) != null ) {
+			delay = Duration.ofMillis( IntegerCaster.cast( attributes.get( FTPKeys.retryDelay ) ) );
+		}
+		if ( attributes.get( FTPKeys.retryMaxDelay ) != null ) {
+			maxDelay = Duration.ofMillis( IntegerCaster.cast( attributes.get( FTPKeys.retryMaxDelay ) ) );
+		}
+		return new RetryPolicy( count, delay, maxDelay );
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Policy Methods
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Can the action run again after it failed for the given number of times already retried
+	 *
+	 * @param action  The action, lower case
+	 * @param retries The retries already done
+	 *
+	 * @return True if the action is idempotent and retries are left
+	 */
+	public boolean canRetry( String action, int retries ) {
+		return retries < this.retryCount && IDEMPOTENT_ACTIONS.contains( action );
+	}
+
+	/**
+	 * Is the failure worth a retry: a network error, a dropped session or a transient reply.
+	 * Errors about local files, authentication or host keys are not, nor are cancelled transfers.
+	 * The error is classified first, the status code may be left over from an earlier command.
+	 *
+	 * @param error      The failure, can be null when the action returned a failed status without throwing
+	 * @param connection The connection the action ran on
+	 *
+	 * @return True if the failure is transient
+	 */
+	public static boolean isTransient( Throwable error, IFTPConnection connection ) {
+		// A cancelled transfer failed on purpose
+		if ( connection.getProgress() != null && connection.getProgress().isCancelled() ) {
+			return false;
+		}
+		for ( Throwable cause = error; cause != null; cause = cause.getCause() ) {
+			if ( cause instanceof FileNotFoundException || cause instanceof FileSystemException ) {
+				return false;
+			}
+			if ( cause instanceof JSchException ) {
+				String message = String.valueOf( cause.getMessage() );
+				return !message.startsWith( "Auth" ) && !message.contains( "HostKey" );
+			}
+			if ( cause instanceof IOException ) {
+				return true;
+			}
+		}
+		if ( TRANSIENT_STATUS_CODES.contains( connection.getStatusCode() ) ) {
+			return true;
+		}
+		// The session died under the action, e.g. an SFTP channel closed mid transfer
+		return error != null && !connection.isConnected();
+	}
+
+	/**
+	 * The wait before a retry: exponential from {@code retryDelay}, capped at {@code retryMaxDelay},
+	 * then picked at random in its upper half (equal jitter).
+	 *
+	 * @param retry The retry about to happen, starting at 1
+	 *
+	 * @return The wait
+	 */
+	public Duration backoff( int retry ) {
+		// Capping the shift keeps the doubling from overflowing
+		int		shift	= Math.min( Math.max( 0, retry - 1 ), 30 );
+		long	delay	= Math.min( this.retryMaxDelay.toMillis(), this.retryDelay.toMillis() << shift );
+		long	half	= delay / 2;
+		return Duration.ofMillis( half + ThreadLocalRandom.current().nextLong( delay - half + 1 ) );
+	}
+
+	/**
+	 * Sleep for the backoff of a retry
+	 *
+	 * @param retry The retry about to happen, starting at 1
+	 *
+	 * @throws BoxRuntimeException If interrupted while waiting
+	 */
+	public void pause( int retry ) {
+		try {
+			Thread.sleep( backoff( retry ).toMillis() );
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new BoxRuntimeException( "Interrupted while waiting to retry", e );
+		}
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Getters
+	 * --------------------------------------------------------------------------
+	 */
+
+	public int getRetryCount() {
+		return this.retryCount;
+	}
+
+	public Duration getRetryDelay() {
+		return this.retryDelay;
+	}
+
+	public Duration getRetryMaxDelay() {
+		return this.retryMaxDelay;
+	}
+
+}
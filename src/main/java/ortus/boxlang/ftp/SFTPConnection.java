@@ -21,7 +21,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Arrays;
@@ -36,7 +40,10 @@ import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
 import com.jcraft.jsch.SftpATTRS;
 import com.jcraft.jsch.SftpException;
+import com.jcraft.jsch.SocketFactory;
 
+import ortus.boxlang.ftp.services.FTPService;
+import ortus.boxlang.runtime.BoxRuntime;
 import ortus.boxlang.runtime.dynamic.casters.DateTimeCaster;
 import ortus.boxlang.runtime.logging.BoxLangLogger;
 import ortus.boxlang.runtime.scopes.Key;
@@ -63,6 +70,13 @@ import ortus.boxlang.runtime.types.util.BLCollector;
  */
 public class SFTPConnection extends BaseFTPConnection {
 
+	/**
+	 * The {@link ChannelSftp#put(String, com.jcraft.jsch.SftpProgressMonitor, int, long)} mode that
+	 * writes at the offset as is: ChannelSftp truncates the file only for {@code OVERWRITE}, and
+	 * shifts the offset by the remote size only for {@code RESUME} and {@code APPEND}
+	 */
+	private static final int		POSITIONED_WRITE	= 3;
+
 	/**
 	 * --------------------------------------------------------------------------
 	 * Properties
@@ -72,27 +86,37 @@ public class SFTPConnection extends BaseFTPConnection {
 	/**
 	 * The JSch session object used to connect to the server.
 	 */
-	private Session		session;
+	private Session					session;
 
 	/**
 	 * The SFTP channel used to communicate with the server.
 	 */
-	private ChannelSftp	sftpChannel;
+	private ChannelSftp				sftpChannel;
 
 	/**
 	 * The server address
 	 */
-	private String		server;
+	private String					server;
 
 	/**
 	 * The server port
 	 */
-	private Integer		port;
+	private Integer					port;
 
 	/**
 	 * The fingerprint for host key verification
 	 */
-	private String		fingerprint;
+	private String					fingerprint;
+
+	/**
+	 * The shared session this connection's channel is multiplexed on, if any
+	 */
+	private SharedSSHSession		sharedSession;
+
+	/**
+	 * How the channel pipelines its transfers when the connection has no config
+	 */
+	private SFTPTransferSettings	transferSettings	= SFTPTransferSettings.DEFAULT;
 
 	/**
 	 * --------------------------------------------------------------------------
@@ -137,40 +161,28 @@ public class SFTPConnection extends BaseFTPConnection {
 	    throws IOException {
 		// Verify that the required parameters are present or default them
 		Objects.requireNonNull( server, "Server is required" );
-		port			= Objects.requireNonNullElse( port, DEFAULT_SFTP_PORT );
-		username		= Objects.requireNonNullElse( username, DEFAULT_USERNAME );
-		password		= Objects.requireNonNullElse( password, DEFAULT_PASSWORD );
-		timeout			= Objects.requireNonNullElse( timeout, DEFAULT_TIMEOUT );
+		port				= Objects.requireNonNullElse( port, DEFAULT_SFTP_PORT );
+		username			= Objects.requireNonNullElse( username, DEFAULT_USERNAME );
+		password			= Objects.requireNonNullElse( password, DEFAULT_PASSWORD );
+		timeout				= Objects.requireNonNullElse( timeout, DEFAULT_TIMEOUT );
 
 		// Store for future reference
-		this.username	= username;
-		this.server		= server;
-		this.port		= port;
+		this.username		= username;
+		this.server			= server;
+		this.port			= port;
+		this.sharedSession	= null;
 
 		try {
-			JSch jsch = new JSch();
-
-			// Create session
-			this.session = jsch.getSession( username, server, port );
-			this.session.setPassword( password );
-
-			// Set session properties
-			Properties config = new Properties();
-			config.put( "StrictHostKeyChecking", "no" ); // Will be overridden if fingerprint is provided
-			this.session.setConfig( config );
-
-			// Set timeout
-			this.session.setTimeout( ( int ) timeout.toMillis() );
-
 			// Connect session
-			this.session.connect();
+			this.session		= connectSession( server, port, username, password, null, null, timeout, null );
 
-			// Open SFTP channel
-			this.sftpChannel = ( ChannelSftp ) this.session.openChannel( "sftp" );
+			// Open SFTP channel, its window goes out with the open request
+			this.sftpChannel	= getTransferSettings().applyTo( ( ChannelSftp ) this.session.openChannel( "sftp" ), this.logger );
 			this.sftpChannel.connect();
 
 			this.logger.info( "SFTP connection [{}] opened.", this.name );
 			updateStatus( 226, "Connected" );
+			markValidated();
 
 		} catch ( JSchException e ) {
 			this.logger.error( "SFTP server connection failed: " + e.getMessage() );
@@ -210,42 +222,19 @@ public class SFTPConnection extends BaseFTPConnection {
 		this.server			= server;
 		this.port			= port;
 		this.fingerprint	= fingerprint;
+		this.sharedSession	= null;
 
 		try {
-			JSch jsch = new JSch();
-
-			// Add private key
-			if ( passphrase != null && !passphrase.isEmpty() ) {
-				jsch.addIdentity( privateKey, passphrase );
-			} else {
-				jsch.addIdentity( privateKey );
-			}
-
-			// Create session
-			this.session = jsch.getSession( username, server, port );
-
-			// Set session properties
-			Properties config = new Properties();
-			if ( fingerprint != null && !fingerprint.isEmpty() ) {
-				config.put( "StrictHostKeyChecking", "yes" );
-				// TODO: Implement fingerprint verification via HostKeyRepository
-			} else {
-				config.put( "StrictHostKeyChecking", "no" );
-			}
-			this.session.setConfig( config );
-
-			// Set timeout
-			this.session.setTimeout( ( int ) timeout.toMillis() );
-
 			// Connect session
-			this.session.connect();
+			this.session		= connectSession( server, port, username, null, privateKey, passphrase, timeout, fingerprint );
 
-			// Open SFTP channel
-			this.sftpChannel = ( ChannelSftp ) this.session.openChannel( "sftp" );
+			// Open SFTP channel, its window goes out with the open request
+			this.sftpChannel	= getTransferSettings().applyTo( ( ChannelSftp ) this.session.openChannel( "sftp" ), this.logger );
 			this.sftpChannel.connect();
 
 			this.logger.info( "SFTP connection [{}] opened with key authentication.", this.name );
 			updateStatus( 226, "Connected" );
+			markValidated();
 
 		} catch ( JSchException e ) {
 			this.logger.error( "SFTP server connection failed: " + e.getMessage() );
@@ -255,6 +244,37 @@ public class SFTPConnection extends BaseFTPConnection {
 		return this;
 	}
 
+	/**
+	 * Open this connection as a channel multiplexed over an already authenticated shared session.
+	 * No SSH handshake happens here, only a new {@link ChannelSftp} is opened. Closing this
+	 * connection closes the channel and gives its slot back, the shared session stays open.
+	 *
+	 * @param sharedSession The shared session to open a channel on
+	 * @param timeout       The max time to wait for a free channel slot and to connect the channel
+	 *
+	 * @return This connection for chaining
+	 *
+	 * @throws IOException If an error occurs while opening the channel
+	 */
+	public IFTPConnection openOnSession( SharedSSHSession sharedSession, Duration timeout ) throws IOException {
+		timeout				= Objects.requireNonNullElse( timeout, DEFAULT_TIMEOUT );
+
+		// Store for future reference
+		this.sharedSession	= sharedSession;
+		this.session		= sharedSession.getSession();
+		this.username		= this.session.getUserName();
+		this.server			= this.session.getHost();
+		this.port			= this.session.getPort();
+
+		this.sftpChannel	= sharedSession.acquireChannel( timeout, getTransferSettings() );
+
+		this.logger.debug( "SFTP connection [{}] opened on shared session [{}].", this.name, sharedSession );
+		updateStatus( 226, "Connected" );
+		markValidated();
+
+		return this;
+	}
+
 	/**
 	 * Retrieve a file from the SFTP server and write it out to a local file.
 	 *
@@ -268,15 +288,34 @@ public class SFTPConnection extends BaseFTPConnection {
 	 */
 	@Override
 	public boolean getFile( String remoteFile, String localFile, boolean failIfExists ) throws IOException {
-		File targetFile = new File( localFile );
+		return getFile( remoteFile, localFile, failIfExists, false );
+	}
+
+	/**
+	 * Retrieve a file from the SFTP server, optionally resuming a partial download by skipping the
+	 * bytes already in the local file.
+	 *
+	 * @param remoteFile   The name of the file to copy
+	 * @param localFile    The path of the file to save
+	 * @param failIfExists If true, the file will not be copied if it already exists. Ignored when resuming
+	 * @param resume       If true, append the remaining bytes to the local file instead of starting over
+	 *
+	 * @return True if the file was copied, false otherwise
+	 *
+	 * @throws IOException If an error occurs while copying the file
+	 */
+	@Override
+	public boolean getFile( String remoteFile, String localFile, boolean failIfExists, boolean resume ) throws IOException {
+		File	targetFile	= new File( localFile );
+		long	offset		= resume && targetFile.isFile() ? targetFile.length() : 0;
 
 		// Check if the file exists and if it should be copied over
-		if ( targetFile.exists() && failIfExists ) {
+		if ( !resume && targetFile.exists() && failIfExists ) {
 			throw new BoxRuntimeException( "Error: Local file already exists and [failIfExists=true]" + targetFile );
 		}
 
-		try ( OutputStream outputStream = new FileOutputStream( targetFile ) ) {
-			sftpChannel.get( remoteFile, outputStream );
+		try ( OutputStream outputStream = track( new FileOutputStream( targetFile, offset > 0 ), remainingSize( remoteFile, offset ) ) ) {
+			sftpChannel.get( remoteFile, outputStream, null, ChannelSftp.RESUME, offset );
 			updateStatus( 226, "File retrieved successfully" );
 			return true;
 		} catch ( SftpException e ) {
@@ -287,6 +326,90 @@ public class SFTPConnection extends BaseFTPConnection {
 		}
 	}
 
+	/**
+	 * Get the size of a remote file with a {@code stat}
+	 *
+	 * @param remoteFile The name of the remote file
+	 *
+	 * @return The size in bytes
+	 *
+	 * @throws IOException If the file cannot be read
+	 */
+	@Override
+	public long getFileSize( String remoteFile ) throws IOException {
+		try {
+			return sftpChannel.stat( remoteFile ).getSize();
+		} catch ( SftpException e ) {
+			updateStatus( e.id, e.getMessage() );
+			throw new IOException( "Cannot stat [" + remoteFile + "]: " + e.getMessage(), e );
+		}
+	}
+
+	/**
+	 * Get the modification time of a remote file with a {@code stat}
+	 *
+	 * @param remoteFile The name of the remote file
+	 *
+	 * @return The time in epoch millis
+	 *
+	 * @throws IOException If the file cannot be read
+	 */
+	@Override
+	public long getFileModified( String remoteFile ) throws IOException {
+		try {
+			// In seconds
+			return sftpChannel.stat( remoteFile ).getMTime() * 1000L;
+		} catch ( SftpException e ) {
+			updateStatus( e.id, e.getMessage() );
+			throw new IOException( "Cannot stat [" + remoteFile + "]: " + e.getMessage(), e );
+		}
+	}
+
+	/**
+	 * Retrieve a byte range of a remote file, reading from the offset and closing the remote handle
+	 * once the range is read
+	 *
+	 * @param remoteFile The name of the remote file
+	 * @param offset     The position of the first byte to read
+	 * @param length     The bytes to read, or -1 to read up to the end of the file
+	 * @param out        The stream the bytes are written to, it is not closed
+	 *
+	 * @return The bytes read
+	 *
+	 * @throws IOException If the range cannot be read
+	 */
+	@Override
+	public long getRange( String remoteFile, long offset, long length, OutputStream out ) throws IOException {
+		try ( InputStream in = openStream( remoteFile, offset ) ) {
+			long copied = copy( in, out, length );
+			updateStatus( 226, "Range retrieved successfully" );
+			return copied;
+		}
+	}
+
+	/**
+	 * Open a remote file as a stream reading from an offset. Closing the stream closes the remote
+	 * handle, after the replies to the reads still in flight.
+	 *
+	 * @param remoteFile The name of the remote file
+	 * @param offset     The position of the first byte to read
+	 *
+	 * @return The stream of the file
+	 *
+	 * @throws IOException If the file cannot be read
+	 */
+	@Override
+	public InputStream openStream( String remoteFile, long offset ) throws IOException {
+		try {
+			InputStream in = sftpChannel.get( remoteFile, null, offset );
+			updateStatus( 226, "File opened for reading" );
+			return in;
+		} catch ( SftpException e ) {
+			updateStatus( e.id, e.getMessage() );
+			throw new IOException( "Cannot read [" + remoteFile + "] from offset " + offset + ": " + e.getMessage(), e );
+		}
+	}
+
 	/**
 	 * Put a file on the remote SFTP server.
 	 *
@@ -300,10 +423,45 @@ public class SFTPConnection extends BaseFTPConnection {
 	 */
 	@Override
 	public boolean putFile( String localFile, String remoteFile ) throws IOException {
-		File targetFile = ensureLocalFile( new File( localFile ) );
+		return putFile( localFile, remoteFile, false );
+	}
 
-		try ( FileInputStream inputStream = new FileInputStream( targetFile ) ) {
-			sftpChannel.put( inputStream, remoteFile );
+	/**
+	 * Put a file on the remote SFTP server, optionally resuming a partial upload with the
+	 * {@code RESUME} mode: the local bytes the remote file already holds are skipped and the rest
+	 * is written after them. A remote file longer than the local one is no partial upload of it,
+	 * it is replaced instead.
+	 *
+	 * @param localFile  The file path of the local file you want to copy
+	 * @param remoteFile The name of the remote file you want to create/update
+	 * @param resume     If true, append the remaining bytes to the remote file instead of starting over
+	 *
+	 * @return True if the file was copied, false otherwise
+	 *
+	 * @throws BoxRuntimeException If the local file does not exist, not a file, or cannot be read.
+	 * @throws IOException         If an error occurs while copying the file
+	 */
+	@Override
+	public boolean putFile( String localFile, String remoteFile, boolean resume ) throws IOException {
+		File	targetFile	= ensureLocalFile( new File( localFile ) );
+		int		mode		= resume ? ChannelSftp.RESUME : ChannelSftp.OVERWRITE;
+
+		if ( resume ) {
+			long remoteSize = -1;
+			try {
+				remoteSize = sftpChannel.stat( remoteFile ).getSize();
+			} catch ( SftpException e ) {
+				// Missing, there is nothing to skip
+			}
+			if ( remoteSize > targetFile.length() ) {
+				this.logger.warn( "Cannot resume [{}]: the remote file has {} bytes but the local one only {}, starting over", remoteFile, remoteSize,
+				    targetFile.length() );
+				mode = ChannelSftp.OVERWRITE;
+			}
+		}
+
+		try ( InputStream inputStream = track( new FileInputStream( targetFile ), targetFile.length() ) ) {
+			sftpChannel.put( inputStream, remoteFile, mode );
 			updateStatus( 226, "File uploaded successfully" );
 			return true;
 		} catch ( SftpException e ) {
@@ -314,6 +472,109 @@ public class SFTPConnection extends BaseFTPConnection {
 		}
 	}
 
+	/**
+	 * Put the content of a stream on the remote SFTP server
+	 *
+	 * @param content    The stream to upload, read up to its end and left open
+	 * @param size       The bytes of the stream, or -1 if unknown, only used to report progress
+	 * @param remoteFile The name of the remote file you want to create/update
+	 *
+	 * @return True if the content was uploaded, false otherwise
+	 *
+	 * @throws IOException If an error occurs while uploading the content
+	 */
+	@Override
+	public boolean putFile( InputStream content, long size, String remoteFile ) throws IOException {
+		try {
+			sftpChannel.put( track( content, size ), remoteFile, ChannelSftp.OVERWRITE );
+			updateStatus( 226, "File uploaded successfully" );
+			return true;
+		} catch ( SftpException e ) {
+			this.logger.error( "Error uploading content: " + e.getMessage() );
+			updateStatus( e.id, e.getMessage() );
+			handleError();
+			return false;
+		}
+	}
+
+	/**
+	 * Create an empty remote file, truncating it if it exists, so ranges can be written into it
+	 *
+	 * @param remoteFile The name of the remote file
+	 *
+	 * @throws IOException If the file cannot be created
+	 */
+	public void truncate( String remoteFile ) throws IOException {
+		try {
+			sftpChannel.put( remoteFile, ChannelSftp.OVERWRITE ).close();
+			updateStatus( 226, "File truncated successfully" );
+		} catch ( SftpException e ) {
+			updateStatus( e.id, e.getMessage() );
+			throw new IOException( "Cannot create [" + remoteFile + "]: " + e.getMessage(), e );
+		}
+	}
+
+	/**
+	 * Write a byte range of a local file at the same offset of a remote file, reading the local
+	 * file with positioned reads so several ranges can share its channel
+	 *
+	 * @param source     The channel of the local file
+	 * @param offset     The position of the first byte, in both files
+	 * @param length     The bytes to write
+	 * @param remoteFile The remote file, it must exist
+	 *
+	 * @return The bytes written, fewer than asked only when the local file ends first
+	 *
+	 * @throws IOException If either file cannot be accessed
+	 */
+	public long putRange( FileChannel source, long offset, long length, String remoteFile ) throws IOException {
+		try ( OutputStream out = sftpChannel.put( remoteFile, null, POSITIONED_WRITE, offset ) ) {
+			ByteBuffer	buffer	= ByteBuffer.allocate( COPY_BUFFER_SIZE );
+			long		copied	= 0;
+			while ( copied < length ) {
+				buffer.clear().limit( ( int ) Math.min( buffer.capacity(), length - copied ) );
+				int read = source.read( buffer, offset + copied );
+				if ( read < 0 ) {
+					break;
+				}
+				out.write( buffer.array(), 0, read );
+				copied += read;
+			}
+			updateStatus( 226, "Range uploaded successfully" );
+			return copied;
+		} catch ( SftpException e ) {
+			updateStatus( e.id, e.getMessage() );
+			throw new IOException( "Cannot write [" + remoteFile + "] at offset " + offset + ": " + e.getMessage(), e );
+		}
+	}
+
+	/**
+	 * Rename a remote file over another one. SFTP servers may refuse to rename onto an existing
+	 * file, the target is then removed first.
+	 *
+	 * @param existing The file to rename
+	 * @param target   Its new name
+	 *
+	 * @throws IOException If the file cannot be renamed
+	 */
+	public void replace( String existing, String target ) throws IOException {
+		try {
+			try {
+				sftpChannel.rename( existing, target );
+			} catch ( SftpException e ) {
+				if ( !Boolean.TRUE.equals( existsFile( target ) ) ) {
+					throw e;
+				}
+				sftpChannel.rm( target );
+				sftpChannel.rename( existing, target );
+			}
+			updateStatus( 226, "Rename successful" );
+		} catch ( SftpException e ) {
+			updateStatus( e.id, e.getMessage() );
+			throw new IOException( "Cannot rename [" + existing + "] to [" + target + "]: " + e.getMessage(), e );
+		}
+	}
+
 	/**
 	 * Remove a file on the SFTP server.
 	 *
@@ -367,6 +628,7 @@ public class SFTPConnection extends BaseFTPConnection {
 		}
 		try {
 			sftpChannel.cd( dirName );
+			this.lastWorkingDirectory = sftpChannel.pwd();
 			updateStatus( 226, "Directory changed successfully" );
 			return this;
 		} catch ( SftpException e ) {
@@ -374,11 +636,54 @@ public class SFTPConnection extends BaseFTPConnection {
 		}
 	}
 
+	/**
+	 * Reconnect the connection. A multiplexed channel of a pool is reopened on its shared session,
+	 * which is owned by the pool and never reconnected from here.
+	 *
+	 * @return This connection for chaining
+	 *
+	 * @throws IOException If the channel could not be reopened, or the shared session is down
+	 */
+	@Override
+	public IFTPConnection reconnect() throws IOException {
+		// Standalone connections sharing a session get a channel through their config again
+		if ( this.sharedSession == null || this.config != null ) {
+			return super.reconnect();
+		}
+		SharedSSHSession	shared				= this.sharedSession;
+		String				workingDirectory	= this.lastWorkingDirectory;
+		close();
+		if ( !shared.isConnected() ) {
+			throw new IOException( "Shared SSH session [" + shared + "] is down, channel [" + this.name + "] cannot be reopened" );
+		}
+		openOnSession( shared, DEFAULT_TIMEOUT );
+		if ( workingDirectory != null ) {
+			changeDir( workingDirectory );
+		}
+		this.logger.debug( "SFTP connection [{}] channel reopened", this.name );
+		return this;
+	}
+
 	/**
 	 * Close the connection to the SFTP server.
 	 */
 	@Override
 	public void close() {
+		// Multiplexed channels only give their slot back, the shared session is owned by others
+		if ( this.sharedSession != null ) {
+			// Only once, the slot must not be given back twice
+			try {
+				if ( this.sftpChannel != null ) {
+					this.sharedSession.releaseChannel( this.sftpChannel );
+					this.sftpChannel = null;
+					this.logger.debug( "SFTP connection [{}] channel released", this.name );
+				}
+			} finally {
+				// Gives the reference on a session shared between connections back
+				runCloseHook();
+			}
+			return;
+		}
 		try {
 			if ( this.sftpChannel != null && this.sftpChannel.isConnected() ) {
 				this.sftpChannel.disconnect();
@@ -390,6 +695,41 @@ public class SFTPConnection extends BaseFTPConnection {
 		} catch ( Exception e ) {
 			this.logger.error( "Error while closing SFTP connection: " + e.getMessage() );
 			throw new BoxIOException( new IOException( "Error closing SFTP connection: " + e.getMessage(), e ) );
+		} finally {
+			runCloseHook();
+		}
+	}
+
+	/**
+	 * Resolve {@code "."} on the SFTP channel, which needs a reply from the server
+	 *
+	 * @return False if the server did not answer
+	 */
+	@Override
+	protected boolean sendProbe() {
+		try {
+			this.sftpChannel.realpath( "." );
+			return true;
+		} catch ( SftpException | RuntimeException e ) {
+			this.logger.debug( "SFTP probe failed for connection [{}]: {}", this.name, e.getMessage() );
+			return false;
+		}
+	}
+
+	/**
+	 * Resolve {@code "."} on the SFTP channel. An SSH server-alive message is not answered before
+	 * it returns, a request on the channel is, and it keeps the channel busy as well as the session.
+	 *
+	 * @return False if the server did not answer
+	 */
+	@Override
+	protected boolean sendKeepAlive() {
+		try {
+			this.sftpChannel.realpath( "." );
+			return true;
+		} catch ( SftpException | RuntimeException e ) {
+			this.logger.warn( "SFTP keepalive failed for connection [{}]: {}", this.name, e.getMessage() );
+			return false;
 		}
 	}
 
@@ -404,6 +744,16 @@ public class SFTPConnection extends BaseFTPConnection {
 		    this.session != null && this.session.isConnected();
 	}
 
+	/**
+	 * SFTP has no transfer modes, bytes always go through as they are
+	 *
+	 * @return Always true
+	 */
+	@Override
+	public boolean isBinary() {
+		return true;
+	}
+
 	/**
 	 * Create a directory on the SFTP server.
 	 *
@@ -547,6 +897,32 @@ public class SFTPConnection extends BaseFTPConnection {
 		}
 	}
 
+	/**
+	 * List the contents of a directory without changing into it.
+	 *
+	 * @param directory The directory to list
+	 *
+	 * @return The contents of the directory as an Array of Structs
+	 *
+	 * @throws IOException If an error occurs while listing the directory
+	 */
+	@Override
+	public Array listFiles( String directory ) throws IOException {
+		try {
+			@SuppressWarnings( "unchecked" )
+			Vector<LsEntry>	entries	= sftpChannel.ls( directory );
+			LsEntry[]		files	= entries.stream()
+			    .filter( entry -> !entry.getFilename().equals( "." ) && !entry.getFilename().equals( ".." ) )
+			    .toArray( LsEntry[]::new );
+
+			updateStatus( 226, "Directory listed successfully" );
+			return filesToArray( files, "UNIX" );
+		} catch ( SftpException e ) {
+			updateStatus( e.id, e.getMessage() );
+			throw new BoxIOException( new IOException( "Error listing directory [" + directory + "]: " + e.getMessage(), e ) );
+		}
+	}
+
 	/**
 	 * Get the connection metadata:
 	 * <ul>
@@ -583,19 +959,138 @@ public class SFTPConnection extends BaseFTPConnection {
 			    "systemName", "SFTP",
 			    "user", this.username,
 			    "workingDirectory", isConnected() ? sftpChannel.pwd() : "",
-			    "secure", true
+			    "secure", true,
+			    "multiplexed", this.sharedSession != null,
+			    "transferSettings", getTransferSettings().toStruct()
 			);
 		} catch ( SftpException e ) {
 			throw new BoxIOException( new IOException( "Error getting metadata: " + e.getMessage(), e ) );
 		}
 	}
 
+	/**
+	 * Get how the channel pipelines its transfers: the settings of the config the connection was
+	 * opened with, else its own
+	 *
+	 * @return The transfer settings
+	 */
+	public SFTPTransferSettings getTransferSettings() {
+		return this.config != null ? this.config.getTransferSettings() : this.transferSettings;
+	}
+
+	/**
+	 * Set how the channel pipelines its transfers when the connection has no config, such as the
+	 * channels of a multiplexed pool. Applied when the channel opens.
+	 *
+	 * @param transferSettings The transfer settings
+	 *
+	 * @return This connection for chaining
+	 */
+	public SFTPConnection setTransferSettings( SFTPTransferSettings transferSettings ) {
+		this.transferSettings = Objects.requireNonNullElse( transferSettings, SFTPTransferSettings.DEFAULT );
+		return this;
+	}
+
 	/**
 	 * --------------------------------------------------------------------------
 	 * Private Helper Methods
 	 * --------------------------------------------------------------------------
 	 */
 
+	/**
+	 * Create and connect an authenticated SSH session. When a private key is passed, key
+	 * based authentication is used, else the password.
+	 *
+	 * @param server      The server to connect to
+	 * @param port        The port to connect to
+	 * @param username    The username to use
+	 * @param password    The password to use, ignored if a private key is passed
+	 * @param privateKey  The path to the private key file, or null
+	 * @param passphrase  The passphrase for the private key, or null
+	 * @param timeout     The timeout as a Duration
+	 * @param fingerprint The server's host key fingerprint, or null
+	 *
+	 * @return The connected session
+	 *
+	 * @throws JSchException If the session could not be connected
+	 */
+	static Session connectSession( String server, Integer port, String username, String password, String privateKey, String passphrase,
+	    Duration timeout, String fingerprint ) throws JSchException {
+		JSch		jsch		= new JSch();
+		FTPService	ftpService	= BoxRuntime.getInstance().getGlobalService( FTPKeys.FTPService ) instanceof FTPService service ? service : null;
+
+		// Add private key, parsed and decrypted once per process when the FTP service is around
+		if ( privateKey != null ) {
+			if ( ftpService != null ) {
+				jsch.addIdentity( ftpService.getIdentityCache().get( privateKey, passphrase ), null );
+			} else if ( passphrase != null && !passphrase.isEmpty() ) {
+				jsch.addIdentity( privateKey, passphrase );
+			} else {
+				jsch.addIdentity( privateKey );
+			}
+		}
+
+		// Create session
+		Session session = jsch.getSession( username, server, port );
+		if ( privateKey == null ) {
+			session.setPassword( password );
+		}
+
+		// Connect through the cached addresses of the server, racing them when it has several
+		if ( ftpService != null ) {
+			HostResolver resolver = ftpService.getHostResolver();
+			session.setSocketFactory( new SocketFactory() {
+
+				@Override
+				public Socket createSocket( String host, int port ) throws IOException {
+					return resolver.connect( host, port, timeout );
+				}
+
+				@Override
+				public InputStream getInputStream( Socket socket ) throws IOException {
+					return socket.getInputStream();
+				}
+
+				@Override
+				public OutputStream getOutputStream( Socket socket ) throws IOException {
+					return socket.getOutputStream();
+				}
+			} );
+		}
+
+		// Set session properties
+		Properties config = new Properties();
+		if ( fingerprint != null && !fingerprint.isEmpty() ) {
+			config.put( "StrictHostKeyChecking", "yes" );
+			// TODO: Implement fingerprint verification via HostKeyRepository
+		} else {
+			config.put( "StrictHostKeyChecking", "no" );
+		}
+		session.setConfig( config );
+
+		// Set timeout
+		session.setTimeout( ( int ) timeout.toMillis() );
+
+		// Connect session
+		session.connect();
+
+		return session;
+	}
+
+	/**
+	 * The bytes left to download, asked with a {@code stat} only when a background action follows the transfer
+	 *
+	 * @param remoteFile The remote file
+	 * @param offset     The bytes already downloaded
+	 *
+	 * @return The bytes left, or -1 if nobody follows the transfer
+	 *
+	 * @throws SftpException If the remote file cannot be read
+	 */
+	private long remainingSize( String remoteFile, long offset ) throws SftpException {
+		return this.progress == null ? -1 : sftpChannel.stat( remoteFile ).getSize() - offset;
+	}
+
 	/**
 	 * Handle an error by throwing an exception if stopOnError is true.
 	 */
@@ -0,0 +1,270 @@
+/**
+ * [BoxLang]
+ *
+ * Copyright [2023] [Ortus Solutions, Corp]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ortus.boxlang.ftp;
+
+import java.lang.reflect.Method;
+
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+
+import ortus.boxlang.runtime.dynamic.casters.IntegerCaster;
+import ortus.boxlang.runtime.logging.BoxLangLogger;
+import ortus.boxlang.runtime.types.IStruct;
+import ortus.boxlang.runtime.types.Struct;
+import ortus.boxlang.runtime.types.exceptions.BoxRuntimeException;
+
+/**
+ * How an SFTP channel pipelines its transfers. An SFTP transfer waits for nothing but the SSH
+ * channel window and its own requests in flight, so on a high latency link the throughput is
+ * capped at whichever is smaller of {@code bulkRequests * requestSize} and {@code windowSize} per
+ * round trip.
+ * <ul>
+ * <li>{@code bulkRequests}: the READ or WRITE requests in flight on a transfer</li>
+ * <li>{@code requestSize}: the bytes asked by each READ request, and the largest packet the server
+ * may send. WRITE requests follow the packet size the server announces</li>
+ * <li>{@code windowSize}: the bytes the server may send before it has to wait for a window
+ * adjust</li>
+ * </ul>
+ * <p>
+ * The {@code default} profile keeps the JSch defaults, which fit a LAN. The {@code highBDP} profile
+ * keeps about 8MB in flight, enough for 100 ms at 600 Mbit/s.
+ * </p>
+ */
+public class SFTPTransferSettings {
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Profiles
+	 * --------------------------------------------------------------------------
+	 */
+
+	public static final String					PROFILE_DEFAULT				= "default";
+	public static final String					PROFILE_HIGH_BDP			= "highBDP";
+
+	// The JSch defaults
+	public static final int						DEFAULT_BULK_REQUESTS		= 16;
+	// In Bytes
+	public static final int						DEFAULT_REQUEST_SIZE		= 32 * 1024;
+	// In Bytes
+	public static final int						DEFAULT_WINDOW_SIZE			= 2 * 1024 * 1024;
+
+	// Long fat links
+	public static final int						HIGH_BDP_BULK_REQUESTS		= 128;
+	// In Bytes, the largest READ every SFTP server answers in full
+	public static final int						HIGH_BDP_REQUEST_SIZE		= 64 * 1024;
+	// In Bytes
+	public static final int						HIGH_BDP_WINDOW_SIZE		= 16 * 1024 * 1024;
+
+	// In Bytes, the smallest packet size an SSH implementation must accept
+	public static final int						MIN_REQUEST_SIZE			= 32 * 1024;
+	// In Bytes, the largest packet OpenSSH accepts
+	public static final int						MAX_REQUEST_SIZE			= 256 * 1024;
+
+	/**
+	 * The settings of the {@code default} profile
+	 */
+	public static final SFTPTransferSettings	DEFAULT						= new SFTPTransferSettings( PROFILE_DEFAULT, DEFAULT_BULK_REQUESTS,
+	    DEFAULT_REQUEST_SIZE, DEFAULT_WINDOW_SIZE );
+
+	/**
+	 * The package private {@link Channel} setters of the window and packet sizes, resolved once.
+	 * They must be called before the channel connects, the sizes go out in its open request.
+	 */
+	private static final Method[]				CHANNEL_SETTERS				= resolveChannelSetters();
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Properties
+	 * --------------------------------------------------------------------------
+	 */
+
+	private final String						profile;
+	private final int							bulkRequests;
+	private final int							requestSize;
+	private final int							windowSize;
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Constructors
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Build settings
+	 *
+	 * @param profile      The profile the settings start from
+	 * @param bulkRequests The requests in flight on a transfer, at least 1
+	 * @param requestSize  The bytes of a READ request, between 32KB and 256KB
+	 * @param windowSize   The channel window, at least the request size
+	 */
+	public SFTPTransferSettings( String profile, int bulkRequests, int requestSize, int windowSize ) {
+		this.profile		= profile;
+		this.bulkRequests	= Math.max( 1, bulkRequests );
+		this.requestSize	= Math.clamp( requestSize, MIN_REQUEST_SIZE, MAX_REQUEST_SIZE );
+		this.windowSize		= Math.max( this.requestSize, windowSize );
+	}
+
+	/**
+	 * Build the settings of a profile
+	 *
+	 * @param profile The profile name, {@code default} or {@code highBDP}, case insensitive
+	 *
+	 * @return The settings
+	 *
+	 * @throws BoxRuntimeException If the profile is unknown
+	 */
+	public static SFTPTransferSettings of( String profile ) {
+		if ( profile == null || profile.isBlank() || PROFILE_DEFAULT.equalsIgnoreCase( profile ) ) {
+			return DEFAULT;
+		}
+		if ( PROFILE_HIGH_BDP.equalsIgnoreCase( profile ) ) {
+			return new SFTPTransferSettings( PROFILE_HIGH_BDP, HIGH_BDP_BULK_REQUESTS, HIGH_BDP_REQUEST_SIZE, HIGH_BDP_WINDOW_SIZE );
+		}
+		throw new BoxRuntimeException( "Unknown SFTP transfer profile [" + profile + "], use [" + PROFILE_DEFAULT + "] or [" + PROFILE_HIGH_BDP + "]" );
+	}
+
+	/**
+	 * Build the settings from the {@code transferProfile} attribute, each setting of the profile
+	 * being overridden by its own attribute when present
+	 *
+	 * @param attributes The component attributes or connection definition
+	 *
+	 * @return The settings
+	 */
+	public static SFTPTransferSettings fromAttributes( IStruct attributes ) {
+		SFTPTransferSettings profile = of( attributes.getAsString( FTPKeys.transferProfile ) );
+		if ( attributes.get( FTPKeys.bulkRequests ) == null && attributes.get( FTPKeys.requestSize ) == null
+		    && attributes.get( FTPKeys.windowSize ) == null ) {
+			return profile;
+		}
+		return new SFTPTransferSettings(
+		    profile.profile,
+		    IntegerCaster.cast( attributes.getOrDefault( FTPKeys.bulkRequests, profile.bulkRequests ) ),
+		    IntegerCaster.cast( attributes.getOrDefault( FTPKeys.requestSize, profile.requestSize ) ),
+		    IntegerCaster.cast( attributes.getOrDefault( FTPKeys.windowSize, profile.windowSize ) )
+		);
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Channel Methods
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Apply the settings to a channel that is not connected yet. When the JSch build at hand does
+	 * not let the window and packet sizes be set, the channel keeps the JSch ones and only the
+	 * requests in flight change.
+	 *
+	 * @param channel The channel to tune, before {@code connect()}
+	 * @param logger  The logger to report unsupported settings to
+	 *
+	 * @return The channel for chaining
+	 */
+	public ChannelSftp applyTo( ChannelSftp channel, BoxLangLogger logger ) {
+		try {
+			channel.setBulkRequests( this.bulkRequests );
+		} catch ( JSchException e ) {
+			throw new BoxRuntimeException( "Invalid SFTP bulkRequests [" + this.bulkRequests + "]: " + e.getMessage(), e );
+		}
+		if ( this.requestSize == DEFAULT_REQUEST_SIZE && this.windowSize == DEFAULT_WINDOW_SIZE ) {
+			return channel;
+		}
+		if ( CHANNEL_SETTERS == null ) {
+			logger.debug( "This JSch build does not expose the channel window, keeping the JSch window and packet sizes" );
+			return channel;
+		}
+		try {
+			CHANNEL_SETTERS[ 0 ].invoke( channel, this.windowSize );
+			CHANNEL_SETTERS[ 1 ].invoke( channel, this.windowSize );
+			CHANNEL_SETTERS[ 2 ].invoke( channel, this.requestSize );
+		} catch ( ReflectiveOperationException e ) {
+			logger.debug( "Unable to set the SFTP channel window, keeping the JSch one: {}", e.getMessage() );
+		}
+		return channel;
+	}
+
+	/**
+	 * Get a struct representation of the settings
+	 *
+	 * @return The settings as a struct
+	 */
+	public IStruct toStruct() {
+		return Struct.of(
+		    "transferProfile", this.profile,
+		    "bulkRequests", this.bulkRequests,
+		    "requestSize", this.requestSize,
+		    "windowSize", this.windowSize
+		);
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Getters
+	 * --------------------------------------------------------------------------
+	 */
+
+	public String getProfile() {
+		return this.profile;
+	}
+
+	public int getBulkRequests() {
+		return this.bulkRequests;
+	}
+
+	public int getRequestSize() {
+		return this.requestSize;
+	}
+
+	public int getWindowSize() {
+		return this.windowSize;
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Helpers
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Resolve the window max, window and packet size setters of {@link Channel}
+	 *
+	 * @return The setters in that order, or null if they are not there
+	 */
+	private static Method[] resolveChannelSetters() {
+		try {
+			Method[] setters = new Method[] {
+			    Channel.class.getDeclaredMethod( "setLocalWindowSizeMax", int.class ),
+			    Channel.class.getDeclaredMethod( "setLocalWindowSize", int.class ),
+			    Channel.class.getDeclaredMethod( "setLocalPacketSize", int.class )
+			};
+			for ( Method setter : setters ) {
+				setter.setAccessible( true );
+			}
+			return setters;
+		} catch ( NoSuchMethodException | RuntimeException e ) {
+			return null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return toStruct().toString();
+	}
+}
@@ -0,0 +1,363 @@
+/**
+ * [BoxLang]
+ *
+ * Copyright [2023] [Ortus Solutions, Corp]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ortus.boxlang.ftp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+
+import ortus.boxlang.ftp.pool.FTPConnectionPool;
+import ortus.boxlang.runtime.logging.BoxLangLogger;
+import ortus.boxlang.runtime.types.exceptions.BoxRuntimeException;
+
+/**
+ * Downloads one large remote file as byte ranges fetched concurrently over several sessions of a
+ * pool: FTP restarts each range with {@code REST}, SFTP reads at the offset. Every segment is
+ * written at its own position of a local file preallocated to the remote size.
+ * <p>
+ * Completed segments are recorded in a checkpoint file next to the local file. A download that
+ * fails or is cancelled keeps both, and the next one fetches only the missing segments. The
+ * checkpoint is dropped once every segment is in.
+ * </p>
+ */
+public class SegmentedDownload {
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Defaults
+	 * --------------------------------------------------------------------------
+	 */
+
+	// In Bytes, small enough to balance the sessions and bound what a failure loses
+	public static final long		DEFAULT_SEGMENT_SIZE	= 64L * 1024 * 1024;
+	// In Bytes
+	public static final long		MIN_SEGMENT_SIZE		= 1024L * 1024;
+
+	/**
+	 * Appended to the name of the local file to name its checkpoint
+	 */
+	public static final String		CHECKPOINT_SUFFIX		= ".bxftp-checkpoint";
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Properties
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * The remote file to download
+	 */
+	private final String			remoteFile;
+
+	/**
+	 * The local file the segments are written into
+	 */
+	private final Path				localFile;
+
+	/**
+	 * Records the completed segments
+	 */
+	private final Path				checkpointFile;
+
+	/**
+	 * Counts the bytes of the whole download, and lets it be cancelled
+	 */
+	private final TransferProgress	progress;
+
+	/**
+	 * The FTP logger
+	 */
+	private final BoxLangLogger		logger;
+
+	/**
+	 * The bytes of every segment but the last one
+	 */
+	private long					segmentSize				= DEFAULT_SEGMENT_SIZE;
+
+	/**
+	 * Max sessions fetching segments at once
+	 */
+	private int						concurrency				= BatchTransfer.DEFAULT_CONCURRENCY;
+
+	/**
+	 * The size of the remote file
+	 */
+	private long					size;
+
+	/**
+	 * The modification time of the remote file in epoch millis, -1 if unknown
+	 */
+	private long					modified;
+
+	/**
+	 * The segments already in the local file
+	 */
+	private BitSet					completed				= new BitSet();
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Constructors
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Build a download
+	 *
+	 * @param remoteFile The remote file to download
+	 * @param localFile  The local file to write
+	 * @param progress   The progress to report to, or null
+	 * @param logger     The FTP logger
+	 */
+	public SegmentedDownload( String remoteFile, String localFile, TransferProgress progress, BoxLangLogger logger ) {
+		this.remoteFile		= remoteFile;
+		this.localFile		= Path.of( localFile ).toAbsolutePath();
+		this.checkpointFile	= this.localFile.resolveSibling( this.localFile.getFileName() + CHECKPOINT_SUFFIX );
+		this.progress		= progress;
+		this.logger			= logger;
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Download Methods
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Download the file, resuming from its checkpoint if a previous download left one
+	 *
+	 * @param connection   The session the action holds, it fetches segments too
+	 * @param pool         The pool to borrow more sessions from, or null to fetch the segments one at a time
+	 * @param executor     Runs the sessions borrowed from the pool
+	 * @param failIfExists If true, refuse to overwrite a local file no checkpoint belongs to
+	 *
+	 * @return The batch of segments, with the result of every segment fetched this time
+	 *
+	 * @throws IOException If the remote size is unknown, the local file cannot be written, or a segment failed
+	 */
+	public BatchTransfer run( IFTPConnection connection, FTPConnectionPool pool, ExecutorService executor, boolean failIfExists ) throws IOException {
+		this.size = connection.getFileSize( this.remoteFile );
+		if ( this.size < 0 ) {
+			throw new BoxRuntimeException( "The server does not report the size of [" + this.remoteFile + "], it cannot be downloaded in segments" );
+		}
+		// A file regenerated at the same size must not be stitched to the segments of the previous one
+		this.modified = connection.getFileModified( this.remoteFile );
+
+		boolean resumed = loadCheckpoint();
+		if ( !resumed && failIfExists && Files.exists( this.localFile ) ) {
+			throw new BoxRuntimeException( "Error: Local file already exists and [failIfExists=true]" + this.localFile );
+		}
+
+		int							segments	= segmentCount();
+		List<BatchTransfer.Item>	items		= new ArrayList<>();
+		for ( int index = 0; index < segments; index++ ) {
+			if ( !this.completed.get( index ) ) {
+				items.add( new BatchTransfer.Item( "segment", String.valueOf( index ), this.remoteFile, this.localFile.toString(), lengthOf( index ) ) );
+			}
+		}
+
+		BatchTransfer batch;
+		try ( RandomAccessFile file = new RandomAccessFile( this.localFile.toFile(), "rw" ) ) {
+			// Every segment has its place from the start, a fresh download drops whatever was there
+			if ( !resumed ) {
+				file.setLength( 0 );
+			}
+			file.setLength( this.size );
+			saveCheckpoint();
+
+			FileChannel channel = file.getChannel();
+			batch = new BatchTransfer( items, fetch( channel ), this.progress, this.logger )
+			    .setConcurrency( this.concurrency )
+			    .putTotal( "segments", segments )
+			    .putTotal( "resumedSegments", segments - items.size() )
+			    .putTotal( "size", this.size )
+			    .run( connection, pool, executor );
+		}
+
+		if ( this.completed.cardinality() < segments ) {
+			String reason = this.progress != null && this.progress.isCancelled()
+			    ? "it was cancelled"
+			    : ( segments - this.completed.cardinality() ) + " segments failed, first error: " + batch.getFirstError();
+			throw new IOException( "Segmented download of [" + this.remoteFile + "] is incomplete, " + reason + ". Download it again to resume" );
+		}
+
+		Files.deleteIfExists( this.checkpointFile );
+		return batch;
+	}
+
+	/**
+	 * Set the bytes of every segment but the last one
+	 *
+	 * @param segmentSize The bytes, at least {@link #MIN_SEGMENT_SIZE}
+	 *
+	 * @return This download for chaining
+	 */
+	public SegmentedDownload setSegmentSize( long segmentSize ) {
+		this.segmentSize = Math.max( MIN_SEGMENT_SIZE, segmentSize );
+		return this;
+	}
+
+	/**
+	 * Set the max sessions fetching segments at once
+	 *
+	 * @param concurrency The max sessions, at least 1
+	 *
+	 * @return This download for chaining
+	 */
+	public SegmentedDownload setConcurrency( int concurrency ) {
+		this.concurrency = Math.max( 1, concurrency );
+		return this;
+	}
+
+	/**
+	 * @return The checkpoint file of the download
+	 */
+	public Path getCheckpointFile() {
+		return this.checkpointFile;
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Helpers
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Fetch one segment into its place of the local file, then record it
+	 */
+	private BatchTransfer.Operation fetch( FileChannel channel ) {
+		return ( connection, item ) -> {
+			int		index	= Integer.parseInt( item.getName() );
+			long	offset	= index * this.segmentSize;
+			long	copied	= connection.getRange( this.remoteFile, offset, item.getSize(), new PositionalOutputStream( channel, offset ) );
+			if ( copied != item.getSize() ) {
+				throw new IOException( "Segment " + index + " ended after " + copied + " of " + item.getSize() + " bytes, the remote file changed" );
+			}
+			complete( channel, index );
+			return copied;
+		};
+	}
+
+	/**
+	 * Record a completed segment. Its bytes are forced to disk first, so the checkpoint never
+	 * claims data a crash could lose.
+	 */
+	private synchronized void complete( FileChannel channel, int index ) throws IOException {
+		channel.force( false );
+		this.completed.set( index );
+		saveCheckpoint();
+	}
+
+	/**
+	 * Load the checkpoint a previous download left, if it is for the same remote file, size,
+	 * modification time and segments and the local file is still there
+	 *
+	 * @return True if the download resumes
+	 */
+	private boolean loadCheckpoint() {
+		if ( !Files.isRegularFile( this.checkpointFile ) || !Files.isRegularFile( this.localFile ) ) {
+			return false;
+		}
+		Properties checkpoint = new Properties();
+		try ( InputStream in = Files.newInputStream( this.checkpointFile ) ) {
+			checkpoint.load( in );
+			if ( !this.remoteFile.equals( checkpoint.getProperty( "remoteFile" ) )
+			    || this.size != Long.parseLong( checkpoint.getProperty( "size", "-1" ) )
+			    || this.modified != Long.parseLong( checkpoint.getProperty( "modified", "-1" ) )
+			    || this.segmentSize != Long.parseLong( checkpoint.getProperty( "segmentSize", "-1" ) ) ) {
+				this.logger.debug( "Checkpoint [{}] is for another download, starting over", this.checkpointFile );
+				return false;
+			}
+			this.completed = BitSet.valueOf( HexFormat.of().parseHex( checkpoint.getProperty( "completed", "" ) ) );
+			return true;
+		} catch ( IOException | IllegalArgumentException e ) {
+			this.logger.warn( "Ignoring unreadable checkpoint [{}]: {}", this.checkpointFile, e.getMessage() );
+			return false;
+		}
+	}
+
+	/**
+	 * Write the checkpoint, replacing the previous one in one move
+	 */
+	private void saveCheckpoint() throws IOException {
+		Properties checkpoint = new Properties();
+		checkpoint.setProperty( "remoteFile", this.remoteFile );
+		checkpoint.setProperty( "size", String.valueOf( this.size ) );
+		checkpoint.setProperty( "modified", String.valueOf( this.modified ) );
+		checkpoint.setProperty( "segmentSize", String.valueOf( this.segmentSize ) );
+		checkpoint.setProperty( "completed", HexFormat.of().formatHex( this.completed.toByteArray() ) );
+
+		Path temporary = this.checkpointFile.resolveSibling( this.checkpointFile.getFileName() + ".tmp" );
+		try ( OutputStream out = Files.newOutputStream( temporary ) ) {
+			checkpoint.store( out, "bx-ftp segmented download" );
+		}
+		Files.move( temporary, this.checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+	}
+
+	/**
+	 * @return The number of segments of the file, at least one
+	 */
+	private int segmentCount() {
+		return ( int ) Math.max( 1, ( this.size + this.segmentSize - 1 ) / this.segmentSize );
+	}
+
+	/**
+	 * @return The bytes of a segment, the last one gets what is left
+	 */
+	private long lengthOf( int index ) {
+		return Math.min( this.segmentSize, this.size - index * this.segmentSize );
+	}
+
+	/**
+	 * Writes at a position of a channel shared by several segments, without moving its position
+	 */
+	private static final class PositionalOutputStream extends OutputStream {
+
+		private final FileChannel	channel;
+		private long				position;
+
+		private PositionalOutputStream( FileChannel channel, long position ) {
+			this.channel	= channel;
+			this.position	= position;
+		}
+
+		@Override
+		public void write( int b ) throws IOException {
+			write( new byte[] { ( byte ) b }, 0, 1 );
+		}
+
+		@Override
+		public void write( byte[] buffer, int offset, int length ) throws IOException {
+			ByteBuffer bytes = ByteBuffer.wrap( buffer, offset, length );
+			while ( bytes.hasRemaining() ) {
+				this.position += this.channel.write( bytes, this.position );
+			}
+		}
+	}
+}
@@ -0,0 +1,233 @@
+/**
+ * [BoxLang]
+ *
+ * Copyright [2023] [Ortus Solutions, Corp]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ortus.boxlang.ftp;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import ortus.boxlang.ftp.pool.FTPConnectionPool;
+import ortus.boxlang.runtime.logging.BoxLangLogger;
+import ortus.boxlang.runtime.types.exceptions.BoxRuntimeException;
+
+/**
+ * Uploads one large local file to an SFTP server as byte ranges written concurrently over several
+ * sessions of a pool. Every session opens the remote file on its own channel and writes its range
+ * at its offset, reading the local file with positioned reads.
+ * <p>
+ * The remote file is checked against the local size once every segment is written. With a temp
+ * file, the segments go to {@code <remoteFile>.part}, renamed over the remote file only once
+ * complete, so readers never see a partial upload.
+ * </p>
+ */
+public class SegmentedUpload {
+
+	/**
+	 * Appended to the name of the remote file while it is uploaded to a temp file
+	 */
+	public static final String		TEMP_SUFFIX		= ".part";
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Properties
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * The local file to upload
+	 */
+	private final Path				localFile;
+
+	/**
+	 * The remote file to create
+	 */
+	private final String			remoteFile;
+
+	/**
+	 * Counts the bytes of the whole upload, and lets it be cancelled
+	 */
+	private final TransferProgress	progress;
+
+	/**
+	 * The FTP logger
+	 */
+	private final BoxLangLogger		logger;
+
+	/**
+	 * The bytes of every segment but the last one
+	 */
+	private long					segmentSize		= SegmentedDownload.DEFAULT_SEGMENT_SIZE;
+
+	/**
+	 * Max sessions writing segments at once
+	 */
+	private int						concurrency		= BatchTransfer.DEFAULT_CONCURRENCY;
+
+	/**
+	 * Upload to a temp file renamed once complete
+	 */
+	private boolean					useTempFile		= false;
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Constructors
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Build an upload
+	 *
+	 * @param localFile  The local file to upload
+	 * @param remoteFile The remote file to create
+	 * @param progress   The progress to report to, or null
+	 * @param logger     The FTP logger
+	 */
+	public SegmentedUpload( String localFile, String remoteFile, TransferProgress progress, BoxLangLogger logger ) {
+		this.localFile	= Path.of( localFile );
+		this.remoteFile	= remoteFile;
+		this.progress	= progress;
+		this.logger		= logger;
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Upload Methods
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Upload the file, then check its remote size and move it into place
+	 *
+	 * @param connection The session the action holds, it writes segments too
+	 * @param pool       The pool to borrow more sessions from, or null to write the segments one at a time
+	 * @param executor   Runs the sessions borrowed from the pool
+	 *
+	 * @return The batch of segments, with the result of every segment
+	 *
+	 * @throws IOException If the local file cannot be read, a segment failed or the remote size does not match
+	 */
+	public BatchTransfer run( SFTPConnection connection, FTPConnectionPool pool, ExecutorService executor ) throws IOException {
+		if ( !Files.isRegularFile( this.localFile ) || !Files.isReadable( this.localFile ) ) {
+			throw new BoxRuntimeException( "Error: Local file does not exist or cannot be read: " + this.localFile );
+		}
+
+		long						size		= Files.size( this.localFile );
+		String						target		= this.useTempFile ? this.remoteFile + TEMP_SUFFIX : this.remoteFile;
+		int							segments	= ( int ) ( ( size + this.segmentSize - 1 ) / this.segmentSize );
+		List<BatchTransfer.Item>	items		= new ArrayList<>();
+		for ( int index = 0; index < segments; index++ ) {
+			long length = Math.min( this.segmentSize, size - index * this.segmentSize );
+			items.add( new BatchTransfer.Item( "segment", String.valueOf( index ), target, this.localFile.toString(), length ) );
+		}
+
+		// The ranges are written into an existing, empty file
+		connection.truncate( target );
+
+		BatchTransfer batch;
+		try ( FileChannel channel = FileChannel.open( this.localFile, StandardOpenOption.READ ) ) {
+			batch = new BatchTransfer( items, write( channel, target ), this.progress, this.logger )
+			    .setConcurrency( this.concurrency )
+			    .putTotal( "segments", segments )
+			    .putTotal( "size", size )
+			    .run( connection, pool, executor );
+		}
+
+		long failed = items.stream().filter( item -> !BatchTransfer.STATUS_OK.equals( item.getStatus() ) ).count();
+		if ( failed > 0 ) {
+			String reason = this.progress != null && this.progress.isCancelled()
+			    ? "it was cancelled"
+			    : failed + " segments failed, first error: " + batch.getFirstError();
+			throw new IOException( "Segmented upload of [" + this.localFile + "] to [" + target + "] is incomplete, " + reason );
+		}
+
+		// Every segment reported its bytes, the server must agree before the file is put in place
+		long remoteSize = connection.getFileSize( target );
+		if ( remoteSize != size ) {
+			throw new IOException( "Segmented upload of [" + this.localFile + "] failed its size check: the remote file has "
+			    + remoteSize + " bytes instead of " + size );
+		}
+		if ( this.useTempFile ) {
+			connection.replace( target, this.remoteFile );
+		}
+		return batch;
+	}
+
+	/**
+	 * Set the bytes of every segment but the last one
+	 *
+	 * @param segmentSize The bytes, at least {@link SegmentedDownload#MIN_SEGMENT_SIZE}
+	 *
+	 * @return This upload for chaining
+	 */
+	public SegmentedUpload setSegmentSize( long segmentSize ) {
+		this.segmentSize = Math.max( SegmentedDownload.MIN_SEGMENT_SIZE, segmentSize );
+		return this;
+	}
+
+	/**
+	 * Set the max sessions writing segments at once
+	 *
+	 * @param concurrency The max sessions, at least 1
+	 *
+	 * @return This upload for chaining
+	 */
+	public SegmentedUpload setConcurrency( int concurrency ) {
+		this.concurrency = Math.max( 1, concurrency );
+		return this;
+	}
+
+	/**
+	 * Upload to {@code <remoteFile>.part} and rename it once complete
+	 *
+	 * @param useTempFile True to use a temp file
+	 *
+	 * @return This upload for chaining
+	 */
+	public SegmentedUpload setUseTempFile( boolean useTempFile ) {
+		this.useTempFile = useTempFile;
+		return this;
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Helpers
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Write one segment at its offset of the remote file
+	 */
+	private BatchTransfer.Operation write( FileChannel channel, String target ) {
+		return ( connection, item ) -> {
+			if ( ! ( connection instanceof SFTPConnection sftp ) ) {
+				throw new IOException( "Segmented uploads need SFTP sessions" );
+			}
+			long	offset	= Integer.parseInt( item.getName() ) * this.segmentSize;
+			long	copied	= sftp.putRange( channel, offset, item.getSize(), target );
+			if ( copied != item.getSize() ) {
+				throw new IOException( "Segment " + item.getName() + " ended after " + copied + " of " + item.getSize() + " bytes, the local file changed" );
+			}
+			return copied;
+		};
+	}
+}
@@ -0,0 +1,349 @@
+/**
+ * [BoxLang]
+ *
+ * Copyright [2023] [Ortus Solutions, Corp]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ortus.boxlang.ftp;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import ortus.boxlang.ftp.pool.HostGovernor;
+import ortus.boxlang.runtime.logging.BoxLangLogger;
+import ortus.boxlang.runtime.types.IStruct;
+import ortus.boxlang.runtime.types.Struct;
+import ortus.boxlang.runtime.types.exceptions.BoxRuntimeException;
+
+/**
+ * A single authenticated JSch {@link Session} that hands out a bounded number of
+ * {@link ChannelSftp} channels to concurrent operations.
+ * <p>
+ * SSH multiplexes channels over one transport, so N parallel transfers only pay one TCP
+ * connect, key exchange and authentication. The number of channels is capped by
+ * {@code maxChannels}, which should not exceed the server's {@code MaxSessions}
+ * (10 by default on OpenSSH).
+ * </p>
+ */
+public class SharedSSHSession {
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Defaults
+	 * --------------------------------------------------------------------------
+	 */
+
+	// OpenSSH's default MaxSessions
+	public static final int		DEFAULT_MAX_CHANNELS	= 10;
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Properties
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * The authenticated session all channels are opened on
+	 */
+	private final Session		session;
+
+	/**
+	 * One permit per channel that can be open at once
+	 */
+	private final Semaphore		channels;
+
+	/**
+	 * The max number of channels
+	 */
+	private final int			maxChannels;
+
+	/**
+	 * The BoxLang logger to use
+	 */
+	private final BoxLangLogger	logger;
+
+	/**
+	 * The governor of the host the session holds a slot on, null once given back
+	 */
+	private HostGovernor		governor;
+
+	/**
+	 * Logical connections holding the session open, see {@link #retain()}
+	 */
+	private int					references				= 0;
+
+	/**
+	 * When the last reference was released, in millis
+	 */
+	private long				lastReleased			= System.currentTimeMillis();
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Constructors
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Wrap an already connected session
+	 *
+	 * @param session     The connected session
+	 * @param maxChannels The max number of channels open at once
+	 * @param logger      The BoxLang logger to use
+	 */
+	public SharedSSHSession( Session session, int maxChannels, BoxLangLogger logger ) {
+		if ( maxChannels < 1 ) {
+			throw new BoxRuntimeException( "The max channels of a shared SSH session must be at least 1" );
+		}
+		this.session		= session;
+		this.maxChannels	= maxChannels;
+		this.channels		= new Semaphore( maxChannels, true );
+		this.logger			= logger;
+	}
+
+	/**
+	 * Connect and authenticate a new shared session using the passed config. The session holds
+	 * one slot of the {@link HostGovernor} of the host until it is closed.
+	 *
+	 * @param config The connection config, {@code maxChannels} caps the channels of the session
+	 * @param logger The BoxLang logger to use
+	 *
+	 * @return The connected shared session
+	 *
+	 * @throws BoxRuntimeException If the session could not be connected
+	 */
+	public static SharedSSHSession open( FTPConnectionConfig config, BoxLangLogger logger ) {
+		HostGovernor governor = config.getHostGovernor();
+		if ( governor != null ) {
+			governor.acquire( config.getHostMaxWait() );
+		}
+		try {
+			Session session = SFTPConnection.connectSession(
+			    config.getServer(),
+			    config.getPort(),
+			    config.getUsername(),
+			    config.getPassword(),
+			    config.getKey(),
+			    config.getPassphrase(),
+			    config.getTimeout(),
+			    config.getKey() != null ? config.getFingerprint() : null
+			);
+			logger.info( "Shared SSH session to [{}:{}] opened with [{}] max channels", config.getServer(), config.getPort(), config.getMaxChannels() );
+			SharedSSHSession sharedSession = new SharedSSHSession( session, config.getMaxChannels(), logger );
+			if ( governor != null ) {
+				governor.onSuccess();
+				sharedSession.governor = governor;
+			}
+			return sharedSession;
+		} catch ( JSchException e ) {
+			if ( governor != null ) {
+				governor.release();
+			}
+			logger.error( "SFTP server connection failed: " + e.getMessage() );
+			throw new BoxRuntimeException( "SFTP server connection failed: " + e.getMessage(), e );
+		}
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Channel Methods
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Open a new SFTP channel on the session, waiting for a free slot if all channels are in use.
+	 *
+	 * @param timeout The max time to wait for a slot and to connect the channel
+	 *
+	 * @return The connected channel, which MUST be given back via {@link #releaseChannel(ChannelSftp)}
+	 *
+	 * @throws IOException If the channel could not be opened
+	 */
+	public ChannelSftp acquireChannel( Duration timeout ) throws IOException {
+		return acquireChannel( timeout, SFTPTransferSettings.DEFAULT );
+	}
+
+	/**
+	 * Open a new SFTP channel on the session, waiting for a free slot if all channels are in use.
+	 * Every channel has its own window, so connections riding on one session can be tuned apart.
+	 *
+	 * @param timeout          The max time to wait for a slot and to connect the channel
+	 * @param transferSettings How the channel pipelines its transfers
+	 *
+	 * @return The connected channel, which MUST be given back via {@link #releaseChannel(ChannelSftp)}
+	 *
+	 * @throws IOException If the channel could not be opened
+	 */
+	public ChannelSftp acquireChannel( Duration timeout, SFTPTransferSettings transferSettings ) throws IOException {
+		try {
+			if ( !this.channels.tryAcquire( timeout.toMillis(), TimeUnit.MILLISECONDS ) ) {
+				throw new BoxRuntimeException(
+				    String.format( "Timed out after [%d]ms waiting for a free channel on shared SSH session [%s]", timeout.toMillis(), this )
+				);
+			}
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new BoxRuntimeException( "Interrupted while waiting for a free channel on shared SSH session [" + this + "]", e );
+		}
+
+		try {
+			ChannelSftp channel = transferSettings.applyTo( ( ChannelSftp ) this.session.openChannel( "sftp" ), this.logger );
+			channel.connect( ( int ) timeout.toMillis() );
+			return channel;
+		} catch ( JSchException | RuntimeException e ) {
+			this.channels.release();
+			throw new IOException( "Unable to open an SFTP channel on shared SSH session [" + this + "]: " + e.getMessage(), e );
+		}
+	}
+
+	/**
+	 * Disconnect a channel and give its slot back
+	 *
+	 * @param channel The channel obtained via {@link #acquireChannel(Duration)}, can be null
+	 */
+	public void releaseChannel( ChannelSftp channel ) {
+		if ( channel == null ) {
+			return;
+		}
+		try {
+			if ( channel.isConnected() ) {
+				channel.disconnect();
+			}
+		} finally {
+			this.channels.release();
+		}
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Reference Counting
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Take a reference on the session, it is not closed for being unused while referenced
+	 *
+	 * @return The number of references
+	 */
+	public synchronized int retain() {
+		return ++this.references;
+	}
+
+	/**
+	 * Give a reference back
+	 *
+	 * @return The number of references left
+	 */
+	public synchronized int release() {
+		if ( this.references > 0 && --this.references == 0 ) {
+			this.lastReleased = System.currentTimeMillis();
+		}
+		return this.references;
+	}
+
+	/**
+	 * Has the session gone unreferenced for at least the given time
+	 *
+	 * @param idleTimeout The time
+	 *
+	 * @return True if nobody references the session and the last one let go long enough ago
+	 */
+	public synchronized boolean isUnreferencedFor( Duration idleTimeout ) {
+		return this.references == 0 && System.currentTimeMillis() - this.lastReleased >= idleTimeout.toMillis();
+	}
+
+	/**
+	 * @return The number of references
+	 */
+	public synchronized int getReferences() {
+		return this.references;
+	}
+
+	/**
+	 * Close the session and with it every channel, and give its host slot back
+	 */
+	public void close() {
+		if ( this.session.isConnected() ) {
+			this.session.disconnect();
+			this.logger.info( "Shared SSH session [{}] closed", this );
+		}
+		HostGovernor slot;
+		synchronized ( this ) {
+			slot			= this.governor;
+			this.governor	= null;
+		}
+		if ( slot != null ) {
+			slot.release();
+		}
+	}
+
+	/**
+	 * @return True if the underlying session is connected
+	 */
+	public boolean isConnected() {
+		return this.session.isConnected();
+	}
+
+	/**
+	 * @return The underlying JSch session
+	 */
+	public Session getSession() {
+		return this.session;
+	}
+
+	/**
+	 * @return The number of channels currently open
+	 */
+	public int getOpenChannels() {
+		return this.maxChannels - this.channels.availablePermits();
+	}
+
+	/**
+	 * @return The max number of channels
+	 */
+	public int getMaxChannels() {
+		return this.maxChannels;
+	}
+
+	/**
+	 * Get the session stats
+	 *
+	 * @return The stats as a struct
+	 */
+	public IStruct getStats() {
+		return Struct.of(
+		    "host", this.session.getHost(),
+		    "port", this.session.getPort(),
+		    "user", this.session.getUserName(),
+		    "connected", isConnected(),
+		    "openChannels", getOpenChannels(),
+		    "maxChannels", this.maxChannels,
+		    "waiting", this.channels.getQueueLength(),
+		    "references", getReferences()
+		);
+	}
+
+	/**
+	 * A string representation of the session
+	 */
+	@Override
+	public String toString() {
+		return this.session.getUserName() + "@" + this.session.getHost() + ":" + this.session.getPort();
+	}
+}
@@ -0,0 +1,381 @@
+/**
+ * [BoxLang]
+ *
+ * Copyright [2023] [Ortus Solutions, Corp]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ortus.boxlang.ftp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import ortus.boxlang.runtime.dynamic.casters.BooleanCaster;
+import ortus.boxlang.runtime.scopes.Key;
+import ortus.boxlang.runtime.types.Array;
+import ortus.boxlang.runtime.types.DateTime;
+import ortus.boxlang.runtime.types.IStruct;
+
+/**
+ * Compares a remote directory tree with a local one and plans what a sync has to do: the files
+ * that are new or changed on the source side are transferred, and with {@code delete} the files
+ * and directories the target has but the source does not are removed.
+ * <p>
+ * A file changed when its size differs, or when the source copy is newer than the target one by
+ * more than the time tolerance. FTP listings are often only accurate to the minute, so the
+ * tolerance absorbs the rounding. Downloaded files get the modification time of their remote copy,
+ * so the next sync finds them unchanged.
+ * </p>
+ */
+public class SyncPlan {
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Defaults
+	 * --------------------------------------------------------------------------
+	 */
+
+	// In Seconds, FTP listings round modification times to the minute
+	public static final Duration		DEFAULT_FTP_TIME_TOLERANCE	= Duration.ofSeconds( 60 );
+	// In Seconds, SFTP listings are accurate to the second
+	public static final Duration		DEFAULT_SFTP_TIME_TOLERANCE	= Duration.ofSeconds( 2 );
+
+	/**
+	 * Actions of the planned items
+	 */
+	public static final String			DOWNLOAD					= "download";
+	public static final String			UPLOAD						= "upload";
+	public static final String			DELETE						= "delete";
+	public static final String			DELETE_DIR					= "deleteDir";
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Properties
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * The remote tree by relative path
+	 */
+	private final Map<String, Entry>	remote						= new TreeMap<>();
+
+	/**
+	 * The local tree by relative path
+	 */
+	private final Map<String, Entry>	local						= new TreeMap<>();
+
+	/**
+	 * The remote directory being synced, null for the working directory
+	 */
+	private final String				remoteDir;
+
+	/**
+	 * The local directory being synced
+	 */
+	private final Path					localDir;
+
+	/**
+	 * True if the remote directory does not exist yet
+	 */
+	private final boolean				remoteMissing;
+
+	/**
+	 * Files found identical on both sides by the last {@link #items} call
+	 */
+	private int							unchanged					= 0;
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Constructors
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Scan both trees
+	 *
+	 * @param connection The session to list the remote tree with
+	 * @param remoteDir  The remote directory, null for the working directory
+	 * @param localDir   The local directory, it may not exist yet
+	 * @param filter     The files to keep and the directories to skip, on both sides
+	 *
+	 * @throws IOException If either tree cannot be listed
+	 */
+	public SyncPlan( IFTPConnection connection, String remoteDir, Path localDir, PathFilter filter ) throws IOException {
+		this.remoteDir	= remoteDir == null || remoteDir.isBlank() ? null : remoteDir.trim();
+		this.localDir	= localDir;
+
+		// A missing remote directory is an empty tree, the caller decides whether that is fine
+		this.remoteMissing = this.remoteDir != null && Boolean.FALSE.equals( connection.existsDir( this.remoteDir ) );
+		for ( Object listed : this.remoteMissing ? new Array() : connection.listTree( this.remoteDir, filter ) ) {
+			IStruct	entry		= ( IStruct ) listed;
+			Object	modified	= entry.get( FTPKeys.lastModified );
+			Object	size		= entry.getOrDefault( Key.size, -1 );
+			this.remote.put(
+			    entry.getAsString( Key.path ),
+			    new Entry(
+			        BooleanCaster.cast( entry.get( FTPKeys.isDirectory ) ),
+			        size instanceof Number number ? number.longValue() : -1,
+			        modified instanceof DateTime dateTime ? dateTime.getWrapped().toInstant().toEpochMilli() : -1
+			    )
+			);
+		}
+
+		if ( Files.isDirectory( localDir ) ) {
+			scanLocal( filter );
+		}
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Plan Methods
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Plan the items of the sync: the transfers first, then the file deletes, then the directory
+	 * deletes, deepest first and flagged sequential so a directory is only removed once emptied.
+	 *
+	 * @param upload    True to make the remote tree match the local one, false for the other way around
+	 * @param delete    True to remove what the target has but the source does not
+	 * @param tolerance How much newer a source file must be to count as changed
+	 *
+	 * @return The planned items
+	 */
+	public List<BatchTransfer.Item> items( boolean upload, boolean delete, Duration tolerance ) {
+		Map<String, Entry>			source	= upload ? this.local : this.remote;
+		Map<String, Entry>			target	= upload ? this.remote : this.local;
+		List<BatchTransfer.Item>	items	= new ArrayList<>();
+		this.unchanged = 0;
+
+		source.forEach( ( path, entry ) -> {
+			if ( entry.directory ) {
+				return;
+			}
+			Entry copy = target.get( path );
+			if ( copy != null && !copy.directory && !isChanged( entry, copy, tolerance ) ) {
+				this.unchanged++;
+				return;
+			}
+			items.add( item( upload ? UPLOAD : DOWNLOAD, path, entry.size ) );
+		} );
+
+		if ( delete ) {
+			List<String> directories = new ArrayList<>();
+			target.forEach( ( path, entry ) -> {
+				Entry original = source.get( path );
+				if ( original != null && original.directory == entry.directory ) {
+					return;
+				}
+				if ( entry.directory ) {
+					directories.add( path );
+				} else {
+					items.add( item( DELETE, path, 0 ) );
+				}
+			} );
+			directories.sort( Comparator.reverseOrder() );
+			for ( String path : directories ) {
+				items.add( item( DELETE_DIR, path, 0 ).setSequential( true ) );
+			}
+		}
+		return items;
+	}
+
+	/**
+	 * The directories the source has and the target lacks, parents first
+	 *
+	 * @param upload True if the target is the remote tree
+	 *
+	 * @return The relative paths of the directories to create
+	 */
+	public List<String> missingDirectories( boolean upload ) {
+		Map<String, Entry>	source		= upload ? this.local : this.remote;
+		Map<String, Entry>	target		= upload ? this.remote : this.local;
+		List<String>		directories	= new ArrayList<>();
+		source.forEach( ( path, entry ) -> {
+			if ( entry.directory && ( !target.containsKey( path ) || !target.get( path ).directory ) ) {
+				directories.add( path );
+			}
+		} );
+		return directories;
+	}
+
+	/**
+	 * The remote directories that already exist, so creating the missing ones lists nothing
+	 *
+	 * @return The remote paths of the existing directories
+	 */
+	public List<String> remoteDirectories() {
+		List<String> directories = new ArrayList<>();
+		if ( this.remoteDir != null && !this.remoteMissing ) {
+			directories.add( this.remoteDir );
+		}
+		this.remote.forEach( ( path, entry ) -> {
+			if ( entry.directory ) {
+				directories.add( remotePath( path ) );
+			}
+		} );
+		return directories;
+	}
+
+	/**
+	 * Get the modification time of a remote file
+	 *
+	 * @param path The relative path of the file
+	 *
+	 * @return The epoch millis, -1 if unknown
+	 */
+	public long getRemoteModified( String path ) {
+		Entry entry = this.remote.get( path );
+		return entry == null ? -1 : entry.modified;
+	}
+
+	/**
+	 * @return True if the remote directory does not exist
+	 */
+	public boolean isRemoteMissing() {
+		return this.remoteMissing;
+	}
+
+	/**
+	 * @return The remote directory being synced, null for the working directory
+	 */
+	public String getRemoteDir() {
+		return this.remoteDir;
+	}
+
+	/**
+	 * @return The files found identical on both sides
+	 */
+	public int getUnchanged() {
+		return this.unchanged;
+	}
+
+	/**
+	 * Resolve a relative path of the tree against the remote directory
+	 *
+	 * @param path The relative path
+	 *
+	 * @return The remote path
+	 */
+	public String remotePath( String path ) {
+		if ( this.remoteDir == null ) {
+			return path;
+		}
+		return this.remoteDir.endsWith( "/" ) ? this.remoteDir + path : this.remoteDir + "/" + path;
+	}
+
+	/**
+	 * Resolve a relative path of the tree against the local directory
+	 *
+	 * @param path The relative path
+	 *
+	 * @return The local path
+	 */
+	public Path localPath( String path ) {
+		return this.localDir.resolve( path );
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Helpers
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Build a planned item
+	 */
+	private BatchTransfer.Item item( String action, String path, long size ) {
+		return new BatchTransfer.Item( action, path, remotePath( path ), localPath( path ).toString(), size );
+	}
+
+	/**
+	 * Is the target copy of a file out of date: another size, or an older modification time.
+	 * Unknown times are not compared.
+	 */
+	private static boolean isChanged( Entry source, Entry target, Duration tolerance ) {
+		if ( source.size >= 0 && target.size >= 0 && source.size != target.size ) {
+			return true;
+		}
+		return source.modified >= 0 && target.modified >= 0 && source.modified > target.modified + tolerance.toMillis();
+	}
+
+	/**
+	 * Scan the local tree, skipping excluded directories
+	 */
+	private void scanLocal( PathFilter filter ) throws IOException {
+		Files.walkFileTree( this.localDir, new SimpleFileVisitor<>() {
+
+			@Override
+			public FileVisitResult preVisitDirectory( Path directory, BasicFileAttributes attrs ) {
+				String path = relativize( directory );
+				if ( path.isEmpty() ) {
+					return FileVisitResult.CONTINUE;
+				}
+				if ( !filter.acceptsDirectory( path ) ) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				local.put( path, new Entry( true, 0, attrs.lastModifiedTime().toMillis() ) );
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile( Path file, BasicFileAttributes attrs ) {
+				String path = relativize( file );
+				if ( attrs.isRegularFile() && filter.acceptsFile( path ) ) {
+					local.put( path, new Entry( false, attrs.size(), attrs.lastModifiedTime().toMillis() ) );
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed( Path file, IOException e ) {
+				// Unreadable, neither transferred nor deleted
+				return FileVisitResult.CONTINUE;
+			}
+		} );
+	}
+
+	/**
+	 * @return The path of a local file relative to the local directory, with forward slashes
+	 */
+	private String relativize( Path file ) {
+		return this.localDir.relativize( file ).toString().replace( File.separatorChar, '/' );
+	}
+
+	/**
+	 * A file or directory on one side
+	 */
+	private static final class Entry {
+
+		private final boolean	directory;
+		private final long		size;
+		private final long		modified;
+
+		private Entry( boolean directory, long size, long modified ) {
+			this.directory	= directory;
+			this.size		= size;
+			this.modified	= modified;
+		}
+	}
+}
@@ -0,0 +1,214 @@
+/**
+ * [BoxLang]
+ *
+ * Copyright [2023] [Ortus Solutions, Corp]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ortus.boxlang.ftp;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ortus.boxlang.runtime.types.IStruct;
+import ortus.boxlang.runtime.types.Struct;
+
+/**
+ * Tracks the bytes of a transfer as they go through its local stream, and lets another thread
+ * cancel it: once cancelled, the next read or write on the stream fails, which aborts the
+ * transfer in whichever client library is running it.
+ */
+public class TransferProgress {
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Properties
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Bytes read or written so far
+	 */
+	private final AtomicLong	transferred	= new AtomicLong();
+
+	/**
+	 * The size of the transfer in bytes, -1 if unknown
+	 */
+	private volatile long		total		= -1;
+
+	/**
+	 * Set once the transfer is cancelled
+	 */
+	private volatile boolean	cancelled	= false;
+
+	/**
+	 * When tracking started, in millis
+	 */
+	private final long			started		= System.currentTimeMillis();
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Tracking Methods
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Wrap the stream an upload reads from
+	 *
+	 * @param in The local stream
+	 *
+	 * @return A stream that counts the bytes read and fails once the transfer is cancelled
+	 */
+	public InputStream track( InputStream in ) {
+		return new FilterInputStream( in ) {
+
+			@Override
+			public int read() throws IOException {
+				checkCancelled();
+				int b = super.read();
+				if ( b >= 0 ) {
+					transferred.incrementAndGet();
+				}
+				return b;
+			}
+
+			@Override
+			public int read( byte[] buffer, int offset, int length ) throws IOException {
+				checkCancelled();
+				int count = super.read( buffer, offset, length );
+				if ( count > 0 ) {
+					transferred.addAndGet( count );
+				}
+				return count;
+			}
+		};
+	}
+
+	/**
+	 * Wrap the stream a download writes to
+	 *
+	 * @param out The local stream
+	 *
+	 * @return A stream that counts the bytes written and fails once the transfer is cancelled
+	 */
+	public OutputStream track( OutputStream out ) {
+		return new FilterOutputStream( out ) {
+
+			@Override
+			public void write( int b ) throws IOException {
+				checkCancelled();
+				this.out.write( b );
+				transferred.incrementAndGet();
+			}
+
+			@Override
+			public void write( byte[] buffer, int offset, int length ) throws IOException {
+				checkCancelled();
+				// FilterOutputStream would write it byte by byte
+				this.out.write( buffer, offset, length );
+				transferred.addAndGet( length );
+			}
+		};
+	}
+
+	/**
+	 * Count bytes that were moved without going through a tracked stream
+	 *
+	 * @param bytes The bytes moved
+	 *
+	 * @return This progress for chaining
+	 */
+	public TransferProgress add( long bytes ) {
+		this.transferred.addAndGet( bytes );
+		return this;
+	}
+
+	/**
+	 * Cancel the transfer, it fails on its next read or write
+	 */
+	public void cancel() {
+		this.cancelled = true;
+	}
+
+	/**
+	 * @return True if the transfer was cancelled
+	 */
+	public boolean isCancelled() {
+		return this.cancelled;
+	}
+
+	/**
+	 * @return The bytes read or written so far
+	 */
+	public long getTransferred() {
+		return this.transferred.get();
+	}
+
+	/**
+	 * @return The size of the transfer in bytes, -1 if unknown
+	 */
+	public long getTotal() {
+		return this.total;
+	}
+
+	/**
+	 * Set the size of the transfer, when it is known
+	 *
+	 * @param total The size in bytes
+	 *
+	 * @return This progress for chaining
+	 */
+	public TransferProgress setTotal( long total ) {
+		this.total = total;
+		return this;
+	}
+
+	/**
+	 * Get the progress as a struct: the {@code percent} is -1 while the size is unknown
+	 *
+	 * @return The progress struct
+	 */
+	public IStruct toStruct() {
+		long	bytes	= getTransferred();
+		long	size	= this.total;
+		long	elapsed	= System.currentTimeMillis() - this.started;
+		return Struct.of(
+		    "transferred", bytes,
+		    "total", size,
+		    "percent", size > 0 ? Math.min( 100, bytes * 100 / size ) : size == 0 ? 100 : -1,
+		    "elapsed", elapsed,
+		    "bytesPerSecond", elapsed > 0 ? bytes * 1000 / elapsed : 0,
+		    "cancelled", this.cancelled
+		);
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Helpers
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * @throws InterruptedIOException If the transfer was cancelled
+	 */
+	private void checkCancelled() throws InterruptedIOException {
+		if ( this.cancelled ) {
+			throw new InterruptedIOException( "The transfer was cancelled" );
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * [BoxLang]
+ *
+ * Copyright [2023] [Ortus Solutions, Corp]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ortus.boxlang.ftp.bifs;
+
+import java.util.List;
+
+import ortus.boxlang.ftp.FTPKeys;
+import ortus.boxlang.ftp.FTPTransfer;
+import ortus.boxlang.runtime.bifs.BIF;
+import ortus.boxlang.runtime.bifs.BoxBIF;
+import ortus.boxlang.runtime.context.IBoxContext;
+import ortus.boxlang.runtime.dynamic.casters.LongCaster;
+import ortus.boxlang.runtime.scopes.ArgumentsScope;
+import ortus.boxlang.runtime.scopes.Key;
+import ortus.boxlang.runtime.types.Argument;
+import ortus.boxlang.runtime.types.Array;
+import ortus.boxlang.runtime.types.exceptions.BoxRuntimeException;
+
+@BoxBIF
+public class FTPAwait extends BIF {
+
+	/**
+	 * Constructor
+	 */
+	public FTPAwait() {
+		super();
+		declaredArguments = new Argument[] {
+		    new Argument( true, "any", FTPKeys.transfers ),
+		    new Argument( false, "numeric", Key.timeout, 0 )
+		};
+	}
+
+	/**
+	 * Wait for one or more background FTP actions, started with {@code async="true"}, and get their results.
+	 * <p>
+	 * The transfers are joined in order, so the total wait is the one of the slowest transfer, not the
+	 * sum of them all. The first failed transfer throws its error.
+	 * </p>
+	 *
+	 * <pre>
+	 * {@code
+	 * <bx:ftp action="getfile" connection="myPool" remoteFile="a.zip" localFile="/tmp/a.zip" async="true" result="a">
+	 * <bx:ftp action="getfile" connection="myPool" remoteFile="b.zip" localFile="/tmp/b.zip" async="true" result="b">
+	 * <bx:set results = FTPAwait( [ a, b ], 60000 )>
+	 * }
+	 * </pre>
+	 *
+	 * @param context   The context in which the BIF is being invoked.
+	 * @param arguments Argument scope for the BIF.
+	 *
+	 * @argument.transfers A transfer handle, or an array of them
+	 *
+	 * @argument.timeout The max milliseconds to wait for all of them, 0 waits as long as it takes
+	 *
+	 * @return The result struct of the transfer, or an array of result structs in the order of the transfers
+	 */
+	public Object _invoke( IBoxContext context, ArgumentsScope arguments ) {
+		Object	transfers	= arguments.get( FTPKeys.transfers );
+		long	timeout		= LongCaster.cast( arguments.get( Key.timeout ) );
+		long	deadline	= System.currentTimeMillis() + timeout;
+
+		if ( transfers instanceof FTPTransfer transfer ) {
+			return await( transfer, timeout, deadline );
+		}
+		if ( transfers instanceof List<?> list ) {
+			Array results = new Array();
+			for ( Object item : list ) {
+				if ( ! ( item instanceof FTPTransfer transfer ) ) {
+					throw new BoxRuntimeException( "FTPAwait() expects transfer handles, got [" + item + "]" );
+				}
+				results.add( await( transfer, timeout, deadline ) );
+			}
+			return results;
+		}
+		throw new BoxRuntimeException( "FTPAwait() expects a transfer handle or an array of them, got [" + transfers + "]" );
+	}
+
+	/**
+	 * Wait for a transfer, within what is left of the timeout
+	 */
+	private Object await( FTPTransfer transfer, long timeout, long deadline ) {
+		if ( timeout <= 0 ) {
+			return transfer.get();
+		}
+		return transfer.get( Math.max( 0, deadline - System.currentTimeMillis() ) );
+	}
+}
@@ -0,0 +1,65 @@
+/**
+ * [BoxLang]
+ *
+ * Copyright [2023] [Ortus Solutions, Corp]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ortus.boxlang.ftp.bifs;
+
+import ortus.boxlang.ftp.FTPKeys;
+import ortus.boxlang.ftp.FTPTransfer;
+import ortus.boxlang.ftp.services.FTPService;
+import ortus.boxlang.runtime.bifs.BIF;
+import ortus.boxlang.runtime.bifs.BoxBIF;
+import ortus.boxlang.runtime.context.IBoxContext;
+import ortus.boxlang.runtime.scopes.ArgumentsScope;
+import ortus.boxlang.runtime.types.Argument;
+import ortus.boxlang.runtime.types.Array;
+
+@BoxBIF
+public class FTPTransfers extends BIF {
+
+	/**
+	 * Constructor
+	 */
+	public FTPTransfers() {
+		super();
+		declaredArguments = new Argument[] {
+		    new Argument( false, "string", FTPKeys.connection )
+		};
+	}
+
+	/**
+	 * Get the background FTP actions, started with {@code async="true"}, that are still running. Each handle
+	 * can be waited on with {@code get()}, followed with {@code getProgress()} or stopped with {@code cancel()}.
+	 *
+	 * @param context   The context in which the BIF is being invoked.
+	 * @param arguments Argument scope for the BIF.
+	 *
+	 * @argument.connection Only return the transfers of this connection name
+	 *
+	 * @return An array of transfer handles
+	 */
+	public Object _invoke( IBoxContext context, ArgumentsScope arguments ) {
+		FTPService	ftpService	= ( FTPService ) runtime.getGlobalService( FTPKeys.FTPService );
+		String		connection	= arguments.getAsString( FTPKeys.connection );
+		Array		transfers	= new Array();
+		for ( FTPTransfer transfer : ftpService.getTransfers() ) {
+			if ( connection == null || connection.isBlank() || transfer.getConnection().equalsIgnoreCase( connection.trim() ) ) {
+				transfers.add( transfer );
+			}
+		}
+		return transfers;
+	}
+}
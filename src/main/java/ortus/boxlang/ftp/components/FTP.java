@@ -17,27 +17,70 @@
  */
 package ortus.boxlang.ftp.components;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import org.apache.commons.net.ftp.FTPReply;
 
 import ortus.boxlang.ftp.BaseFTPConnection;
+import ortus.boxlang.ftp.BatchTransfer;
 import ortus.boxlang.ftp.FTPConnection;
+import ortus.boxlang.ftp.FTPConnectionConfig;
 import ortus.boxlang.ftp.FTPKeys;
 import ortus.boxlang.ftp.FTPResult;
+import ortus.boxlang.ftp.FTPTransfer;
 import ortus.boxlang.ftp.IFTPConnection;
+import ortus.boxlang.ftp.PathFilter;
+import ortus.boxlang.ftp.RemoteDirectoryCache;
+import ortus.boxlang.ftp.RetryPolicy;
+import ortus.boxlang.ftp.SFTPConnection;
+import ortus.boxlang.ftp.SFTPTransferSettings;
+import ortus.boxlang.ftp.SegmentedDownload;
+import ortus.boxlang.ftp.SegmentedUpload;
+import ortus.boxlang.ftp.SharedSSHSession;
+import ortus.boxlang.ftp.SyncPlan;
+import ortus.boxlang.ftp.TransferProgress;
+import ortus.boxlang.ftp.pool.FTPConnectionPool;
 import ortus.boxlang.ftp.services.FTPService;
 import ortus.boxlang.runtime.components.Attribute;
 import ortus.boxlang.runtime.components.BoxComponent;
 import ortus.boxlang.runtime.components.Component;
 import ortus.boxlang.runtime.context.IBoxContext;
 import ortus.boxlang.runtime.dynamic.casters.BooleanCaster;
+import ortus.boxlang.runtime.dynamic.casters.DoubleCaster;
 import ortus.boxlang.runtime.dynamic.casters.IntegerCaster;
+import ortus.boxlang.runtime.dynamic.casters.LongCaster;
+import ortus.boxlang.runtime.dynamic.casters.StringCaster;
 import ortus.boxlang.runtime.logging.BoxLangLogger;
 import ortus.boxlang.runtime.scopes.Key;
+import ortus.boxlang.runtime.types.Array;
+import ortus.boxlang.runtime.types.Function;
 import ortus.boxlang.runtime.types.IStruct;
+import ortus.boxlang.runtime.types.Query;
 import ortus.boxlang.runtime.types.Struct;
 import ortus.boxlang.runtime.types.exceptions.BoxIOException;
+import ortus.boxlang.runtime.types.exceptions.BoxRuntimeException;
 import ortus.boxlang.runtime.validation.Validator;
 
 @BoxComponent( allowsBody = false )
@@ -63,15 +106,21 @@ public class FTP extends Component {
 	    "existsDir",
 	    "existsFile",
 	    "getCurrentDir",
+	    "getDir",
 	    "getfile",
+	    "getFiles",
 	    "listdir",
 	    "open",
 	    "putfile",
+	    "putDir",
+	    "putFiles",
+	    "readLines",
 	    "removeDir",
 	    "remove",
 	    "removeFile",
 	    "renameFile",
-	    "renameDir"
+	    "renameDir",
+	    "sync"
 	};
 
 	/**
@@ -93,11 +142,15 @@ public class FTP extends Component {
 		    new Attribute( FTPKeys.stopOnError, "boolean" ),
 		    new Attribute( FTPKeys.passive, "boolean", FTPConnection.DEFAULT_PASSIVE ),
 		    new Attribute( FTPKeys.timeout, "numeric", FTPConnection.DEFAULT_TIMEOUT.toSeconds() ),
+		    // transferMode (ascii) - FTP transfer mode of the connection, binary keeps the bytes as they are and lets transfers resume at a byte offset. SFTP is always binary
+		    new Attribute( FTPKeys.transferMode, "string", FTPConnectionConfig.TRANSFER_MODE_ASCII, Set.of( Validator.valueOneOf( FTPConnectionConfig.TRANSFER_MODE_ASCII, FTPConnectionConfig.TRANSFER_MODE_BINARY ) ) ),
+		    // validationInterval - Seconds a successful liveness probe is trusted before a session is probed again, 0 probes before every action
+		    new Attribute( FTPKeys.validationInterval, "numeric", FTPConnectionConfig.DEFAULT_VALIDATION_INTERVAL.toSeconds() ),
 		    // this is the proxy server to use, it can include the port number as well
 		    new Attribute( Key.proxyServer, "string" ),
 		    // Directory on which to performan an operation. Required for actions: changeDir, createDir, listDir, existsDir
 		    new Attribute( Key.directory, "string" ),
-		    // Query variable name when doing variable operations. Required for actions: listDir
+		    // Query variable name when doing variable operations. Required for actions: listDir. Optional for actions: getFiles, putFiles, segmented getFile and putFile. The content variable of a getFile into memory
 		    new Attribute( Key._name, "string" ),
 		    // The return type of the operation. Required for actions: listDir
 		    new Attribute( Key.returnType, "string", "query", Set.of( Validator.valueOneOf( "query", "array" ) ) ),
@@ -105,12 +158,62 @@ public class FTP extends Component {
 		    new Attribute( FTPKeys._new, "string" ),
 		    // The name of the file on the remote server. Required for actions: getFile, putFile, existsFile
 		    new Attribute( FTPKeys.remoteFile, "string" ),
-		    // Name of the file on the local file system. Required for actions: getFile, putFile
+		    // Name of the file on the local file system. Required for actions: getFile (unless returnAs, outputStream, offset or length is set), putFile (unless content is set)
 		    new Attribute( FTPKeys.localFile, "string" ),
 		    // The existing file to rename. Required for actions: renameFile
 		    new Attribute( FTPKeys.existing, "string" ),
 		    // failIfExists (true) - If a local file with same name exists, should it be overwritten with action = getFile. Default is true
 		    new Attribute( FTPKeys.failIfExists, "boolean", true ),
+		    // resume (false) - Continue a partial transfer from the size of the partial local (getFile) or remote (putFile) file, replacing it if it cannot be continued
+		    new Attribute( FTPKeys.resume, "boolean", false ),
+		    // verifyTail (0) - Bytes before the resume offset compared on both sides, a mismatch starts the transfer over. Used with resume
+		    new Attribute( FTPKeys.verifyTail, "numeric", 0 ),
+		    // segmented (false) - Move one large file as byte ranges over up to concurrency pooled sessions. Used on actions: getFile, putFile (SFTP only)
+		    new Attribute( FTPKeys.segmented, "boolean", false ),
+		    // segmentSize (64MB) - Bytes of every segment of a segmented transfer, at least 1MB
+		    new Attribute( FTPKeys.segmentSize, "numeric", SegmentedDownload.DEFAULT_SEGMENT_SIZE ),
+		    // useTempFile (false) - Upload the segments to <remoteFile>.part and rename it once complete. Used on action: segmented putFile
+		    new Attribute( FTPKeys.useTempFile, "boolean", false ),
+		    // content - A string, byte array or Java InputStream uploaded instead of localFile, the stream is left open. Used on action: putFile
+		    new Attribute( FTPKeys.content, "any" ),
+		    // returnAs - Download into memory instead of localFile: binary returns a byte array, string decodes it with charset. Always read in binary mode. Used on action: getFile
+		    new Attribute( FTPKeys.returnAs, "string", Set.of( Validator.valueOneOf( "binary", "string" ) ) ),
+		    // outputStream - A Java OutputStream, or an object with a getOutputStream() method such as a servlet response, the file is streamed to instead of localFile. Flushed per chunk, not closed, always read in binary mode. Used on action: getFile
+		    new Attribute( FTPKeys.outputStream, "any" ),
+		    // charset (UTF-8) - Charset of a file downloaded with returnAs="string" or read with readLines, or of a string content uploaded with putFile
+		    new Attribute( Key.charset, "string", "UTF-8" ),
+		    // maxBytes - Largest file a getFile into memory (100MB by default) or into an outputStream (no limit by default) accepts, 0 for no limit
+		    new Attribute( FTPKeys.maxBytes, "numeric" ),
+		    // offset - Position of the first byte of a ranged getFile, negative to count from the end of the file. Returns the range as returnAs or into outputStream, binary by default
+		    new Attribute( Key.offset, "numeric" ),
+		    // length - Bytes of a ranged getFile, up to the end of the file by default. Used on action: getFile
+		    new Attribute( Key.length, "numeric" ),
+		    // callback - Function called with each line (or batch of lines) and the number of its first line, returning false stops the read. Required for action: readLines
+		    new Attribute( Key.callback, "any" ),
+		    // batchSize (1) - Lines passed to each callback call, as an array when over 1. Used on action: readLines
+		    new Attribute( FTPKeys.batchSize, "numeric", 1 ),
+		    // Batch attributes. Used on actions: getFiles, putFiles, getDir, putDir, sync
+		    // files - An array of paths, a glob such as "*.csv", or the query returned by listdir
+		    new Attribute( FTPKeys.files, "any" ),
+		    // localDir - Local directory the files are downloaded into, or relative local paths and globs are resolved against
+		    new Attribute( FTPKeys.localDir, "string" ),
+		    // remoteDir - Remote directory relative remote paths and globs are resolved against, or the files are uploaded into
+		    new Attribute( FTPKeys.remoteDir, "string" ),
+		    // concurrency (4) - Max pooled sessions moving files or segments at once, standalone connections move them one at a time
+		    new Attribute( FTPKeys.concurrency, "numeric", BatchTransfer.DEFAULT_CONCURRENCY ),
+		    // include - Comma separated globs the files of a tree must match, "*.csv" matches names at any depth, "reports/**" paths. Used on actions: getDir, putDir, sync
+		    new Attribute( FTPKeys.include, "string" ),
+		    // exclude - Comma separated globs of the files and directories of a tree to skip, excluded directories are not walked. Used on actions: getDir, putDir, sync
+		    new Attribute( FTPKeys.exclude, "string" ),
+		    // Sync attributes. Used on action: sync
+		    // direction (download) - download makes localDir match remoteDir, upload makes remoteDir match localDir
+		    new Attribute( FTPKeys.direction, "string", SyncPlan.DOWNLOAD, Set.of( Validator.valueOneOf( SyncPlan.DOWNLOAD, SyncPlan.UPLOAD ) ) ),
+		    // delete (false) - Remove the files and directories the target has but the source does not
+		    new Attribute( FTPKeys.delete, "boolean", false ),
+		    // dryRun (false) - Only plan the sync, the result lists the planned operations and the bytes to move
+		    new Attribute( FTPKeys.dryRun, "boolean", false ),
+		    // timeTolerance - Seconds a source file must be newer than its copy to count as changed, 60 for FTP and 2 for SFTP by default
+		    new Attribute( FTPKeys.timeTolerance, "numeric" ),
 		    // SFTP-specific attributes
 		    // secure (false) - FTP or SFTP if true
 		    new Attribute( FTPKeys.secure, "boolean", false ),
@@ -119,13 +222,50 @@ public class FTP extends Component {
 		    // key - absolute path to private key file for SFTP
 		    new Attribute( FTPKeys.key, "string" ),
 		    // passphrase - passphrase for private key for SFTP
-		    new Attribute( FTPKeys.passphrase, "string" )
+		    new Attribute( FTPKeys.passphrase, "string" ),
+		    // multiplex (false) - Pooled SFTP sessions share one SSH session, each one being a channel on it
+		    new Attribute( FTPKeys.multiplex, "boolean", false ),
+		    // maxChannels - Max SFTP channels opened on a multiplexed or shared SSH session, keep it at or below the server's MaxSessions
+		    new Attribute( FTPKeys.maxChannels, "numeric", SharedSSHSession.DEFAULT_MAX_CHANNELS ),
+		    // shareSession (false) - Standalone SFTP connections to the same account open a channel on one cached SSH session instead of logging in again
+		    new Attribute( FTPKeys.shareSession, "boolean", false ),
+		    // transferProfile (default) - SFTP pipelining profile: default keeps the JSch settings, highBDP keeps about 8MB in flight for long fat links
+		    new Attribute( FTPKeys.transferProfile, "string", SFTPTransferSettings.PROFILE_DEFAULT, Set.of( Validator.valueOneOf( SFTPTransferSettings.PROFILE_DEFAULT, SFTPTransferSettings.PROFILE_HIGH_BDP ) ) ),
+		    // bulkRequests - SFTP READ/WRITE requests in flight on a transfer, overrides the profile
+		    new Attribute( FTPKeys.bulkRequests, "numeric" ),
+		    // requestSize - Bytes asked by each SFTP READ request, 32KB to 256KB, overrides the profile
+		    new Attribute( FTPKeys.requestSize, "numeric" ),
+		    // windowSize - Bytes of the SSH channel window the server may send ahead, overrides the profile
+		    new Attribute( FTPKeys.windowSize, "numeric" ),
+		    // Pooling attributes, only used on action = open
+		    // pool (false) - Keep a bounded pool of sessions for this connection so concurrent requests run in parallel
+		    new Attribute( FTPKeys.pool, "boolean", false ),
+		    // poolMinIdle - Sessions to open eagerly and keep idle
+		    new Attribute( FTPKeys.poolMinIdle, "numeric", FTPConnectionConfig.DEFAULT_POOL_MIN_IDLE ),
+		    // poolMaxIdle - Max sessions kept idle, extra sessions are closed when released
+		    new Attribute( FTPKeys.poolMaxIdle, "numeric", FTPConnectionConfig.DEFAULT_POOL_MAX_IDLE ),
+		    // poolMaxSize - Max sessions open at once, checked out or idle
+		    new Attribute( FTPKeys.poolMaxSize, "numeric", FTPConnectionConfig.DEFAULT_POOL_MAX_SIZE ),
+		    // poolMaxWait - Max seconds to wait for a session when the pool is exhausted
+		    new Attribute( FTPKeys.poolMaxWait, "numeric", FTPConnectionConfig.DEFAULT_POOL_MAX_WAIT.toSeconds() ),
+		    // Per host limits, shared by every connection to the same server + port + username
+		    // hostMaxConnections (0) - Max sessions logged in at once to the host, 0 is unlimited. Lowered automatically when the server answers 421
+		    new Attribute( FTPKeys.hostMaxConnections, "numeric", FTPConnectionConfig.DEFAULT_HOST_MAX_CONNECTIONS ),
+		    // hostMaxWait - Max seconds to wait, first come first served, for a free slot on the host
+		    new Attribute( FTPKeys.hostMaxWait, "numeric", FTPConnectionConfig.DEFAULT_HOST_MAX_WAIT.toSeconds() ),
+		    // Retries, set on action = open for every action of the connection, or on a single action to override them
+		    // retryCount (0) - Times an idempotent action is retried on a reconnected session after a transient failure
+		    new Attribute( FTPKeys.retryCount, "numeric" ),
+		    // retryDelay (500) - Milliseconds to wait before the first retry, doubled on each retry with a random jitter
+		    new Attribute( FTPKeys.retryDelay, "numeric" ),
+		    // retryMaxDelay (30000) - Max milliseconds to wait between two retries
+		    new Attribute( FTPKeys.retryMaxDelay, "numeric" ),
+		    // async (false) - Run the action in the background, the result variable gets a transfer handle to wait on, follow or cancel it
+		    new Attribute( FTPKeys.async, "boolean", false )
 
 			// Pending Attributes, not sure if we need to do them.
-			// ASCIIExtensionList - Delimited list of file extensions that force ASCII transfer mode, if transferMode = "auto".
+			// ASCIIExtensionList - Delimited list of file extensions that force ASCII transfer mode, with a transferMode of auto.
 			// systemType - windows or unix
-			// transferMode - auto, ascii, binary
-			// retrycount (1) - Number of times to retry an operation
 			// bufferSize - Buffer size in bytes
 		};
 		this.logger			= ftpService.getLogger();
@@ -143,13 +283,19 @@ public class FTP extends Component {
 	 * <li>existsDir</li>
 	 * <li>existsFile</li>
 	 * <li>getCurrentDir</li>
+	 * <li>getDir</li>
 	 * <li>getfile</li>
+	 * <li>getFiles</li>
 	 * <li>listDir</li>
+	 * <li>putDir</li>
 	 * <li>putFile</li>
+	 * <li>putFiles</li>
+	 * <li>readLines</li>
 	 * <li>removeDir</li>
 	 * <li>removeFile</li>
 	 * <li>renameFile</li>
 	 * <li>renameDir</li>
+	 * <li>sync</li>
 	 * </ul>
 	 *
 	 * <h2>Examples:</h2>
@@ -175,10 +321,177 @@ public class FTP extends Component {
 	 *
 	 */
 	public BodyResult _invoke( IBoxContext context, IStruct attributes, ComponentBody body, IStruct executionState ) {
-		IFTPConnection	ftpConnection	= findOrInitializeConnection( context, attributes );
-		FTPResult		ftpResult		= new FTPResult( ftpConnection );
-		String			action			= attributes.getAsString( Key.action ).toLowerCase();
-		Object			returnValue		= null;
+		String action = attributes.getAsString( Key.action ).toLowerCase();
+
+		// Background actions hand back a transfer handle right away, their result is read from it
+		if ( BooleanCaster.cast( attributes.get( FTPKeys.async ) ) && !action.equals( "open" ) && !action.equals( "close" ) ) {
+			TransferProgress	progress	= new TransferProgress();
+			FTPTransfer			transfer	= this.ftpService.submitTransfer(
+			    action,
+			    attributes.getAsString( FTPKeys.connection ).trim(),
+			    isSecure( action, attributes ),
+			    progress,
+			    () -> runAction( null, attributes, action, progress ).toStruct()
+			);
+			if ( attributes.get( Key.result ) instanceof String targetResult && !targetResult.isBlank() ) {
+				context.getDefaultAssignmentScope().put( Key.of( targetResult ), transfer );
+			} else {
+				context.getDefaultAssignmentScope().put( FTPKeys.bxftp, transfer );
+			}
+			return DEFAULT_RETURN;
+		}
+
+		runAction( context, attributes, action, null );
+		return DEFAULT_RETURN;
+	}
+
+	/**
+	 * Run an action on the connection it targets
+	 *
+	 * @param context    The context in which the Component is being invoked, null for background actions
+	 * @param attributes The attributes to the Component
+	 * @param action     The action to execute
+	 * @param progress   The progress background actions report to, or null
+	 *
+	 * @return The result of the action
+	 */
+	private FTPResult runAction( IBoxContext context, IStruct attributes, String action, TransferProgress progress ) {
+		FTPConnectionPool pool = findPool( action, attributes );
+
+		// Standalone named connection: one action at a time, and never while a keepalive is in flight
+		if ( pool == null ) {
+			IFTPConnection ftpConnection = findOrInitializeConnection( context, attributes );
+			ftpConnection.beginOperation();
+			try {
+				if ( !action.equals( "open" ) && !action.equals( "close" ) ) {
+					ensureAlive( ftpConnection, action );
+				}
+				return executeAction( context, attributes, action, ftpConnection, null, progress );
+			} finally {
+				ftpConnection.endOperation();
+			}
+		}
+
+		// The pool opens its sessions itself and closes them once removed, no session to lease
+		if ( action.equals( "open" ) || action.equals( "close" ) ) {
+			return openOrClosePool( context, attributes, action, pool );
+		}
+
+		// Pooled connection: lease a session for the duration of the action
+		IFTPConnection ftpConnection;
+		try {
+			ftpConnection = pool.borrow();
+		} catch ( IOException e ) {
+			throw new BoxIOException( String.format( "Error executing action [%s] -> [%s]", action, e.getMessage() ), e );
+		}
+		try {
+			return executeAction( context, attributes, action, ftpConnection, pool, progress );
+		} finally {
+			pool.release( ftpConnection );
+		}
+	}
+
+	/**
+	 * Open or close a pooled connection without checking out a session, so a pool that is
+	 * exhausted, or cannot log in anymore, can still be closed
+	 *
+	 * @param context    The context in which the Component is being invoked
+	 * @param attributes The attributes to the Component
+	 * @param action     The action to execute, open or close
+	 * @param pool       The pool of the connection
+	 *
+	 * @return The result of the action
+	 */
+	private FTPResult openOrClosePool( IBoxContext context, IStruct attributes, String action, FTPConnectionPool pool ) {
+		boolean		open		= action.equals( "open" );
+		FTPResult	ftpResult	= open
+		    ? new FTPResult( FTPReply.COMMAND_OK, "Pool [" + pool.getName().getName() + "] opened" )
+		    : new FTPResult( FTPReply.SERVICE_CLOSING_CONTROL_CONNECTION, "Pool [" + pool.getName().getName() + "] closed" );
+
+		// Announce the FTP Action event
+		runtime.announce(
+		    FTPKeys.beforeFTPCall,
+		    () -> Struct.ofNonConcurrent(
+		        "connection", pool,
+		        "action", action,
+		        "result", ftpResult,
+		        "attributes", attributes
+		    )
+		);
+
+		if ( open ) {
+			runtime.announce(
+			    FTPKeys.onFTPConnectionOpen,
+			    Struct.of(
+			        FTPKeys.connection, pool,
+			        "attributes", attributes
+			    )
+			);
+		} else {
+			runtime.announce(
+			    FTPKeys.onFTPConnectionClose,
+			    Struct.of( FTPKeys.connection, pool )
+			);
+			this.ftpService.removePool( pool.getName() );
+		}
+
+		assignResult( context, attributes, pool, ftpResult );
+
+		// Announce the FTP Action event
+		runtime.announce(
+		    FTPKeys.afterFTPCall,
+		    () -> Struct.ofNonConcurrent(
+		        "connection", pool,
+		        "action", action,
+		        "result", ftpResult,
+		        "attributes", attributes
+		    )
+		);
+
+		return ftpResult;
+	}
+
+	/**
+	 * Set the connection and result variables of an action in the context
+	 *
+	 * @param context    The context in which the Component is being invoked, null for background actions
+	 * @param attributes The attributes to the Component
+	 * @param connection The connection to expose: the pool for pooled connections
+	 * @param ftpResult  The result of the action
+	 */
+	private void assignResult( IBoxContext context, IStruct attributes, Object connection, FTPResult ftpResult ) {
+		// Background actions have no context, their result is read from their transfer handle
+		if ( context == null ) {
+			return;
+		}
+		context.getDefaultAssignmentScope().put( attributes.getAsString( FTPKeys.connection ), connection );
+
+		// Either assign a 'result' variable or return the result as a 'bxftp' variable
+		if ( attributes.get( Key.result ) instanceof String targetResult && !targetResult.isBlank() ) {
+			context.getDefaultAssignmentScope().put( Key.of( targetResult ), ftpResult.toStruct() );
+		} else {
+			context.getDefaultAssignmentScope().put( FTPKeys.bxftp, ftpResult.toStruct() );
+		}
+	}
+
+	/**
+	 * Execute an action against a connection
+	 *
+	 * @param context       The context in which the Component is being invoked, null for background actions
+	 * @param attributes    The attributes to the Component
+	 * @param action        The action to execute
+	 * @param ftpConnection The connection to execute the action on
+	 * @param pool          The pool the connection was borrowed from, or null for standalone connections
+	 * @param progress      The progress background actions report to, or null
+	 *
+	 * @return The result of the action
+	 */
+	private FTPResult executeAction( IBoxContext context, IStruct attributes, String action, IFTPConnection ftpConnection, FTPConnectionPool pool,
+	    TransferProgress progress ) {
+		FTPResult	ftpResult	= new FTPResult( ftpConnection );
+		Object		returnValue	= null;
+		RetryPolicy	policy		= RetryPolicy.of( pool != null ? pool.getConfig() : ftpConnection.getConfig(), attributes );
+		long		started		= System.nanoTime();
 
 		// Some flags to set in the connection for operation if they are present
 		if ( attributes.containsKey( FTPKeys.stopOnError ) ) {
@@ -196,149 +509,66 @@ public class FTP extends Component {
 		    )
 		);
 
+		// A retried transfer picks up at the bytes the failed attempt moved, which only line up in binary mode (transferMode="binary" on FTP).
+		// Their bytes are counted, without a progress to report to as well
+		boolean				resumable	= policy.canRetry( action, 0 ) && ( action.equals( "getfile" ) || action.equals( "putfile" ) )
+		    && ftpConnection.isBinary();
+		TransferProgress	tracked		= progress == null && resumable ? new TransferProgress() : progress;
+		// The bytes of the target file the failed attempts are known to have written
+		long				written		= 0;
+		ftpConnection.setProgress( tracked );
 		try {
-			switch ( action.toLowerCase() ) {
-				// Connection Actions
-				case "open" :
-					runtime.announce(
-					    FTPKeys.onFTPConnectionOpen,
-					    Struct.of(
-					        FTPKeys.connection, ftpConnection,
-					        "attributes", attributes
-					    )
-					);
-
-					// Determine the port to use based on whether this is secure (SFTP) or not
-					Integer connectionPort = attributes.get( Key.port ) != null
-					    ? IntegerCaster.cast( attributes.get( Key.port ) )
-					    : ( attributes.getAsBoolean( FTPKeys.secure )
-					        ? BaseFTPConnection.DEFAULT_SFTP_PORT
-					        : BaseFTPConnection.DEFAULT_PORT );
-
-					// Check if this is an SFTP connection with key-based authentication
-					if ( attributes.getAsBoolean( FTPKeys.secure ) && attributes.containsKey( FTPKeys.key ) ) {
-						// SFTP with key authentication
-						if ( ftpConnection instanceof ortus.boxlang.ftp.SFTPConnection sftpConn ) {
-							sftpConn.openWithKey(
-							    attributes.getAsString( Key.server ),
-							    connectionPort,
-							    attributes.getAsString( Key.username ),
-							    attributes.getAsString( FTPKeys.key ),
-							    attributes.getAsString( FTPKeys.passphrase ),
-							    Duration.ofSeconds( IntegerCaster.cast( attributes.get( FTPKeys.timeout ) ) ),
-							    attributes.getAsString( FTPKeys.fingerprint )
-							);
-						}
-					} else {
-						// Standard FTP or SFTP with password
-						ftpConnection.open(
-						    attributes.getAsString( Key.server ),
-						    connectionPort,
-						    attributes.getAsString( Key.username ),
-						    attributes.getAsString( Key.password ),
-						    BooleanCaster.cast( attributes.get( FTPKeys.passive ) ),
-						    Duration.ofSeconds( IntegerCaster.cast( attributes.get( FTPKeys.timeout ) ) ),
-						    attributes.getAsString( Key.proxyServer )
-						);
+			// Idempotent actions are run again on transient failures, on a reconnected session
+			for ( int retries = 0;; retries++ ) {
+				long	resumeAt	= 0;
+				long	before		= tracked != null ? tracked.getTransferred() : 0;
+				try {
+					if ( retries > 0 ) {
+						policy.pause( retries );
+						ftpConnection.reconnect();
+						resumeAt = resumable ? retryOffset( attributes, action, ftpConnection, written ) : 0;
 					}
-					break;
-				case "close" :
-					runtime.announce(
-					    FTPKeys.onFTPConnectionClose,
-					    Struct.of( FTPKeys.connection, ftpConnection )
-					);
-					ftpConnection.close();
-					break;
-
-				// Directory Actions
-				case "changedir" :
-					ftpConnection.changeDir( attributes.getAsString( Key.directory ) );
-					break;
-				case "createdir" :
-					returnValue = ftpConnection.createDir( attributes.getAsString( FTPKeys._new ) );
-					break;
-				case "removedir" :
-					String targetDirectory = attributes.containsKey( FTPKeys.directory ) ? attributes.getAsString( FTPKeys.directory ) : null;
-					// Legacy compatibility
-					if ( attributes.containsKey( Key.item ) && !attributes.getAsString( Key.item ).isBlank() ) {
-						targetDirectory = attributes.getAsString( Key.item );
-					}
-					returnValue = ftpConnection.removeDir( targetDirectory );
-					break;
-				case "listdir" :
-					// Only change directory if explicitly specified
-					if ( attributes.containsKey( Key.directory ) ) {
-						String listDir = attributes.getAsString( Key.directory );
-						if ( listDir != null && !listDir.isBlank() ) {
-							ftpConnection.changeDir( listDir );
-						}
+					returnValue = performAction( context, attributes, action, ftpConnection, pool, retries > 0, resumeAt > 0 );
+					ftpResult.setAttempts( retries + 1 );
+					// Without stopOnError failures are only reported through the status code
+					if ( !shouldRetry( policy, action, attributes, retries, ftpConnection, pool, null ) ) {
+						break;
 					}
-					Object files = ftpConnection
-					    .listdir(
-					        attributes.getAsString( Key.returnType ).equalsIgnoreCase( "query" )
-					            ? IFTPConnection.ReturnType.QUERY
-					            : IFTPConnection.ReturnType.ARRAY
-					    );
-					returnValue = files;
-					context.getDefaultAssignmentScope().put( Key.of( attributes.get( Key._name ) ), files );
-					break;
-				case "getcurrentdir" :
-					returnValue = ftpConnection.getWorkingDirectory();
-					break;
-				case "existsdir" :
-					returnValue = ftpConnection.existsDir( attributes.getAsString( FTPKeys.directory ) );
-					break;
-
-				// File Actions
-				case "getfile" :
-					returnValue = ftpConnection.getFile(
-					    attributes.getAsString( FTPKeys.remoteFile ),
-					    attributes.getAsString( FTPKeys.localFile ),
-					    BooleanCaster.cast( attributes.get( FTPKeys.failIfExists ) )
-					);
-					break;
-				case "renamefile", "renamedir" :
-					returnValue = ftpConnection.rename(
-					    attributes.getAsString( FTPKeys.existing ),
-					    attributes.getAsString( FTPKeys._new )
+					this.logger.warn(
+					    "Action [{}] on [{}] failed with status [{}], retry {} of {}",
+					    action, ftpConnection.getName(), ftpConnection.getStatusCode(), retries + 1, policy.getRetryCount()
 					);
-					break;
-				case "remove", "removefile" :
-					String targetFile = attributes.getAsString( FTPKeys.remoteFile );
-					// Legacy compatibility
-					if ( attributes.containsKey( Key.item ) && !attributes.getAsString( Key.item ).isBlank() ) {
-						targetFile = attributes.getAsString( Key.item );
+					written = resumable ? resumeAt + tracked.getTransferred() - before : 0;
+				} catch ( IOException | RuntimeException e ) {
+					ftpResult.setAttempts( retries + 1 );
+					written = resumable ? resumeAt + tracked.getTransferred() - before : 0;
+					if ( !shouldRetry( policy, action, attributes, retries, ftpConnection, pool, e ) ) {
+						throw e;
 					}
-					returnValue = ftpConnection.remove( targetFile );
-					break;
-				case "existsfile" :
-					returnValue = ftpConnection.existsFile( attributes.getAsString( FTPKeys.remoteFile ) );
-					break;
-				case "putfile" :
-					returnValue = ftpConnection.putFile(
-					    attributes.getAsString( FTPKeys.localFile ),
-					    attributes.getAsString( FTPKeys.remoteFile )
+					this.logger.warn(
+					    "Action [{}] on [{}] failed with [{}], retry {} of {}",
+					    action, ftpConnection.getName(), e.getMessage(), retries + 1, policy.getRetryCount()
 					);
+				}
 			}
-			;
+			ftpResult.setElapsed( Duration.ofNanos( System.nanoTime() - started ).toMillis() );
 
-			// Set our connection variable in the context
-			context.getDefaultAssignmentScope().put(
-			    attributes.getAsString( FTPKeys.connection ),
-			    ftpConnection
-			);
+			// Batch actions return the result of every file, and their totals
+			if ( returnValue instanceof BatchTransfer batch ) {
+				returnValue = batch.toQuery();
+				ftpResult.setTotals( batch.getTotals() );
+				if ( context != null && attributes.get( Key._name ) instanceof String queryName && !queryName.isBlank() ) {
+					context.getDefaultAssignmentScope().put( Key.of( queryName ), returnValue );
+				}
+			}
 
 			// Check if there is a return value to set in our ftp result
 			if ( returnValue != null ) {
 				ftpResult.setReturnValue( returnValue );
 			}
 
-			// Either assign a 'result' variable or return the result as a 'bxftp' variable
-			if ( attributes.get( Key.result ) instanceof String targetResult && !targetResult.isBlank() ) {
-				context.getDefaultAssignmentScope().put( Key.of( targetResult ), ftpResult.toStruct() );
-			} else {
-				context.getDefaultAssignmentScope().put( FTPKeys.bxftp, ftpResult.toStruct() );
-			}
+			// Set our connection variable in the context, pooled connections expose the pool
+			assignResult( context, attributes, pool != null ? pool : ftpConnection, ftpResult );
 
 			// Announce the FTP Action event
 			runtime.announce(
@@ -367,9 +597,996 @@ public class FTP extends Component {
 			);
 
 			throw new BoxIOException( message, e );
+		} finally {
+			ftpConnection.setProgress( null );
+			// A cancelled transfer leaves the session mid stream, drop it so the next action reconnects
+			if ( progress != null && progress.isCancelled() ) {
+				ftpConnection.close();
+			}
 		}
 
-		return DEFAULT_RETURN;
+		return ftpResult;
+	}
+
+	/**
+	 * Run the action itself against a connection, once
+	 *
+	 * @param context       The context in which the Component is being invoked
+	 * @param attributes    The attributes to the Component
+	 * @param action        The action to execute
+	 * @param ftpConnection The connection to execute the action on
+	 * @param pool          The pool the connection was borrowed from, or null for standalone connections
+	 * @param retry         True if a failed attempt of the action ran before, and may have left the target file
+	 * @param resume        True to continue the target file a failed attempt of the action left
+	 *
+	 * @return The return value of the action, if any
+	 *
+	 * @throws IOException If an error occurs while executing the action
+	 */
+	private Object performAction( IBoxContext context, IStruct attributes, String action, IFTPConnection ftpConnection, FTPConnectionPool pool, boolean retry,
+	    boolean resume ) throws IOException {
+		Object returnValue = null;
+
+		switch ( action.toLowerCase() ) {
+			// Connection Actions
+			case "open" :
+				runtime.announce(
+				    FTPKeys.onFTPConnectionOpen,
+				    Struct.of(
+				        FTPKeys.connection, ftpConnection,
+				        "attributes", attributes
+				    )
+				);
+
+				FTPConnectionConfig.fromAttributes( attributes ).open( ftpConnection );
+				break;
+			case "close" :
+				runtime.announce(
+				    FTPKeys.onFTPConnectionClose,
+				    Struct.of( FTPKeys.connection, ftpConnection )
+				);
+				// Explicitly closed connections are not reconnected
+				ftpConnection.setConfig( null );
+				ftpConnection.close();
+				break;
+
+			// Directory Actions
+			case "changedir" :
+				ftpConnection.changeDir( attributes.getAsString( Key.directory ) );
+				if ( pool != null ) {
+					pool.setWorkingDirectory( ftpConnection, ftpConnection.getWorkingDirectory() );
+				}
+				break;
+			case "createdir" :
+				returnValue = ftpConnection.createDir( attributes.getAsString( FTPKeys._new ) );
+				break;
+			case "removedir" :
+				String targetDirectory = attributes.containsKey( FTPKeys.directory ) ? attributes.getAsString( FTPKeys.directory ) : null;
+				// Legacy compatibility
+				if ( attributes.containsKey( Key.item ) && !attributes.getAsString( Key.item ).isBlank() ) {
+					targetDirectory = attributes.getAsString( Key.item );
+				}
+				returnValue = ftpConnection.removeDir( targetDirectory );
+				break;
+			case "listdir" :
+				// Only change directory if explicitly specified
+				if ( attributes.containsKey( Key.directory ) ) {
+					String listDir = attributes.getAsString( Key.directory );
+					if ( listDir != null && !listDir.isBlank() ) {
+						ftpConnection.changeDir( listDir );
+						if ( pool != null ) {
+							pool.setWorkingDirectory( ftpConnection, ftpConnection.getWorkingDirectory() );
+						}
+					}
+				}
+				Object files = ftpConnection
+				    .listdir(
+				        attributes.getAsString( Key.returnType ).equalsIgnoreCase( "query" )
+				            ? IFTPConnection.ReturnType.QUERY
+				            : IFTPConnection.ReturnType.ARRAY
+				    );
+				returnValue = files;
+				if ( context != null ) {
+					context.getDefaultAssignmentScope().put( Key.of( attributes.get( Key._name ) ), files );
+				}
+				break;
+			case "getcurrentdir" :
+				returnValue = ftpConnection.getWorkingDirectory();
+				break;
+			case "existsdir" :
+				returnValue = ftpConnection.existsDir( attributes.getAsString( FTPKeys.directory ) );
+				break;
+
+			// File Actions
+			case "getfile" :
+				// Into memory or a caller stream, no local file involved
+				if ( attributes.get( FTPKeys.outputStream ) != null || attributes.get( FTPKeys.returnAs ) != null || isRanged( attributes ) ) {
+					returnValue = getInto( context, attributes, ftpConnection );
+					break;
+				}
+				// Segments already in the local file are kept, by retries and by later actions alike
+				if ( BooleanCaster.cast( attributes.getOrDefault( FTPKeys.segmented, false ) ) ) {
+					returnValue = new SegmentedDownload(
+					    attributes.getAsString( FTPKeys.remoteFile ),
+					    attributes.getAsString( FTPKeys.localFile ),
+					    ftpConnection.getProgress(),
+					    this.logger
+					)
+					    .setSegmentSize( LongCaster.cast( attributes.getOrDefault( FTPKeys.segmentSize, SegmentedDownload.DEFAULT_SEGMENT_SIZE ) ) )
+					    .setConcurrency( IntegerCaster.cast( attributes.getOrDefault( FTPKeys.concurrency, BatchTransfer.DEFAULT_CONCURRENCY ) ) )
+					    .run(
+					        ftpConnection,
+					        pool,
+					        this.ftpService.getTransferExecutor( ftpConnection instanceof SFTPConnection ),
+					        BooleanCaster.cast( attributes.get( FTPKeys.failIfExists ) )
+					    );
+					break;
+				}
+				// A resumed download keeps the partial local file only if it can be continued
+				if ( BooleanCaster.cast( attributes.getOrDefault( FTPKeys.resume, false ) ) ) {
+					ensureResumable( attributes, ftpConnection );
+					long offset = resumeOffset( attributes, ftpConnection, true );
+					returnValue = offset < 0 || ftpConnection.getFile(
+					    attributes.getAsString( FTPKeys.remoteFile ),
+					    attributes.getAsString( FTPKeys.localFile ),
+					    false,
+					    offset > 0
+					);
+					break;
+				}
+				// A retried download may pick up where the failed attempt stopped, or replace the file it left
+				returnValue = ftpConnection.getFile(
+				    attributes.getAsString( FTPKeys.remoteFile ),
+				    attributes.getAsString( FTPKeys.localFile ),
+				    !retry && BooleanCaster.cast( attributes.get( FTPKeys.failIfExists ) ),
+				    resume
+				);
+				break;
+			case "renamefile", "renamedir" :
+				returnValue = ftpConnection.rename(
+				    attributes.getAsString( FTPKeys.existing ),
+				    attributes.getAsString( FTPKeys._new )
+				);
+				break;
+			case "remove", "removefile" :
+				String targetFile = attributes.getAsString( FTPKeys.remoteFile );
+				// Legacy compatibility
+				if ( attributes.containsKey( Key.item ) && !attributes.getAsString( Key.item ).isBlank() ) {
+					targetFile = attributes.getAsString( Key.item );
+				}
+				returnValue = ftpConnection.remove( targetFile );
+				break;
+			case "readlines" :
+				returnValue = readLines( context, attributes, ftpConnection );
+				break;
+			case "existsfile" :
+				returnValue = ftpConnection.existsFile( attributes.getAsString( FTPKeys.remoteFile ) );
+				break;
+			case "putfile" :
+				// From memory or a caller stream, no local file involved
+				if ( attributes.get( FTPKeys.content ) != null ) {
+					returnValue = putContent( attributes, ftpConnection );
+					break;
+				}
+				if ( BooleanCaster.cast( attributes.getOrDefault( FTPKeys.segmented, false ) ) ) {
+					if ( ! ( ftpConnection instanceof SFTPConnection sftpConnection ) ) {
+						throw new BoxRuntimeException( "Segmented uploads need an SFTP connection, FTP servers cannot write at an offset" );
+					}
+					returnValue = new SegmentedUpload(
+					    attributes.getAsString( FTPKeys.localFile ),
+					    attributes.getAsString( FTPKeys.remoteFile ),
+					    ftpConnection.getProgress(),
+					    this.logger
+					)
+					    .setSegmentSize( LongCaster.cast( attributes.getOrDefault( FTPKeys.segmentSize, SegmentedDownload.DEFAULT_SEGMENT_SIZE ) ) )
+					    .setConcurrency( IntegerCaster.cast( attributes.getOrDefault( FTPKeys.concurrency, BatchTransfer.DEFAULT_CONCURRENCY ) ) )
+					    .setUseTempFile( BooleanCaster.cast( attributes.getOrDefault( FTPKeys.useTempFile, false ) ) )
+					    .run( sftpConnection, pool, this.ftpService.getTransferExecutor( true ) );
+					break;
+				}
+				// A resumed upload keeps the partial remote file only if it can be continued
+				if ( BooleanCaster.cast( attributes.getOrDefault( FTPKeys.resume, false ) ) ) {
+					ensureResumable( attributes, ftpConnection );
+					long offset = resumeOffset( attributes, ftpConnection, false );
+					returnValue = offset < 0 || ftpConnection.putFile(
+					    attributes.getAsString( FTPKeys.localFile ),
+					    attributes.getAsString( FTPKeys.remoteFile ),
+					    offset > 0
+					);
+					break;
+				}
+				// A retried upload may append what the failed attempt did not send
+				returnValue = ftpConnection.putFile(
+				    attributes.getAsString( FTPKeys.localFile ),
+				    attributes.getAsString( FTPKeys.remoteFile ),
+				    resume
+				);
+				break;
+
+			// Batch Actions
+			case "getfiles" :
+				returnValue = runBatch( attributes, ftpConnection, pool, downloads( attributes, ftpConnection ), download( attributes ), 0 );
+				break;
+			case "putfiles" :
+				returnValue = runBatch( attributes, ftpConnection, pool, uploads( attributes ), upload(), 0 );
+				break;
+			case "getdir" :
+				returnValue = getDir( attributes, ftpConnection, pool );
+				break;
+			case "putdir" :
+				returnValue = putDir( attributes, ftpConnection, pool );
+				break;
+			case "sync" :
+				returnValue = sync( attributes, ftpConnection, pool );
+		}
+
+		return returnValue;
+	}
+
+	/**
+	 * Download a file, or a byte range of it, into memory or into the caller stream
+	 *
+	 * @param context       The context to set the {@code name} variable in, null for background actions
+	 * @param attributes    The attributes to the Component
+	 * @param ftpConnection The connection to download with
+	 *
+	 * @return The bytes written to the stream, or the content as a byte array or string
+	 *
+	 * @throws IOException If the file cannot be downloaded
+	 */
+	private Object getInto( IBoxContext context, IStruct attributes, IFTPConnection ftpConnection ) throws IOException {
+		String	remoteFile	= attributes.getAsString( FTPKeys.remoteFile );
+		Object	maxBytes	= attributes.get( FTPKeys.maxBytes );
+		long	offset		= 0;
+		long	length		= -1;
+
+		// A range is found from the end of the file, or asked as is
+		if ( isRanged( attributes ) ) {
+			offset	= LongCaster.cast( attributes.getOrDefault( Key.offset, 0 ) );
+			length	= attributes.get( Key.length ) != null ? LongCaster.cast( attributes.get( Key.length ) ) : offset < 0 ? -offset : -1;
+			if ( offset < 0 ) {
+				long size = ftpConnection.getFileSize( remoteFile );
+				if ( size < 0 ) {
+					throw new BoxRuntimeException( "The server does not report the size of [" + remoteFile + "], it cannot be read from its end" );
+				}
+				offset = Math.max( 0, size + offset );
+			}
+		}
+
+		if ( attributes.get( FTPKeys.outputStream ) != null ) {
+			OutputStream out = resolveOutputStream( attributes.get( FTPKeys.outputStream ) );
+			if ( isRanged( attributes ) ) {
+				return ftpConnection.getRange( remoteFile, offset, length, out );
+			}
+			return ftpConnection.getFile( remoteFile, out, maxBytes == null ? 0 : LongCaster.cast( maxBytes ) );
+		}
+
+		byte[] bytes;
+		if ( isRanged( attributes ) ) {
+			long limit = maxBytes == null ? BaseFTPConnection.DEFAULT_MAX_BYTES : LongCaster.cast( maxBytes );
+			if ( length < 0 ) {
+				throw new BoxRuntimeException( "A range of [" + remoteFile + "] read into memory needs a [length], or a negative [offset]" );
+			}
+			if ( limit > 0 && length > limit ) {
+				throw new BoxRuntimeException( "A range of " + length + " bytes is over the limit of [maxBytes=" + limit + "]" );
+			}
+			bytes = ftpConnection.readRange( remoteFile, offset, length );
+		} else {
+			bytes = ftpConnection.getBytes( remoteFile, maxBytes == null ? BaseFTPConnection.DEFAULT_MAX_BYTES : LongCaster.cast( maxBytes ) );
+		}
+		Object	content	= "string".equalsIgnoreCase( attributes.getAsString( FTPKeys.returnAs ) )
+		    ? new String( bytes, Charset.forName( attributes.getAsString( Key.charset ) ) )
+		    : bytes;
+		if ( context != null && attributes.get( Key._name ) instanceof String variableName && !variableName.isBlank() ) {
+			context.getDefaultAssignmentScope().put( Key.of( variableName ), content );
+		}
+		return content;
+	}
+
+	/**
+	 * Stream a remote file line by line into the callback, which gets each line or batch of lines
+	 * and the number of its first line. Only one batch of lines is held at a time, and a callback
+	 * returning false closes the transfer right away.
+	 *
+	 * @param context       The context to call the callback in
+	 * @param attributes    The attributes to the Component
+	 * @param ftpConnection The connection to read with
+	 *
+	 * @return The lines read and whether the callback stopped the read
+	 *
+	 * @throws IOException If the file cannot be read
+	 */
+	private IStruct readLines( IBoxContext context, IStruct attributes, IFTPConnection ftpConnection ) throws IOException {
+		if ( context == null ) {
+			throw new BoxRuntimeException( "The [readLines] action calls back into the page, it cannot run with [async=true]" );
+		}
+		if ( ! ( attributes.get( Key.callback ) instanceof Function callback ) ) {
+			throw new BoxRuntimeException( "The [readLines] action needs a [callback] function" );
+		}
+		String	remoteFile	= attributes.getAsString( FTPKeys.remoteFile );
+		int		batchSize	= Math.max( 1, IntegerCaster.cast( attributes.get( FTPKeys.batchSize ) ) );
+		long	lines		= 0;
+		boolean	stopped		= false;
+
+		try ( BufferedReader reader = new BufferedReader(
+		    new InputStreamReader( ftpConnection.openStream( remoteFile, 0 ), Charset.forName( attributes.getAsString( Key.charset ) ) ),
+		    BaseFTPConnection.COPY_BUFFER_SIZE
+		) ) {
+			Array	batch	= new Array();
+			String	line;
+			while ( !stopped && ( line = reader.readLine() ) != null ) {
+				lines++;
+				if ( batchSize == 1 ) {
+					stopped = isStop( context.invokeFunction( callback, new Object[] { line, lines } ) );
+					continue;
+				}
+				batch.add( line );
+				if ( batch.size() == batchSize ) {
+					stopped	= isStop( context.invokeFunction( callback, new Object[] { batch, lines - batchSize + 1 } ) );
+					batch	= new Array();
+				}
+			}
+			if ( !stopped && !batch.isEmpty() ) {
+				stopped = isStop( context.invokeFunction( callback, new Object[] { batch, lines - batch.size() + 1 } ) );
+			}
+		}
+		return Struct.of( "lines", lines, "stopped", stopped );
+	}
+
+	/**
+	 * @return True if a callback asked to stop, by returning false
+	 */
+	private static boolean isStop( Object returned ) {
+		return returned != null && Boolean.FALSE.equals( BooleanCaster.cast( returned, false ) );
+	}
+
+	/**
+	 * @return True if a getFile asks for a byte range instead of the whole file
+	 */
+	private static boolean isRanged( IStruct attributes ) {
+		return attributes.get( Key.offset ) != null || attributes.get( Key.length ) != null;
+	}
+
+	/**
+	 * Find the stream behind the {@code outputStream} attribute: the stream itself, or what the
+	 * {@code getOutputStream()} method of a response, socket or process returns
+	 *
+	 * @param target The attribute value
+	 *
+	 * @return The stream to write to
+	 *
+	 * @throws BoxRuntimeException If no stream can be found
+	 */
+	private OutputStream resolveOutputStream( Object target ) {
+		if ( target instanceof OutputStream out ) {
+			return out;
+		}
+		try {
+			Method getter = target.getClass().getMethod( "getOutputStream" );
+			// Responses are often instances of a non public implementation class
+			getter.trySetAccessible();
+			if ( getter.invoke( target ) instanceof OutputStream out ) {
+				return out;
+			}
+		} catch ( ReflectiveOperationException e ) {
+			this.logger.debug( "No output stream from [{}]: {}", target.getClass().getName(), e.getMessage() );
+		}
+		throw new BoxRuntimeException(
+		    "The [outputStream] attribute must be a java.io.OutputStream, or have a getOutputStream() method, not [" + target.getClass().getName() + "]" );
+	}
+
+	/**
+	 * Upload a string, a byte array or the caller stream
+	 *
+	 * @param attributes    The attributes to the Component
+	 * @param ftpConnection The connection to upload with
+	 *
+	 * @return True if the content was uploaded
+	 *
+	 * @throws IOException If the content cannot be uploaded
+	 */
+	private boolean putContent( IStruct attributes, IFTPConnection ftpConnection ) throws IOException {
+		String	remoteFile	= attributes.getAsString( FTPKeys.remoteFile );
+		Object	content		= attributes.get( FTPKeys.content );
+
+		if ( content instanceof InputStream in ) {
+			return ftpConnection.putFile( in, -1, remoteFile );
+		}
+		byte[] bytes = content instanceof byte[] array
+		    ? array
+		    : StringCaster.cast( content ).getBytes( Charset.forName( attributes.getAsString( Key.charset ) ) );
+		return ftpConnection.putFile( new ByteArrayInputStream( bytes ), bytes.length, remoteFile );
+	}
+
+	/**
+	 * Find where a retried transfer continues. The target file is kept only if the failed attempts
+	 * wrote all of its bytes: a file left from before the action, or one the server truncated less
+	 * than the attempt sent, is replaced by a transfer from the start.
+	 *
+	 * @param attributes    The attributes to the Component
+	 * @param action        The transfer action, getfile or putfile
+	 * @param ftpConnection The reconnected connection
+	 * @param written       The bytes of the target file the failed attempts are known to have written
+	 *
+	 * @return The offset to continue from, 0 to start over
+	 *
+	 * @throws IOException If the size of the remote file cannot be read
+	 */
+	private long retryOffset( IStruct attributes, String action, IFTPConnection ftpConnection, long written ) throws IOException {
+		if ( written <= 0 ) {
+			return 0;
+		}
+		long size = action.equals( "getfile" )
+		    ? new File( attributes.getAsString( FTPKeys.localFile ) ).length()
+		    : ftpConnection.getFileSize( attributes.getAsString( FTPKeys.remoteFile ) );
+		if ( size <= 0 || size > written ) {
+			this.logger.warn( "Cannot resume [{}]: the target file has {} bytes but the failed attempts wrote {}, starting over", action, size, written );
+			return 0;
+		}
+		return size;
+	}
+
+	/**
+	 * Refuse to resume a transfer on an FTP connection in ASCII mode: the server translates line
+	 * endings, so the size of a partial file is no byte offset into the other side
+	 *
+	 * @param attributes    The attributes to the Component
+	 * @param ftpConnection The connection the action holds
+	 *
+	 * @throws BoxRuntimeException If the connection is not binary
+	 */
+	private void ensureResumable( IStruct attributes, IFTPConnection ftpConnection ) {
+		if ( !ftpConnection.isBinary() ) {
+			throw new BoxRuntimeException(
+			    "Cannot resume [" + attributes.getAsString( FTPKeys.remoteFile ) + "] on FTP connection [" + ftpConnection.getName().getName()
+			        + "] in ASCII mode, open it with [transferMode=binary]" );
+		}
+	}
+
+	/**
+	 * Find where a resumed transfer continues. The partial file of the target side is kept only if
+	 * it is not longer than the source and, with {@code verifyTail}, its last bytes match the
+	 * source, otherwise the transfer starts over.
+	 *
+	 * @param attributes    The attributes to the Component
+	 * @param ftpConnection The connection the action holds
+	 * @param download      True if the target is the local file
+	 *
+	 * @return The bytes already transferred, 0 to start over, or -1 if the target is already complete
+	 *
+	 * @throws IOException If the tail of the files cannot be compared
+	 */
+	private long resumeOffset( IStruct attributes, IFTPConnection ftpConnection, boolean download ) throws IOException {
+		String	remoteFile	= attributes.getAsString( FTPKeys.remoteFile );
+		String	localFile	= attributes.getAsString( FTPKeys.localFile );
+		int		verifyTail	= IntegerCaster.cast( attributes.getOrDefault( FTPKeys.verifyTail, 0 ) );
+		long	localSize	= new File( localFile ).isFile() ? new File( localFile ).length() : 0;
+		long	remoteSize;
+		try {
+			remoteSize = ftpConnection.getFileSize( remoteFile );
+		} catch ( IOException e ) {
+			// Missing, a download fails on its own and an upload starts over
+			remoteSize = -1;
+		}
+
+		long	partial	= download ? localSize : Math.max( 0, remoteSize );
+		long	source	= download ? remoteSize : localSize;
+		if ( partial == 0 ) {
+			return 0;
+		}
+		if ( source >= 0 && partial > source ) {
+			this.logger.warn( "Cannot resume [{}]: the partial file has {} bytes but the source only {}, starting over", remoteFile, partial, source );
+			return 0;
+		}
+		if ( verifyTail > 0 && !ftpConnection.verifyTail( remoteFile, localFile, partial, verifyTail ) ) {
+			this.logger.warn( "Cannot resume [{}]: the last {} bytes before offset {} differ from the source, starting over", remoteFile, verifyTail, partial );
+			return 0;
+		}
+		this.logger.debug( "Resuming [{}] at offset {} of {}", remoteFile, partial, source );
+		return partial == source ? -1 : partial;
+	}
+
+	/**
+	 * Move a list of files, over more sessions of the pool when the connection is pooled
+	 *
+	 * @param attributes    The attributes to the Component
+	 * @param ftpConnection The connection the action holds
+	 * @param pool          The pool the connection was borrowed from, or null for standalone connections
+	 * @param items         The files to move
+	 * @param operation     Moves one file
+	 * @param directories   The directories created or walked to list the files
+	 *
+	 * @return The batch, with the result of every file
+	 */
+	private BatchTransfer runBatch( IStruct attributes, IFTPConnection ftpConnection, FTPConnectionPool pool, List<BatchTransfer.Item> items,
+	    BatchTransfer.Operation operation, int directories ) {
+		return new BatchTransfer( items, operation, ftpConnection.getProgress(), this.logger )
+		    .setConcurrency( IntegerCaster.cast( attributes.getOrDefault( FTPKeys.concurrency, BatchTransfer.DEFAULT_CONCURRENCY ) ) )
+		    .setDirectories( directories )
+		    .run( ftpConnection, pool, this.ftpService.getTransferExecutor( ftpConnection instanceof SFTPConnection ) );
+	}
+
+	/**
+	 * Download a remote directory tree into a local directory: the tree is walked on the action's
+	 * session, local directories are created as they are found, then the files are downloaded over
+	 * the sessions of the pool. The {@code include} and {@code exclude} globs filter the tree.
+	 *
+	 * @param attributes    The attributes to the Component
+	 * @param ftpConnection The connection the action holds
+	 * @param pool          The pool the connection was borrowed from, or null for standalone connections
+	 *
+	 * @return The batch, with the result of every file
+	 *
+	 * @throws IOException If the tree cannot be listed or a local directory cannot be created
+	 */
+	private BatchTransfer getDir( IStruct attributes, IFTPConnection ftpConnection, FTPConnectionPool pool ) throws IOException {
+		String						remoteDir	= attributes.getAsString( FTPKeys.remoteDir );
+		Path						localDir	= Path.of( requireAttribute( attributes, FTPKeys.localDir, "getDir" ) );
+		PathFilter					filter		= new PathFilter( attributes.getAsString( FTPKeys.include ), attributes.getAsString( FTPKeys.exclude ) );
+		List<BatchTransfer.Item>	items		= new ArrayList<>();
+		int							directories	= 0;
+
+		Files.createDirectories( localDir );
+		// Directories are listed before their contents, so every file finds its local directory
+		for ( Object listed : ftpConnection.listTree( remoteDir, filter ) ) {
+			IStruct	entry	= ( IStruct ) listed;
+			String	path	= entry.getAsString( Key.path );
+			Path	local	= localDir.resolve( path );
+			if ( BooleanCaster.cast( entry.get( FTPKeys.isDirectory ) ) ) {
+				Files.createDirectories( local );
+				directories++;
+			} else {
+				items.add( new BatchTransfer.Item( "download", path, resolveRemote( remoteDir, path ), local.toString(), sizeOf( entry ) ) );
+			}
+		}
+		return runBatch( attributes, ftpConnection, pool, items, download( attributes ), directories );
+	}
+
+	/**
+	 * Upload a local directory tree into a remote directory: the local tree is scanned, every remote
+	 * directory it needs is created in one pass on the action's session, parents first and with at
+	 * most one {@code MKD}/{@code mkdir} each, then the files are uploaded over the sessions of the
+	 * pool. The {@code include} and {@code exclude} globs filter the tree.
+	 *
+	 * @param attributes    The attributes to the Component
+	 * @param ftpConnection The connection the action holds
+	 * @param pool          The pool the connection was borrowed from, or null for standalone connections
+	 *
+	 * @return The batch, with the result of every file
+	 *
+	 * @throws IOException If the local tree cannot be scanned
+	 */
+	private BatchTransfer putDir( IStruct attributes, IFTPConnection ftpConnection, FTPConnectionPool pool ) throws IOException {
+		String						remoteDir	= attributes.getAsString( FTPKeys.remoteDir );
+		Path						localDir	= Path.of( requireAttribute( attributes, FTPKeys.localDir, "putDir" ) ).toAbsolutePath();
+		PathFilter					filter		= new PathFilter( attributes.getAsString( FTPKeys.include ), attributes.getAsString( FTPKeys.exclude ) );
+		List<BatchTransfer.Item>	items		= new ArrayList<>();
+		Set<String>					directories	= new TreeSet<>();
+
+		if ( !Files.isDirectory( localDir ) ) {
+			throw new BoxRuntimeException( "Local directory [" + localDir + "] does not exist" );
+		}
+
+		Files.walkFileTree( localDir, new SimpleFileVisitor<>() {
+
+			@Override
+			public FileVisitResult preVisitDirectory( Path directory, BasicFileAttributes attrs ) {
+				String relative = relativize( localDir, directory );
+				if ( !relative.isEmpty() && !filter.acceptsDirectory( relative ) ) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				directories.add( relative.isEmpty() ? ( remoteDir == null ? "" : remoteDir.trim() ) : resolveRemote( remoteDir, relative ) );
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile( Path file, BasicFileAttributes attrs ) {
+				String relative = relativize( localDir, file );
+				if ( attrs.isRegularFile() && filter.acceptsFile( relative ) ) {
+					items.add( new BatchTransfer.Item( "upload", relative, resolveRemote( remoteDir, relative ), file.toString(), attrs.size() ) );
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed( Path file, IOException e ) {
+				logger.warn( "Skipping unreadable local path [{}]: {}", file, e.getMessage() );
+				return FileVisitResult.CONTINUE;
+			}
+		} );
+
+		// The remote tree is planned before any upload, so the sessions never race to create a directory
+		RemoteDirectoryCache	cache	= new RemoteDirectoryCache();
+		List<String>			missing	= cache.ensureAll( ftpConnection, directories );
+		if ( !missing.isEmpty() ) {
+			this.logger.warn( "Action [putDir] could not create remote directories {}, their files will fail", missing );
+		}
+		this.logger.debug(
+		    "Action [putDir] planned {} remote directories with {} mkdirs and {} listings",
+		    directories.size(), cache.getMkdirs(), cache.getListings()
+		);
+
+		return runBatch( attributes, ftpConnection, pool, items, upload(), cache.getCreated() );
+	}
+
+	/**
+	 * Make one side of a directory tree match the other: both trees are listed, only the files that
+	 * are new or changed on the source side are moved, over the sessions of the pool, and with
+	 * {@code delete} what the target has but the source does not is removed once the transfers are
+	 * done. With {@code dryRun} nothing is touched, the batch lists the planned operations and the
+	 * bytes they would move.
+	 *
+	 * @param attributes    The attributes to the Component
+	 * @param ftpConnection The connection the action holds
+	 * @param pool          The pool the connection was borrowed from, or null for standalone connections
+	 *
+	 * @return The batch, with the result or the plan of every operation
+	 *
+	 * @throws IOException If a tree cannot be listed or a local directory cannot be created
+	 */
+	private BatchTransfer sync( IStruct attributes, IFTPConnection ftpConnection, FTPConnectionPool pool ) throws IOException {
+		boolean		upload		= SyncPlan.UPLOAD.equalsIgnoreCase( attributes.getAsString( FTPKeys.direction ) );
+		boolean		delete		= BooleanCaster.cast( attributes.getOrDefault( FTPKeys.delete, false ) );
+		Path		localDir	= Path.of( requireAttribute( attributes, FTPKeys.localDir, "sync" ) ).toAbsolutePath();
+		PathFilter	filter		= new PathFilter( attributes.getAsString( FTPKeys.include ), attributes.getAsString( FTPKeys.exclude ) );
+		Object		seconds		= attributes.get( FTPKeys.timeTolerance );
+		Duration	tolerance	= seconds != null
+		    ? Duration.ofMillis( ( long ) ( DoubleCaster.cast( seconds ) * 1000 ) )
+		    : ftpConnection instanceof SFTPConnection ? SyncPlan.DEFAULT_SFTP_TIME_TOLERANCE : SyncPlan.DEFAULT_FTP_TIME_TOLERANCE;
+
+		if ( upload && !Files.isDirectory( localDir ) ) {
+			throw new BoxRuntimeException( "Local directory [" + localDir + "] does not exist" );
+		}
+
+		SyncPlan plan = new SyncPlan( ftpConnection, attributes.getAsString( FTPKeys.remoteDir ), localDir, filter );
+		if ( !upload && plan.isRemoteMissing() ) {
+			throw new BoxRuntimeException( "Remote directory [" + plan.getRemoteDir() + "] does not exist" );
+		}
+
+		List<BatchTransfer.Item>	items		= plan.items( upload, delete, tolerance );
+		List<String>				directories	= plan.missingDirectories( upload );
+		BatchTransfer				batch		= new BatchTransfer( items, synchronize( plan, upload ), ftpConnection.getProgress(), this.logger )
+		    .setConcurrency( IntegerCaster.cast( attributes.getOrDefault( FTPKeys.concurrency, BatchTransfer.DEFAULT_CONCURRENCY ) ) )
+		    .setDirectories( directories.size() )
+		    .putTotal( "unchanged", plan.getUnchanged() );
+
+		if ( BooleanCaster.cast( attributes.getOrDefault( FTPKeys.dryRun, false ) ) ) {
+			return batch.plan();
+		}
+
+		// Every directory exists before the first transfer, so the sessions never race to create one
+		if ( upload ) {
+			List<String> remote = new ArrayList<>( directories.stream().map( plan::remotePath ).toList() );
+			if ( plan.isRemoteMissing() ) {
+				remote.add( plan.getRemoteDir() );
+			}
+			List<String> missing = new RemoteDirectoryCache().addKnown( plan.remoteDirectories() ).ensureAll( ftpConnection, remote );
+			if ( !missing.isEmpty() ) {
+				this.logger.warn( "Action [sync] could not create remote directories {}, their files will fail", missing );
+			}
+		} else {
+			Files.createDirectories( localDir );
+			for ( String directory : directories ) {
+				Files.createDirectories( plan.localPath( directory ) );
+			}
+		}
+
+		return batch.run( ftpConnection, pool, this.ftpService.getTransferExecutor( ftpConnection instanceof SFTPConnection ) );
+	}
+
+	/**
+	 * Run one operation of a sync. Downloaded files get the modification time of their remote copy,
+	 * so the next sync finds them unchanged, and existing local files are overwritten.
+	 *
+	 * @param plan   The plan of the sync
+	 * @param upload True if the target is the remote tree
+	 *
+	 * @return The operation, returning the bytes moved
+	 */
+	private static BatchTransfer.Operation synchronize( SyncPlan plan, boolean upload ) {
+		BatchTransfer.Operation	get	= download( Struct.of( FTPKeys.failIfExists, false ) );
+		BatchTransfer.Operation	put	= upload();
+		return ( connection, item ) -> {
+			switch ( item.getAction() ) {
+				case SyncPlan.DOWNLOAD : {
+					long	bytes		= get.run( connection, item );
+					long	modified	= plan.getRemoteModified( item.getName() );
+					if ( modified >= 0 ) {
+						Files.setLastModifiedTime( Path.of( item.getLocal() ), FileTime.fromMillis( modified ) );
+					}
+					return bytes;
+				}
+				case SyncPlan.UPLOAD :
+					return put.run( connection, item );
+				case SyncPlan.DELETE :
+					if ( !upload ) {
+						Files.deleteIfExists( Path.of( item.getLocal() ) );
+					} else if ( !connection.remove( item.getRemote() ) ) {
+						throw new IOException( connection.getStatusText() );
+					}
+					return 0;
+				default :
+					if ( !upload ) {
+						Files.deleteIfExists( Path.of( item.getLocal() ) );
+					} else if ( !connection.removeDir( item.getRemote() ) ) {
+						throw new IOException( connection.getStatusText() );
+					}
+					return 0;
+			}
+		};
+	}
+
+	/**
+	 * Download one file of a batch, honoring {@code failIfExists}
+	 *
+	 * @param attributes The attributes to the Component
+	 *
+	 * @return The operation, returning the size of the local file
+	 */
+	private static BatchTransfer.Operation download( IStruct attributes ) {
+		boolean failIfExists = BooleanCaster.cast( attributes.get( FTPKeys.failIfExists ) );
+		return ( connection, item ) -> {
+			if ( !connection.getFile( item.getRemote(), item.getLocal(), failIfExists ) ) {
+				throw new IOException( connection.getStatusText() );
+			}
+			return new File( item.getLocal() ).length();
+		};
+	}
+
+	/**
+	 * Upload one file of a batch
+	 *
+	 * @return The operation, returning the size of the local file
+	 */
+	private static BatchTransfer.Operation upload() {
+		return ( connection, item ) -> {
+			if ( !connection.putFile( item.getLocal(), item.getRemote() ) ) {
+				throw new IOException( connection.getStatusText() );
+			}
+			return item.getSize();
+		};
+	}
+
+	/**
+	 * Build the files of a {@code getFiles} action. {@code files} is an array of remote paths or
+	 * listing structs, a glob matched against the remote directory, or the query of a listdir, whose
+	 * directories are skipped. Every file is downloaded into {@code localDir} under its own name.
+	 *
+	 * @param attributes    The attributes to the Component
+	 * @param ftpConnection The connection to list remote directories with
+	 *
+	 * @return The files to download
+	 *
+	 * @throws IOException If a glob cannot be listed or the local directory cannot be created
+	 */
+	private List<BatchTransfer.Item> downloads( IStruct attributes, IFTPConnection ftpConnection ) throws IOException {
+		String	remoteDir	= attributes.getAsString( FTPKeys.remoteDir );
+		Path	localDir	= Path.of( requireAttribute( attributes, FTPKeys.localDir, "getFiles" ) );
+		Files.createDirectories( localDir );
+
+		List<BatchTransfer.Item> items = new ArrayList<>();
+		for ( IStruct entry : listEntries( attributes, "getFiles" ) ) {
+			String path = entry.getAsString( Key.path );
+			if ( isGlob( path ) ) {
+				String		directory	= resolveRemote( remoteDir, parentOf( path ) );
+				PathMatcher	matcher		= FileSystems.getDefault().getPathMatcher( "glob:" + fileNameOf( path ) );
+				for ( Object listed : ftpConnection.listFiles( directory.isEmpty() ? "." : directory ) ) {
+					IStruct	file	= ( IStruct ) listed;
+					String	name	= file.getAsString( Key._name );
+					if ( !BooleanCaster.cast( file.get( FTPKeys.isDirectory ) ) && matcher.matches( Path.of( name ) ) ) {
+						items.add( new BatchTransfer.Item( "download", name, resolveRemote( directory, name ), localDir.resolve( name ).toString(), sizeOf( file ) ) );
+					}
+				}
+			} else if ( !BooleanCaster.cast( entry.getOrDefault( FTPKeys.isDirectory, false ) ) ) {
+				String name = fileNameOf( path );
+				items.add( new BatchTransfer.Item( "download", name, resolveRemote( remoteDir, path ), localDir.resolve( name ).toString(), sizeOf( entry ) ) );
+			}
+		}
+		return items;
+	}
+
+	/**
+	 * Build the files of a {@code putFiles} action. {@code files} is an array of local paths, a glob
+	 * matched against a local directory, or a query with a {@code name} column and optionally a
+	 * {@code directory} one, like the one of directoryList. Relative paths are resolved against
+	 * {@code localDir}, and every file is uploaded into {@code remoteDir} under its own name.
+	 *
+	 * @param attributes The attributes to the Component
+	 *
+	 * @return The files to upload
+	 *
+	 * @throws IOException If a glob cannot be listed
+	 */
+	private List<BatchTransfer.Item> uploads( IStruct attributes ) throws IOException {
+		String	remoteDir	= attributes.getAsString( FTPKeys.remoteDir );
+		String	localDir	= attributes.getAsString( FTPKeys.localDir );
+		Path	base		= Path.of( localDir == null || localDir.isBlank() ? "" : localDir ).toAbsolutePath();
+
+		List<BatchTransfer.Item> items = new ArrayList<>();
+		for ( IStruct entry : listEntries( attributes, "putFiles" ) ) {
+			String	path		= entry.getAsString( Key.path );
+			Path	resolved	= entry.get( Key.directory ) instanceof String directory && !directory.isBlank()
+			    ? Path.of( directory ).resolve( path )
+			    : base.resolve( path );
+			if ( isGlob( path ) ) {
+				PathMatcher matcher = FileSystems.getDefault().getPathMatcher( "glob:" + resolved.getFileName() );
+				try ( Stream<Path> listed = Files.list( resolved.getParent() ) ) {
+					for ( Path file : listed.filter( Files::isRegularFile ).filter( file -> matcher.matches( file.getFileName() ) ).sorted().toList() ) {
+						String name = file.getFileName().toString();
+						items.add( new BatchTransfer.Item( "upload", name, resolveRemote( remoteDir, name ), file.toString(), Files.size( file ) ) );
+					}
+				}
+			} else if ( !Files.isDirectory( resolved ) ) {
+				String	name	= resolved.getFileName().toString();
+				long	size	= Files.isRegularFile( resolved ) ? Files.size( resolved ) : -1;
+				items.add( new BatchTransfer.Item( "upload", name, resolveRemote( remoteDir, name ), resolved.toString(), size ) );
+			}
+		}
+		return items;
+	}
+
+	/**
+	 * Normalize the {@code files} attribute of a batch action to one struct per entry, each with a
+	 * {@code path} and, when the entry comes from a listing, its {@code isDirectory}, {@code size}
+	 * and {@code directory}.
+	 *
+	 * @param attributes The attributes to the Component
+	 * @param action     The batch action, for error messages
+	 *
+	 * @return The entries
+	 */
+	private List<IStruct> listEntries( IStruct attributes, String action ) {
+		Object			files	= attributes.get( FTPKeys.files );
+		List<IStruct>	entries	= new ArrayList<>();
+		Iterable<?>		values;
+		if ( files instanceof Query query ) {
+			values = query;
+		} else if ( files instanceof Array array ) {
+			values = array;
+		} else if ( files instanceof String path && !path.isBlank() ) {
+			values = List.of( path );
+		} else {
+			throw new BoxRuntimeException( "Action [" + action + "] requires [files]: an array of paths, a glob or a listing query" );
+		}
+
+		for ( Object value : values ) {
+			if ( value instanceof IStruct row ) {
+				// A listing row, from a listdir query or array, or a directoryList query
+				String	type		= row.get( Key.type ) instanceof String rowType ? rowType : "";
+				boolean	directory	= BooleanCaster.cast( row.getOrDefault( FTPKeys.isDirectory, false ) ) || type.equalsIgnoreCase( "dir" )
+				    || type.equalsIgnoreCase( "directory" );
+				entries.add( Struct.of(
+				    Key.path, row.getAsString( Key._name ),
+				    FTPKeys.isDirectory, directory,
+				    Key.size, row.getOrDefault( Key.size, row.getOrDefault( Key.length, -1 ) ),
+				    Key.directory, row.get( Key.directory )
+				) );
+			} else if ( value instanceof String path && !path.isBlank() ) {
+				entries.add( Struct.of( Key.path, path.trim() ) );
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Get a required attribute of an action
+	 *
+	 * @throws BoxRuntimeException If the attribute is missing or blank
+	 */
+	private static String requireAttribute( IStruct attributes, Key name, String action ) {
+		String value = attributes.getAsString( name );
+		if ( value == null || value.isBlank() ) {
+			throw new BoxRuntimeException( "Action [" + action + "] requires the [" + name.getName() + "] attribute" );
+		}
+		return value;
+	}
+
+	/**
+	 * @return The path of a local file relative to a directory, with forward slashes
+	 */
+	private static String relativize( Path directory, Path file ) {
+		return directory.relativize( file ).toString().replace( File.separatorChar, '/' );
+	}
+
+	/**
+	 * Resolve a remote path against a remote directory, absolute paths are kept as they are
+	 */
+	private static String resolveRemote( String remoteDir, String path ) {
+		if ( remoteDir == null || remoteDir.isBlank() || path.startsWith( "/" ) ) {
+			return path;
+		}
+		return remoteDir.endsWith( "/" ) ? remoteDir + path : remoteDir + "/" + path;
+	}
+
+	/**
+	 * @return The part of a remote path before its last slash, empty if it has none
+	 */
+	private static String parentOf( String path ) {
+		int slash = path.lastIndexOf( '/' );
+		return slash < 0 ? "" : slash == 0 ? "/" : path.substring( 0, slash );
+	}
+
+	/**
+	 * @return The part of a remote path after its last slash
+	 */
+	private static String fileNameOf( String path ) {
+		return path.substring( path.lastIndexOf( '/' ) + 1 );
+	}
+
+	/**
+	 * @return True if the path holds glob characters
+	 */
+	private static boolean isGlob( String path ) {
+		return path.chars().anyMatch( c -> c == '*' || c == '?' || c == '[' || c == '{' );
+	}
+
+	/**
+	 * @return The size of a listing entry, -1 if unknown
+	 */
+	private static long sizeOf( IStruct entry ) {
+		Object size = entry.getOrDefault( Key.size, -1 );
+		return size instanceof Number number ? number.longValue() : -1;
+	}
+
+	/**
+	 * Should a failed attempt of an action be retried: the action must be idempotent, have retries
+	 * left, fail for a transient reason, and its connection must be able to reconnect. Downloads
+	 * into a caller stream are not retried, the stream may already hold part of the file, nor are
+	 * uploads from a caller stream, which was already read from.
+	 *
+	 * @param policy        The retry policy of the action
+	 * @param action        The action that failed
+	 * @param attributes    The attributes to the Component
+	 * @param retries       The retries already done
+	 * @param ftpConnection The connection the action ran on
+	 * @param pool          The pool the connection was borrowed from, or null for standalone connections
+	 * @param error         The failure, or null if the action only reported a failed status
+	 *
+	 * @return True if the action should run again
+	 */
+	private boolean shouldRetry( RetryPolicy policy, String action, IStruct attributes, int retries, IFTPConnection ftpConnection, FTPConnectionPool pool,
+	    Throwable error ) {
+		return policy.canRetry( action, retries )
+		    // Caller streams cannot be replayed
+		    && attributes.get( FTPKeys.outputStream ) == null
+		    && ! ( attributes.get( FTPKeys.content ) instanceof InputStream )
+		    // Standalone connections that were never opened have nothing to reconnect with
+		    && ( pool != null || ftpConnection.getConfig() != null )
+		    && RetryPolicy.isTransient( error, ftpConnection );
+	}
+
+	/**
+	 * Is the action going to run on an SFTP connection
+	 *
+	 * @param action     The action being executed
+	 * @param attributes The attributes to the Component
+	 *
+	 * @return True if the connection, or the pool it comes from, is SFTP
+	 */
+	private boolean isSecure( String action, IStruct attributes ) {
+		FTPConnectionPool pool = findPool( action, attributes );
+		if ( pool != null ) {
+			return pool.getConfig().isSecure();
+		}
+		return findOrInitializeConnection( null, attributes ) instanceof SFTPConnection;
+	}
+
+	/**
+	 * Find the pool for the connection, if the connection is pooled. Opening a connection with
+	 * {@code pool="true"} creates the pool.
+	 *
+	 * @param action     The action being executed
+	 * @param attributes The attributes to the Component
+	 *
+	 * @return The pool or null if the connection is not pooled
+	 */
+	private FTPConnectionPool findPool( String action, IStruct attributes ) {
+		Key					connectionName	= Key.of( attributes.getAsString( FTPKeys.connection ).trim() );
+		FTPConnectionPool	pool			= this.ftpService.getPool( connectionName );
+		if ( pool == null && action.equals( "open" ) && BooleanCaster.cast( attributes.getOrDefault( FTPKeys.pool, false ) ) ) {
+			pool = this.ftpService.getOrBuildPool( connectionName, FTPConnectionConfig.fromAttributes( attributes ) );
+		}
+		return pool;
 	}
 
 	/**
@@ -385,4 +1602,25 @@ public class FTP extends Component {
 		boolean	secure			= attributes.getAsBoolean( FTPKeys.secure );
 		return this.ftpService.getOrBuildConnection( Key.of( connectionName ), secure );
 	}
+
+	/**
+	 * Make sure a standalone connection still answers before running an action on it, transparently
+	 * reconnecting it if the server dropped it. Connections that were never opened, or that were
+	 * explicitly closed, are left alone.
+	 *
+	 * @param ftpConnection The connection to check
+	 * @param action        The action about to run
+	 */
+	private void ensureAlive( IFTPConnection ftpConnection, String action ) {
+		FTPConnectionConfig config = ftpConnection.getConfig();
+		if ( config == null || ftpConnection.isAlive( config.getValidationInterval() ) ) {
+			return;
+		}
+		this.logger.warn( "FTP connection [{}] is not answering, reconnecting before action [{}]", ftpConnection.getName(), action );
+		try {
+			ftpConnection.reconnect();
+		} catch ( IOException e ) {
+			throw new BoxIOException( String.format( "Error reconnecting [%s] for action [%s] -> [%s]", ftpConnection.getName(), action, e.getMessage() ), e );
+		}
+	}
 }
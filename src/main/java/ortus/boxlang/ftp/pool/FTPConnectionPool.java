@@ -0,0 +1,825 @@
+/**
+ * [BoxLang]
+ *
+ * Copyright [2023] [Ortus Solutions, Corp]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ortus.boxlang.ftp.pool;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ortus.boxlang.ftp.BaseFTPConnection;
+import ortus.boxlang.ftp.FTPConnectionConfig;
+import ortus.boxlang.ftp.IFTPConnection;
+import ortus.boxlang.ftp.SFTPConnection;
+import ortus.boxlang.ftp.SharedSSHSession;
+import ortus.boxlang.runtime.logging.BoxLangLogger;
+import ortus.boxlang.runtime.scopes.Key;
+import ortus.boxlang.runtime.types.IStruct;
+import ortus.boxlang.runtime.types.Struct;
+import ortus.boxlang.runtime.types.exceptions.BoxIOException;
+import ortus.boxlang.runtime.types.exceptions.BoxRuntimeException;
+
+/**
+ * A bounded pool of live FTP/SFTP sessions that all share the same connection name.
+ * <p>
+ * Each request checks out its own session via {@link #borrow()} and gives it back via
+ * {@link #release(IFTPConnection)}, so N concurrent requests using the same connection
+ * name get N parallel control channels (up to {@code poolMaxSize}) instead of queuing
+ * on a single client.
+ * </p>
+ * <p>
+ * Secure pools opened with {@code multiplex="true"} authenticate a single {@link SharedSSHSession}
+ * and every pooled session is a channel on it, so parallelism does not cost one SSH handshake
+ * per session.
+ * </p>
+ * <p>
+ * The pool keeps a logical working directory: a {@code changedir} on any session becomes
+ * the directory every subsequently borrowed session is moved to, which mimics the
+ * behavior of a single named connection.
+ * </p>
+ */
+public class FTPConnectionPool {
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Properties
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * The name of the pool, which is the connection name
+	 */
+	private final Key									name;
+
+	/**
+	 * The config used to build new sessions
+	 */
+	private final FTPConnectionConfig					config;
+
+	/**
+	 * The BoxLang logger to use
+	 */
+	private final BoxLangLogger							logger;
+
+	/**
+	 * Permits for checked out + in-flight sessions, bounded by the max size of the pool. Idle
+	 * sessions count against the max size through {@link #openSessions}.
+	 */
+	private final Semaphore								permits;
+
+	/**
+	 * Sessions open or being opened, checked out or idle, bounded by the max size of the pool
+	 */
+	private final AtomicInteger							openSessions		= new AtomicInteger();
+
+	/**
+	 * Guards the idle deque
+	 */
+	private final ReentrantLock							lock				= new ReentrantLock();
+
+	/**
+	 * Signalled when a session goes back to the idle deque or a slot of {@link #openSessions} is freed
+	 */
+	private final Condition								available			= this.lock.newCondition();
+
+	/**
+	 * Idle sessions, most recently used first
+	 */
+	private final Deque<PooledSession>					idle				= new ArrayDeque<>();
+
+	/**
+	 * Checked out sessions
+	 */
+	private final Map<IFTPConnection, PooledSession>	active				= new ConcurrentHashMap<>();
+
+	/**
+	 * The SSH session multiplexed by all sessions of a {@code multiplex} SFTP pool
+	 */
+	private SharedSSHSession							sharedSession;
+
+	/**
+	 * Guards the creation of the shared SSH session
+	 */
+	private final ReentrantLock							sharedSessionLock	= new ReentrantLock();
+
+	/**
+	 * The logical working directory of the pool
+	 */
+	private volatile String								workingDirectory;
+
+	/**
+	 * Set while a top up started by {@link #prewarm(Executor)} runs
+	 */
+	private final AtomicBoolean							prewarming			= new AtomicBoolean( false );
+
+	/**
+	 * Once closed, no more sessions can be borrowed
+	 */
+	private volatile boolean							closed				= false;
+
+	/**
+	 * Stats
+	 */
+	private final AtomicLong							created				= new AtomicLong();
+	private final AtomicLong							destroyed			= new AtomicLong();
+	private final AtomicLong							borrowed			= new AtomicLong();
+	private final AtomicLong							timeouts			= new AtomicLong();
+	private final AtomicLong							waitNanos			= new AtomicLong();
+	private final AtomicLong							keepAlives			= new AtomicLong();
+	private final AtomicLong							evicted				= new AtomicLong();
+	private final AtomicLong							validationFailures	= new AtomicLong();
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Constructors
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Build a pool
+	 *
+	 * @param name   The name of the connection this pool serves
+	 * @param config The config used to open new sessions
+	 * @param logger The BoxLang logger to use
+	 */
+	public FTPConnectionPool( Key name, FTPConnectionConfig config, BoxLangLogger logger ) {
+		if ( config.getPoolMaxSize() < 1 ) {
+			throw new BoxRuntimeException( "The pool max size must be at least 1 for FTP pool [" + name + "]" );
+		}
+		this.name		= name;
+		this.config		= config;
+		this.logger		= logger;
+		this.permits	= new Semaphore( config.getPoolMaxSize(), true );
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Pool Methods
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Check out a session from the pool. A live idle session is reused if available, else a new
+	 * one is opened. If the pool is exhausted, this waits up to {@code poolMaxWait}.
+	 *
+	 * @return An open session that MUST be given back via {@link #release(IFTPConnection)}
+	 *
+	 * @throws IOException         If a new session could not be opened
+	 * @throws BoxRuntimeException If the pool is closed or no session became available in time
+	 */
+	public IFTPConnection borrow() throws IOException {
+		ensureOpen();
+
+		long start = System.nanoTime();
+		try {
+			if ( !this.permits.tryAcquire( this.config.getPoolMaxWait().toMillis(), TimeUnit.MILLISECONDS ) ) {
+				throw timedOut();
+			}
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new BoxRuntimeException( "Interrupted while waiting for a session from FTP pool [" + this.name + "]", e );
+		} finally {
+			this.waitNanos.addAndGet( System.nanoTime() - start );
+		}
+
+		PooledSession session = null;
+		try {
+			session = takeOrReserve( start + this.config.getPoolMaxWait().toNanos() );
+			if ( session == null ) {
+				session = create();
+			}
+			syncWorkingDirectory( session );
+			session.touch();
+			this.active.put( session.connection, session );
+			this.borrowed.incrementAndGet();
+			return session.connection;
+		} catch ( IOException | RuntimeException e ) {
+			// A session taken or opened for this borrow gives its slot back and is closed
+			if ( session != null ) {
+				destroy( session );
+			}
+			this.permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Give a session back to the pool. Sessions that are no longer connected, or that
+	 * exceed the max idle size, are closed.
+	 *
+	 * @param connection The session obtained via {@link #borrow()}
+	 */
+	public void release( IFTPConnection connection ) {
+		PooledSession session = this.active.remove( connection );
+		if ( session == null ) {
+			return;
+		}
+
+		try {
+			// Reset per-call flags so the next borrower starts from the defaults
+			connection.setStopOnError( BaseFTPConnection.DEFAULT_STOP_ON_ERROR );
+			session.touch();
+
+			if ( this.closed || !connection.isConnected() ) {
+				destroy( session );
+				return;
+			}
+
+			boolean kept = false;
+			this.lock.lock();
+			try {
+				if ( this.idle.size() < this.config.getPoolMaxIdle() ) {
+					this.idle.offerFirst( session );
+					this.available.signalAll();
+					kept = true;
+				}
+			} finally {
+				this.lock.unlock();
+			}
+			if ( !kept ) {
+				destroy( session );
+			}
+		} finally {
+			this.permits.release();
+		}
+	}
+
+	/**
+	 * Discard a checked out session instead of returning it: it is closed and its slot freed.
+	 *
+	 * @param connection The session obtained via {@link #borrow()}
+	 */
+	public void invalidate( IFTPConnection connection ) {
+		PooledSession session = this.active.remove( connection );
+		if ( session == null ) {
+			return;
+		}
+		try {
+			destroy( session );
+		} finally {
+			this.permits.release();
+		}
+	}
+
+	/**
+	 * Open sessions until the pool holds at least {@code poolMinIdle} idle sessions, without
+	 * going over {@code poolMaxSize} open sessions, checked out ones included.
+	 * Failures are logged and stop the prewarm, they are not thrown.
+	 *
+	 * @return The number of sessions opened
+	 */
+	public int prewarm() {
+		int opened = 0;
+		while ( !this.closed && getIdleCount() < this.config.getPoolMinIdle() && this.permits.tryAcquire() ) {
+			try {
+				if ( !reserveSlot() ) {
+					break;
+				}
+				PooledSession	session	= create();
+				boolean			kept	= false;
+				this.lock.lock();
+				try {
+					if ( !this.closed ) {
+						this.idle.offerLast( session );
+						this.available.signalAll();
+						kept = true;
+					}
+				} finally {
+					this.lock.unlock();
+				}
+				if ( !kept ) {
+					destroy( session );
+					break;
+				}
+				opened++;
+			} catch ( IOException | RuntimeException e ) {
+				this.logger.error( "Unable to prewarm FTP pool [{}]: {}", this.name, e.getMessage() );
+				break;
+			} finally {
+				this.permits.release();
+			}
+		}
+		return opened;
+	}
+
+	/**
+	 * Top the pool back up to {@code poolMinIdle} on an executor, so the logins never hold up the
+	 * caller. Nothing is started while a previous top up still runs, a server that is down would
+	 * otherwise pile them up.
+	 *
+	 * @param executor The executor to open the sessions on
+	 */
+	public void prewarm( Executor executor ) {
+		if ( this.closed || getIdleCount() >= this.config.getPoolMinIdle() || !this.prewarming.compareAndSet( false, true ) ) {
+			return;
+		}
+		try {
+			executor.execute( () -> {
+				try {
+					prewarm();
+				} finally {
+					this.prewarming.set( false );
+				}
+			} );
+		} catch ( RejectedExecutionException e ) {
+			this.prewarming.set( false );
+		}
+	}
+
+	/**
+	 * Housekeeping for the idle sessions, called periodically by the {@code FTPService}:
+	 * <ul>
+	 * <li>Sessions idle for at least {@code idleTimeout} are closed, keeping {@code poolMinIdle} of them</li>
+	 * <li>Sessions without traffic for at least {@code keepAliveInterval} get a keepalive, dead ones are closed</li>
+	 * <li>The pool is topped back up to {@code poolMinIdle} on the executor, see {@link #prewarm(Executor)}</li>
+	 * </ul>
+	 * Checked out sessions are never touched. A zero duration disables the matching step.
+	 *
+	 * @param keepAliveInterval The max time an idle session goes without traffic
+	 * @param idleTimeout       The max time a session stays idle before it is closed
+	 * @param executor          The executor the top up opens its sessions on
+	 */
+	public void maintain( Duration keepAliveInterval, Duration idleTimeout, Executor executor ) {
+		if ( this.closed ) {
+			return;
+		}
+
+		long				now			= System.currentTimeMillis();
+		long				keepAliveMs	= keepAliveInterval.toMillis();
+		long				idleMs		= idleTimeout.toMillis();
+		List<PooledSession>	expired		= new ArrayList<>();
+		List<PooledSession>	stale		= new ArrayList<>();
+
+		// Pull the candidates out of the deque so no one can borrow them meanwhile
+		this.lock.lock();
+		try {
+			// Oldest first
+			Iterator<PooledSession> iterator = this.idle.descendingIterator();
+			while ( iterator.hasNext() ) {
+				PooledSession session = iterator.next();
+				if ( idleMs > 0 && now - session.lastUsed >= idleMs && this.idle.size() > this.config.getPoolMinIdle() ) {
+					iterator.remove();
+					expired.add( session );
+				} else if ( keepAliveMs > 0 && now - Math.max( session.lastUsed, session.lastKeepAlive ) >= keepAliveMs ) {
+					iterator.remove();
+					stale.add( session );
+				}
+			}
+		} finally {
+			this.lock.unlock();
+		}
+
+		for ( PooledSession session : expired ) {
+			this.evicted.incrementAndGet();
+			destroy( session );
+		}
+
+		for ( PooledSession session : stale ) {
+			this.keepAlives.incrementAndGet();
+			if ( !session.connection.keepAlive( Duration.ZERO ) ) {
+				destroy( session );
+				continue;
+			}
+			session.lastKeepAlive = System.currentTimeMillis();
+
+			boolean kept = false;
+			this.lock.lock();
+			try {
+				if ( !this.closed && this.idle.size() < this.config.getPoolMaxIdle() ) {
+					this.idle.offerLast( session );
+					this.available.signalAll();
+					kept = true;
+				}
+			} finally {
+				this.lock.unlock();
+			}
+			if ( !kept ) {
+				destroy( session );
+			}
+		}
+
+		if ( !expired.isEmpty() || !stale.isEmpty() ) {
+			this.logger.debug( "FTP pool [{}] maintenance: [{}] evicted, [{}] keepalives", this.name, expired.size(), stale.size() );
+		}
+
+		prewarm( executor );
+	}
+
+	/**
+	 * Close the pool and all of its idle sessions. Checked out sessions are closed as they
+	 * are released.
+	 */
+	public void close() {
+		this.closed = true;
+		signalAvailable();
+		PooledSession session;
+		while ( ( session = pollIdle() ) != null ) {
+			destroy( session );
+		}
+		this.sharedSessionLock.lock();
+		try {
+			if ( this.sharedSession != null ) {
+				this.sharedSession.close();
+				this.sharedSession = null;
+			}
+		} finally {
+			this.sharedSessionLock.unlock();
+		}
+		this.logger.info( "FTP pool [{}] closed", this.name );
+	}
+
+	/**
+	 * Record the working directory of a checked out session as the logical working
+	 * directory of the pool.
+	 *
+	 * @param connection       The checked out session that changed directory
+	 * @param workingDirectory The new working directory
+	 */
+	public void setWorkingDirectory( IFTPConnection connection, String workingDirectory ) {
+		PooledSession session = this.active.get( connection );
+		if ( session != null ) {
+			session.workingDirectory = workingDirectory;
+		}
+		this.workingDirectory = workingDirectory;
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Stats
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * @return The number of checked out sessions
+	 */
+	public int getActiveCount() {
+		return this.active.size();
+	}
+
+	/**
+	 * @return The number of idle sessions
+	 */
+	public int getIdleCount() {
+		this.lock.lock();
+		try {
+			return this.idle.size();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Get the pool stats:
+	 * <ul>
+	 * <li>name</li>
+	 * <li>active - checked out sessions</li>
+	 * <li>idle - idle sessions</li>
+	 * <li>open - sessions open or being opened, never more than the max size</li>
+	 * <li>waiting - requests waiting for a session</li>
+	 * <li>created/destroyed - sessions opened and closed over the life of the pool</li>
+	 * <li>borrowed - total checkouts</li>
+	 * <li>timeouts - checkouts that gave up after {@code poolMaxWait}</li>
+	 * <li>keepAlives - keepalives sent to idle sessions</li>
+	 * <li>evicted - sessions closed for being idle too long</li>
+	 * <li>validationFailures - idle sessions replaced because they failed the liveness probe on borrow</li>
+	 * <li>averageWaitMillis - average time spent waiting for a session</li>
+	 * </ul>
+	 *
+	 * @return The stats as a struct
+	 */
+	public IStruct getStats() {
+		long borrowCount = this.borrowed.get();
+		return Struct.of(
+		    "name", this.name.getName(),
+		    "secure", this.config.isSecure(),
+		    "server", this.config.getServer(),
+		    "minIdle", this.config.getPoolMinIdle(),
+		    "maxIdle", this.config.getPoolMaxIdle(),
+		    "maxSize", this.config.getPoolMaxSize(),
+		    "maxWait", this.config.getPoolMaxWait().toSeconds(),
+		    "active", getActiveCount(),
+		    "idle", getIdleCount(),
+		    "open", this.openSessions.get(),
+		    "waiting", this.permits.getQueueLength(),
+		    "created", this.created.get(),
+		    "destroyed", this.destroyed.get(),
+		    "borrowed", borrowCount,
+		    "timeouts", this.timeouts.get(),
+		    "keepAlives", this.keepAlives.get(),
+		    "evicted", this.evicted.get(),
+		    "validationFailures", this.validationFailures.get(),
+		    "averageWaitMillis", borrowCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis( this.waitNanos.get() ) / borrowCount,
+		    "workingDirectory", this.workingDirectory == null ? "" : this.workingDirectory,
+		    "multiplexed", this.sharedSession != null,
+		    "sharedSession", this.sharedSession != null ? this.sharedSession.getStats() : Struct.of(),
+		    "closed", this.closed
+		);
+	}
+
+	/**
+	 * @return The name of the pool
+	 */
+	public Key getName() {
+		return this.name;
+	}
+
+	/**
+	 * @return The config used to build sessions
+	 */
+	public FTPConnectionConfig getConfig() {
+		return this.config;
+	}
+
+	/**
+	 * @return True if the pool has been closed
+	 */
+	public boolean isClosed() {
+		return this.closed;
+	}
+
+	/**
+	 * A string representation of the pool.
+	 */
+	@Override
+	public String toString() {
+		return getStats().toString();
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Private Helpers
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Take the most recently used idle session that still answers the server, discarding any
+	 * that fail the liveness probe. Probes are skipped for sessions validated within
+	 * {@code validationInterval}.
+	 *
+	 * @return A live idle session or null if there are none
+	 */
+	private PooledSession pollValid() {
+		while ( true ) {
+			PooledSession session = pollIdle();
+			if ( session == null || session.connection.isAlive( this.config.getValidationInterval() ) ) {
+				return session;
+			}
+			this.validationFailures.incrementAndGet();
+			destroy( session );
+		}
+	}
+
+	/**
+	 * Take the most recently used idle session, discarding any that lost their connection
+	 *
+	 * @return An idle session or null if there are none
+	 */
+	private PooledSession pollIdle() {
+		while ( true ) {
+			PooledSession session;
+			this.lock.lock();
+			try {
+				session = this.idle.pollFirst();
+			} finally {
+				this.lock.unlock();
+			}
+			if ( session == null || session.connection.isConnected() ) {
+				return session;
+			}
+			destroy( session );
+		}
+	}
+
+	/**
+	 * Take a live idle session, or reserve a slot to open a new one. With a permit in hand the pool
+	 * can still be full: sessions the maintenance pulled out for a keepalive hold no permit but
+	 * count as open. The borrower then waits for one of them to come back or be closed.
+	 *
+	 * @param deadline The {@link System#nanoTime()} to give up at
+	 *
+	 * @return An idle session, or null if a slot was reserved for {@link #create()}
+	 *
+	 * @throws BoxRuntimeException If the pool is closed or nothing became available in time
+	 */
+	private PooledSession takeOrReserve( long deadline ) {
+		while ( true ) {
+			ensureOpen();
+			PooledSession session = pollValid();
+			if ( session != null || reserveSlot() ) {
+				return session;
+			}
+			this.lock.lock();
+			try {
+				// Checked again under the lock, sessions and slots are signalled under it
+				if ( !this.closed && this.idle.isEmpty() && this.openSessions.get() >= this.config.getPoolMaxSize() ) {
+					long left = deadline - System.nanoTime();
+					if ( left <= 0 ) {
+						throw timedOut();
+					}
+					this.available.awaitNanos( left );
+				}
+			} catch ( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+				throw new BoxRuntimeException( "Interrupted while waiting for a session from FTP pool [" + this.name + "]", e );
+			} finally {
+				this.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Count a borrow that waited {@code poolMaxWait} in vain
+	 *
+	 * @return The error to throw
+	 */
+	private BoxRuntimeException timedOut() {
+		this.timeouts.incrementAndGet();
+		return new BoxRuntimeException(
+		    String.format(
+		        "Timed out after [%d]ms waiting for a session from FTP pool [%s] (max size: %d)",
+		        this.config.getPoolMaxWait().toMillis(),
+		        this.name,
+		        this.config.getPoolMaxSize()
+		    )
+		);
+	}
+
+	/**
+	 * Reserve room for one more open session, if the pool is under its max size
+	 *
+	 * @return True if the slot is reserved, it MUST then be used by {@link #create()}
+	 */
+	private boolean reserveSlot() {
+		int max = this.config.getPoolMaxSize();
+		while ( true ) {
+			int current = this.openSessions.get();
+			if ( current >= max ) {
+				return false;
+			}
+			if ( this.openSessions.compareAndSet( current, current + 1 ) ) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Open a brand new session in a slot reserved with {@link #reserveSlot()}. The slot is freed
+	 * if the session cannot be opened.
+	 *
+	 * @return The new session
+	 *
+	 * @throws IOException If the session could not be opened
+	 */
+	private PooledSession create() throws IOException {
+		IFTPConnection connection;
+		try {
+			if ( this.config.isSecure() && this.config.isMultiplex() ) {
+				connection = new SFTPConnection( this.name, this.logger )
+				    .setTransferSettings( this.config.getTransferSettings() )
+				    .openOnSession( getSharedSession(), this.config.getTimeout() );
+			} else {
+				connection = this.config.newConnection( this.name, this.logger );
+			}
+		} catch ( IOException | RuntimeException e ) {
+			this.openSessions.decrementAndGet();
+			signalAvailable();
+			throw e;
+		}
+		this.created.incrementAndGet();
+		return new PooledSession( connection );
+	}
+
+	/**
+	 * Get the shared SSH session of a multiplexed pool, (re)connecting it if needed.
+	 * Channels of a dropped session are dead too, so they are discarded as they are polled.
+	 *
+	 * @return The connected shared session
+	 */
+	private SharedSSHSession getSharedSession() {
+		this.sharedSessionLock.lock();
+		try {
+			if ( this.sharedSession == null || !this.sharedSession.isConnected() ) {
+				// Give the host slot of a dropped session back before opening the next one
+				if ( this.sharedSession != null ) {
+					this.sharedSession.close();
+				}
+				this.sharedSession = SharedSSHSession.open( this.config, this.logger );
+			}
+			return this.sharedSession;
+		} finally {
+			this.sharedSessionLock.unlock();
+		}
+	}
+
+	/**
+	 * Close a session, never throwing
+	 *
+	 * @param session The session to close
+	 */
+	private void destroy( PooledSession session ) {
+		this.destroyed.incrementAndGet();
+		this.openSessions.decrementAndGet();
+		signalAvailable();
+		try {
+			session.connection.close();
+		} catch ( BoxIOException e ) {
+			// already logged by the connection
+		}
+	}
+
+	/**
+	 * Wake up the borrowers waiting for an idle session or a free slot
+	 */
+	private void signalAvailable() {
+		this.lock.lock();
+		try {
+			this.available.signalAll();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Move the session into the logical working directory of the pool if it is elsewhere. A
+	 * directory the server refuses, for example one removed since, is dropped and the borrow fails,
+	 * so the next sessions stay in their login directory.
+	 *
+	 * @param session The session to sync
+	 *
+	 * @throws IOException If the directory could not be changed
+	 */
+	private void syncWorkingDirectory( PooledSession session ) throws IOException {
+		String target = this.workingDirectory;
+		if ( target != null && !target.equals( session.workingDirectory ) ) {
+			try {
+				session.connection.changeDir( target );
+			} catch ( IOException | RuntimeException e ) {
+				// The server refused the directory, removed since: later borrows start from the login directory
+				if ( session.connection.isConnected() && target.equals( this.workingDirectory ) ) {
+					this.workingDirectory = null;
+					this.logger.warn( "FTP pool [{}] cannot change to its working directory [{}], resetting it: {}", this.name, target, e.getMessage() );
+				}
+				throw e;
+			}
+			session.workingDirectory = target;
+		}
+	}
+
+	/**
+	 * Verify the pool can still hand out sessions
+	 */
+	private void ensureOpen() {
+		if ( this.closed ) {
+			throw new BoxRuntimeException( "FTP pool [" + this.name + "] is closed" );
+		}
+	}
+
+	/**
+	 * A session tracked by the pool
+	 */
+	private static final class PooledSession {
+
+		final IFTPConnection	connection;
+		final long				createdAt		= System.currentTimeMillis();
+		volatile long			lastUsed		= this.createdAt;
+		volatile long			lastKeepAlive	= this.createdAt;
+		volatile String			workingDirectory;
+
+		PooledSession( IFTPConnection connection ) {
+			this.connection = connection;
+		}
+
+		void touch() {
+			this.lastUsed = System.currentTimeMillis();
+		}
+	}
+}
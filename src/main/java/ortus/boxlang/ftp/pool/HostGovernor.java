@@ -0,0 +1,410 @@
+/**
+ * [BoxLang]
+ *
+ * Copyright [2023] [Ortus Solutions, Corp]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ortus.boxlang.ftp.pool;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.net.ftp.FTPConnectionClosedException;
+import org.apache.commons.net.ftp.FTPReply;
+
+import ortus.boxlang.ftp.FTPConnection;
+import ortus.boxlang.ftp.IFTPConnection;
+import ortus.boxlang.runtime.logging.BoxLangLogger;
+import ortus.boxlang.runtime.types.IStruct;
+import ortus.boxlang.runtime.types.Struct;
+import ortus.boxlang.runtime.types.exceptions.BoxRuntimeException;
+
+/**
+ * Caps the number of sessions logged in at once to one host (server + port + user), no matter
+ * which connection name or pool they belong to.
+ * <p>
+ * Waiters are served strictly first come, first served, so no connection name can starve the
+ * others. The limit is adaptive (AIMD): when the server answers {@code 421} (too many
+ * connections) the limit is halved, and it then grows back by one session per recovery
+ * interval ({@link #RECOVERY_INTERVAL} by default) up to {@code maxConnections}.
+ * </p>
+ */
+public class HostGovernor {
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Defaults
+	 * --------------------------------------------------------------------------
+	 */
+
+	// No configured cap
+	public static final int			UNLIMITED			= Integer.MAX_VALUE;
+	// How long the limit stays put after a backoff, and between two increases
+	public static final Duration	RECOVERY_INTERVAL	= Duration.ofSeconds( 10 );
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Properties
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * The host key: user@server:port
+	 */
+	private final String			host;
+
+	/**
+	 * The BoxLang logger to use
+	 */
+	private final BoxLangLogger		logger;
+
+	/**
+	 * Guards the counters and the wait queue
+	 */
+	private final ReentrantLock		lock				= new ReentrantLock();
+
+	/**
+	 * Signalled whenever a slot frees up or the limit grows
+	 */
+	private final Condition			changed				= this.lock.newCondition();
+
+	/**
+	 * Threads waiting for a slot, in arrival order
+	 */
+	private final Deque<Thread>		queue				= new ArrayDeque<>();
+
+	/**
+	 * The configured cap
+	 */
+	private int						maxConnections		= UNLIMITED;
+
+	/**
+	 * The current adaptive cap, never above {@code maxConnections}
+	 */
+	private int						limit				= UNLIMITED;
+
+	/**
+	 * Sessions currently holding a slot
+	 */
+	private int						active				= 0;
+
+	/**
+	 * How long the limit stays put after a backoff, and between two increases
+	 */
+	private Duration				recoveryInterval	= RECOVERY_INTERVAL;
+
+	/**
+	 * The last time the limit was lowered or raised, in millis
+	 */
+	private long					lastAdjusted		= 0;
+
+	/**
+	 * Stats
+	 */
+	private final AtomicLong		acquired			= new AtomicLong();
+	private final AtomicLong		timeouts			= new AtomicLong();
+	private final AtomicLong		backoffs			= new AtomicLong();
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Constructors
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Build a governor for a host
+	 *
+	 * @param host   The host key
+	 * @param logger The BoxLang logger to use
+	 */
+	public HostGovernor( String host, BoxLangLogger logger ) {
+		this.host	= host;
+		this.logger	= logger;
+	}
+
+	/**
+	 * Build the key that identifies a host
+	 *
+	 * @param server   The server
+	 * @param port     The port
+	 * @param username The username
+	 *
+	 * @return The host key
+	 */
+	public static String hostKey( String server, Integer port, String username ) {
+		return ( username == null ? "" : username ) + "@" + server.toLowerCase() + ":" + port;
+	}
+
+	/**
+	 * Is the failure the server refusing a session because it has too many: an FTP {@code 421}
+	 * reply, which commons-net reports by closing the connection. The reply code is checked, so a
+	 * connection dropped without a reply, or a message that happens to hold "421", does not count.
+	 *
+	 * @param error      The failure
+	 * @param connection The connection that failed to log in
+	 *
+	 * @return True if the server answered 421
+	 */
+	public static boolean isTooManyConnections( Throwable error, IFTPConnection connection ) {
+		if ( ! ( connection instanceof FTPConnection ) || connection.getStatusCode() != FTPReply.SERVICE_NOT_AVAILABLE ) {
+			return false;
+		}
+		for ( Throwable cause = error; cause != null; cause = cause.getCause() ) {
+			if ( cause instanceof FTPConnectionClosedException ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Governor Methods
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Wait, in arrival order, for a free slot on the host.
+	 *
+	 * @param maxWait The max time to wait
+	 *
+	 * @throws BoxRuntimeException If no slot became available in time
+	 */
+	public void acquire( Duration maxWait ) {
+		Thread	current		= Thread.currentThread();
+		long	remaining	= maxWait.toNanos();
+		this.lock.lock();
+		try {
+			this.queue.addLast( current );
+			try {
+				while ( this.queue.peekFirst() != current || this.active >= this.limit ) {
+					if ( remaining <= 0 ) {
+						this.timeouts.incrementAndGet();
+						throw new BoxRuntimeException(
+						    String.format(
+						        "Timed out after [%d]ms waiting for a connection slot on host [%s] (limit: %d, active: %d)",
+						        maxWait.toMillis(),
+						        this.host,
+						        this.limit,
+						        this.active
+						    )
+						);
+					}
+					remaining = this.changed.awaitNanos( remaining );
+				}
+				this.active++;
+				this.acquired.incrementAndGet();
+			} catch ( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+				throw new BoxRuntimeException( "Interrupted while waiting for a connection slot on host [" + this.host + "]", e );
+			} finally {
+				this.queue.remove( current );
+				// The next in line may be able to go now
+				this.changed.signalAll();
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Give a slot back
+	 */
+	public void release() {
+		this.lock.lock();
+		try {
+			if ( this.active > 0 ) {
+				this.active--;
+			}
+			this.changed.signalAll();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * A session logged in successfully: grow the adaptive limit back by one if it was lowered
+	 * and the recovery interval elapsed.
+	 */
+	public void onSuccess() {
+		this.lock.lock();
+		try {
+			long now = System.currentTimeMillis();
+			if ( this.limit < this.maxConnections && now - this.lastAdjusted >= this.recoveryInterval.toMillis() ) {
+				this.limit			= this.limit + 1;
+				this.lastAdjusted	= now;
+				this.changed.signalAll();
+				this.logger.debug( "Host [{}] connection limit raised to [{}]", this.host, this.limit );
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * The server refused a session because it has too many: halve the adaptive limit, based on
+	 * the sessions that are currently logged in. Repeated refusals within the recovery interval
+	 * only count once.
+	 */
+	public void onTooManyConnections() {
+		this.lock.lock();
+		try {
+			long now = System.currentTimeMillis();
+			if ( now - this.lastAdjusted < this.recoveryInterval.toMillis() && this.limit != UNLIMITED ) {
+				return;
+			}
+			// The refused session already holds a slot, so it is not counted
+			int base = Math.min( this.limit, Math.max( 1, this.active - 1 ) );
+			this.limit			= Math.max( 1, base / 2 );
+			this.lastAdjusted	= now;
+			this.backoffs.incrementAndGet();
+			this.logger.warn( "Host [{}] refused a connection (421), limit lowered to [{}]", this.host, this.limit );
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Set the configured cap. Zero or less means unlimited. The adaptive limit follows the new cap,
+	 * unless a backoff holds it lower: it then grows back to the new cap as usual.
+	 *
+	 * @param maxConnections The max sessions logged in at once to the host
+	 *
+	 * @return This governor for chaining
+	 */
+	public HostGovernor setMaxConnections( int maxConnections ) {
+		this.lock.lock();
+		try {
+			int		cap			= maxConnections > 0 ? maxConnections : UNLIMITED;
+			boolean	backedOff	= this.limit < this.maxConnections;
+			this.maxConnections	= cap;
+			this.limit			= backedOff ? Math.min( this.limit, cap ) : cap;
+			this.changed.signalAll();
+			return this;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Apply the cap of one of the configs pointing at the host. Every config of the host shares
+	 * this governor, so the lowest cap wins, and the adaptive limit is only ever lowered to it: a
+	 * config never lifts the cap of another one, nor a backoff in effect.
+	 *
+	 * @param maxConnections The max sessions of the config, zero or less for no cap
+	 *
+	 * @return This governor for chaining
+	 */
+	public HostGovernor lowerMaxConnections( int maxConnections ) {
+		this.lock.lock();
+		try {
+			if ( maxConnections > 0 && maxConnections < this.maxConnections ) {
+				this.maxConnections	= maxConnections;
+				this.limit			= Math.min( this.limit, maxConnections );
+			}
+			return this;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Set how long the limit stays put after a backoff, and between two increases
+	 *
+	 * @param recoveryInterval The interval, {@link #RECOVERY_INTERVAL} by default
+	 *
+	 * @return This governor for chaining
+	 */
+	public HostGovernor setRecoveryInterval( Duration recoveryInterval ) {
+		this.lock.lock();
+		try {
+			this.recoveryInterval = recoveryInterval;
+			return this;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Stats
+	 * --------------------------------------------------------------------------
+	 */
+
+	/**
+	 * @return The host key
+	 */
+	public String getHost() {
+		return this.host;
+	}
+
+	/**
+	 * @return The number of sessions holding a slot
+	 */
+	public int getActiveCount() {
+		this.lock.lock();
+		try {
+			return this.active;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return The current adaptive limit
+	 */
+	public int getLimit() {
+		this.lock.lock();
+		try {
+			return this.limit;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Get the governor stats, unlimited caps are reported as 0
+	 *
+	 * @return The stats as a struct
+	 */
+	public IStruct getStats() {
+		this.lock.lock();
+		try {
+			return Struct.of(
+			    "host", this.host,
+			    "maxConnections", this.maxConnections == UNLIMITED ? 0 : this.maxConnections,
+			    "limit", this.limit == UNLIMITED ? 0 : this.limit,
+			    "active", this.active,
+			    "waiting", this.queue.size(),
+			    "acquired", this.acquired.get(),
+			    "timeouts", this.timeouts.get(),
+			    "backoffs", this.backoffs.get()
+			);
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * A string representation of the governor.
+	 */
+	@Override
+	public String toString() {
+		return getStats().toString();
+	}
+}
@@ -17,27 +17,149 @@
  */
 package ortus.boxlang.ftp.services;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import ortus.boxlang.ftp.FTPConnectionConfig;
 import ortus.boxlang.ftp.FTPKeys;
+import ortus.boxlang.ftp.FTPTransfer;
+import ortus.boxlang.ftp.HostResolver;
 import ortus.boxlang.ftp.IFTPConnection;
+import ortus.boxlang.ftp.IdentityCache;
+import ortus.boxlang.ftp.SharedSSHSession;
+import ortus.boxlang.ftp.TransferProgress;
+import ortus.boxlang.ftp.pool.FTPConnectionPool;
+import ortus.boxlang.ftp.pool.HostGovernor;
 import ortus.boxlang.runtime.BoxRuntime;
+import ortus.boxlang.runtime.dynamic.casters.BooleanCaster;
+import ortus.boxlang.runtime.dynamic.casters.IntegerCaster;
+import ortus.boxlang.runtime.dynamic.casters.StructCaster;
 import ortus.boxlang.runtime.logging.BoxLangLogger;
 import ortus.boxlang.runtime.scopes.Key;
 import ortus.boxlang.runtime.services.BaseService;
+import ortus.boxlang.runtime.types.IStruct;
+import ortus.boxlang.runtime.types.Struct;
 import ortus.boxlang.runtime.types.exceptions.BoxIOException;
+import ortus.boxlang.runtime.types.exceptions.BoxRuntimeException;
 
 /**
  * This service is in charge of managing all FTP connections and their lifecycles.
  */
 public class FTPService extends BaseService {
 
+	/**
+	 * --------------------------------------------------------------------------
+	 * Defaults
+	 * --------------------------------------------------------------------------
+	 */
+
+	// In Seconds
+	public static final Duration						DEFAULT_KEEP_ALIVE_INTERVAL		= Duration.ofSeconds( 60 );
+	public static final Duration						DEFAULT_IDLE_TIMEOUT			= Duration.ofMinutes( 30 );
+	public static final Duration						DEFAULT_MAINTENANCE_INTERVAL	= Duration.ofSeconds( 15 );
+	public static final Duration						DEFAULT_SSH_IDLE_TIMEOUT		= Duration.ofSeconds( 60 );
+
+	/**
+	 * --------------------------------------------------------------------------
+	 * Properties
+	 * --------------------------------------------------------------------------
+	 */
+
 	/**
 	 * Concurrent map that stores all FTP connections
 	 */
-	private final ConcurrentMap<Key, IFTPConnection>	ftpConnections		= new ConcurrentHashMap<>();
+	private final ConcurrentMap<Key, IFTPConnection>	ftpConnections					= new ConcurrentHashMap<>();
+
+	/**
+	 * Concurrent map that stores all pooled connections by name
+	 */
+	private final ConcurrentMap<Key, FTPConnectionPool>	ftpPools						= new ConcurrentHashMap<>();
+
+	/**
+	 * Concurrent map that stores the per host connection governors, keyed by user@server:port
+	 */
+	private final ConcurrentMap<String, HostGovernor>	hostGovernors					= new ConcurrentHashMap<>();
+
+	/**
+	 * Parsed and decrypted SSH private keys, shared by every SFTP connection
+	 */
+	private final IdentityCache							identityCache					= new IdentityCache();
+
+	/**
+	 * Resolved server addresses, shared by every FTP and SFTP connection
+	 */
+	private final HostResolver							hostResolver					= new HostResolver();
+
+	/**
+	 * Authenticated SSH sessions shared by the standalone SFTP connections of the same account,
+	 * keyed by endpoint and credentials. Guarded by itself.
+	 */
+	private final Map<String, SharedSSHSession>			sshSessions						= new HashMap<>();
+
+	/**
+	 * Runs the background actions of FTP connections, one virtual thread each. The waits on the
+	 * action path (connection, pool and host locks, commons-net socket I/O) are outside of monitors,
+	 * so they unmount the virtual thread instead of pinning its carrier.
+	 */
+	private final ExecutorService						asyncExecutor					= Executors
+	    .newThreadPerTaskExecutor( Thread.ofVirtual().name( "bxftp-async-", 0 ).factory() );
+
+	/**
+	 * Runs the background actions of SFTP connections, one platform thread each. JSch waits for
+	 * channel data and window space inside synchronized blocks, which would pin a virtual thread
+	 * to its carrier for the whole transfer.
+	 */
+	private final ExecutorService						sftpAsyncExecutor				= Executors
+	    .newThreadPerTaskExecutor( Thread.ofPlatform().daemon().name( "bxftp-sftp-async-", 0 ).factory() );
+
+	/**
+	 * Background actions still running, by transfer id
+	 */
+	private final ConcurrentMap<String, FTPTransfer>	transfers						= new ConcurrentHashMap<>();
+
+	/**
+	 * Shared SSH sessions nobody references are closed after this long, zero closes them right away
+	 */
+	private Duration									sshIdleTimeout					= DEFAULT_SSH_IDLE_TIMEOUT;
+
+	/**
+	 * Idle sessions get a keepalive once they go this long without traffic, zero disables keepalives
+	 */
+	private Duration									keepAliveInterval				= DEFAULT_KEEP_ALIVE_INTERVAL;
+
+	/**
+	 * Sessions idle this long are closed, zero disables the eviction
+	 */
+	private Duration									idleTimeout						= DEFAULT_IDLE_TIMEOUT;
+
+	/**
+	 * How often the maintenance task runs
+	 */
+	private Duration									maintenanceInterval				= DEFAULT_MAINTENANCE_INTERVAL;
+
+	/**
+	 * Runs the keepalive and idle eviction task, started with the first connection
+	 */
+	private volatile ScheduledExecutorService			maintenanceExecutor;
+
+	/**
+	 * Stats of the standalone connections maintenance
+	 */
+	private final AtomicLong							evicted							= new AtomicLong();
+	private final AtomicLong							dropped							= new AtomicLong();
 
 	/**
 	 * The main FTP logger
@@ -47,7 +169,7 @@ public class FTPService extends BaseService {
 	/**
 	 * Interception points for the service.
 	 */
-	private static final Key[]							INTERCEPTION_POINTS	= List.of(
+	private static final Key[]							INTERCEPTION_POINTS				= List.of(
 	    FTPKeys.onFTPConnectionOpen,
 	    FTPKeys.onFTPConnectionClose,
 	    FTPKeys.afterFTPCall,
@@ -93,12 +215,16 @@ public class FTPService extends BaseService {
 	@Override
 	public void onShutdown( Boolean force ) {
 		getLogger().info( "+ FTP Service shutdown requested" );
+		stopMaintenance();
 		shutdownAllConnections();
+		this.asyncExecutor.shutdownNow();
+		this.sftpAsyncExecutor.shutdownNow();
 	}
 
 	@Override
 	public void onStartup() {
 		getLogger().info( "+ FTP Service started" );
+		registerConfiguredConnections();
 	}
 
 	/**
@@ -136,6 +262,7 @@ public class FTPService extends BaseService {
 	 * @return The IFTPConnection that was found or created
 	 */
 	public IFTPConnection getOrBuildConnection( Key name, boolean secure ) {
+		startMaintenance();
 		return this.ftpConnections.computeIfAbsent( name, key -> {
 			if ( secure ) {
 				return new ortus.boxlang.ftp.SFTPConnection( name, getLogger() );
@@ -173,9 +300,11 @@ public class FTPService extends BaseService {
 	}
 
 	/**
-	 * Shutdown and remove all connections
+	 * Shutdown and remove all connections and pools
 	 */
 	public void shutdownAllConnections() {
+		this.transfers.values().forEach( FTPTransfer::cancel );
+		this.transfers.clear();
 		this.ftpConnections.forEach( ( key, connection ) -> {
 			try {
 				connection.close();
@@ -184,6 +313,511 @@ public class FTPService extends BaseService {
 			}
 		} );
 		this.ftpConnections.clear();
+		this.ftpPools.forEach( ( key, pool ) -> pool.close() );
+		this.ftpPools.clear();
+		synchronized ( this.sshSessions ) {
+			this.sshSessions.values().forEach( SharedSSHSession::close );
+			this.sshSessions.clear();
+		}
+	}
+
+	/**
+	 * Register a named connection from a definition, the same way {@code action="open"} would with
+	 * the same attributes. Pooled definitions are prewarmed up to their {@code poolMinIdle} size,
+	 * others are opened right away.
+	 *
+	 * @param name       The name of the connection
+	 * @param definition The definition: server, port, username, password, key, secure, pool settings, etc.
+	 *
+	 * @throws BoxRuntimeException If the definition has no server
+	 * @throws BoxIOException      If a standalone connection could not be opened
+	 */
+	public void registerConnection( Key name, IStruct definition ) {
+		FTPConnectionConfig config = FTPConnectionConfig.fromAttributes( definition );
+		if ( config.getServer() == null || config.getServer().isBlank() ) {
+			throw new BoxRuntimeException( "The FTP connection definition [" + name + "] requires a [server]" );
+		}
+
+		if ( config.isPooled() ) {
+			getOrBuildPool( name, config );
+			return;
+		}
+
+		IFTPConnection connection = getOrBuildConnection( name, config.isSecure() );
+		connection.beginOperation();
+		try {
+			if ( !connection.isConnected() ) {
+				config.open( connection );
+			}
+		} catch ( IOException e ) {
+			throw new BoxIOException( "Unable to open FTP connection [" + name + "]: " + e.getMessage(), e );
+		} finally {
+			connection.endOperation();
+		}
+	}
+
+	/**
+	 * Register every connection defined in the {@code connections} module setting. The logins and
+	 * pool prewarming run in the background so an unreachable server never holds up the runtime
+	 * startup, failures are logged and the connection is skipped. They run in parallel on the
+	 * transfer executors, one thread per definition, never on the maintenance thread: a slow login
+	 * would hold up the other definitions and every keepalive behind it.
+	 */
+	private void registerConfiguredConnections() {
+		IStruct settings = getModuleSettings();
+		if ( settings == null || !settings.containsKey( FTPKeys.connections ) ) {
+			return;
+		}
+		IStruct definitions = StructCaster.cast( settings.get( FTPKeys.connections ) );
+		if ( definitions == null || definitions.isEmpty() ) {
+			return;
+		}
+
+		startMaintenance();
+		definitions.forEach( ( name, definition ) -> {
+			IStruct	attributes	= StructCaster.cast( definition );
+			boolean	secure		= BooleanCaster.cast( attributes.getOrDefault( FTPKeys.secure, false ) );
+			try {
+				getTransferExecutor( secure ).execute( () -> {
+					try {
+						registerConnection( name, attributes );
+						getLogger().info( "FTP connection [{}] registered from the module settings", name );
+					} catch ( RuntimeException e ) {
+						getLogger().error( "Unable to register FTP connection [{}] from the module settings: {}", name, e.getMessage() );
+					}
+				} );
+			} catch ( RejectedExecutionException e ) {
+				getLogger().warn( "FTP connection [{}] not registered, the FTP service is shutting down", name );
+			}
+		} );
+	}
+
+	/**
+	 * ------------------------------------------------------------------------------
+	 * Pool Methods
+	 * ------------------------------------------------------------------------------
+	 */
+
+	/**
+	 * How many connection pools do we store
+	 *
+	 * @return The number of pools
+	 */
+	public int getPoolCount() {
+		return this.ftpPools.size();
+	}
+
+	/**
+	 * Get a connection pool or create a new one if it does not exist. New pools are
+	 * prewarmed up to their {@code poolMinIdle} size.
+	 *
+	 * @param name   The name of the connection
+	 * @param config The config used to open the pooled sessions
+	 *
+	 * @return The FTPConnectionPool that was found or created
+	 */
+	public FTPConnectionPool getOrBuildPool( Key name, FTPConnectionConfig config ) {
+		FTPConnectionPool existing = this.ftpPools.get( name );
+		if ( existing != null ) {
+			return existing;
+		}
+
+		startMaintenance();
+		FTPConnectionPool	pool	= new FTPConnectionPool( name, config, getLogger() );
+		FTPConnectionPool	winner	= this.ftpPools.putIfAbsent( name, pool );
+		if ( winner != null ) {
+			return winner;
+		}
+
+		getLogger().info( "FTP pool [{}] created with max size [{}]", name, config.getPoolMaxSize() );
+		pool.prewarm();
+		return pool;
+	}
+
+	/**
+	 * Get a connection pool by name
+	 *
+	 * @param name The name of the connection
+	 *
+	 * @return The pool or null if the connection is not pooled
+	 */
+	public FTPConnectionPool getPool( Key name ) {
+		return this.ftpPools.get( name );
+	}
+
+	/**
+	 * Verifies if the named connection is pooled
+	 *
+	 * @param name The key of the connection
+	 *
+	 * @return True if the pool exists, false if it does not
+	 */
+	public boolean hasPool( Key name ) {
+		return this.ftpPools.containsKey( name );
+	}
+
+	/**
+	 * Remove a pool by key, this will close all of its sessions first
+	 *
+	 * @param name The key of the connection
+	 *
+	 * @return True if the pool was removed, false if it was not found
+	 */
+	public boolean removePool( Key name ) {
+		FTPConnectionPool pool = this.ftpPools.remove( name );
+		if ( pool != null ) {
+			pool.close();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Get the stats of every pool, keyed by connection name
+	 *
+	 * @return A struct of pool stats
+	 */
+	public IStruct getPoolStats() {
+		IStruct stats = new Struct();
+		this.ftpPools.forEach( ( key, pool ) -> stats.put( key, pool.getStats() ) );
+		return stats;
+	}
+
+	/**
+	 * ------------------------------------------------------------------------------
+	 * Host Governor Methods
+	 * ------------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Get the governor that caps the sessions logged in at once to the host (server + port + user)
+	 * of a config, creating it if needed. Every connection name and pool pointing at the same host
+	 * shares it. A {@code hostMaxConnections} set on the config lowers the cap of the host to it,
+	 * so with different caps on the same host the lowest one wins.
+	 *
+	 * @param config The connection config
+	 *
+	 * @return The governor of the host
+	 */
+	public HostGovernor getHostGovernor( FTPConnectionConfig config ) {
+		HostGovernor governor = this.hostGovernors.computeIfAbsent(
+		    HostGovernor.hostKey( config.getServer(), config.getPort(), config.getUsername() ),
+		    key -> new HostGovernor( key, getLogger() )
+		);
+		return governor.lowerMaxConnections( config.getHostMaxConnections() );
+	}
+
+	/**
+	 * Get the stats of every host governor, keyed by host
+	 *
+	 * @return A struct of host stats
+	 */
+	public IStruct getHostStats() {
+		IStruct stats = new Struct();
+		this.hostGovernors.forEach( ( key, governor ) -> stats.put( key, governor.getStats() ) );
+		return stats;
+	}
+
+	/**
+	 * Get the cache of parsed SSH private keys shared by every SFTP connection
+	 *
+	 * @return The identity cache
+	 */
+	public IdentityCache getIdentityCache() {
+		return this.identityCache;
+	}
+
+	/**
+	 * Get the resolver that caches server addresses and races them on connect
+	 *
+	 * @return The host resolver
+	 */
+	public HostResolver getHostResolver() {
+		return this.hostResolver;
+	}
+
+	/**
+	 * ------------------------------------------------------------------------------
+	 * Background Action Methods
+	 * ------------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Run an action in the background. FTP actions run on a virtual thread, SFTP ones on a
+	 * platform thread since JSch would pin a virtual one.
+	 *
+	 * @param action     The action to run
+	 * @param connection The name of the connection it runs on
+	 * @param secure     True for an SFTP connection
+	 * @param progress   The progress the action reports to
+	 * @param task       The action, producing its result struct
+	 *
+	 * @return The handle of the running action
+	 */
+	public FTPTransfer submitTransfer( String action, String connection, boolean secure, TransferProgress progress, Callable<IStruct> task ) {
+		FTPTransfer transfer = new FTPTransfer( action, connection, progress, task );
+		this.transfers.put( transfer.getId(), transfer );
+		try {
+			( secure ? this.sftpAsyncExecutor : this.asyncExecutor ).execute( () -> {
+				try {
+					transfer.run();
+				} finally {
+					this.transfers.remove( transfer.getId() );
+				}
+			} );
+		} catch ( RejectedExecutionException e ) {
+			this.transfers.remove( transfer.getId() );
+			throw new BoxRuntimeException( "The FTP service is shutting down, action [" + action + "] cannot run in the background", e );
+		}
+		return transfer;
+	}
+
+	/**
+	 * Get the executor that runs extra work for an action, such as the workers of a batch transfer:
+	 * virtual threads for FTP, platform threads for SFTP since JSch would pin a virtual one.
+	 *
+	 * @param secure True for an SFTP connection
+	 *
+	 * @return The executor
+	 */
+	public ExecutorService getTransferExecutor( boolean secure ) {
+		return secure ? this.sftpAsyncExecutor : this.asyncExecutor;
+	}
+
+	/**
+	 * Get the background actions still running
+	 *
+	 * @return The transfer handles
+	 */
+	public List<FTPTransfer> getTransfers() {
+		return List.copyOf( this.transfers.values() );
+	}
+
+	/**
+	 * ------------------------------------------------------------------------------
+	 * Shared SSH Session Methods
+	 * ------------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Take a reference on the authenticated SSH session of an account, connecting it if there is
+	 * none or the cached one dropped. Every call MUST be paired with a
+	 * {@link #releaseSSHSession(FTPConnectionConfig, SharedSSHSession)}.
+	 *
+	 * @param config The config of the connection, its endpoint and credentials pick the session
+	 *
+	 * @return The connected session
+	 *
+	 * @throws BoxRuntimeException If the session could not be connected
+	 */
+	public SharedSSHSession acquireSSHSession( FTPConnectionConfig config ) {
+		String sessionKey = config.getSessionKey();
+		synchronized ( this.sshSessions ) {
+			SharedSSHSession session = this.sshSessions.get( sessionKey );
+			if ( session != null && session.isConnected() ) {
+				session.retain();
+				return session;
+			}
+			// Connections still holding a dropped session reconnect on their own
+			if ( session != null ) {
+				this.sshSessions.remove( sessionKey );
+				session.close();
+			}
+		}
+
+		// Handshake outside the lock, so a slow server does not hold up the other accounts
+		SharedSSHSession opened = SharedSSHSession.open( config, getLogger() );
+		synchronized ( this.sshSessions ) {
+			SharedSSHSession session = this.sshSessions.get( sessionKey );
+			if ( session != null && session.isConnected() ) {
+				// Another thread won the race
+				opened.close();
+			} else {
+				session = opened;
+				this.sshSessions.put( sessionKey, session );
+			}
+			session.retain();
+			return session;
+		}
+	}
+
+	/**
+	 * Give a reference on a shared SSH session back. The session is closed once nobody references
+	 * it for the {@code sshIdleTimeout} module setting, or right away if it is zero or the session dropped.
+	 *
+	 * @param config  The config the session was acquired with
+	 * @param session The session
+	 */
+	public void releaseSSHSession( FTPConnectionConfig config, SharedSSHSession session ) {
+		synchronized ( this.sshSessions ) {
+			if ( session.release() > 0 ) {
+				return;
+			}
+			if ( this.sshIdleTimeout.isZero() || !session.isConnected() ) {
+				this.sshSessions.remove( config.getSessionKey(), session );
+				session.close();
+			}
+		}
+	}
+
+	/**
+	 * Close the shared SSH sessions nobody referenced for the idle timeout
+	 *
+	 * @return The number of sessions closed
+	 */
+	public int closeIdleSSHSessions() {
+		int closed = 0;
+		synchronized ( this.sshSessions ) {
+			for ( Iterator<SharedSSHSession> it = this.sshSessions.values().iterator(); it.hasNext(); ) {
+				SharedSSHSession session = it.next();
+				if ( session.isUnreferencedFor( this.sshIdleTimeout ) || ( !session.isConnected() && session.getReferences() == 0 ) ) {
+					it.remove();
+					session.close();
+					closed++;
+				}
+			}
+		}
+		return closed;
+	}
+
+	/**
+	 * Get the stats of every shared SSH session, keyed by user@server:port and a hash of the credentials
+	 *
+	 * @return A struct of session stats
+	 */
+	public IStruct getSSHSessionStats() {
+		IStruct stats = new Struct();
+		synchronized ( this.sshSessions ) {
+			this.sshSessions.forEach( ( key, session ) -> stats.put( key, session.getStats() ) );
+		}
+		return stats;
+	}
+
+	/**
+	 * ------------------------------------------------------------------------------
+	 * Maintenance Methods
+	 * ------------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Start the background maintenance task if it is not running yet. The intervals are read
+	 * from the {@code keepAliveInterval}, {@code idleTimeout} and {@code maintenanceInterval}
+	 * module settings (in seconds).
+	 */
+	public void startMaintenance() {
+		if ( this.maintenanceExecutor != null ) {
+			return;
+		}
+		synchronized ( this ) {
+			if ( this.maintenanceExecutor != null ) {
+				return;
+			}
+			loadMaintenanceSettings();
+			ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor( runnable -> {
+				Thread thread = new Thread( runnable, "bx-ftp-maintenance" );
+				thread.setDaemon( true );
+				return thread;
+			} );
+			long period = Math.max( 1, this.maintenanceInterval.toMillis() );
+			executor.scheduleWithFixedDelay( this::runMaintenance, period, period, TimeUnit.MILLISECONDS );
+			this.maintenanceExecutor = executor;
+			getLogger().debug(
+			    "FTP maintenance started: keepalive every [{}]s, idle timeout [{}]s",
+			    this.keepAliveInterval.toSeconds(),
+			    this.idleTimeout.toSeconds()
+			);
+		}
+	}
+
+	/**
+	 * Stop the background maintenance task
+	 */
+	public synchronized void stopMaintenance() {
+		if ( this.maintenanceExecutor != null ) {
+			this.maintenanceExecutor.shutdownNow();
+			this.maintenanceExecutor = null;
+		}
+	}
+
+	/**
+	 * Run one maintenance pass over every connection and pool:
+	 * <ul>
+	 * <li>Standalone connections idle past the idle timeout are closed</li>
+	 * <li>Other idle standalone connections get a keepalive once per keepalive interval, dead ones are closed</li>
+	 * <li>Pools maintain their own idle sessions, see {@link FTPConnectionPool#maintain(Duration, Duration, java.util.concurrent.Executor)}, and
+	 * are topped back up on the transfer executors</li>
+	 * </ul>
+	 * Connections in use are never touched. Closed standalone connections keep their name, so a
+	 * later {@code open} action reuses them. Errors are logged, never thrown.
+	 */
+	public void runMaintenance() {
+		this.ftpConnections.forEach( ( key, connection ) -> {
+			try {
+				if ( !connection.isConnected() || connection.isInUse() ) {
+					return;
+				}
+				if ( !this.idleTimeout.isZero() && connection.closeIfIdle( this.idleTimeout ) ) {
+					this.evicted.incrementAndGet();
+				} else if ( !this.keepAliveInterval.isZero() && !connection.keepAlive( this.keepAliveInterval ) ) {
+					getLogger().warn( "FTP connection [{}] did not answer the keepalive, closing it", key );
+					this.dropped.incrementAndGet();
+					connection.close();
+				}
+			} catch ( RuntimeException e ) {
+				getLogger().error( "Error while maintaining FTP connection [{}]: {}", key, e.getMessage() );
+			}
+		} );
+
+		this.ftpPools.forEach( ( key, pool ) -> {
+			try {
+				pool.maintain( this.keepAliveInterval, this.idleTimeout, getTransferExecutor( pool.getConfig().isSecure() ) );
+			} catch ( RuntimeException e ) {
+				getLogger().error( "Error while maintaining FTP pool [{}]: {}", key, e.getMessage() );
+			}
+		} );
+
+		this.identityCache.evictExpired();
+		this.hostResolver.evictExpired();
+		closeIdleSSHSessions();
+	}
+
+	/**
+	 * Get the idle/active counts of every connection and pool session, plus the maintenance stats:
+	 * {@code evicted} standalone connections were closed for being idle too long, {@code dropped}
+	 * ones for not answering a keepalive.
+	 *
+	 * @return A struct of connection stats
+	 */
+	public IStruct getConnectionStats() {
+		int	active	= 0;
+		int	idle	= 0;
+		for ( IFTPConnection connection : this.ftpConnections.values() ) {
+			if ( connection.isInUse() ) {
+				active++;
+			} else if ( connection.isConnected() ) {
+				idle++;
+			}
+		}
+		int	poolActive	= 0;
+		int	poolIdle	= 0;
+		for ( FTPConnectionPool pool : this.ftpPools.values() ) {
+			poolActive	+= pool.getActiveCount();
+			poolIdle	+= pool.getIdleCount();
+		}
+		return Struct.of(
+		    "connections", this.ftpConnections.size(),
+		    "active", active,
+		    "idle", idle,
+		    "pools", this.ftpPools.size(),
+		    "poolActive", poolActive,
+		    "poolIdle", poolIdle,
+		    "evicted", this.evicted.get(),
+		    "dropped", this.dropped.get(),
+		    "keepAliveInterval", this.keepAliveInterval.toSeconds(),
+		    "idleTimeout", this.idleTimeout.toSeconds(),
+		    "maintenanceInterval", this.maintenanceInterval.toSeconds(),
+		    "maintenanceRunning", this.maintenanceExecutor != null
+		);
 	}
 
 	/**
@@ -192,6 +826,51 @@ public class FTPService extends BaseService {
 	 * --------------------------------------------------------------------------
 	 */
 
+	/**
+	 * Read the maintenance intervals from the module settings, keeping the defaults for
+	 * anything missing.
+	 */
+	private void loadMaintenanceSettings() {
+		IStruct settings = getModuleSettings();
+		if ( settings == null ) {
+			return;
+		}
+		this.keepAliveInterval		= Duration.ofSeconds(
+		    IntegerCaster.cast( settings.getOrDefault( FTPKeys.keepAliveInterval, DEFAULT_KEEP_ALIVE_INTERVAL.toSeconds() ) )
+		);
+		this.idleTimeout			= Duration.ofSeconds(
+		    IntegerCaster.cast( settings.getOrDefault( FTPKeys.idleTimeout, DEFAULT_IDLE_TIMEOUT.toSeconds() ) )
+		);
+		this.maintenanceInterval	= Duration.ofSeconds(
+		    IntegerCaster.cast( settings.getOrDefault( FTPKeys.maintenanceInterval, DEFAULT_MAINTENANCE_INTERVAL.toSeconds() ) )
+		);
+		this.sshIdleTimeout			= Duration.ofSeconds(
+		    IntegerCaster.cast( settings.getOrDefault( FTPKeys.sshIdleTimeout, DEFAULT_SSH_IDLE_TIMEOUT.toSeconds() ) )
+		);
+
+		this.identityCache
+		    .setMaxSize( IntegerCaster.cast( settings.getOrDefault( FTPKeys.identityCacheMaxSize, IdentityCache.DEFAULT_MAX_SIZE ) ) )
+		    .setTtl( Duration.ofSeconds( IntegerCaster.cast( settings.getOrDefault( FTPKeys.identityCacheTTL, IdentityCache.DEFAULT_TTL.toSeconds() ) ) ) );
+
+		this.hostResolver
+		    .setTtl( Duration.ofSeconds( IntegerCaster.cast( settings.getOrDefault( FTPKeys.dnsCacheTTL, HostResolver.DEFAULT_TTL.toSeconds() ) ) ) )
+		    .setAttemptDelay(
+		        Duration.ofMillis( IntegerCaster.cast( settings.getOrDefault( FTPKeys.connectAttemptDelay, HostResolver.DEFAULT_ATTEMPT_DELAY.toMillis() ) ) )
+		    );
+	}
+
+	/**
+	 * Get the settings of the module
+	 *
+	 * @return The settings or null if the module is not registered, which happens when the service is used standalone
+	 */
+	private IStruct getModuleSettings() {
+		if ( !runtime.getModuleService().hasModule( FTPKeys.bxftp ) ) {
+			return null;
+		}
+		return runtime.getModuleService().getModuleSettings( FTPKeys.bxftp );
+	}
+
 	/**
 	 * Get the ORM logger that logs to the "orm" category.
 	 */
@@ -0,0 +1,299 @@
+/**
+ * [BoxLang]
+ *
+ * Copyright [2023] [Ortus Solutions, Corp]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package ortus.boxlang.ftp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An FTP proxy that breaks transfers on demand, like a network failure in the middle of a transfer.
+ * It forwards the control connection and the passive data connections, rewriting the {@code 227}
+ * and {@code 229} replies to point at itself. Once armed, the next transfers are cut after a number
+ * of bytes: their data connection and the control connection of their session are dropped. The
+ * passive replies can also be turned into a {@code 425}, so a transfer fails before any byte moves.
+ */
+public class FlakyFTPProxy implements AutoCloseable {
+
+	private static final Pattern	PASV		= Pattern.compile( "^227 .*\\((\\d+),(\\d+),(\\d+),(\\d+),(\\d+),(\\d+)\\).*" );
+	private static final Pattern	EPSV		= Pattern.compile( "^229 .*\\(\\|\\|\\|(\\d+)\\|\\).*" );
+
+	private final ServerSocket		server;
+	private final String			targetHost;
+	private final int				targetPort;
+	private final ExecutorService	threads		= Executors.newCachedThreadPool();
+	private final List<Socket>		sockets		= new CopyOnWriteArrayList<>();
+	private final AtomicInteger		sessions	= new AtomicInteger();
+	private final AtomicInteger		failures	= new AtomicInteger();
+	private final AtomicInteger		refusals	= new AtomicInteger();
+	private volatile long			failAfter	= 0;
+
+	/**
+	 * Start a proxy on a free local port
+	 *
+	 * @param targetHost The FTP server to forward to
+	 * @param targetPort The control port of the FTP server
+	 *
+	 * @throws IOException If no port can be bound
+	 */
+	public FlakyFTPProxy( String targetHost, int targetPort ) throws IOException {
+		this.server		= new ServerSocket( 0, 50, InetAddress.getLoopbackAddress() );
+		this.targetHost	= targetHost;
+		this.targetPort	= targetPort;
+		this.threads.submit( this::accept );
+	}
+
+	/**
+	 * @return The local port to connect to
+	 */
+	public int getPort() {
+		return this.server.getLocalPort();
+	}
+
+	/**
+	 * @return The control connections accepted so far
+	 */
+	public int getSessions() {
+		return this.sessions.get();
+	}
+
+	/**
+	 * @return The armed failures that did not happen yet
+	 */
+	public int getPendingFailures() {
+		return this.failures.get() + this.refusals.get();
+	}
+
+	/**
+	 * Cut the next transfers after some bytes
+	 *
+	 * @param count      The transfers to cut
+	 * @param afterBytes The bytes each of them moves before the cut
+	 *
+	 * @return This proxy for chaining
+	 */
+	public FlakyFTPProxy failTransfers( int count, long afterBytes ) {
+		this.failAfter = afterBytes;
+		this.failures.set( count );
+		return this;
+	}
+
+	/**
+	 * Answer the next passive requests with a {@code 425}, before the transfer opens the remote file
+	 *
+	 * @param count The passive requests to refuse
+	 *
+	 * @return This proxy for chaining
+	 */
+	public FlakyFTPProxy refuseTransfers( int count ) {
+		this.refusals.set( count );
+		return this;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.server.close();
+		for ( Socket socket : this.sockets ) {
+			socket.close();
+		}
+		this.threads.shutdownNow();
+	}
+
+	private void accept() {
+		while ( !this.server.isClosed() ) {
+			try {
+				Socket	client		= this.server.accept();
+				Socket	upstream	= new Socket( this.targetHost, this.targetPort );
+				Session	session		= new Session( client, upstream );
+				this.sockets.add( client );
+				this.sockets.add( upstream );
+				this.sessions.incrementAndGet();
+				this.threads.submit( () -> pipe( client, upstream, -1, null, session ) );
+				this.threads.submit( () -> replies( session ) );
+			} catch ( IOException e ) {
+				// Closed
+			}
+		}
+	}
+
+	/**
+	 * Forward the replies of the server, with the passive ones pointing at a data proxy
+	 */
+	private void replies( Session session ) {
+		try {
+			BufferedReader	in	= new BufferedReader( new InputStreamReader( session.upstream.getInputStream(), StandardCharsets.ISO_8859_1 ) );
+			String			line;
+			while ( ( line = in.readLine() ) != null ) {
+				Matcher	pasv	= PASV.matcher( line );
+				Matcher	epsv	= EPSV.matcher( line );
+				if ( !pasv.matches() && !epsv.matches() ) {
+					session.forward( line );
+					continue;
+				}
+				if ( this.refusals.getAndUpdate( left -> Math.max( 0, left - 1 ) ) > 0 ) {
+					session.forward( "425 Can't open data connection." );
+					continue;
+				}
+				// Armed failures are taken by the transfers in the order they start
+				long	limit	= this.failures.getAndUpdate( left -> Math.max( 0, left - 1 ) ) > 0 ? this.failAfter : -1;
+				int		port;
+				if ( pasv.matches() ) {
+					port	= listen( Integer.parseInt( pasv.group( 5 ) ) * 256 + Integer.parseInt( pasv.group( 6 ) ), limit, session );
+					line	= "227 Entering Passive Mode (127,0,0,1," + ( port / 256 ) + "," + ( port % 256 ) + ")";
+				} else {
+					port	= listen( Integer.parseInt( epsv.group( 1 ) ), limit, session );
+					line	= "229 Entering Extended Passive Mode (|||" + port + "|)";
+				}
+				session.forward( line );
+				if ( limit >= 0 ) {
+					// The server may answer the transfer before the cut, the client must not see it
+					session.hold();
+				}
+			}
+		} catch ( IOException e ) {
+			// Closed
+		}
+		session.cut();
+	}
+
+	/**
+	 * Accept the data connection of one transfer and forward it to the server
+	 */
+	private int listen( int dataPort, long limit, Session session ) throws IOException {
+		ServerSocket listener = new ServerSocket( 0, 1, InetAddress.getLoopbackAddress() );
+		this.threads.submit( () -> {
+			try ( listener ) {
+				Socket		dataClient		= listener.accept();
+				Socket		dataUpstream	= new Socket( this.targetHost, dataPort );
+				AtomicLong	moved			= new AtomicLong();
+				this.sockets.add( dataClient );
+				this.sockets.add( dataUpstream );
+				this.threads.submit( () -> pipe( dataClient, dataUpstream, limit, moved, session ) );
+				this.threads.submit( () -> pipe( dataUpstream, dataClient, limit, moved, session ) );
+			} catch ( IOException e ) {
+				// Closed
+			}
+			return null;
+		} );
+		return listener.getLocalPort();
+	}
+
+	/**
+	 * Forward one direction, cutting the session once a limited transfer moved its bytes
+	 */
+	private void pipe( Socket from, Socket to, long limit, AtomicLong moved, Session session ) {
+		byte[] buffer = new byte[ 8 * 1024 ];
+		try {
+			// Not closed here, that would close the socket and the other direction with it
+			InputStream		in	= from.getInputStream();
+			OutputStream	out	= to.getOutputStream();
+			int				read;
+			while ( ( read = in.read( buffer ) ) != -1 ) {
+				if ( limit < 0 ) {
+					out.write( buffer, 0, read );
+					continue;
+				}
+				long before = moved.getAndAdd( read );
+				out.write( buffer, 0, ( int ) Math.max( 0, Math.min( read, limit - before ) ) );
+				out.flush();
+				if ( before + read >= limit ) {
+					// The session goes down with its transfer
+					closeQuietly( from );
+					closeQuietly( to );
+					session.cut();
+					return;
+				}
+			}
+			to.shutdownOutput();
+		} catch ( IOException e ) {
+			// Closed
+			closeQuietly( to );
+		}
+		// A transfer shorter than its limit went through, its reply can follow
+		if ( limit >= 0 ) {
+			session.release();
+		}
+	}
+
+	private static void closeQuietly( Socket socket ) {
+		try {
+			socket.close();
+		} catch ( IOException e ) {
+			// Already closed
+		}
+	}
+
+	/**
+	 * A control connection, whose replies can be held while a transfer that may be cut runs
+	 */
+	private static class Session {
+
+		private final Socket		client;
+		private final Socket		upstream;
+		private final List<String>	held		= new ArrayList<>();
+		private boolean				holding		= false;
+
+		Session( Socket client, Socket upstream ) {
+			this.client		= client;
+			this.upstream	= upstream;
+		}
+
+		synchronized void hold() {
+			this.holding = true;
+		}
+
+		synchronized void forward( String line ) throws IOException {
+			// Preliminary replies go through, they come before the transfer
+			if ( this.holding && !line.startsWith( "1" ) ) {
+				this.held.add( line );
+				return;
+			}
+			this.client.getOutputStream().write( ( line + "\r\n" ).getBytes( StandardCharsets.ISO_8859_1 ) );
+		}
+
+		synchronized void release() {
+			this.holding = false;
+			try {
+				for ( String line : this.held ) {
+					forward( line );
+				}
+			} catch ( IOException e ) {
+				// Closed
+			}
+			this.held.clear();
+		}
+
+		synchronized void cut() {
+			this.held.clear();
+			closeQuietly( this.client );
+			closeQuietly( this.upstream );
+		}
+	}
+}
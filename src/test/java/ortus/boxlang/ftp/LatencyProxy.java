@@ -0,0 +1,143 @@
+/**
+ * [BoxLang]
+ *
+ * Copyright [2023] [Ortus Solutions, Corp]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package ortus.boxlang.ftp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A TCP proxy that simulates a long link: every chunk is forwarded once it has aged by the one way
+ * delay, in both directions. Chunks are queued, not waited on, so the delay adds latency without
+ * capping the bandwidth, like a real long fat link.
+ */
+public class LatencyProxy implements AutoCloseable {
+
+	private final ServerSocket		server;
+	private final String			targetHost;
+	private final int				targetPort;
+	private final long				delayNanos;
+	private final ExecutorService	threads	= Executors.newCachedThreadPool();
+	private final List<Socket>		sockets	= new CopyOnWriteArrayList<>();
+
+	/**
+	 * Start a proxy on a free local port
+	 *
+	 * @param targetHost  The host to forward to
+	 * @param targetPort  The port to forward to
+	 * @param oneWayDelay The delay of each direction, half the round trip
+	 *
+	 * @throws IOException If no port can be bound
+	 */
+	public LatencyProxy( String targetHost, int targetPort, Duration oneWayDelay ) throws IOException {
+		this.server		= new ServerSocket( 0 );
+		this.targetHost	= targetHost;
+		this.targetPort	= targetPort;
+		this.delayNanos	= oneWayDelay.toNanos();
+		this.threads.submit( this::accept );
+	}
+
+	/**
+	 * @return The local port to connect to
+	 */
+	public int getPort() {
+		return this.server.getLocalPort();
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.server.close();
+		for ( Socket socket : this.sockets ) {
+			socket.close();
+		}
+		this.threads.shutdownNow();
+	}
+
+	private void accept() {
+		while ( !this.server.isClosed() ) {
+			try {
+				Socket	client		= this.server.accept();
+				Socket	upstream	= new Socket( this.targetHost, this.targetPort );
+				client.setTcpNoDelay( true );
+				upstream.setTcpNoDelay( true );
+				this.sockets.add( client );
+				this.sockets.add( upstream );
+				pipe( client, upstream );
+				pipe( upstream, client );
+			} catch ( IOException e ) {
+				// Closed
+			}
+		}
+	}
+
+	/**
+	 * Forward one direction: a reader stamps the chunks, a writer sends them once they are due
+	 */
+	private void pipe( Socket from, Socket to ) {
+		BlockingQueue<Chunk> line = new LinkedBlockingQueue<>();
+
+		this.threads.submit( () -> {
+			byte[] buffer = new byte[ 64 * 1024 ];
+			try {
+				// Not closed here, that would close the socket and the other direction with it
+				InputStream	in	= from.getInputStream();
+				int			read;
+				while ( ( read = in.read( buffer ) ) != -1 ) {
+					line.put( new Chunk( System.nanoTime() + this.delayNanos, Arrays.copyOf( buffer, read ) ) );
+				}
+			} catch ( IOException | InterruptedException e ) {
+				// Closed
+			}
+			line.add( new Chunk( System.nanoTime() + this.delayNanos, null ) );
+			return null;
+		} );
+
+		this.threads.submit( () -> {
+			try {
+				OutputStream out = to.getOutputStream();
+				while ( true ) {
+					Chunk	chunk	= line.take();
+					long	wait	= chunk.due - System.nanoTime();
+					if ( wait > 0 ) {
+						TimeUnit.NANOSECONDS.sleep( wait );
+					}
+					if ( chunk.data == null ) {
+						to.shutdownOutput();
+						return null;
+					}
+					out.write( chunk.data );
+					out.flush();
+				}
+			} catch ( IOException | InterruptedException e ) {
+				// Closed
+				return null;
+			}
+		} );
+	}
+
+	private record Chunk( long due, byte[] data ) {
+	}
+}
@@ -20,9 +20,30 @@ package ortus.boxlang.ftp.components;
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import com.google.common.collect.Range;
 
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -31,10 +52,23 @@ import org.junit.jupiter.api.Test;
 
 import ortus.boxlang.compiler.parser.BoxSourceType;
 import ortus.boxlang.ftp.BaseIntegrationTest;
+import ortus.boxlang.ftp.FTPConnectionConfig;
+import ortus.boxlang.ftp.FTPKeys;
+import ortus.boxlang.ftp.FTPTransfer;
+import ortus.boxlang.ftp.FlakyFTPProxy;
+import ortus.boxlang.ftp.HostResolver;
+import ortus.boxlang.ftp.IFTPConnection;
+import ortus.boxlang.ftp.RetryPolicy;
+import ortus.boxlang.ftp.pool.FTPConnectionPool;
+import ortus.boxlang.ftp.pool.HostGovernor;
+import ortus.boxlang.ftp.services.FTPService;
+import ortus.boxlang.runtime.context.ScriptingRequestBoxContext;
 import ortus.boxlang.runtime.scopes.Key;
+import ortus.boxlang.runtime.scopes.VariablesScope;
 import ortus.boxlang.runtime.types.Array;
 import ortus.boxlang.runtime.types.IStruct;
 import ortus.boxlang.runtime.types.Query;
+import ortus.boxlang.runtime.types.Struct;
 import ortus.boxlang.runtime.types.exceptions.BoxRuntimeException;
 
 public class FTPTest extends BaseIntegrationTest {
@@ -699,4 +733,1567 @@ public class FTPTest extends BaseIntegrationTest {
 		    BoxSourceType.BOXTEMPLATE
 		);
 	}
+
+	@DisplayName( "It can run concurrent actions on a pooled connection" )
+	@Test
+	public void testPooledConnection() throws Exception {
+		// @formatter:off
+		runtime.executeSource(
+			"""
+				<bx:ftp action="open"
+					connection="pooledConn"
+					username="#variables.username#"
+					password="#variables.password#"
+					server="#variables.server#"
+					port="#variables.port#"
+					passive="#(variables.ftpMode == 'passive')#"
+					pool="true"
+					poolMinIdle="2"
+					poolMaxSize="4"
+					result="myResult"/>
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		// @formatter:on
+
+		IStruct ftpResult = variables.getAsStruct( myResultKey );
+		assertThat( ftpResult.getAsBoolean( Key.of( "succeeded" ) ) ).isTrue();
+
+		// Fire concurrent listings, each on its own request context
+		ExecutorService			executor	= Executors.newFixedThreadPool( 4 );
+		List<Future<Query>>		futures		= new ArrayList<>();
+		try {
+			for ( int i = 0; i < 8; i++ ) {
+				futures.add( executor.submit( () -> {
+					ScriptingRequestBoxContext threadContext = new ScriptingRequestBoxContext( runtime.getRuntimeContext() );
+					threadContext.getScopeNearby( VariablesScope.name ).putAll( variables );
+					runtime.executeSource(
+					    """
+					    <bx:ftp action="listdir" connection="pooledConn" directory="/" name="result"/>
+					    """,
+					    threadContext,
+					    BoxSourceType.BOXTEMPLATE
+					);
+					return ( Query ) threadContext.getScopeNearby( VariablesScope.name ).get( result );
+				} ) );
+			}
+			for ( Future<Query> future : futures ) {
+				assertThat( Arrays.asList( future.get().getColumnData( Key._name ) ) ).contains( "something.txt" );
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		// @formatter:off
+		runtime.executeSource(
+			"""
+				<bx:set stats = pooledConn.getStats()>
+				<bx:ftp action="close" connection="pooledConn"/>
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		// @formatter:on
+
+		IStruct stats = variables.getAsStruct( Key.of( "stats" ) );
+		assertThat( stats.getAsLong( Key.of( "created" ) ) ).isAtMost( 4L );
+		assertThat( stats.getAsLong( Key.of( "borrowed" ) ) ).isAtLeast( 8L );
+		assertThat( stats.getAsInteger( Key.of( "active" ) ) ).isEqualTo( 0 );
+	}
+
+	@DisplayName( "It never opens more than poolMaxSize sessions, idle ones included" )
+	@Test
+	public void testPoolMaxSizeCountsIdleSessions() throws Exception {
+		// @formatter:off
+		runtime.executeSource(
+			"""
+				<bx:ftp action="open"
+					connection="cappedPool"
+					username="#variables.username#"
+					password="#variables.password#"
+					server="#variables.server#"
+					port="#variables.port#"
+					passive="#(variables.ftpMode == 'passive')#"
+					pool="true"
+					poolMinIdle="2"
+					poolMaxSize="3"/>
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		// @formatter:on
+
+		FTPConnectionPool		pool		= ( FTPConnectionPool ) variables.get( Key.of( "cappedPool" ) );
+		List<IFTPConnection>	borrowed	= new ArrayList<>();
+		try {
+			borrowed.add( pool.borrow() );
+			borrowed.add( pool.borrow() );
+			// A maintenance pass wants 2 idle sessions, only 1 fits next to the 2 checked out
+			pool.maintain( Duration.ZERO, Duration.ZERO, Runnable::run );
+			assertThat( pool.getStats().getAsInteger( Key.of( "open" ) ) ).isEqualTo( 3 );
+			assertThat( pool.getIdleCount() ).isEqualTo( 1 );
+
+			// The last slot is the idle session, taken instead of a new one
+			borrowed.add( pool.borrow() );
+			pool.prewarm();
+			assertThat( pool.getStats().getAsInteger( Key.of( "open" ) ) ).isEqualTo( 3 );
+			assertThat( pool.getStats().getAsLong( Key.of( "created" ) ) ).isAtMost( 3L );
+		} finally {
+			borrowed.forEach( pool::release );
+			runtime.executeSource( "<bx:ftp action=\"close\" connection=\"cappedPool\"/>", context, BoxSourceType.BOXTEMPLATE );
+		}
+	}
+
+	@DisplayName( "It can close an exhausted pool without waiting for a session" )
+	@Test
+	public void testCloseExhaustedPool() throws Exception {
+		// @formatter:off
+		runtime.executeSource(
+			"""
+				<bx:ftp action="open"
+					connection="busyPool"
+					username="#variables.username#"
+					password="#variables.password#"
+					server="#variables.server#"
+					port="#variables.port#"
+					passive="#(variables.ftpMode == 'passive')#"
+					pool="true"
+					poolMaxSize="1"
+					poolMaxWait="5"/>
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		// @formatter:on
+
+		FTPConnectionPool	pool		= ( FTPConnectionPool ) variables.get( Key.of( "busyPool" ) );
+		FTPService			ftpService	= ( FTPService ) runtime.getGlobalService( FTPKeys.FTPService );
+		// Opening the pool leased nothing
+		assertThat( pool.getStats().getAsLong( Key.of( "borrowed" ) ) ).isEqualTo( 0L );
+
+		IFTPConnection busy = pool.borrow();
+		try {
+			long started = System.nanoTime();
+			runtime.executeSource( "<bx:ftp action=\"close\" connection=\"busyPool\" result=\"myResult\"/>", context, BoxSourceType.BOXTEMPLATE );
+			assertThat( Duration.ofNanos( System.nanoTime() - started ).toSeconds() ).isLessThan( 5L );
+		} finally {
+			pool.release( busy );
+		}
+
+		IStruct ftpResult = variables.getAsStruct( myResultKey );
+		assertThat( ftpResult.getAsBoolean( Key.of( "succeeded" ) ) ).isTrue();
+		assertThat( ftpService.getPool( Key.of( "busyPool" ) ) ).isNull();
+		assertThat( pool.getStats().getAsInteger( Key.of( "open" ) ) ).isEqualTo( 0 );
+		assertThat( pool.getStats().getAsLong( Key.of( "borrowed" ) ) ).isEqualTo( 1L );
+	}
+
+	@DisplayName( "It can keep idle connections alive and evict them past the idle timeout" )
+	@Test
+	public void testKeepAliveAndIdleEviction() throws Exception {
+		// @formatter:off
+		runtime.executeSource(
+			"""
+				<bx:ftp action="open"
+					connection="idleConn"
+					username="#variables.username#"
+					password="#variables.password#"
+					server="#variables.server#"
+					port="#variables.port#"
+					passive="#(variables.ftpMode == 'passive')#"/>
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		// @formatter:on
+
+		FTPService		ftpService	= ( FTPService ) runtime.getGlobalService( FTPKeys.FTPService );
+		IFTPConnection	connection	= ftpService.getOrBuildConnection( Key.of( "idleConn" ) );
+
+		// A forced keepalive is answered and does not count as activity
+		assertThat( connection.keepAlive( Duration.ZERO ) ).isTrue();
+		assertThat( connection.isInUse() ).isFalse();
+		IStruct stats = ftpService.getConnectionStats();
+		assertThat( stats.getAsInteger( Key.of( "idle" ) ) ).isAtLeast( 1 );
+		assertThat( stats.getAsBoolean( Key.of( "maintenanceRunning" ) ) ).isTrue();
+
+		// Busy connections are never evicted by the maintenance thread
+		connection.beginOperation();
+		try {
+			assertThat( connection.isInUse() ).isTrue();
+			assertThat( CompletableFuture.supplyAsync( () -> connection.closeIfIdle( Duration.ZERO ) ).get() ).isFalse();
+		} finally {
+			connection.endOperation();
+		}
+
+		// Idle connections are
+		Thread.sleep( 10 );
+		assertThat( connection.closeIfIdle( Duration.ofMillis( 5 ) ) ).isTrue();
+		assertThat( connection.isConnected() ).isFalse();
+	}
+
+	@DisplayName( "It transparently reconnects a connection the server dropped" )
+	@Test
+	public void testReconnectDroppedConnection() {
+		// @formatter:off
+		runtime.executeSource(
+			"""
+				<bx:ftp action="open"
+					connection="droppedConn"
+					username="#variables.username#"
+					password="#variables.password#"
+					server="#variables.server#"
+					port="#variables.port#"
+					passive="#(variables.ftpMode == 'passive')#"
+					validationInterval="0"/>
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		// @formatter:on
+
+		// Simulate the server dropping the control connection
+		FTPService		ftpService	= ( FTPService ) runtime.getGlobalService( FTPKeys.FTPService );
+		IFTPConnection	connection	= ftpService.getOrBuildConnection( Key.of( "droppedConn" ) );
+		connection.close();
+		assertThat( connection.isAlive( Duration.ZERO ) ).isFalse();
+
+		// @formatter:off
+		runtime.executeSource(
+			"""
+				<bx:ftp action="listdir" connection="droppedConn" directory="/" name="result" result="myResult"/>
+				<bx:ftp action="close" connection="droppedConn"/>
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		// @formatter:on
+
+		assertThat( variables.getAsStruct( myResultKey ).getAsBoolean( Key.of( "succeeded" ) ) ).isTrue();
+		assertThat( Arrays.asList( variables.getAsQuery( result ).getColumnData( Key._name ) ) ).contains( "something.txt" );
+		assertThat( connection.getConfig() ).isNull();
+	}
+
+	@DisplayName( "It can use a connection registered from a definition without opening it" )
+	@Test
+	public void testRegisteredConnection() {
+		FTPService ftpService = ( FTPService ) runtime.getGlobalService( FTPKeys.FTPService );
+		ftpService.registerConnection(
+		    Key.of( "declaredConn" ),
+		    Struct.of(
+		        "server", variables.getAsString( Key.of( "server" ) ),
+		        "port", variables.get( Key.of( "port" ) ),
+		        "username", variables.getAsString( Key.of( "username" ) ),
+		        "password", variables.getAsString( Key.of( "password" ) ),
+		        "passive", variables.getAsString( Key.of( "ftpMode" ) ).equals( "passive" ),
+		        "pool", true,
+		        "poolMinIdle", 2
+		    )
+		);
+		assertThat( ftpService.getPool( Key.of( "declaredConn" ) ).getIdleCount() ).isEqualTo( 2 );
+
+		// @formatter:off
+		runtime.executeSource(
+			"""
+				<bx:ftp action="listdir" connection="declaredConn" directory="/" name="result"/>
+				<bx:ftp action="close" connection="declaredConn"/>
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		// @formatter:on
+
+		assertThat( Arrays.asList( variables.getAsQuery( result ).getColumnData( Key._name ) ) ).contains( "something.txt" );
+		assertThat( ftpService.hasPool( Key.of( "declaredConn" ) ) ).isFalse();
+	}
+
+	@DisplayName( "It caps the sessions logged in to the same host across connection names" )
+	@Test
+	public void testHostMaxConnections() {
+		// @formatter:off
+		runtime.executeSource(
+			"""
+				<bx:ftp action="open"
+					connection="hostConnA"
+					username="#variables.username#"
+					password="#variables.password#"
+					server="#variables.server#"
+					port="#variables.port#"
+					passive="#(variables.ftpMode == 'passive')#"
+					hostMaxConnections="1"
+					hostMaxWait="1"/>
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		// @formatter:on
+
+		// The host only allows one session, which the first connection holds
+		// @formatter:off
+		String secondOpen = """
+				<bx:ftp action="open"
+					connection="hostConnB"
+					username="#variables.username#"
+					password="#variables.password#"
+					server="#variables.server#"
+					port="#variables.port#"
+					passive="#(variables.ftpMode == 'passive')#"
+					hostMaxConnections="1"
+					hostMaxWait="1"/>
+		    """;
+		// @formatter:on
+		BoxRuntimeException e = assertThrows( BoxRuntimeException.class, () -> runtime.executeSource( secondOpen, context, BoxSourceType.BOXTEMPLATE ) );
+		assertThat( e.getMessage() ).contains( "waiting for a connection slot" );
+
+		// Closing the first connection frees its slot
+		runtime.executeSource( "<bx:ftp action=\"close\" connection=\"hostConnA\"/>", context, BoxSourceType.BOXTEMPLATE );
+		runtime.executeSource( secondOpen, context, BoxSourceType.BOXTEMPLATE );
+		runtime.executeSource( "<bx:ftp action=\"close\" connection=\"hostConnB\"/>", context, BoxSourceType.BOXTEMPLATE );
+
+		FTPService			ftpService	= ( FTPService ) runtime.getGlobalService( FTPKeys.FTPService );
+		FTPConnectionConfig	config		= new FTPConnectionConfig()
+		    .setServer( variables.getAsString( Key.of( "server" ) ) )
+		    .setPort( Integer.valueOf( variables.getAsString( Key.of( "port" ) ) ) )
+		    .setUsername( variables.getAsString( Key.of( "username" ) ) );
+		HostGovernor		governor	= ftpService.getHostGovernor( config );
+		try {
+			IStruct hostStats = governor.getStats();
+			assertThat( hostStats.getAsInteger( Key.of( "active" ) ) ).isEqualTo( 0 );
+			assertThat( hostStats.getAsLong( Key.of( "timeouts" ) ) ).isAtLeast( 1L );
+		} finally {
+			// Lift the cap for the other tests
+			governor.setMaxConnections( 0 );
+		}
+	}
+
+	@DisplayName( "It halves the host limit on a 421 and grows it back one session at a time" )
+	@Test
+	public void testHostGovernorBackoff() throws Exception {
+		FTPService		ftpService	= ( FTPService ) runtime.getGlobalService( FTPKeys.FTPService );
+		HostGovernor	governor	= new HostGovernor( "backoff@ftp.example.com:21", ftpService.getLogger() )
+		    .setMaxConnections( 4 )
+		    .setRecoveryInterval( Duration.ofMillis( 200 ) );
+		for ( int i = 0; i < 4; i++ ) {
+			governor.acquire( Duration.ofSeconds( 1 ) );
+		}
+
+		// Three sessions were in, the refused one aside: the limit drops to half of them
+		governor.onTooManyConnections();
+		assertThat( governor.getLimit() ).isEqualTo( 1 );
+		// More refusals right after are the same episode
+		governor.onTooManyConnections();
+		assertThat( governor.getStats().getAsLong( Key.of( "backoffs" ) ) ).isEqualTo( 1L );
+		for ( int i = 0; i < 4; i++ ) {
+			governor.release();
+		}
+
+		// Other configs of the host never lift the backed off limit
+		governor.lowerMaxConnections( 8 ).lowerMaxConnections( 0 ).setMaxConnections( 4 );
+		assertThat( governor.getLimit() ).isEqualTo( 1 );
+
+		// One more session per recovery interval, up to the cap
+		governor.onSuccess();
+		assertThat( governor.getLimit() ).isEqualTo( 1 );
+		for ( int expected = 2; expected <= 4; expected++ ) {
+			Thread.sleep( 250 );
+			governor.onSuccess();
+			assertThat( governor.getLimit() ).isEqualTo( expected );
+		}
+		Thread.sleep( 250 );
+		governor.onSuccess();
+		assertThat( governor.getLimit() ).isEqualTo( 4 );
+
+		// A lower cap from another config applies right away, a higher one does not
+		governor.lowerMaxConnections( 2 ).lowerMaxConnections( 3 );
+		assertThat( governor.getLimit() ).isEqualTo( 2 );
+		assertThat( governor.getStats().getAsInteger( Key.of( "maxConnections" ) ) ).isEqualTo( 2 );
+
+		// Only a 421 reply counts, not a message that happens to hold the number
+		assertThat( HostGovernor.isTooManyConnections( new IOException( "Error 421 in file 421.txt" ), null ) ).isFalse();
+	}
+
+	@DisplayName( "It serves the logins waiting for a host slot in arrival order" )
+	@Test
+	public void testHostGovernorFifo() throws Exception {
+		FTPService		ftpService	= ( FTPService ) runtime.getGlobalService( FTPKeys.FTPService );
+		HostGovernor	governor	= new HostGovernor( "fifo@ftp.example.com:21", ftpService.getLogger() ).setMaxConnections( 1 );
+		List<Integer>	served		= new CopyOnWriteArrayList<>();
+		ExecutorService	executor	= Executors.newFixedThreadPool( 5 );
+		governor.acquire( Duration.ofSeconds( 1 ) );
+		try {
+			List<Future<?>> waiters = new ArrayList<>();
+			for ( int i = 0; i < 5; i++ ) {
+				int waiter = i;
+				waiters.add( executor.submit( () -> {
+					governor.acquire( Duration.ofSeconds( 10 ) );
+					served.add( waiter );
+					governor.release();
+				} ) );
+				// Each waiter is in the queue before the next one arrives
+				long deadline = System.currentTimeMillis() + 5000;
+				while ( governor.getStats().getAsInteger( Key.of( "waiting" ) ) < i + 1 && System.currentTimeMillis() < deadline ) {
+					Thread.sleep( 5 );
+				}
+			}
+			assertThat( served ).isEmpty();
+
+			governor.release();
+			for ( Future<?> waiter : waiters ) {
+				waiter.get();
+			}
+			assertThat( served ).containsExactly( 0, 1, 2, 3, 4 ).inOrder();
+			assertThat( governor.getActiveCount() ).isEqualTo( 0 );
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@DisplayName( "It reports attempts, retries only idempotent actions and resumes downloads" )
+	@Test
+	public void testRetryPolicyAndResume() throws Exception {
+		File	fullFile	= new File( "retry_full.txt" );
+		File	partialFile	= new File( "retry_partial.txt" );
+		try {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="open"
+						connection="retryConn"
+						username="#variables.username#"
+						password="#variables.password#"
+						server="#variables.server#"
+						port="#variables.port#"
+						passive="#(variables.ftpMode == 'passive')#"
+						transferMode="binary"
+						retryCount="3"
+						retryDelay="10"/>
+					<bx:ftp action="getfile" connection="retryConn" remoteFile="something.txt" localFile="retry_full.txt" failIfExists="false" result="myResult"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+
+			IStruct ftpResult = variables.getAsStruct( myResultKey );
+			assertThat( ftpResult.getAsBoolean( Key.of( "succeeded" ) ) ).isTrue();
+			assertThat( ftpResult.getAsInteger( Key.of( "attempts" ) ) ).isEqualTo( 1 );
+			assertThat( ftpResult.getAsInteger( Key.of( "retries" ) ) ).isEqualTo( 0 );
+			assertThat( ftpResult.get( Key.of( "elapsed" ) ) ).isNotNull();
+
+			// Only idempotent actions are retried, with the policy the connection was opened with
+			FTPService		ftpService	= ( FTPService ) runtime.getGlobalService( FTPKeys.FTPService );
+			IFTPConnection	connection	= ftpService.getOrBuildConnection( Key.of( "retryConn" ) );
+			RetryPolicy		policy		= RetryPolicy.of( connection.getConfig(), new Struct() );
+			assertThat( policy.getRetryCount() ).isEqualTo( 3 );
+			assertThat( policy.canRetry( "getfile", 0 ) ).isTrue();
+			assertThat( policy.canRetry( "getfile", 3 ) ).isFalse();
+			assertThat( policy.canRetry( "renamefile", 0 ) ).isFalse();
+			assertThat( policy.canRetry( "remove", 0 ) ).isFalse();
+			assertThat( policy.backoff( 2 ).toMillis() ).isIn( Range.closed( 10L, 20L ) );
+
+			// A partial download is completed from where it stopped
+			byte[] full = Files.readAllBytes( fullFile.toPath() );
+			Files.write( partialFile.toPath(), Arrays.copyOf( full, full.length / 2 ) );
+			assertThat( connection.getFile( "something.txt", partialFile.getPath(), true, true ) ).isTrue();
+			assertThat( Files.readAllBytes( partialFile.toPath() ) ).isEqualTo( full );
+
+			runtime.executeSource( "<bx:ftp action=\"close\" connection=\"retryConn\"/>", context, BoxSourceType.BOXTEMPLATE );
+		} finally {
+			fullFile.delete();
+			partialFile.delete();
+		}
+	}
+
+	@DisplayName( "It retries transfers cut in the middle and resumes them where they stopped" )
+	@Test
+	public void testRetryResumesCutTransfers() throws Exception {
+		File	sourceFile	= new File( "retry_source.bin" );
+		File	copyFile	= new File( "retry_copy.bin" );
+		// Every byte value, so a transfer that is not binary shows up
+		byte[]	content		= new byte[ 512 * 1024 ];
+		new Random( 42 ).nextBytes( content );
+		Files.write( sourceFile.toPath(), content );
+
+		try ( FlakyFTPProxy proxy = new FlakyFTPProxy( variables.getAsString( Key.of( "server" ) ),
+		    Integer.parseInt( variables.getAsString( Key.of( "port" ) ) ) ) ) {
+			variables.put( Key.of( "proxyPort" ), proxy.getPort() );
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="open"
+						connection="flakyConn"
+						username="#variables.username#"
+						password="#variables.password#"
+						server="127.0.0.1"
+						port="#variables.proxyPort#"
+						passive="true"
+						transferMode="binary"
+						retryCount="2"
+						retryDelay="100"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+			// Offsets only line up in binary mode
+			assertThat( ( ( IFTPConnection ) variables.get( Key.of( "flakyConn" ) ) ).isBinary() ).isTrue();
+
+			// The upload loses its session after 200KB, the retry appends the rest
+			proxy.failTransfers( 1, 200 * 1024 );
+			runtime.executeSource(
+			    "<bx:ftp action=\"putfile\" connection=\"flakyConn\" localFile=\"retry_source.bin\" remoteFile=\"retry.bin\" result=\"myResult\"/>",
+			    context,
+			    BoxSourceType.BOXTEMPLATE
+			);
+			IStruct ftpResult = variables.getAsStruct( myResultKey );
+			assertThat( proxy.getPendingFailures() ).isEqualTo( 0 );
+			assertThat( ftpResult.getAsBoolean( Key.of( "succeeded" ) ) ).isTrue();
+			assertThat( ftpResult.getAsInteger( Key.of( "attempts" ) ) ).isEqualTo( 2 );
+
+			// The download loses its session after 300KB, the retry restarts at the bytes already written
+			proxy.failTransfers( 1, 300 * 1024 );
+			runtime.executeSource(
+			    "<bx:ftp action=\"getfile\" connection=\"flakyConn\" remoteFile=\"retry.bin\" localFile=\"retry_copy.bin\" failIfExists=\"false\" result=\"myResult\"/>",
+			    context,
+			    BoxSourceType.BOXTEMPLATE
+			);
+			ftpResult = variables.getAsStruct( myResultKey );
+			assertThat( proxy.getPendingFailures() ).isEqualTo( 0 );
+			assertThat( ftpResult.getAsBoolean( Key.of( "succeeded" ) ) ).isTrue();
+			assertThat( ftpResult.getAsInteger( Key.of( "attempts" ) ) ).isEqualTo( 2 );
+			// One session for the open, one per retry
+			assertThat( proxy.getSessions() ).isEqualTo( 3 );
+
+			// Both resumed transfers line up byte for byte
+			assertThat( Files.readAllBytes( copyFile.toPath() ) ).isEqualTo( content );
+
+			runtime.executeSource( "<bx:ftp action=\"close\" connection=\"flakyConn\"/>", context, BoxSourceType.BOXTEMPLATE );
+		} finally {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="open" connection="flakyCleanup" username="#variables.username#" password="#variables.password#" server="#variables.server#" port="#variables.port#" passive="true"/>
+					<bx:ftp action="remove" connection="flakyCleanup" remoteFile="retry.bin" stopOnError="false"/>
+					<bx:ftp action="close" connection="flakyCleanup"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+			sourceFile.delete();
+			copyFile.delete();
+		}
+	}
+
+	@DisplayName( "It replaces an older remote file when a retried upload failed before sending data" )
+	@Test
+	public void testRetryReplacesOlderRemoteFile() throws Exception {
+		File	olderFile	= new File( "retry_older.bin" );
+		File	sourceFile	= new File( "retry_source.bin" );
+		File	copyFile	= new File( "retry_copy.bin" );
+		byte[]	older		= new byte[ 100 * 1024 ];
+		byte[]	content		= new byte[ 512 * 1024 ];
+		new Random( 7 ).nextBytes( older );
+		new Random( 42 ).nextBytes( content );
+		Files.write( olderFile.toPath(), older );
+		Files.write( sourceFile.toPath(), content );
+
+		try ( FlakyFTPProxy proxy = new FlakyFTPProxy( variables.getAsString( Key.of( "server" ) ),
+		    Integer.parseInt( variables.getAsString( Key.of( "port" ) ) ) ) ) {
+			variables.put( Key.of( "proxyPort" ), proxy.getPort() );
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="open"
+						connection="flakyConn"
+						username="#variables.username#"
+						password="#variables.password#"
+						server="127.0.0.1"
+						port="#variables.proxyPort#"
+						passive="true"
+						transferMode="binary"
+						retryCount="2"
+						retryDelay="100"/>
+					<bx:ftp action="putfile" connection="flakyConn" localFile="retry_older.bin" remoteFile="retry.bin"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+
+			// The first attempt fails before the remote file is opened, the older file is still there
+			proxy.refuseTransfers( 1 );
+			runtime.executeSource(
+			    "<bx:ftp action=\"putfile\" connection=\"flakyConn\" localFile=\"retry_source.bin\" remoteFile=\"retry.bin\" result=\"myResult\"/>",
+			    context,
+			    BoxSourceType.BOXTEMPLATE
+			);
+			IStruct ftpResult = variables.getAsStruct( myResultKey );
+			assertThat( proxy.getPendingFailures() ).isEqualTo( 0 );
+			assertThat( ftpResult.getAsBoolean( Key.of( "succeeded" ) ) ).isTrue();
+			assertThat( ftpResult.getAsInteger( Key.of( "attempts" ) ) ).isEqualTo( 2 );
+
+			// The retry started over instead of appending to the older file
+			runtime.executeSource(
+			    "<bx:ftp action=\"getfile\" connection=\"flakyConn\" remoteFile=\"retry.bin\" localFile=\"retry_copy.bin\" failIfExists=\"false\"/>",
+			    context,
+			    BoxSourceType.BOXTEMPLATE
+			);
+			assertThat( Files.readAllBytes( copyFile.toPath() ) ).isEqualTo( content );
+
+			runtime.executeSource( "<bx:ftp action=\"close\" connection=\"flakyConn\"/>", context, BoxSourceType.BOXTEMPLATE );
+		} finally {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="open" connection="flakyCleanup" username="#variables.username#" password="#variables.password#" server="#variables.server#" port="#variables.port#" passive="true"/>
+					<bx:ftp action="remove" connection="flakyCleanup" remoteFile="retry.bin" stopOnError="false"/>
+					<bx:ftp action="close" connection="flakyCleanup"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+			olderFile.delete();
+			sourceFile.delete();
+			copyFile.delete();
+		}
+	}
+
+	@DisplayName( "It retries downloads over the file a failed attempt left, with the default failIfExists" )
+	@Test
+	public void testRetryDownloadKeepsFailIfExists() throws Exception {
+		File			sourceFile	= new File( "retry_text_source.txt" );
+		File			copyFile	= new File( "retry_text_copy.txt" );
+		// Plain LF lines come back the same in ASCII and binary mode
+		StringBuilder	text		= new StringBuilder();
+		for ( int i = 0; i < 20000; i++ ) {
+			text.append( "line " ).append( i ).append( " of a text file\n" );
+		}
+		String content = text.toString();
+		Files.writeString( sourceFile.toPath(), content );
+		copyFile.delete();
+
+		// @formatter:off
+		runtime.executeSource(
+			"""
+				<bx:ftp action="open" connection="flakySetup" username="#variables.username#" password="#variables.password#" server="#variables.server#" port="#variables.port#" passive="true" transferMode="binary"/>
+				<bx:ftp action="putfile" connection="flakySetup" localFile="retry_text_source.txt" remoteFile="retry_text.txt"/>
+				<bx:ftp action="close" connection="flakySetup"/>
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		// @formatter:on
+
+		try ( FlakyFTPProxy proxy = new FlakyFTPProxy( variables.getAsString( Key.of( "server" ) ),
+		    Integer.parseInt( variables.getAsString( Key.of( "port" ) ) ) ) ) {
+			variables.put( Key.of( "proxyPort" ), proxy.getPort() );
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="open"
+						connection="asciiFlaky"
+						username="#variables.username#"
+						password="#variables.password#"
+						server="127.0.0.1"
+						port="#variables.proxyPort#"
+						passive="true"
+						retryCount="2"
+						retryDelay="100"/>
+					<bx:ftp action="open"
+						connection="binaryFlaky"
+						username="#variables.username#"
+						password="#variables.password#"
+						server="127.0.0.1"
+						port="#variables.proxyPort#"
+						passive="true"
+						transferMode="binary"
+						retryCount="2"
+						retryDelay="100"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+
+			// ASCII transfers cannot resume, the retry starts over on the partial file of the first attempt
+			proxy.failTransfers( 1, 100 * 1024 );
+			runtime.executeSource(
+			    "<bx:ftp action=\"getfile\" connection=\"asciiFlaky\" remoteFile=\"retry_text.txt\" localFile=\"retry_text_copy.txt\" result=\"myResult\"/>",
+			    context,
+			    BoxSourceType.BOXTEMPLATE
+			);
+			IStruct ftpResult = variables.getAsStruct( myResultKey );
+			assertThat( proxy.getPendingFailures() ).isEqualTo( 0 );
+			assertThat( ftpResult.getAsBoolean( Key.of( "succeeded" ) ) ).isTrue();
+			assertThat( ftpResult.getAsInteger( Key.of( "attempts" ) ) ).isEqualTo( 2 );
+			assertThat( Files.readString( copyFile.toPath() ) ).isEqualTo( content );
+
+			// A binary transfer refused before its first data byte starts over on the empty file it left
+			copyFile.delete();
+			proxy.refuseTransfers( 1 );
+			runtime.executeSource(
+			    "<bx:ftp action=\"getfile\" connection=\"binaryFlaky\" remoteFile=\"retry_text.txt\" localFile=\"retry_text_copy.txt\" result=\"myResult\"/>",
+			    context,
+			    BoxSourceType.BOXTEMPLATE
+			);
+			ftpResult = variables.getAsStruct( myResultKey );
+			assertThat( proxy.getPendingFailures() ).isEqualTo( 0 );
+			assertThat( ftpResult.getAsBoolean( Key.of( "succeeded" ) ) ).isTrue();
+			assertThat( ftpResult.getAsInteger( Key.of( "attempts" ) ) ).isEqualTo( 2 );
+			assertThat( Files.readString( copyFile.toPath() ) ).isEqualTo( content );
+
+			// A file that was there before the action is still protected
+			assertThrows( BoxRuntimeException.class, () -> runtime.executeSource(
+			    "<bx:ftp action=\"getfile\" connection=\"binaryFlaky\" remoteFile=\"retry_text.txt\" localFile=\"retry_text_copy.txt\"/>",
+			    context,
+			    BoxSourceType.BOXTEMPLATE
+			) );
+
+			runtime.executeSource(
+			    """
+			    <bx:ftp action="close" connection="asciiFlaky"/>
+			    <bx:ftp action="close" connection="binaryFlaky"/>
+			    """,
+			    context,
+			    BoxSourceType.BOXTEMPLATE
+			);
+		} finally {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="open" connection="flakyCleanup" username="#variables.username#" password="#variables.password#" server="#variables.server#" port="#variables.port#" passive="true"/>
+					<bx:ftp action="remove" connection="flakyCleanup" remoteFile="retry_text.txt" stopOnError="false"/>
+					<bx:ftp action="close" connection="flakyCleanup"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+			sourceFile.delete();
+			copyFile.delete();
+		}
+	}
+
+	@DisplayName( "It reuses resolved server addresses and connects to the first one that answers" )
+	@Test
+	public void testHostResolver() throws Exception {
+		FTPService		ftpService	= ( FTPService ) runtime.getGlobalService( FTPKeys.FTPService );
+		HostResolver	resolver	= ftpService.getHostResolver();
+		String			server		= ( String ) variables.get( Key.of( "server" ) );
+		int				port		= Integer.parseInt( ( String ) variables.get( Key.of( "port" ) ) );
+		resolver.invalidate( server );
+		long hits = resolver.getStats().getAsLong( Key.of( "hits" ) );
+
+		// @formatter:off
+		runtime.executeSource(
+			"""
+				<bx:ftp action="open" connection="resolverA" username="#variables.username#" password="#variables.password#" server="#variables.server#" port="#variables.port#" passive="#(variables.ftpMode == 'passive')#"/>
+				<bx:ftp action="open" connection="resolverB" username="#variables.username#" password="#variables.password#" server="#variables.server#" port="#variables.port#" passive="#(variables.ftpMode == 'passive')#"/>
+				<bx:ftp action="listdir" connection="resolverB" directory="/" name="result"/>
+				<bx:ftp action="close" connection="resolverA"/>
+				<bx:ftp action="close" connection="resolverB"/>
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		// @formatter:on
+
+		// The second open found the addresses of the first one
+		assertThat( variables.get( result ) ).isInstanceOf( Query.class );
+		assertThat( resolver.getStats().getAsLong( Key.of( "hits" ) ) ).isGreaterThan( hits );
+
+		try ( Socket socket = resolver.connect( server, port, Duration.ofSeconds( 5 ) ) ) {
+			assertThat( socket.isConnected() ).isTrue();
+		}
+
+		// Addresses that cannot be reached are looked up again on the next connect
+		long misses = resolver.getStats().getAsLong( Key.of( "misses" ) );
+		assertThrows( IOException.class, () -> resolver.connect( server, 1, Duration.ofSeconds( 2 ) ) );
+		resolver.resolve( server );
+		assertThat( resolver.getStats().getAsLong( Key.of( "misses" ) ) ).isGreaterThan( misses );
+	}
+
+	@DisplayName( "It tries the addresses of a host alternating between IPv6 and IPv4" )
+	@Test
+	public void testHostResolverInterleave() throws Exception {
+		InetAddress	v6a	= InetAddress.getByName( "2001:db8::1" );
+		InetAddress	v6b	= InetAddress.getByName( "2001:db8::2" );
+		InetAddress	v6c	= InetAddress.getByName( "2001:db8::3" );
+		InetAddress	v4a	= InetAddress.getByName( "192.0.2.1" );
+		InetAddress	v4b	= InetAddress.getByName( "192.0.2.2" );
+
+		// The first address sets the family tried first, the order within a family is kept
+		assertThat( HostResolver.interleave( new InetAddress[] { v6a, v6b, v6c, v4a, v4b } ) )
+		    .containsExactly( v6a, v4a, v6b, v4b, v6c ).inOrder();
+		assertThat( HostResolver.interleave( new InetAddress[] { v4a, v6a, v6b, v4b } ) )
+		    .containsExactly( v4a, v6a, v4b, v6b ).inOrder();
+		assertThat( HostResolver.interleave( new InetAddress[] { v4b, v4a } ) ).containsExactly( v4b, v4a ).inOrder();
+		assertThat( HostResolver.interleave( new InetAddress[] { v6a } ) ).containsExactly( v6a );
+	}
+
+	@DisplayName( "It falls back past a first address that refuses or never answers" )
+	@Test
+	public void testHostResolverRace() throws Exception {
+		HostResolver	resolver	= new HostResolver().setAttemptDelay( Duration.ofMillis( 100 ) );
+		InetAddress		loopback	= InetAddress.getByName( "127.0.0.1" );
+		try ( ServerSocket listener = new ServerSocket( 0, 50, loopback ) ) {
+			int port = listener.getLocalPort();
+
+			// Nothing listens on the port of the first address, its attempt fails right away
+			try ( Socket socket = resolver.connect( List.of( InetAddress.getByName( "127.0.0.2" ), loopback ), port, Duration.ofSeconds( 5 ) ) ) {
+				assertThat( socket.getInetAddress() ).isEqualTo( loopback );
+			}
+
+			// A documentation address drops the handshake, the next address starts after the attempt delay
+			long started = System.nanoTime();
+			try ( Socket socket = resolver.connect( List.of( InetAddress.getByName( "192.0.2.1" ), loopback ), port, Duration.ofSeconds( 10 ) ) ) {
+				assertThat( socket.getInetAddress() ).isEqualTo( loopback );
+			}
+			assertThat( Duration.ofNanos( System.nanoTime() - started ) ).isLessThan( Duration.ofSeconds( 5 ) );
+			assertThat( resolver.getStats().getAsLong( Key.of( "races" ) ) ).isEqualTo( 2L );
+			assertThat( resolver.getStats().getAsLong( Key.of( "fallbacks" ) ) ).isEqualTo( 2L );
+
+			// When every address fails the last failure is reported
+			assertThrows( IOException.class,
+			    () -> resolver.connect( List.of( InetAddress.getByName( "127.0.0.2" ), InetAddress.getByName( "127.0.0.3" ) ), port, Duration.ofSeconds( 2 ) ) );
+		}
+	}
+
+	@DisplayName( "It runs actions in the background and joins them" )
+	@Test
+	public void testAsyncActions() throws Exception {
+		File	first	= new File( "async_a.txt" );
+		File	second	= new File( "async_b.txt" );
+		try {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="open"
+						connection="asyncPool"
+						username="#variables.username#"
+						password="#variables.password#"
+						server="#variables.server#"
+						port="#variables.port#"
+						passive="#(variables.ftpMode == 'passive')#"
+						pool="true"
+						poolMaxSize="2"/>
+					<bx:ftp action="getfile" connection="asyncPool" remoteFile="something.txt" localFile="async_a.txt" failIfExists="false" async="true" result="a"/>
+					<bx:ftp action="getfile" connection="asyncPool" remoteFile="file_a.txt" localFile="async_b.txt" failIfExists="false" async="true" result="b"/>
+					<bx:set results = FTPAwait( [ a, b ], 30000 )>
+					<bx:set progress = a.getProgress()>
+					<bx:ftp action="close" connection="asyncPool"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+
+			assertThat( variables.get( Key.of( "a" ) ) ).isInstanceOf( FTPTransfer.class );
+			Array results = variables.getAsArray( Key.of( "results" ) );
+			assertThat( results.size() ).isEqualTo( 2 );
+			for ( Object item : results ) {
+				assertThat( ( ( IStruct ) item ).getAsBoolean( Key.of( "succeeded" ) ) ).isTrue();
+			}
+			assertThat( first.length() ).isGreaterThan( 0L );
+			assertThat( second.length() ).isGreaterThan( 0L );
+
+			// The download reported its bytes as they went through
+			IStruct progress = variables.getAsStruct( Key.of( "progress" ) );
+			assertThat( progress.getAsBoolean( Key.of( "done" ) ) ).isTrue();
+			assertThat( progress.getAsLong( Key.of( "transferred" ) ) ).isEqualTo( first.length() );
+			assertThat( ( ( FTPTransfer ) variables.get( Key.of( "a" ) ) ).cancel() ).isFalse();
+		} finally {
+			first.delete();
+			second.delete();
+		}
+	}
+
+	@DisplayName( "It can download a batch of files over several pooled sessions" )
+	@Test
+	public void testGetFiles() throws Exception {
+		File target = Files.createTempDirectory( "bxftp-batch" ).toFile();
+		variables.put( Key.of( "target" ), target.getAbsolutePath() );
+		try {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="open"
+						connection="batchPool"
+						username="#variables.username#"
+						password="#variables.password#"
+						server="#variables.server#"
+						port="#variables.port#"
+						passive="#(variables.ftpMode == 'passive')#"
+						pool="true"
+						poolMaxSize="2"/>
+					<bx:ftp action="getFiles" connection="batchPool" files="#[ 'something.txt', 'file_a.txt', 'missing.txt' ]#" localDir="#variables.target#" concurrency="2" name="transfers" result="batchResult"/>
+					<bx:ftp action="close" connection="batchPool"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+
+			Query transfers = ( Query ) variables.get( Key.of( "transfers" ) );
+			assertThat( transfers.size() ).isEqualTo( 3 );
+			assertThat( transfers.getRowAsStruct( 0 ).getAsString( Key.status ) ).isEqualTo( "ok" );
+			assertThat( transfers.getRowAsStruct( 1 ).getAsString( Key.status ) ).isEqualTo( "ok" );
+			// A missing file is reported, it does not fail the batch
+			assertThat( transfers.getRowAsStruct( 2 ).getAsString( Key.status ) ).isEqualTo( "failed" );
+			assertThat( new File( target, "something.txt" ).length() )
+			    .isEqualTo( transfers.getRowAsStruct( 0 ).get( Key.of( "bytes" ) ) );
+
+			IStruct totals = variables.getAsStruct( Key.of( "batchResult" ) ).getAsStruct( Key.of( "totals" ) );
+			assertThat( totals.get( "succeeded" ) ).isEqualTo( 2 );
+			assertThat( totals.get( "failed" ) ).isEqualTo( 1 );
+		} finally {
+			for ( File file : target.listFiles() ) {
+				file.delete();
+			}
+			target.delete();
+		}
+	}
+
+	@DisplayName( "It can download a remote directory tree" )
+	@Test
+	public void testGetDir() throws Exception {
+		File target = Files.createTempDirectory( "bxftp-mirror" ).toFile();
+		variables.put( Key.of( "target" ), target.getAbsolutePath() );
+		try {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="open"
+						connection="mirrorPool"
+						username="#variables.username#"
+						password="#variables.password#"
+						server="#variables.server#"
+						port="#variables.port#"
+						passive="#(variables.ftpMode == 'passive')#"
+						pool="true"
+						poolMaxSize="3"/>
+					<bx:ftp action="getDir" connection="mirrorPool" localDir="#variables.target#" include="*.md" failIfExists="false" name="mirrored" result="mirrorResult"/>
+					<bx:ftp action="close" connection="mirrorPool"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+
+			// Only the markdown file is downloaded, into the local copy of its directory
+			Query mirrored = ( Query ) variables.get( Key.of( "mirrored" ) );
+			assertThat( mirrored.size() ).isEqualTo( 1 );
+			assertThat( mirrored.getRowAsStruct( 0 ).getAsString( Key._name ) ).isEqualTo( "a_sub_folder/a-sub-file.md" );
+			assertThat( mirrored.getRowAsStruct( 0 ).getAsString( Key.status ) ).isEqualTo( "ok" );
+			assertThat( new File( target, "a_sub_folder/a-sub-file.md" ).isFile() ).isTrue();
+			assertThat( new File( target, "something.txt" ).exists() ).isFalse();
+
+			IStruct totals = variables.getAsStruct( Key.of( "mirrorResult" ) ).getAsStruct( Key.of( "totals" ) );
+			assertThat( totals.get( "files" ) ).isEqualTo( 1 );
+			assertThat( ( Integer ) totals.get( "directories" ) ).isAtLeast( 1 );
+		} finally {
+			try ( Stream<Path> tree = Files.walk( target.toPath() ) ) {
+				tree.sorted( Comparator.reverseOrder() ).map( Path::toFile ).forEach( File::delete );
+			}
+		}
+	}
+
+	@DisplayName( "It can upload a local directory tree, creating each remote directory once" )
+	@Test
+	public void testPutDir() throws Exception {
+		Path source = Files.createTempDirectory( "bxftp-putdir" );
+		Files.createDirectories( source.resolve( "nested/deeper" ) );
+		Files.writeString( source.resolve( "top.txt" ), "top" );
+		Files.writeString( source.resolve( "nested/deeper/leaf.txt" ), "leaf" );
+		Files.writeString( source.resolve( "nested/skip.tmp" ), "skip" );
+		variables.put( Key.of( "source" ), source.toString() );
+		try {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="open"
+						connection="putDirConn"
+						username="#variables.username#"
+						password="#variables.password#"
+						server="#variables.server#"
+						port="#variables.port#"
+						passive="#(variables.ftpMode == 'passive')#"/>
+					<bx:ftp action="putDir" connection="putDirConn" localDir="#variables.source#" remoteDir="putdir_test" exclude="*.tmp" name="uploaded" result="first"/>
+					<bx:ftp action="putDir" connection="putDirConn" localDir="#variables.source#" remoteDir="putdir_test" exclude="*.tmp" result="second"/>
+					<bx:ftp action="existsFile" connection="putDirConn" remoteFile="putdir_test/nested/deeper/leaf.txt" result="leaf"/>
+					<bx:ftp action="remove" connection="putDirConn" remoteFile="putdir_test/nested/deeper/leaf.txt"/>
+					<bx:ftp action="remove" connection="putDirConn" remoteFile="putdir_test/top.txt"/>
+					<bx:ftp action="removeDir" connection="putDirConn" directory="putdir_test/nested/deeper"/>
+					<bx:ftp action="removeDir" connection="putDirConn" directory="putdir_test/nested"/>
+					<bx:ftp action="removeDir" connection="putDirConn" directory="putdir_test"/>
+					<bx:ftp action="close" connection="putDirConn"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+
+			Query uploaded = ( Query ) variables.get( Key.of( "uploaded" ) );
+			assertThat( uploaded.size() ).isEqualTo( 2 );
+			assertThat( variables.getAsStruct( Key.of( "leaf" ) ).getAsBoolean( Key.of( "returnValue" ) ) ).isTrue();
+
+			// The first run creates the three directories, the second finds them all in place
+			IStruct	first	= variables.getAsStruct( Key.of( "first" ) ).getAsStruct( Key.of( "totals" ) );
+			IStruct	second	= variables.getAsStruct( Key.of( "second" ) ).getAsStruct( Key.of( "totals" ) );
+			assertThat( first.get( "directories" ) ).isEqualTo( 3 );
+			assertThat( first.get( "succeeded" ) ).isEqualTo( 2 );
+			assertThat( second.get( "directories" ) ).isEqualTo( 0 );
+			assertThat( second.get( "succeeded" ) ).isEqualTo( 2 );
+		} finally {
+			try ( Stream<Path> tree = Files.walk( source ) ) {
+				tree.sorted( Comparator.reverseOrder() ).map( Path::toFile ).forEach( File::delete );
+			}
+		}
+	}
+
+	@DisplayName( "It can sync a directory tree both ways, moving only new or changed files" )
+	@Test
+	public void testSync() throws Exception {
+		Path	source	= Files.createTempDirectory( "bxftp-sync" );
+		Path	target	= Files.createTempDirectory( "bxftp-sync-copy" );
+		Files.createDirectories( source.resolve( "sub" ) );
+		Files.writeString( source.resolve( "a.txt" ), "aaa" );
+		Files.writeString( source.resolve( "sub/b.txt" ), "bbbb" );
+		variables.put( Key.of( "source" ), source.toString() );
+		variables.put( Key.of( "target" ), target.toString() );
+		try {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="open"
+						connection="syncConn"
+						username="#variables.username#"
+						password="#variables.password#"
+						server="#variables.server#"
+						port="#variables.port#"
+						passive="#(variables.ftpMode == 'passive')#"/>
+					<bx:ftp action="sync" connection="syncConn" direction="upload" localDir="#variables.source#" remoteDir="sync_test" dryRun="true" name="plan" result="planned"/>
+					<bx:ftp action="existsDir" connection="syncConn" directory="sync_test" result="afterPlan"/>
+					<bx:ftp action="sync" connection="syncConn" direction="upload" localDir="#variables.source#" remoteDir="sync_test" result="uploaded"/>
+					<bx:ftp action="sync" connection="syncConn" direction="upload" localDir="#variables.source#" remoteDir="sync_test" result="again"/>
+					<bx:ftp action="sync" connection="syncConn" localDir="#variables.target#" remoteDir="sync_test" result="downloaded"/>
+					<bx:ftp action="sync" connection="syncConn" localDir="#variables.target#" remoteDir="sync_test" result="downloadedAgain"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+
+			Query plan = ( Query ) variables.get( Key.of( "plan" ) );
+			assertThat( plan.size() ).isEqualTo( 2 );
+			assertThat( variables.getAsStruct( Key.of( "afterPlan" ) ).getAsBoolean( Key.of( "returnValue" ) ) ).isFalse();
+
+			IStruct planned = variables.getAsStruct( Key.of( "planned" ) ).getAsStruct( Key.of( "totals" ) );
+			assertThat( planned.get( "planned" ) ).isEqualTo( 2 );
+			assertThat( planned.get( "bytes" ) ).isEqualTo( 7L );
+
+			IStruct uploaded = variables.getAsStruct( Key.of( "uploaded" ) ).getAsStruct( Key.of( "totals" ) );
+			assertThat( uploaded.get( "succeeded" ) ).isEqualTo( 2 );
+
+			// Unchanged files are not moved again, in either direction
+			IStruct again = variables.getAsStruct( Key.of( "again" ) ).getAsStruct( Key.of( "totals" ) );
+			assertThat( again.get( "files" ) ).isEqualTo( 0 );
+			assertThat( again.get( "unchanged" ) ).isEqualTo( 2 );
+			IStruct downloaded = variables.getAsStruct( Key.of( "downloaded" ) ).getAsStruct( Key.of( "totals" ) );
+			assertThat( downloaded.get( "succeeded" ) ).isEqualTo( 2 );
+			assertThat( Files.readString( target.resolve( "sub/b.txt" ) ) ).isEqualTo( "bbbb" );
+			IStruct downloadedAgain = variables.getAsStruct( Key.of( "downloadedAgain" ) ).getAsStruct( Key.of( "totals" ) );
+			assertThat( downloadedAgain.get( "files" ) ).isEqualTo( 0 );
+
+			// Files removed locally are removed remotely with delete, the emptied directory last
+			Files.delete( source.resolve( "sub/b.txt" ) );
+			Files.delete( source.resolve( "sub" ) );
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="sync" connection="syncConn" direction="upload" localDir="#variables.source#" remoteDir="sync_test" delete="true" name="pruned" result="deleted"/>
+					<bx:ftp action="existsDir" connection="syncConn" directory="sync_test/sub" result="subExists"/>
+					<bx:ftp action="remove" connection="syncConn" remoteFile="sync_test/a.txt"/>
+					<bx:ftp action="removeDir" connection="syncConn" directory="sync_test"/>
+					<bx:ftp action="close" connection="syncConn"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+
+			IStruct deleted = variables.getAsStruct( Key.of( "deleted" ) ).getAsStruct( Key.of( "totals" ) );
+			assertThat( deleted.get( "files" ) ).isEqualTo( 2 );
+			assertThat( deleted.get( "succeeded" ) ).isEqualTo( 2 );
+			assertThat( variables.getAsStruct( Key.of( "subExists" ) ).getAsBoolean( Key.of( "returnValue" ) ) ).isFalse();
+		} finally {
+			for ( Path root : List.of( source, target ) ) {
+				try ( Stream<Path> tree = Files.walk( root ) ) {
+					tree.sorted( Comparator.reverseOrder() ).map( Path::toFile ).forEach( File::delete );
+				}
+			}
+		}
+	}
+
+	@DisplayName( "It can download a large file in segments over pooled sessions, resuming from a checkpoint" )
+	@Test
+	public void testSegmentedGetFile() throws Exception {
+		Path	directory	= Files.createTempDirectory( "bxftp-segmented" );
+		Path	source		= directory.resolve( "source.bin" );
+		Path	target		= directory.resolve( "target.bin" );
+		Path	partial		= directory.resolve( "partial.bin" );
+		// Letters only, the upload must not depend on the transfer mode
+		byte[]	content		= new byte[ 2_621_440 ];
+		for ( int i = 0; i < content.length; i++ ) {
+			content[ i ] = ( byte ) ( 'a' + i % 26 );
+		}
+		Files.write( source, content );
+
+		// A previous download stopped after its first segment
+		byte[] firstSegment = new byte[ content.length ];
+		System.arraycopy( content, 0, firstSegment, 0, 1_048_576 );
+		Files.write( partial, firstSegment );
+		Files.writeString(
+		    directory.resolve( "partial.bin.bxftp-checkpoint" ),
+		    "remoteFile=segmented_test.bin\nsize=" + content.length + "\nsegmentSize=1048576\ncompleted=01\n"
+		);
+
+		variables.put( Key.of( "source" ), source.toString() );
+		variables.put( Key.of( "target" ), target.toString() );
+		variables.put( Key.of( "partial" ), partial.toString() );
+		try {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="open"
+						connection="segmentPool"
+						username="#variables.username#"
+						password="#variables.password#"
+						server="#variables.server#"
+						port="#variables.port#"
+						passive="#(variables.ftpMode == 'passive')#"
+						pool="true"
+						poolMaxSize="3"/>
+					<bx:ftp action="putFile" connection="segmentPool" localFile="#variables.source#" remoteFile="segmented_test.bin"/>
+					<bx:ftp action="getFile" connection="segmentPool" remoteFile="segmented_test.bin" localFile="#variables.target#" segmented="true" segmentSize="1048576" concurrency="3" name="segments" result="downloaded"/>
+					<bx:ftp action="getFile" connection="segmentPool" remoteFile="segmented_test.bin" localFile="#variables.partial#" segmented="true" segmentSize="1048576" result="resumed"/>
+					<bx:ftp action="remove" connection="segmentPool" remoteFile="segmented_test.bin"/>
+					<bx:ftp action="close" connection="segmentPool"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+
+			assertThat( Files.readAllBytes( target ) ).isEqualTo( content );
+			assertThat( ( ( Query ) variables.get( Key.of( "segments" ) ) ).size() ).isEqualTo( 3 );
+			IStruct downloaded = variables.getAsStruct( Key.of( "downloaded" ) ).getAsStruct( Key.of( "totals" ) );
+			assertThat( downloaded.get( "segments" ) ).isEqualTo( 3 );
+			assertThat( downloaded.get( "succeeded" ) ).isEqualTo( 3 );
+			assertThat( downloaded.get( "bytes" ) ).isEqualTo( ( long ) content.length );
+			assertThat( Files.exists( directory.resolve( "target.bin.bxftp-checkpoint" ) ) ).isFalse();
+
+			// Only the two missing segments are fetched, and the checkpoint is dropped once complete
+			assertThat( Files.readAllBytes( partial ) ).isEqualTo( content );
+			IStruct resumed = variables.getAsStruct( Key.of( "resumed" ) ).getAsStruct( Key.of( "totals" ) );
+			assertThat( resumed.get( "resumedSegments" ) ).isEqualTo( 1 );
+			assertThat( resumed.get( "succeeded" ) ).isEqualTo( 2 );
+			assertThat( Files.exists( directory.resolve( "partial.bin.bxftp-checkpoint" ) ) ).isFalse();
+		} finally {
+			try ( Stream<Path> tree = Files.walk( directory ) ) {
+				tree.sorted( Comparator.reverseOrder() ).map( Path::toFile ).forEach( File::delete );
+			}
+		}
+	}
+
+	@DisplayName( "It can resume partial downloads and uploads, starting over when the tail does not match" )
+	@Test
+	public void testResume() throws Exception {
+		Path	directory	= Files.createTempDirectory( "bxftp-resume" );
+		Path	source		= directory.resolve( "source.txt" );
+		Path	partial		= directory.resolve( "partial.txt" );
+		Path	stale		= directory.resolve( "stale.txt" );
+		Path	uploaded	= directory.resolve( "uploaded.txt" );
+		String	content		= "0123456789".repeat( 1000 );
+		Files.writeString( source, content );
+		Files.writeString( partial, content.substring( 0, 4000 ) );
+		Files.writeString( stale, "x".repeat( 4000 ) );
+		Files.writeString( directory.resolve( "head.txt" ), content.substring( 0, 3000 ) );
+		variables.put( Key.of( "directory" ), directory.toString() );
+		try {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="open"
+						connection="resumeConn"
+						username="#variables.username#"
+						password="#variables.password#"
+						server="#variables.server#"
+						port="#variables.port#"
+						passive="#(variables.ftpMode == 'passive')#"
+						transferMode="binary"/>
+					<bx:ftp action="putFile" connection="resumeConn" localFile="#variables.directory#/source.txt" remoteFile="resume_test.txt"/>
+					<bx:ftp action="getFile" connection="resumeConn" remoteFile="resume_test.txt" localFile="#variables.directory#/partial.txt" resume="true" verifyTail="64" result="resumedDownload"/>
+					<bx:ftp action="getFile" connection="resumeConn" remoteFile="resume_test.txt" localFile="#variables.directory#/stale.txt" resume="true" verifyTail="64"/>
+					<bx:ftp action="putFile" connection="resumeConn" localFile="#variables.directory#/head.txt" remoteFile="resume_up.txt"/>
+					<bx:ftp action="putFile" connection="resumeConn" localFile="#variables.directory#/source.txt" remoteFile="resume_up.txt" resume="true" verifyTail="64" result="resumedUpload"/>
+					<bx:ftp action="getFile" connection="resumeConn" remoteFile="resume_up.txt" localFile="#variables.directory#/uploaded.txt"/>
+					<bx:ftp action="remove" connection="resumeConn" remoteFile="resume_test.txt"/>
+					<bx:ftp action="remove" connection="resumeConn" remoteFile="resume_up.txt"/>
+					<bx:ftp action="close" connection="resumeConn"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+
+			assertThat( variables.getAsStruct( Key.of( "resumedDownload" ) ).getAsBoolean( Key.of( "succeeded" ) ) ).isTrue();
+			assertThat( Files.readString( partial ) ).isEqualTo( content );
+			// The stale partial file is not a prefix of the remote file, it is replaced
+			assertThat( Files.readString( stale ) ).isEqualTo( content );
+			assertThat( variables.getAsStruct( Key.of( "resumedUpload" ) ).getAsBoolean( Key.of( "succeeded" ) ) ).isTrue();
+			assertThat( Files.readString( uploaded ) ).isEqualTo( content );
+		} finally {
+			try ( Stream<Path> tree = Files.walk( directory ) ) {
+				tree.sorted( Comparator.reverseOrder() ).map( Path::toFile ).forEach( File::delete );
+			}
+		}
+	}
+
+	@DisplayName( "It replaces a remote file longer than the local one instead of resuming onto it" )
+	@Test
+	public void testResumeOverLongerRemoteFile() throws Exception {
+		Path	directory	= Files.createTempDirectory( "bxftp-resume-longer" );
+		Path	head		= directory.resolve( "head.txt" );
+		Path	copy		= directory.resolve( "copy.txt" );
+		String	content		= "0123456789".repeat( 1000 );
+		Files.writeString( directory.resolve( "source.txt" ), content );
+		Files.writeString( head, content.substring( 0, 3000 ) );
+		variables.put( Key.of( "directory" ), directory.toString() );
+		try {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="open"
+						connection="longerConn"
+						username="#variables.username#"
+						password="#variables.password#"
+						server="#variables.server#"
+						port="#variables.port#"
+						passive="#(variables.ftpMode == 'passive')#"
+						transferMode="binary"/>
+					<bx:ftp action="putFile" connection="longerConn" localFile="#variables.directory#/source.txt" remoteFile="resume_longer.txt"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+
+			IFTPConnection connection = ( IFTPConnection ) variables.get( Key.of( "longerConn" ) );
+			assertThat( connection.putFile( head.toString(), "resume_longer.txt", true ) ).isTrue();
+			assertThat( connection.getFileSize( "resume_longer.txt" ) ).isEqualTo( 3000L );
+			connection.getFile( "resume_longer.txt", copy.toString(), false );
+			assertThat( Files.readString( copy ) ).isEqualTo( content.substring( 0, 3000 ) );
+		} finally {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="remove" connection="longerConn" remoteFile="resume_longer.txt" stopOnError="false"/>
+					<bx:ftp action="close" connection="longerConn"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+			try ( Stream<Path> tree = Files.walk( directory ) ) {
+				tree.sorted( Comparator.reverseOrder() ).map( Path::toFile ).forEach( File::delete );
+			}
+		}
+	}
+
+	@DisplayName( "It refuses to resume transfers on an FTP connection in ASCII mode" )
+	@Test
+	public void testResumeNeedsBinary() throws Exception {
+		Path	directory	= Files.createTempDirectory( "bxftp-resume-ascii" );
+		Path	partial		= directory.resolve( "partial.txt" );
+		// Line endings an ASCII transfer may translate, so partial sizes are no byte offsets
+		String	content		= "a line of text\r\n".repeat( 500 );
+		Files.writeString( directory.resolve( "source.txt" ), content );
+		Files.writeString( partial, content.substring( 0, 3000 ) );
+		variables.put( Key.of( "directory" ), directory.toString() );
+		try {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="open"
+						connection="asciiConn"
+						username="#variables.username#"
+						password="#variables.password#"
+						server="#variables.server#"
+						port="#variables.port#"
+						passive="#(variables.ftpMode == 'passive')#"/>
+					<bx:ftp action="putFile" connection="asciiConn" localFile="#variables.directory#/source.txt" remoteFile="resume_ascii.txt"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+			assertThat( ( ( IFTPConnection ) variables.get( Key.of( "asciiConn" ) ) ).isBinary() ).isFalse();
+
+			BoxRuntimeException e = assertThrows( BoxRuntimeException.class, () -> runtime.executeSource(
+			    """
+			    <bx:ftp action="getFile" connection="asciiConn" remoteFile="resume_ascii.txt" localFile="#variables.directory#/partial.txt" resume="true"/>
+			    """,
+			    context,
+			    BoxSourceType.BOXTEMPLATE
+			) );
+			assertThat( e.getMessage() ).contains( "transferMode=binary" );
+			// The partial file is left as it was
+			assertThat( Files.readString( partial ) ).isEqualTo( content.substring( 0, 3000 ) );
+
+			e = assertThrows( BoxRuntimeException.class, () -> runtime.executeSource(
+			    """
+			    <bx:ftp action="putFile" connection="asciiConn" localFile="#variables.directory#/source.txt" remoteFile="resume_ascii.txt" resume="true"/>
+			    """,
+			    context,
+			    BoxSourceType.BOXTEMPLATE
+			) );
+			assertThat( e.getMessage() ).contains( "transferMode=binary" );
+
+			// Through the connection itself as well
+			IFTPConnection connection = ( IFTPConnection ) variables.get( Key.of( "asciiConn" ) );
+			assertThrows( BoxRuntimeException.class, () -> connection.getFile( "resume_ascii.txt", partial.toString(), false, true ) );
+			assertThat( Files.readString( partial ) ).isEqualTo( content.substring( 0, 3000 ) );
+		} finally {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="remove" connection="asciiConn" remoteFile="resume_ascii.txt" stopOnError="false"/>
+					<bx:ftp action="close" connection="asciiConn"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+			try ( Stream<Path> tree = Files.walk( directory ) ) {
+				tree.sorted( Comparator.reverseOrder() ).map( Path::toFile ).forEach( File::delete );
+			}
+		}
+	}
+
+	@DisplayName( "It can download a file into memory or a caller stream, within maxBytes" )
+	@Test
+	public void testGetFileIntoMemory() throws Exception {
+		Path					source	= Files.createTempFile( "bxftp-memory", ".csv" );
+		String					content	= "id,name\n1,Zoë\n2,Åsa\n";
+		ByteArrayOutputStream	out		= new ByteArrayOutputStream();
+		Files.writeString( source, content, StandardCharsets.UTF_8 );
+		variables.put( Key.of( "source" ), source.toString() );
+		variables.put( Key.of( "out" ), out );
+		try {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="open"
+						connection="memoryConn"
+						username="#variables.username#"
+						password="#variables.password#"
+						server="#variables.server#"
+						port="#variables.port#"
+						passive="#(variables.ftpMode == 'passive')#"/>
+					<bx:ftp action="putFile" connection="memoryConn" localFile="#variables.source#" remoteFile="memory_test.csv"/>
+					<bx:ftp action="getFile" connection="memoryConn" remoteFile="memory_test.csv" returnAs="string" charset="UTF-8" name="csv"/>
+					<bx:ftp action="getFile" connection="memoryConn" remoteFile="memory_test.csv" returnAs="binary" result="binaryResult"/>
+					<bx:ftp action="getFile" connection="memoryConn" remoteFile="memory_test.csv" outputStream="#variables.out#" result="streamResult"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+
+			assertThat( variables.getAsString( Key.of( "csv" ) ) ).isEqualTo( content );
+			assertThat( ( byte[] ) variables.getAsStruct( Key.of( "binaryResult" ) ).get( Key.of( "returnValue" ) ) )
+			    .isEqualTo( content.getBytes( StandardCharsets.UTF_8 ) );
+			assertThat( variables.getAsStruct( Key.of( "streamResult" ) ).get( Key.of( "returnValue" ) ) )
+			    .isEqualTo( ( long ) content.getBytes( StandardCharsets.UTF_8 ).length );
+			assertThat( out.toString( StandardCharsets.UTF_8 ) ).isEqualTo( content );
+
+			BoxRuntimeException e = assertThrows( BoxRuntimeException.class, () -> runtime.executeSource(
+			    """
+			    <bx:ftp action="getFile" connection="memoryConn" remoteFile="memory_test.csv" returnAs="binary" maxBytes="8"/>
+			    """,
+			    context,
+			    BoxSourceType.BOXTEMPLATE
+			) );
+			assertThat( e.getMessage() ).contains( "maxBytes=8" );
+		} finally {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="remove" connection="memoryConn" remoteFile="memory_test.csv"/>
+					<bx:ftp action="close" connection="memoryConn"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+			Files.deleteIfExists( source );
+		}
+	}
+
+	@DisplayName( "It streams a file to a response chunk by chunk, and survives a response that goes away" )
+	@Test
+	public void testGetFileStreamsToResponse() throws Exception {
+		String					content		= "0123456789abcdef".repeat( 20_000 );
+		int[]					flushes		= new int[ 1 ];
+		ByteArrayOutputStream	received	= new ByteArrayOutputStream() {
+
+												@Override
+												public void flush() {
+													flushes[ 0 ]++;
+												}
+											};
+		variables.put( Key.of( "content" ), content );
+		variables.put( Key.of( "response" ), new Response( received ) );
+		variables.put( Key.of( "gone" ), new Response( new OutputStream() {
+
+			@Override
+			public void write( int b ) throws IOException {
+				throw new IOException( "Broken pipe" );
+			}
+		} ) );
+		try {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="open"
+						connection="streamConn"
+						username="#variables.username#"
+						password="#variables.password#"
+						server="#variables.server#"
+						port="#variables.port#"
+						passive="#(variables.ftpMode == 'passive')#"/>
+					<bx:ftp action="putFile" connection="streamConn" content="#variables.content#" remoteFile="stream_test.txt"/>
+					<bx:ftp action="getFile" connection="streamConn" remoteFile="stream_test.txt" outputStream="#variables.response#" result="streamResult"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+
+			assertThat( variables.getAsStruct( Key.of( "streamResult" ) ).get( Key.of( "returnValue" ) ) ).isEqualTo( ( long ) content.length() );
+			assertThat( received.toString( StandardCharsets.UTF_8 ) ).isEqualTo( content );
+			assertThat( flushes[ 0 ] ).isGreaterThan( 1 );
+
+			assertThrows( BoxRuntimeException.class, () -> runtime.executeSource(
+			    """
+			    <bx:ftp action="getFile" connection="streamConn" remoteFile="stream_test.txt" outputStream="#variables.gone#"/>
+			    """,
+			    context,
+			    BoxSourceType.BOXTEMPLATE
+			) );
+
+			// The reply to the broken transfer was read, the next command gets its own
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="getFile" connection="streamConn" remoteFile="stream_test.txt" returnAs="string" name="again"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+			assertThat( variables.getAsString( Key.of( "again" ) ) ).isEqualTo( content );
+		} finally {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="remove" connection="streamConn" remoteFile="stream_test.txt"/>
+					<bx:ftp action="close" connection="streamConn"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+		}
+	}
+
+	@DisplayName( "It can read a remote file line by line into a callback, and stop early" )
+	@Test
+	public void testReadLines() {
+		StringBuilder content = new StringBuilder();
+		for ( int line = 1; line <= 1000; line++ ) {
+			content.append( "line-" ).append( line ).append( "\n" );
+		}
+		variables.put( Key.of( "content" ), content.toString() );
+		try {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="open"
+						connection="linesConn"
+						username="#variables.username#"
+						password="#variables.password#"
+						server="#variables.server#"
+						port="#variables.port#"
+						passive="#(variables.ftpMode == 'passive')#"/>
+					<bx:ftp action="putFile" connection="linesConn" content="#variables.content#" remoteFile="lines_test.txt"/>
+					<bx:script>
+						batches = [];
+						collect = ( lines, first ) => { batches.append( first & ":" & lines.len() ); };
+						seen = [];
+						firstFive = ( line, number ) => { seen.append( line ); return number < 5; };
+					</bx:script>
+					<bx:ftp action="readLines" connection="linesConn" remoteFile="lines_test.txt" batchSize="300" callback="#collect#" result="batchResult"/>
+					<bx:ftp action="readLines" connection="linesConn" remoteFile="lines_test.txt" callback="#firstFive#" result="stopResult"/>
+					<bx:ftp action="getFile" connection="linesConn" remoteFile="lines_test.txt" returnAs="string" name="again"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+
+			IStruct batchResult = variables.getAsStruct( Key.of( "batchResult" ) ).getAsStruct( Key.of( "returnValue" ) );
+			assertThat( batchResult.get( Key.of( "lines" ) ) ).isEqualTo( 1000L );
+			assertThat( batchResult.get( Key.of( "stopped" ) ) ).isEqualTo( false );
+			assertThat( variables.getAsArray( Key.of( "batches" ) ) ).containsExactly( "1:300", "301:300", "601:300", "901:100" ).inOrder();
+
+			IStruct stopResult = variables.getAsStruct( Key.of( "stopResult" ) ).getAsStruct( Key.of( "returnValue" ) );
+			assertThat( stopResult.get( Key.of( "lines" ) ) ).isEqualTo( 5L );
+			assertThat( stopResult.get( Key.of( "stopped" ) ) ).isEqualTo( true );
+			assertThat( variables.getAsArray( Key.of( "seen" ) ) ).containsExactly( "line-1", "line-2", "line-3", "line-4", "line-5" ).inOrder();
+
+			// The transfer closed early was answered, the connection is still in step
+			assertThat( variables.getAsString( Key.of( "again" ) ) ).isEqualTo( content.toString() );
+		} finally {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="remove" connection="linesConn" remoteFile="lines_test.txt"/>
+					<bx:ftp action="close" connection="linesConn"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+		}
+	}
+
+	/**
+	 * Stands for a web response, which hands out its body stream
+	 */
+	public static class Response {
+
+		private final OutputStream out;
+
+		public Response( OutputStream out ) {
+			this.out = out;
+		}
+
+		public OutputStream getOutputStream() {
+			return this.out;
+		}
+	}
 }
@@ -18,22 +18,44 @@
 package ortus.boxlang.ftp.components;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+
+import com.jcraft.jsch.Identity;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.KeyPair;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
 
 import ortus.boxlang.compiler.parser.BoxSourceType;
 import ortus.boxlang.ftp.BaseIntegrationTest;
+import ortus.boxlang.ftp.FTPKeys;
+import ortus.boxlang.ftp.IFTPConnection;
+import ortus.boxlang.ftp.IdentityCache;
+import ortus.boxlang.ftp.LatencyProxy;
+import ortus.boxlang.ftp.RemoteFileChannel;
+import ortus.boxlang.ftp.SFTPTransferSettings;
+import ortus.boxlang.ftp.services.FTPService;
 import ortus.boxlang.runtime.scopes.Key;
 import ortus.boxlang.runtime.types.Array;
 import ortus.boxlang.runtime.types.IStruct;
 import ortus.boxlang.runtime.types.Query;
+import ortus.boxlang.runtime.types.exceptions.BoxRuntimeException;
 
 /**
  * Integration tests for SFTP functionality
@@ -571,4 +593,524 @@ public class SFTPTest extends BaseIntegrationTest {
 		    BoxSourceType.BOXTEMPLATE
 		);
 	}
+
+	@DisplayName( "It can multiplex pooled SFTP sessions over one SSH session" )
+	@Test
+	public void testMultiplexedPool() {
+		// @formatter:off
+		runtime.executeSource(
+			"""
+				<bx:ftp action="open"
+					connection="muxConn"
+					username="#variables.username#"
+					password="#variables.password#"
+					server="#variables.server#"
+					port="#variables.sftpPort#"
+					secure="true"
+					pool="true"
+					poolMinIdle="2"
+					multiplex="true"
+					maxChannels="4"
+					result="myResult"/>
+				<bx:ftp action="listdir" connection="muxConn" directory="." name="result"/>
+				<bx:set stats = muxConn.getStats()>
+				<bx:ftp action="close" connection="muxConn"/>
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		// @formatter:on
+
+		IStruct myResult = variables.getAsStruct( myResultKey );
+		assertThat( myResult.getAsBoolean( Key.of( "succeeded" ) ) ).isTrue();
+		assertThat( variables.get( result ) ).isInstanceOf( Query.class );
+
+		IStruct	stats			= variables.getAsStruct( Key.of( "stats" ) );
+		IStruct	sharedSession	= stats.getAsStruct( Key.of( "sharedSession" ) );
+		assertThat( stats.getAsBoolean( Key.of( "multiplexed" ) ) ).isTrue();
+		assertThat( sharedSession.getAsInteger( Key.of( "maxChannels" ) ) ).isEqualTo( 4 );
+		assertThat( sharedSession.getAsInteger( Key.of( "openChannels" ) ) ).isAtMost( 4 );
+	}
+
+	@DisplayName( "It keeps borrowing pooled sessions after the working directory of the pool is removed" )
+	@Test
+	public void testPoolWorkingDirectoryRemoved() {
+		// @formatter:off
+		runtime.executeSource(
+			"""
+				<bx:ftp action="open"
+					connection="sftpConn"
+					username="#variables.username#"
+					password="#variables.password#"
+					server="#variables.server#"
+					port="#variables.sftpPort#"
+					secure="true"/>
+				<bx:ftp action="open"
+					connection="goneDirPool"
+					username="#variables.username#"
+					password="#variables.password#"
+					server="#variables.server#"
+					port="#variables.sftpPort#"
+					secure="true"
+					pool="true"
+					poolMaxSize="1"
+					poolMaxIdle="0"
+					poolMaxWait="2"/>
+				<bx:ftp action="removeDir" connection="sftpConn" directory="pool_gone_dir" stopOnError=false />
+				<bx:ftp action="createDir" connection="sftpConn" new="pool_gone_dir" stopOnError=true />
+				<bx:ftp action="changedir" connection="goneDirPool" directory="pool_gone_dir"/>
+				<bx:ftp action="removeDir" connection="sftpConn" directory="pool_gone_dir" stopOnError=true />
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		// @formatter:on
+
+		// The next session cannot be moved into the removed directory
+		assertThrows( BoxRuntimeException.class, () -> runtime.executeSource(
+		    """
+		    <bx:ftp action="existsdir" connection="goneDirPool" directory="a_sub_folder"/>
+		    """,
+		    context,
+		    BoxSourceType.BOXTEMPLATE
+		) );
+
+		// Its slot was given back, so later borrows neither fail nor time out
+		// @formatter:off
+		runtime.executeSource(
+			"""
+				<bx:loop from="1" to="3" index="i">
+					<bx:ftp action="existsdir" connection="goneDirPool" directory="a_sub_folder" result="myResult"/>
+				</bx:loop>
+				<bx:set stats = goneDirPool.getStats()>
+				<bx:ftp action="close" connection="goneDirPool"/>
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		// @formatter:on
+
+		IStruct myResult = variables.getAsStruct( myResultKey );
+		assertThat( myResult.getAsBoolean( Key.of( "succeeded" ) ) ).isTrue();
+		assertThat( myResult.getAsBoolean( Key.of( "returnValue" ) ) ).isTrue();
+
+		IStruct stats = variables.getAsStruct( Key.of( "stats" ) );
+		assertThat( stats.getAsString( Key.of( "workingDirectory" ) ) ).isEmpty();
+		assertThat( stats.getAsInteger( Key.of( "open" ) ) ).isEqualTo( 0 );
+		assertThat( stats.getAsLong( Key.of( "timeouts" ) ) ).isEqualTo( 0L );
+	}
+
+	@DisplayName( "It parses and decrypts a private key once and reloads it when the file changes" )
+	@Test
+	public void testIdentityCache() throws Exception {
+		File keyFile = File.createTempFile( "bxftp_key", ".pem" );
+		try {
+			KeyPair keyPair = KeyPair.genKeyPair( new JSch(), KeyPair.RSA, 2048 );
+			keyPair.writePrivateKey( keyFile.getAbsolutePath(), "secret".getBytes() );
+
+			IdentityCache	cache	= new IdentityCache();
+			Identity		first	= cache.get( keyFile.getAbsolutePath(), "secret" );
+			assertThat( first.isEncrypted() ).isFalse();
+			assertThat( first.getAlgName() ).isEqualTo( "ssh-rsa" );
+			assertThat( cache.get( keyFile.getAbsolutePath(), "secret" ) ).isSameInstanceAs( first );
+
+			// A changed key file is parsed again
+			keyFile.setLastModified( keyFile.lastModified() - 10_000 );
+			assertThat( cache.get( keyFile.getAbsolutePath(), "secret" ) ).isNotSameInstanceAs( first );
+
+			IStruct stats = cache.getStats();
+			assertThat( stats.getAsLong( Key.of( "hits" ) ) ).isEqualTo( 1L );
+			assertThat( stats.getAsLong( Key.of( "misses" ) ) ).isEqualTo( 2L );
+
+			BoxRuntimeException e = assertThrows( BoxRuntimeException.class, () -> cache.get( keyFile.getAbsolutePath(), "wrong" ) );
+			assertThat( e.getMessage() ).contains( "passphrase does not decrypt" );
+		} finally {
+			keyFile.delete();
+		}
+	}
+
+	@DisplayName( "It shares one SSH session between connection names of the same account that opt in" )
+	@Test
+	public void testSharedSessionAcrossConnections() {
+		FTPService	ftpService	= ( FTPService ) runtime.getGlobalService( FTPKeys.FTPService );
+		int			before		= countReferences( ftpService.getSSHSessionStats() );
+
+		// @formatter:off
+		runtime.executeSource(
+			"""
+				<bx:ftp action="open" connection="sharedA" username="#variables.username#" password="#variables.password#" server="#variables.server#" port="#variables.sftpPort#" secure="true" shareSession="true"/>
+				<bx:ftp action="open" connection="sharedB" username="#variables.username#" password="#variables.password#" server="#variables.server#" port="#variables.sftpPort#" secure="true" shareSession="true"/>
+				<bx:ftp action="open" connection="dedicatedC" username="#variables.username#" password="#variables.password#" server="#variables.server#" port="#variables.sftpPort#" secure="true"/>
+				<bx:ftp action="listdir" connection="sharedB" directory="." name="result"/>
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		// @formatter:on
+
+		assertThat( variables.get( result ) ).isInstanceOf( Query.class );
+		// Both opted in connections ride on the one session of the account, the other logged in on its own
+		assertThat( countReferences( ftpService.getSSHSessionStats() ) ).isEqualTo( before + 2 );
+
+		// @formatter:off
+		runtime.executeSource(
+			"""
+				<bx:ftp action="close" connection="sharedA"/>
+				<bx:ftp action="close" connection="sharedB"/>
+				<bx:ftp action="close" connection="dedicatedC"/>
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		// @formatter:on
+
+		assertThat( countReferences( ftpService.getSSHSessionStats() ) ).isEqualTo( before );
+	}
+
+	@DisplayName( "It can upload a large file in segments written at their offsets, through a temp file" )
+	@Test
+	public void testSegmentedPutFile() throws Exception {
+		Path	source	= Files.createTempFile( "bxftp-segmented", ".bin" );
+		Path	copy	= Files.createTempFile( "bxftp-segmented-copy", ".bin" );
+		byte[]	content	= new byte[ 2_621_440 ];
+		new Random( 42 ).nextBytes( content );
+		Files.write( source, content );
+		Files.delete( copy );
+		variables.put( Key.of( "source" ), source.toString() );
+		variables.put( Key.of( "copy" ), copy.toString() );
+		try {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="open"
+						connection="segmentPool"
+						username="#variables.username#"
+						password="#variables.password#"
+						server="#variables.server#"
+						port="#variables.sftpPort#"
+						secure="true"
+						pool="true"
+						poolMaxSize="3"/>
+					<bx:ftp action="putFile" connection="segmentPool" localFile="#variables.source#" remoteFile="segmented_upload.bin" segmented="true" segmentSize="1048576" concurrency="3" useTempFile="true" result="uploaded"/>
+					<bx:ftp action="existsFile" connection="segmentPool" remoteFile="segmented_upload.bin.part" result="tempLeft"/>
+					<bx:ftp action="getFile" connection="segmentPool" remoteFile="segmented_upload.bin" localFile="#variables.copy#"/>
+					<bx:ftp action="remove" connection="segmentPool" remoteFile="segmented_upload.bin"/>
+					<bx:ftp action="close" connection="segmentPool"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+
+			IStruct uploaded = variables.getAsStruct( Key.of( "uploaded" ) ).getAsStruct( Key.of( "totals" ) );
+			assertThat( uploaded.get( "segments" ) ).isEqualTo( 3 );
+			assertThat( uploaded.get( "succeeded" ) ).isEqualTo( 3 );
+			assertThat( variables.getAsStruct( Key.of( "tempLeft" ) ).getAsBoolean( Key.of( "returnValue" ) ) ).isFalse();
+			assertThat( Files.readAllBytes( copy ) ).isEqualTo( content );
+		} finally {
+			Files.deleteIfExists( source );
+			Files.deleteIfExists( copy );
+		}
+	}
+
+	@DisplayName( "It replaces a remote file longer than the local one instead of resuming onto it" )
+	@Test
+	public void testResumeOverLongerRemoteFile() throws Exception {
+		Path	head	= Files.createTempFile( "bxftp-resume-head", ".txt" );
+		Path	copy	= Files.createTempFile( "bxftp-resume-copy", ".txt" );
+		String	content	= "0123456789".repeat( 1000 );
+		Files.writeString( head, content.substring( 0, 3000 ) );
+		variables.put( Key.of( "content" ), content );
+		try {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="open" connection="longerConn" username="#variables.username#" password="#variables.password#" server="#variables.server#" port="#variables.sftpPort#" secure="true"/>
+					<bx:ftp action="putFile" connection="longerConn" content="#variables.content#" remoteFile="resume_longer.txt"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+
+			IFTPConnection connection = ( IFTPConnection ) variables.get( Key.of( "longerConn" ) );
+			assertThat( connection.putFile( head.toString(), "resume_longer.txt", true ) ).isTrue();
+			assertThat( connection.getFileSize( "resume_longer.txt" ) ).isEqualTo( 3000L );
+			connection.getFile( "resume_longer.txt", copy.toString(), false );
+			assertThat( Files.readString( copy ) ).isEqualTo( content.substring( 0, 3000 ) );
+		} finally {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="remove" connection="longerConn" remoteFile="resume_longer.txt" stopOnError="false"/>
+					<bx:ftp action="close" connection="longerConn"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+			Files.deleteIfExists( head );
+			Files.deleteIfExists( copy );
+		}
+	}
+
+	@DisplayName( "It opens SFTP channels with the transfer profile of the connection" )
+	@Test
+	public void testTransferProfile() {
+		// @formatter:off
+		runtime.executeSource(
+			"""
+				<bx:ftp action="open"
+					connection="bdpConn"
+					username="#variables.username#"
+					password="#variables.password#"
+					server="#variables.server#"
+					port="#variables.sftpPort#"
+					secure="true"
+					shareSession="false"
+					transferProfile="highBDP"
+					bulkRequests="32"/>
+				<bx:ftp action="getfile" connection="bdpConn" remoteFile="something.txt" localFile="something_bdp.txt" failIfExists="false" result="myResult"/>
+				<bx:set transferSettings = bdpConn.getMetadata().transferSettings>
+				<bx:set fileDelete( "something_bdp.txt" ) />
+				<bx:ftp action="close" connection="bdpConn"/>
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		// @formatter:on
+
+		assertThat( variables.getAsStruct( myResultKey ).getAsBoolean( Key.of( "succeeded" ) ) ).isTrue();
+		IStruct transferSettings = variables.getAsStruct( Key.of( "transferSettings" ) );
+		assertThat( transferSettings.getAsString( Key.of( "transferProfile" ) ) ).isEqualTo( SFTPTransferSettings.PROFILE_HIGH_BDP );
+		assertThat( transferSettings.getAsInteger( Key.of( "bulkRequests" ) ) ).isEqualTo( 32 );
+		assertThat( transferSettings.getAsInteger( Key.of( "windowSize" ) ) ).isEqualTo( SFTPTransferSettings.HIGH_BDP_WINDOW_SIZE );
+	}
+
+	@DisplayName( "It can upload a string, a byte array or an InputStream without a local file" )
+	@Test
+	public void testPutFileFromContent() {
+		byte[] binary = new byte[ 70_000 ];
+		new Random( 7 ).nextBytes( binary );
+		variables.put( Key.of( "binary" ), binary );
+		variables.put( Key.of( "stream" ), new ByteArrayInputStream( "streamed body".getBytes( StandardCharsets.UTF_8 ) ) );
+
+		// @formatter:off
+		runtime.executeSource(
+			"""
+				<bx:ftp action="open" connection="contentConn" username="#variables.username#" password="#variables.password#" server="#variables.server#" port="#variables.sftpPort#" secure="true"/>
+				<bx:ftp action="putFile" connection="contentConn" content="Zoë;Åsa" charset="UTF-8" remoteFile="content_string.txt" result="stringResult"/>
+				<bx:ftp action="putFile" connection="contentConn" content="#variables.binary#" remoteFile="content_binary.bin"/>
+				<bx:ftp action="putFile" connection="contentConn" content="#variables.stream#" remoteFile="content_stream.txt"/>
+				<bx:ftp action="getFile" connection="contentConn" remoteFile="content_string.txt" returnAs="string" name="stringBack"/>
+				<bx:ftp action="getFile" connection="contentConn" remoteFile="content_binary.bin" returnAs="binary" name="binaryBack"/>
+				<bx:ftp action="getFile" connection="contentConn" remoteFile="content_stream.txt" returnAs="string" name="streamBack"/>
+				<bx:ftp action="remove" connection="contentConn" remoteFile="content_string.txt"/>
+				<bx:ftp action="remove" connection="contentConn" remoteFile="content_binary.bin"/>
+				<bx:ftp action="remove" connection="contentConn" remoteFile="content_stream.txt"/>
+				<bx:ftp action="close" connection="contentConn"/>
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		// @formatter:on
+
+		assertThat( variables.getAsStruct( Key.of( "stringResult" ) ).getAsBoolean( Key.of( "succeeded" ) ) ).isTrue();
+		assertThat( variables.getAsString( Key.of( "stringBack" ) ) ).isEqualTo( "Zoë;Åsa" );
+		assertThat( ( byte[] ) variables.get( Key.of( "binaryBack" ) ) ).isEqualTo( binary );
+		assertThat( variables.getAsString( Key.of( "streamBack" ) ) ).isEqualTo( "streamed body" );
+	}
+
+	@DisplayName( "It can read a byte range of a file, from its start or its end" )
+	@Test
+	public void testGetFileRange() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		variables.put( Key.of( "content" ), "0123456789".repeat( 10_000 ) );
+		variables.put( Key.of( "out" ), out );
+
+		// @formatter:off
+		runtime.executeSource(
+			"""
+				<bx:ftp action="open" connection="rangeConn" username="#variables.username#" password="#variables.password#" server="#variables.server#" port="#variables.sftpPort#" secure="true"/>
+				<bx:ftp action="putFile" connection="rangeConn" content="#variables.content#" remoteFile="range_test.txt"/>
+				<bx:ftp action="getFile" connection="rangeConn" remoteFile="range_test.txt" offset="0" length="16" returnAs="string" name="head"/>
+				<bx:ftp action="getFile" connection="rangeConn" remoteFile="range_test.txt" offset="-4" returnAs="string" name="tail"/>
+				<bx:ftp action="getFile" connection="rangeConn" remoteFile="range_test.txt" offset="99995" length="100" name="pastEnd"/>
+				<bx:ftp action="getFile" connection="rangeConn" remoteFile="range_test.txt" offset="50003" length="10" outputStream="#variables.out#" result="streamResult"/>
+				<bx:ftp action="remove" connection="rangeConn" remoteFile="range_test.txt"/>
+				<bx:ftp action="close" connection="rangeConn"/>
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		// @formatter:on
+
+		assertThat( variables.getAsString( Key.of( "head" ) ) ).isEqualTo( "0123456789012345" );
+		assertThat( variables.getAsString( Key.of( "tail" ) ) ).isEqualTo( "6789" );
+		assertThat( ( byte[] ) variables.get( Key.of( "pastEnd" ) ) ).isEqualTo( "56789".getBytes( StandardCharsets.UTF_8 ) );
+		assertThat( variables.getAsStruct( Key.of( "streamResult" ) ).get( Key.of( "returnValue" ) ) ).isEqualTo( 10L );
+		assertThat( out.toString( StandardCharsets.UTF_8 ) ).isEqualTo( "3456789012" );
+	}
+
+	@DisplayName( "It can read a remote file through a seekable channel, fetching only the blocks it touches" )
+	@Test
+	public void testOpenChannel() throws Exception {
+		byte[] content = new byte[ 300_000 ];
+		new Random( 11 ).nextBytes( content );
+		variables.put( Key.of( "content" ), content );
+
+		// @formatter:off
+		runtime.executeSource(
+			"""
+				<bx:ftp action="open" connection="channelConn" username="#variables.username#" password="#variables.password#" server="#variables.server#" port="#variables.sftpPort#" secure="true"/>
+				<bx:ftp action="putFile" connection="channelConn" content="#variables.content#" remoteFile="channel_test.bin"/>
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		// @formatter:on
+
+		IFTPConnection connection = ( IFTPConnection ) variables.get( Key.of( "channelConn" ) );
+		try ( RemoteFileChannel channel = connection.openChannel( "channel_test.bin" ) ) {
+			assertThat( channel.size() ).isEqualTo( content.length );
+
+			// Like a ZIP reader looking for its end of central directory record
+			ByteBuffer tail = ByteBuffer.allocate( 22 );
+			channel.position( content.length - 22 );
+			channel.read( tail );
+			assertThat( tail.array() ).isEqualTo( Arrays.copyOfRange( content, content.length - 22, content.length ) );
+			assertThat( channel.getStats().get( Key.of( "fetches" ) ) ).isEqualTo( 1L );
+			assertThat( ( Long ) channel.getStats().get( Key.of( "bytesFetched" ) ) ).isAtMost( ( long ) RemoteFileChannel.DEFAULT_BLOCK_SIZE );
+
+			// A scan from the start reads ahead, and stops at the block already cached
+			ByteBuffer whole = ByteBuffer.allocate( content.length );
+			channel.position( 0 );
+			while ( whole.hasRemaining() && channel.read( whole ) > 0 ) {
+				// Keep reading
+			}
+			assertThat( whole.array() ).isEqualTo( content );
+			assertThat( channel.getStats().get( Key.of( "fetches" ) ) ).isEqualTo( 2L );
+			assertThat( channel.getStats().get( Key.of( "bytesFetched" ) ) ).isEqualTo( ( long ) content.length );
+		} finally {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="remove" connection="channelConn" remoteFile="channel_test.bin"/>
+					<bx:ftp action="close" connection="channelConn"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+		}
+	}
+
+	/**
+	 * Run with BXFTP_BENCHMARK=true. Reports the throughput of each profile over a simulated
+	 * 100 ms round trip, where the default profile is capped by its 512KB in flight.
+	 */
+	@DisplayName( "Benchmark: the highBDP profile moves files faster over a 100 ms link" )
+	@EnabledIfEnvironmentVariable( named = "BXFTP_BENCHMARK", matches = "true" )
+	@Test
+	public void benchmarkTransferProfiles() throws Exception {
+		Path	source	= Files.createTempFile( "bxftp-benchmark", ".bin" );
+		Path	copy	= Files.createTempFile( "bxftp-benchmark-copy", ".bin" );
+		byte[]	content	= new byte[ 16 * 1024 * 1024 ];
+		new Random( 42 ).nextBytes( content );
+		Files.write( source, content );
+		variables.put( Key.of( "source" ), source.toString() );
+		variables.put( Key.of( "copy" ), copy.toString() );
+
+		// @formatter:off
+		runtime.executeSource(
+			"""
+				<bx:ftp action="open" connection="benchSetup" username="#variables.username#" password="#variables.password#" server="#variables.server#" port="#variables.sftpPort#" secure="true"/>
+				<bx:ftp action="putfile" connection="benchSetup" localFile="#variables.source#" remoteFile="benchmark.bin"/>
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		// @formatter:on
+
+		try ( LatencyProxy proxy = new LatencyProxy( variables.getAsString( Key.of( "server" ) ),
+		    Integer.parseInt( variables.getAsString( Key.of( "sftpPort" ) ) ), Duration.ofMillis( 50 ) ) ) {
+			variables.put( Key.of( "proxyPort" ), proxy.getPort() );
+
+			double[]	defaults	= benchmark( SFTPTransferSettings.PROFILE_DEFAULT, content.length );
+			assertThat( Files.readAllBytes( copy ) ).isEqualTo( content );
+			double[]	highBDP		= benchmark( SFTPTransferSettings.PROFILE_HIGH_BDP, content.length );
+			assertThat( Files.readAllBytes( copy ) ).isEqualTo( content );
+
+			System.out.printf( "SFTP over a 100 ms round trip, 16MB file%n" );
+			System.out.printf( "  default : download %6.2f MB/s, upload %6.2f MB/s%n", defaults[ 0 ], defaults[ 1 ] );
+			System.out.printf( "  highBDP : download %6.2f MB/s, upload %6.2f MB/s%n", highBDP[ 0 ], highBDP[ 1 ] );
+			assertThat( highBDP[ 0 ] ).isGreaterThan( defaults[ 0 ] );
+			assertThat( highBDP[ 1 ] ).isGreaterThan( defaults[ 1 ] );
+		} finally {
+			// @formatter:off
+			runtime.executeSource(
+				"""
+					<bx:ftp action="remove" connection="benchSetup" remoteFile="benchmark.bin"/>
+					<bx:ftp action="close" connection="benchSetup"/>
+			    """,
+				context,
+				BoxSourceType.BOXTEMPLATE
+			);
+			// @formatter:on
+			Files.deleteIfExists( source );
+			Files.deleteIfExists( copy );
+		}
+	}
+
+	/**
+	 * Download then upload the benchmark file through the proxy with a profile
+	 *
+	 * @return The download and upload throughput in MB/s
+	 */
+	private double[] benchmark( String profile, long size ) {
+		variables.put( Key.of( "profile" ), profile );
+		// @formatter:off
+		runtime.executeSource(
+			"""
+				<bx:ftp action="open" connection="bench" username="#variables.username#" password="#variables.password#" server="#variables.server#" port="#variables.proxyPort#" secure="true" shareSession="false" transferProfile="#variables.profile#"/>
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		long download = System.nanoTime();
+		runtime.executeSource(
+			"""
+				<bx:ftp action="getfile" connection="bench" remoteFile="benchmark.bin" localFile="#variables.copy#" failIfExists="false"/>
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		download = System.nanoTime() - download;
+		long upload = System.nanoTime();
+		runtime.executeSource(
+			"""
+				<bx:ftp action="putfile" connection="bench" localFile="#variables.source#" remoteFile="benchmark_up.bin"/>
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		upload = System.nanoTime() - upload;
+		runtime.executeSource(
+			"""
+				<bx:ftp action="remove" connection="bench" remoteFile="benchmark_up.bin"/>
+				<bx:ftp action="close" connection="bench"/>
+		    """,
+			context,
+			BoxSourceType.BOXTEMPLATE
+		);
+		// @formatter:on
+		double megabytes = size / 1024.0 / 1024.0;
+		return new double[] { megabytes / ( download / 1e9 ), megabytes / ( upload / 1e9 ) };
+	}
+
+	private static int countReferences( IStruct sessions ) {
+		return sessions.values().stream()
+		    .mapToInt( session -> ( ( IStruct ) session ).getAsInteger( Key.of( "references" ) ) )
+		    .sum();
+	}
 }